@@ -125,6 +125,24 @@ public class AddCreditTransactionTest {
 
     }
 
+    /**
+     * Tests that the daily limit is restored once the market's day ends, without the user being registered for it
+     */
+    @Test
+    public void dailyLimitResets() throws VaporException {
+        userHelper(1000);
+        ((AddCreditTransaction) getTransaction("001000.00")).execute(market);
+        ((AddCreditTransaction) getTransaction("000001.00")).execute(market);
+        assertEquals(101000, market.getUser("Dinodaddy#").getCredit());
+        assertEquals(0, market.getUser("Dinodaddy#").getDailyCreditAvailability());
+
+        market.endDay();
+        assertEquals(100000, market.getUser("Dinodaddy#").getDailyCreditAvailability());
+        ((AddCreditTransaction) getTransaction("000001.00")).execute(market);
+        assertEquals(101100, market.getUser("Dinodaddy#").getCredit());
+        assertEquals(100000 - 100, market.getUser("Dinodaddy#").getDailyCreditAvailability());
+    }
+
     /**
      * Test for the case where user's credit is at the limit and credit is being added.
      */
@@ -0,0 +1,98 @@
+package test;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+
+import vapor.BalanceTable;
+import vapor.Market;
+import vapor.MarketSnapshot;
+import vapor.exceptions.VaporException;
+import vapor.users.AdminUser;
+import vapor.users.BuyerUser;
+import vapor.users.User;
+
+/**
+ * Tests the functionality of BalanceTable.java
+ */
+public class BalanceTableTest {
+
+    @TempDir
+    Path directory;
+
+    Market market;
+
+    /**
+     * Creates a market holding a few users
+     */
+    @BeforeEach
+    public void setup() throws VaporException{
+        market = new Market();
+        for (int i = 0; i < 10; i++)
+            market.forceAddUser(new BuyerUser("balance user " + i, 100 * i));
+    }
+
+    /**
+     * Tests that a user's balances are held in its row of the table while it is
+     * in the market, and in its own fields once removed
+     */
+    @Test
+    public void test_attach() throws VaporException{
+        User user = market.getUser("balance user 3");
+        BalanceTable balances = market.getBalances();
+        int row = balances.getSymbols().id("balance user 3");
+
+        assertTrue(user.isAttached(balances));
+        assertEquals(10, balances.size());
+        user.charge(50);
+        user.addCredit(20);
+        assertEquals(270, balances.getCredit(row));
+        assertEquals(100000 - 20, balances.getAllowance(row));
+        assertEquals(4500 - 30, market.getTotalCredit());
+
+        market.loginUser(new AdminUser("balance admin", 5));
+        market.removeUser(user);
+        assertFalse(user.isAttached(balances));
+        assertEquals(0, balances.getCredit(row));
+        assertEquals(270, user.getCredit());
+        assertEquals(100000 - 20, user.getDailyCreditAvailability());
+        assertEquals(4500 - 300, market.getTotalCredit());
+    }
+
+    /**
+     * Tests that the users of a loaded market which were not accessed are
+     * scanned without being loaded
+     */
+    @Test
+    public void test_snapshot() throws IOException, VaporException{
+        File file = directory.resolve("market.ser").toFile();
+        MarketSnapshot.write(market, file);
+
+        Market loaded = MarketSnapshot.read(file);
+        loaded.getUser("balance user 1").forceAddCredit(1);
+        assertEquals(4501, loaded.getTotalCredit());
+        assertEquals(10, loaded.getBalances().size());
+        loaded.getUser("balance user 9").forceAddCredit(1);
+        assertEquals(4502, loaded.getTotalCredit());
+    }
+
+    /**
+     * Tests that balances written to a file are read back under their usernames
+     */
+    @Test
+    public void test_file() throws IOException, VaporException{
+        File file = directory.resolve("market.balances").toFile();
+        market.getUser("balance user 2").addCredit(5);
+        market.exportBalances(file.getPath());
+
+        BalanceTable read = BalanceTable.read(file);
+        int row = read.getSymbols().id("balance user 2");
+        assertEquals(10, read.size());
+        assertEquals(4505, read.getTotalCredit());
+        assertEquals(205, read.getCredit(row));
+        assertEquals(100000 - 5, read.getAllowance(row));
+    }
+}
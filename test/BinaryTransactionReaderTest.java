@@ -0,0 +1,71 @@
+package test;
+
+import org.junit.jupiter.api.*;
+import vapor.exceptions.*;
+import vapor.transactions.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the functionality of BinaryTransactionWriter.java and BinaryTransactionReader.java
+ */
+public class BinaryTransactionReaderTest {
+    String[] records;
+    File log;
+
+    /**
+     * Creates records of every format and a file for the binary log
+     */
+    @BeforeEach
+    public void setup() throws IOException {
+        records = new String[]{
+                "00 UUUUUUUUUUUUUUU AA 000010.00",
+                "01 Dinodaddy#      FS 999999.99",
+                "03 Smash Bros                Dinodaddy#      10.05 010.00",
+                "04 Smash Bros                Dinodaddy#      UUUUUUUUUUUUUUU",
+                "05 BBBBBBBBBBBBB   Dinodaddy#      000010.00",
+                "08 Smash Bros                Dinodaddy#      _______________",
+                "09 Smash Bros                Dinodaddy#      UUUUUUUUUUUUUUU",
+                "10 UUUUUUUUUUUUUUU AA 000010.00"};
+        log = Files.createTempFile("daily", ".bin").toFile();
+    }
+
+    /**
+     * Tests that a converted log replays the same transactions and records
+     */
+    @Test
+    public void test_roundTrip() throws IOException {
+        String source = String.join("\n", records) + "\nnot a record\n";
+        assertEquals(records.length + 1, BinaryTransactionWriter.convert(new BufferedReader(new StringReader(source)), log));
+
+        BinaryTransactionReader reader = BinaryTransactionReader.open(log);
+        for (String record : records) {
+            assertTrue(reader.hasNext());
+            Transaction transaction = reader.next();
+            try {
+                Transaction parsed = new TransactionBuilder(record).parse();
+                assertEquals(parsed.getClass(), transaction.getClass());
+                assertEquals(parsed.getType(), transaction.getType());
+                assertEquals(record, transaction.getRecord());
+            } catch (final VaporException e) {
+                fail(e.getError());
+            }
+        }
+        assertFalse(reader.hasNext());
+        assertTrue(log.length() < source.length());
+    }
+
+    /**
+     * Removes the binary log
+     */
+    @AfterEach
+    public void reset() {
+        log.delete();
+    }
+}
@@ -0,0 +1,67 @@
+package test;
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import vapor.CompressedBitmap;
+
+/**
+ * Tests the functionality of CompressedBitmap.java
+ */
+public class CompressedBitmapTest {
+
+    CompressedBitmap bitmap;
+
+    /**
+     * Creates an empty bitmap
+     */
+    @BeforeEach
+    public void setup(){
+        bitmap = new CompressedBitmap();
+    }
+
+    /**
+     * Tests adding, finding and removing values in several containers
+     */
+    @Test
+    public void test_addRemove(){
+        assertTrue(bitmap.add(7));
+        assertFalse(bitmap.add(7));
+        assertTrue(bitmap.add(70000));
+        assertTrue(bitmap.add(3));
+
+        assertTrue(bitmap.contains(70000));
+        assertFalse(bitmap.contains(70001));
+        assertArrayEquals(new int[] { 3, 7, 70000 }, bitmap.toArray());
+
+        assertTrue(bitmap.remove(70000));
+        assertFalse(bitmap.remove(70000));
+        assertEquals(2, bitmap.getCardinality());
+        assertTrue(bitmap.remove(3));
+        assertTrue(bitmap.remove(7));
+        assertTrue(bitmap.isEmpty());
+    }
+
+    /**
+     * Tests that a container holds its values as it grows into a bitmap and
+     * shrinks back into an array
+     */
+    @Test
+    public void test_dense(){
+        for (int value = 0; value < 10000; value += 2)
+            bitmap.add(value);
+        CompressedBitmap copy = bitmap.copy();
+
+        assertEquals(5000, bitmap.getCardinality());
+        assertTrue(bitmap.contains(9998));
+        assertFalse(bitmap.contains(9999));
+        for (int value = 0; value < 4000; value += 2)
+            assertTrue(bitmap.remove(value));
+
+        assertEquals(3000, bitmap.getCardinality());
+        assertFalse(bitmap.contains(0));
+        assertTrue(bitmap.contains(4000));
+        assertEquals(4000, bitmap.toArray()[0]);
+        assertEquals(5000, copy.getCardinality());
+        assertTrue(copy.contains(0));
+    }
+}
@@ -0,0 +1,93 @@
+package test;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import vapor.DailyInbox;
+
+/**
+ * Tests the functionality of DailyInbox.java
+ */
+public class DailyInboxTest {
+    @TempDir
+    Path directory;
+
+    /**
+     * Tests that files already in the inbox are taken in name order, skipping
+     * those of other formats, and that processed files are moved aside
+     */
+    @Test
+    public void test_takesPendingInOrder() throws IOException, InterruptedException{
+        Path inbox = directory.resolve("inbox");
+        Files.createDirectories(inbox);
+        Files.writeString(inbox.resolve("day2.txt"), "");
+        Files.writeString(inbox.resolve("day1.txt"), "");
+        Files.writeString(inbox.resolve("notes.md"), "");
+
+        try (DailyInbox days = new DailyInbox(inbox.toFile(), ".txt")) {
+            File first = days.take();
+            assertEquals("day1.txt", first.getName());
+            days.done(first);
+            assertFalse(first.exists());
+            assertTrue(Files.isRegularFile(inbox.resolve("done").resolve("day1.txt")));
+
+            assertEquals("day2.txt", days.take().getName());
+        }
+    }
+
+    /**
+     * Tests that a file moved aside is found again by name, and that moving it
+     * aside again leaves it where it is
+     */
+    @Test
+    public void test_findsDone() throws IOException, InterruptedException{
+        Path inbox = directory.resolve("inbox");
+        Files.createDirectories(inbox);
+        Files.writeString(inbox.resolve("day1.txt"), "");
+
+        try (DailyInbox days = new DailyInbox(inbox.toFile(), ".txt")) {
+            assertNull(days.getDone("day1.txt"));
+            File moved = days.done(days.take());
+
+            assertEquals(moved, days.getDone("day1.txt"));
+            assertEquals(moved, days.done(moved));
+            assertTrue(moved.isFile());
+        }
+    }
+
+    /**
+     * Tests that a file moved into the inbox is taken as it lands, and that
+     * closing the inbox releases a waiting thread
+     */
+    @Test
+    public void test_takesLanded() throws IOException, InterruptedException{
+        Path inbox = directory.resolve("inbox");
+        DailyInbox days = new DailyInbox(inbox.toFile(), ".txt");
+
+        Path written = directory.resolve("day3.txt");
+        Files.writeString(written, "10                 00 000000.00\n");
+        new Thread(() -> {
+            try {
+                Thread.sleep(100);
+                Files.move(written, inbox.resolve("day3.txt"), StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException | InterruptedException e) {
+            }
+        }).start();
+        assertEquals("day3.txt", days.take().getName());
+
+        new Thread(() -> {
+            try {
+                Thread.sleep(100);
+                days.close();
+            } catch (IOException | InterruptedException e) {
+            }
+        }).start();
+        assertNull(days.take());
+    }
+}
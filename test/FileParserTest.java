@@ -0,0 +1,133 @@
+package test;
+
+import org.junit.jupiter.api.*;
+import vapor.FileParser;
+import vapor.exceptions.ErrorLogger;
+import vapor.transactions.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the functionality of FileParser.java
+ */
+public class FileParserTest {
+    String source;
+
+    /**
+     * Creates a daily transaction file source used for testing
+     */
+    @BeforeEach
+    public void setup() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            builder.append("00 Dinodaddy#      FS 000010.00\n");
+            builder.append("03 Smash Bros                Dinodaddy#      10.00 010.00\n");
+            builder.append("04 Smash Bros                Dinodaddy#      UUUUUUUUUUUUUUU\n");
+            builder.append("10 Dinodaddy#      FS 000010.00\n");
+        }
+        source = builder.toString();
+    }
+
+    /**
+     * Tests that stream() hands over the same transactions as parse(), in order
+     */
+    @Test
+    public void test_stream() {
+        ArrayList<Transaction> parsed = new FileParser(new BufferedReader(new StringReader(source))).parse();
+        Iterator<Transaction> streamed = new FileParser(new BufferedReader(new StringReader(source))).stream(8);
+
+        for (Transaction transaction : parsed) {
+            assertTrue(streamed.hasNext());
+            Transaction next = streamed.next();
+            assertEquals(transaction.getType(), next.getType());
+            assertEquals(transaction.getRecord(), next.getRecord());
+        }
+        assertFalse(streamed.hasNext());
+        assertEquals(2000, parsed.size());
+    }
+
+    /**
+     * Tests that an exception which stops the parser reaches the consumer once
+     * the records before it are taken, rather than leaving it waiting
+     */
+    @Test
+    public void test_streamFailure() {
+        BufferedReader reader = new BufferedReader(new StringReader(source)) {
+            int lines;
+
+            @Override
+            public String readLine() throws IOException{
+                if (++lines > 3)
+                    throw new IllegalStateException("unreadable");
+                return super.readLine();
+            }
+        };
+        Iterator<Transaction> streamed = new FileParser(reader).stream(8);
+
+        for (int i = 0; i < 3; i++)
+            streamed.next();
+        assertThrows(IllegalStateException.class, streamed::hasNext);
+        assertFalse(streamed.hasNext());
+    }
+
+    /**
+     * Tests that closing a stream abandoned early stops the parser and closes
+     * the source
+     */
+    @Test
+    public void test_streamClosed() throws InterruptedException{
+        CountDownLatch closed = new CountDownLatch(1);
+        BufferedReader reader = new BufferedReader(new StringReader(source)) {
+            @Override
+            public void close() throws IOException{
+                super.close();
+                closed.countDown();
+            }
+        };
+        FileParser.TransactionStream streamed = new FileParser(reader).stream(1);
+
+        assertTrue(streamed.hasNext());
+        streamed.next();
+        streamed.close();
+        assertTrue(closed.await(10, TimeUnit.SECONDS));
+        assertFalse(streamed.hasNext());
+    }
+
+    /**
+     * Tests that a consumer interrupted while waiting logs that the day was cut
+     * short, keeps its interrupt and stops the parser
+     */
+    @Test
+    public void test_streamInterrupted() throws InterruptedException{
+        CountDownLatch closed = new CountDownLatch(1);
+        BufferedReader reader = new BufferedReader(new StringReader(source)) {
+            @Override
+            public void close() throws IOException{
+                super.close();
+                closed.countDown();
+            }
+        };
+        FileParser.TransactionStream streamed = new FileParser(reader).stream(1);
+
+        ErrorLogger.hold();
+        Thread.currentThread().interrupt();
+        boolean hasNext = streamed.hasNext();
+        boolean interrupted = Thread.interrupted();
+        List<String> errors = ErrorLogger.release();
+
+        assertFalse(hasNext);
+        assertTrue(interrupted);
+        assertEquals(1, errors.size());
+        assertTrue(errors.get(0).contains("Interrupted"));
+        assertTrue(closed.await(10, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,116 @@
+package test;
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import vapor.Game;
+import vapor.GameRegistry;
+import vapor.Listing;
+import vapor.Market;
+import vapor.exceptions.VaporException;
+import vapor.users.StandardUser;
+
+/**
+ * Tests the functionality of GameRegistry.java
+ */
+public class GameRegistryTest {
+
+    Market market;
+    GameRegistry games;
+
+    /**
+     * Creates an empty market and its registry
+     */
+    @BeforeEach
+    public void setup(){
+        market = new Market();
+        games = market.getGames();
+    }
+
+    /**
+     * Tests that each title has a single canonical game
+     */
+    @Test
+    public void test_getGame(){
+        Game game = games.getGame(new String("registry test game"));
+
+        assertSame(game, games.getGame("registry test game"));
+        assertSame(game, games.canonical(new Game("registry test game")));
+        assertEquals(new Game("registry test game"), game);
+        assertEquals(new Game("registry test game").hashCode(), game.hashCode());
+        assertNotEquals(new Game("registry other game"), game);
+    }
+
+    /**
+     * Tests that inventories and listings of a market's users hold its canonical
+     * games, including those held before the user joined the market
+     */
+    @Test
+    public void test_catalogues() throws VaporException{
+        StandardUser user = new StandardUser("registry user", 0);
+        user.getInventory().addEntry(new Game("registry owned game"));
+        user.getStoreFront().addEntry(new Listing(new Game("registry listed game"), 100, 5.f));
+        market.forceAddUser(user);
+        Game canonical = games.getGame("registry shared game");
+
+        user.getInventory().addEntry(new Game("registry shared game"));
+        user.getInventory().endDay();
+        user.getStoreFront().addEntry(new Listing(new Game("registry shared game"), 100, 5.f));
+        user.getStoreFront().endDay();
+
+        assertSame(canonical, user.getInventory().getEntry("registry shared game"));
+        assertSame(games.getGame("registry owned game"), user.getInventory().getEntry("registry owned game"));
+        assertSame(canonical, user.getStoreFront().getEntry("registry shared game").getGame());
+        assertSame(games.getGame("registry listed game"),
+                user.getStoreFront().getEntry("registry listed game").getGame());
+        assertEquals(1, market.getOwnerCount("registry owned game"));
+    }
+
+    /**
+     * Tests that two markets do not share their registries or titles
+     */
+    @Test
+    public void test_perMarket(){
+        Market other = new Market();
+        Game game = games.getGame("registry private game");
+
+        assertNotSame(games, other.getGames());
+        assertEquals(-1, other.getGames().find("registry private game"));
+        assertEquals(0, other.getGames().size());
+        assertNotSame(game, other.getGames().getGame("registry private game"));
+    }
+
+    /**
+     * Tests that a deserialized market refers to the canonical games
+     */
+    @Test
+    public void test_deserialize() throws VaporException, IOException, ClassNotFoundException{
+        StandardUser first = new StandardUser("registry first", 0);
+        StandardUser second = new StandardUser("registry second", 0);
+        market.forceAddUser(first);
+        market.forceAddUser(second);
+        first.getInventory().addEntry(games.getGame("registry saved game"));
+        second.getInventory().addEntry(games.getGame("registry saved game"));
+        first.getInventory().endDay();
+        second.getInventory().endDay();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+            output.writeObject(market);
+        }
+        Market loaded;
+        try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            loaded = (Market) input.readObject();
+        }
+
+        Game game = loaded.getGames().getGame("registry saved game");
+        assertNotSame(games, loaded.getGames());
+        assertSame(game, ((StandardUser) loaded.getUser("registry first")).getInventory().getEntry("registry saved game"));
+        assertSame(game, ((StandardUser) loaded.getUser("registry second")).getInventory().getEntry("registry saved game"));
+    }
+}
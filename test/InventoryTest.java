@@ -67,6 +67,26 @@ public class InventoryTest {
         }
     }
 
+    /**
+     * Tests that an inventory holding more games than fit its sorted arrays keeps
+     * every game through additions and removals
+     */
+    @Test
+    public void test_manyGames() throws VaporException{
+        for (int i = 0; i < 100; i++)
+            inventory.addEntry(new Game("Inventory Game " + i));
+        inventory.endDay();
+        for (int i = 0; i < 100; i += 3)
+            assertEquals("Inventory Game " + i, inventory.remove("Inventory Game " + i).getName());
+
+        assertEquals(66, inventory.getEntries().length);
+        for (int i = 0; i < 100; i++)
+            assertEquals(i % 3 != 0, inventory.containsEntry("Inventory Game " + i));
+        assertFalse(inventory.containsEntry("Inventory Game Unknown"));
+        assertThrows(GameDNEException.class, () -> inventory.getEntry("Inventory Game 0"));
+        assertEquals(new Game("Inventory Game 98"), inventory.getEntry("Inventory Game 98"));
+    }
+
     /**
      * Resets the market to null
      */
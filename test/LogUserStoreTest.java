@@ -0,0 +1,116 @@
+package test;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+
+import vapor.Game;
+import vapor.LogUserStore;
+import vapor.Market;
+import vapor.MarketSnapshot;
+import vapor.exceptions.VaporException;
+import vapor.users.BuyerUser;
+import vapor.users.User;
+
+/**
+ * Tests the functionality of LogUserStore.java
+ */
+public class LogUserStoreTest {
+
+    @TempDir
+    Path directory;
+
+    LogUserStore store;
+
+    /**
+     * Opens a store caching the fewest users
+     */
+    @BeforeEach
+    public void setup() throws IOException{
+        store = new LogUserStore(directory.resolve("market.users").toFile(), 0);
+    }
+
+    /**
+     * Deletes the store's log
+     */
+    @AfterEach
+    public void teardown() throws IOException{
+        store.close();
+        assertFalse(directory.resolve("market.users").toFile().exists());
+    }
+
+    /**
+     * Tests that evicted users are decoded with their changes, and that the log
+     * is compacted as their records are replaced
+     */
+    @Test
+    public void test_evict() throws VaporException{
+        for (int i = 0; i < 100; i++)
+            store.put(new BuyerUser("store user " + i, i));
+        ((BuyerUser) store.get("store user 3")).getInventory().addEntry(new Game("Store Game"));
+
+        for (int round = 0; round < 1000; round++)
+            for (int i = 0; i < 100; i++)
+                store.get("store user " + i).forceAddCredit(1);
+
+        assertTrue(directory.resolve("market.users").toFile().length() < (1 << 20) + 1024);
+        assertEquals(100, store.size());
+        assertEquals(1007, store.get("store user 7").getCredit());
+        assertTrue(((BuyerUser) store.get("store user 3")).getInventory().containsEntry("Store Game"));
+
+        store.remove("store user 7");
+        assertFalse(store.contains("store user 7"));
+        assertNull(store.get("store user 7"));
+        int count = 0;
+        for (User user : store.values())
+            count++;
+        assertEquals(99, count);
+    }
+
+    /**
+     * Tests that a pinned user stays the same object however many users are
+     * accessed after it
+     */
+    @Test
+    public void test_pinned(){
+        User pinned = new BuyerUser("store pinned", 0);
+        store.pin(user -> user == pinned);
+        store.put(pinned);
+        for (int i = 0; i < 100; i++)
+            store.put(new BuyerUser("store user " + i, i));
+
+        assertTrue(store.holds(pinned));
+        assertSame(pinned, store.get("store pinned"));
+        assertFalse(store.holds(new BuyerUser("store user 0", 0)));
+    }
+
+    /**
+     * Tests that a market saves the changed users its store has evicted
+     */
+    @Test
+    public void test_market() throws IOException, VaporException{
+        File file = directory.resolve("market.ser").toFile();
+        Market market = new Market();
+        for (int i = 0; i < 100; i++)
+            market.forceAddUser(new BuyerUser("store user " + i, i));
+        MarketSnapshot.save(market, file);
+
+        Market loaded = MarketSnapshot.read(file);
+        loaded.useStore(store);
+        User changed = loaded.getUser("store user 7");
+        changed.forceAddCredit(1000);
+        for (int i = 0; i < 100; i++)
+            loaded.getUser("store user " + i);
+        assertFalse(store.holds(changed));
+        assertEquals(1007, loaded.getUser("store user 7").getCredit());
+        MarketSnapshot.save(loaded, file);
+
+        Market reloaded = MarketSnapshot.read(file);
+        assertEquals(100, reloaded.getUsers().size());
+        assertEquals(1007, reloaded.getUser("store user 7").getCredit());
+        assertEquals(42, reloaded.getUser("store user 42").getCredit());
+    }
+}
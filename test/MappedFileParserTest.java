@@ -0,0 +1,134 @@
+package test;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import vapor.FileParser;
+import vapor.MappedFileParser;
+import vapor.exceptions.ErrorLogger;
+import vapor.transactions.Transaction;
+
+/**
+ * Tests the functionality of MappedFileParser.java against FileParser.java
+ */
+public class MappedFileParserTest {
+    @TempDir
+    Path directory;
+
+    /**
+     * Creates the records of a day, one of them invalid
+     */
+    private String createDay(String newline) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            builder.append("00 Dinodaddy#      FS 000010.00").append(newline);
+            builder.append("03 Smash Bros                Dinodaddy#      10.00 010.00").append(newline);
+            builder.append("06 Dinodaddy#      FS 0000" + (10 + i) + ".00").append(newline);
+            if (i == 17)
+                builder.append("99 not a record").append(newline);
+            builder.append("10 Dinodaddy#      FS 000010.00").append(newline);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Lists the records of parsed transactions
+     */
+    private List<String> records(List<Transaction> transactions) {
+        ArrayList<String> records = new ArrayList<>();
+        for (Transaction transaction : transactions)
+            records.add(transaction.getType() + " " + transaction.getRecord());
+        return records;
+    }
+
+    /**
+     * Asserts that a file parses to the same transactions and errors, in the
+     * same order, whether mapped in small regions and chunks or read a line at a
+     * time
+     */
+    private void assertParsesAlike(String content) throws IOException{
+        File file = directory.resolve("daily.txt").toFile();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.US_ASCII));
+
+        ErrorLogger.hold();
+        List<String> expected;
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            expected = records(new FileParser(reader).parse());
+        }
+        List<String> expectedErrors = ErrorLogger.release();
+
+        long[] regionSizes = { 100, 333, Integer.MAX_VALUE };
+        int[] chunkSizes = { 1, 64, 1 << 20 };
+        for (long regionSize : regionSizes)
+            for (int chunkSize : chunkSizes) {
+                ErrorLogger.hold();
+                List<String> mapped = records(new MappedFileParser(file, ForkJoinPool.commonPool(), regionSize,
+                        chunkSize).parse());
+                List<String> errors = ErrorLogger.release();
+
+                assertEquals(expected, mapped, "region " + regionSize + ", chunk " + chunkSize);
+                assertEquals(expectedErrors, errors, "region " + regionSize + ", chunk " + chunkSize);
+            }
+    }
+
+    /**
+     * Tests records split by chunk and region boundaries in the middle of a record
+     */
+    @Test
+    public void test_boundaries() throws IOException{
+        assertParsesAlike(createDay("\n"));
+    }
+
+    /**
+     * Tests records ending in CRLF
+     */
+    @Test
+    public void test_crlf() throws IOException{
+        assertParsesAlike(createDay("\r\n"));
+    }
+
+    /**
+     * Tests a last record with no newline after it
+     */
+    @Test
+    public void test_noTrailingNewline() throws IOException{
+        String day = createDay("\n");
+        assertParsesAlike(day.substring(0, day.length() - 1));
+    }
+
+    /**
+     * Tests an empty file
+     */
+    @Test
+    public void test_empty() throws IOException{
+        assertParsesAlike("");
+    }
+
+    /**
+     * Tests that an invalid record is logged in file order and skipped
+     */
+    @Test
+    public void test_invalidRecord() throws IOException{
+        ErrorLogger.hold();
+        File file = directory.resolve("invalid.txt").toFile();
+        Files.writeString(file.toPath(), "00 Dinodaddy#      FS 000010.00\n99 not a record\n");
+        List<Transaction> transactions = new MappedFileParser(file).parse();
+        List<String> errors = ErrorLogger.release();
+
+        assertEquals(1, transactions.size());
+        assertEquals(1, errors.size());
+        assertTrue(errors.get(0).contains("[99 not a record]"));
+        assertParsesAlike("00 Dinodaddy#      FS 000010.00\n99 not a record\n");
+    }
+}
@@ -0,0 +1,193 @@
+package test;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+
+import vapor.Game;
+import vapor.Market;
+import vapor.MarketJournal;
+import vapor.MarketSnapshot;
+import vapor.exceptions.VaporException;
+import vapor.users.AdminUser;
+import vapor.users.BuyerUser;
+import vapor.users.StandardUser;
+
+/**
+ * Tests the functionality of MarketJournal.java
+ */
+public class MarketJournalTest {
+
+    @TempDir
+    Path directory;
+
+    File snapshot;
+    File journalFile;
+
+    /**
+     * Saves a market of a few users to start the day from
+     */
+    @BeforeEach
+    public void setup() throws IOException, VaporException{
+        snapshot = directory.resolve("market.ser").toFile();
+        journalFile = directory.resolve("market.journal").toFile();
+
+        Market market = new Market();
+        market.forceAddUser(new AdminUser("journal admin", 0));
+        market.forceAddUser(new BuyerUser("journal buyer", 100));
+        market.forceAddUser(new StandardUser("journal doomed", 200));
+        MarketSnapshot.save(market, snapshot);
+    }
+
+    /**
+     * Runs the first part of a day, committing every two transactions, and stops
+     * without saving as if the process had crashed
+     */
+    private void runUntilCrash() throws IOException, VaporException{
+        Market market = MarketSnapshot.read(snapshot);
+        MarketJournal journal = MarketJournal.open(journalFile, market, 2);
+
+        market.loginUser(market.getUser("journal admin"));
+        journal.applied();
+        market.getUser("journal buyer").forceAddCredit(50);
+        journal.applied();
+        ((BuyerUser) market.getUser("journal buyer")).getInventory().addEntry(new Game("Journal Game"));
+        market.addPendingEndOfDay(((BuyerUser) market.getUser("journal buyer")).getInventory());
+        journal.applied();
+        market.removeUser(market.getUser("journal doomed"));
+        journal.applied();
+        market.forceAddUser(new StandardUser("journal new", 300));
+        journal.applied();
+    }
+
+    /**
+     * Tests that the committed transactions are recovered into the market loaded
+     * from the snapshot
+     */
+    @Test
+    public void test_recover() throws IOException, VaporException{
+        runUntilCrash();
+
+        Market market = MarketSnapshot.read(snapshot);
+        MarketJournal journal = MarketJournal.open(journalFile, market, 2);
+
+        assertEquals(4, journal.getApplied());
+        assertEquals("journal admin", market.getActiveUser().getUsername());
+        assertEquals(150, market.getUser("journal buyer").getCredit());
+        assertFalse(market.existsUser("journal doomed"));
+        assertFalse(market.existsUser("journal new"));
+
+        market.endDay();
+        assertDoesNotThrow(() -> ((BuyerUser) market.getUser("journal buyer")).getInventory().getEntry("Journal Game"));
+
+        market.logoutUser();
+        journal.applied();
+        journal.commit();
+        market.save(snapshot.getPath());
+        journal.delete();
+        assertFalse(journalFile.exists());
+
+        Market saved = MarketSnapshot.read(snapshot);
+        assertEquals(150, saved.getUser("journal buyer").getCredit());
+        assertFalse(saved.existsUser("journal doomed"));
+    }
+
+    /**
+     * Tests that an entry torn by a crash is discarded
+     */
+    @Test
+    public void test_tornEntry() throws IOException, VaporException{
+        runUntilCrash();
+        try (RandomAccessFile torn = new RandomAccessFile(journalFile, "rw")) {
+            torn.setLength(journalFile.length() - 1);
+        }
+
+        Market market = MarketSnapshot.read(snapshot);
+        MarketJournal journal = MarketJournal.open(journalFile, market, 2);
+
+        assertEquals(2, journal.getApplied());
+        assertEquals(150, market.getUser("journal buyer").getCredit());
+        assertTrue(market.existsUser("journal doomed"));
+    }
+
+    /**
+     * Tests that a checkpoint truncates the journal, and that the day is recovered
+     * from the checkpoint and the entries after it
+     */
+    @Test
+    public void test_checkpoint() throws Exception{
+        Market market = MarketSnapshot.read(snapshot);
+        MarketJournal journal = MarketJournal.open(journalFile, market, 2);
+        journal.scheduleCheckpoints(snapshot, 100, 0);
+
+        market.loginUser(market.getUser("journal admin"));
+        journal.applied();
+        market.getUser("journal buyer").forceAddCredit(50);
+        journal.applied();
+        market.removeUser(market.getUser("journal doomed"));
+        journal.applied();
+        journal.checkpoint().get();
+
+        assertEquals(14, journalFile.length());
+        Market checkpointed = MarketSnapshot.read(snapshot);
+        assertEquals(150, checkpointed.getUser("journal buyer").getCredit());
+        assertFalse(checkpointed.existsUser("journal doomed"));
+
+        market.getUser("journal buyer").forceAddCredit(25);
+        journal.applied();
+        market.forceAddUser(new StandardUser("journal new", 300));
+        journal.applied();
+
+        Market recovered = MarketSnapshot.read(snapshot);
+        MarketJournal next = MarketJournal.open(journalFile, recovered, 2);
+
+        assertEquals(5, next.getApplied());
+        assertEquals("journal admin", recovered.getActiveUser().getUsername());
+        assertEquals(175, recovered.getUser("journal buyer").getCredit());
+        assertFalse(recovered.existsUser("journal doomed"));
+        assertTrue(recovered.existsUser("journal new"));
+    }
+
+    /**
+     * Tests that the journal of a day from another source is set aside rather
+     * than resumed, and that the day starts afresh
+     */
+    @Test
+    public void test_otherSource() throws IOException, VaporException{
+        runUntilCrash();
+
+        Market market = MarketSnapshot.read(snapshot);
+        assertEquals("", MarketJournal.getSource(journalFile, market));
+        MarketJournal journal = MarketJournal.open(journalFile, market, 2, "day2.txt");
+
+        assertEquals(0, journal.getApplied());
+        assertEquals(100, market.getUser("journal buyer").getCredit());
+        assertTrue(market.existsUser("journal doomed"));
+        assertTrue(new File(journalFile.getPath() + ".unresumed").exists());
+        assertEquals("day2.txt", MarketJournal.getSource(journalFile, market));
+        journal.close();
+    }
+
+    /**
+     * Tests that the journal of a day already saved is not applied again
+     */
+    @Test
+    public void test_stale() throws IOException, VaporException{
+        runUntilCrash();
+
+        Market market = MarketSnapshot.read(snapshot);
+        market.getUser("journal buyer").forceAddCredit(1);
+        MarketSnapshot.save(market, snapshot);
+
+        Market next = MarketSnapshot.read(snapshot);
+        MarketJournal journal = MarketJournal.open(journalFile, next, 2);
+
+        assertEquals(0, journal.getApplied());
+        assertEquals(101, next.getUser("journal buyer").getCredit());
+        assertTrue(next.existsUser("journal doomed"));
+    }
+}
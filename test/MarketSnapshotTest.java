@@ -0,0 +1,384 @@
+package test;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import vapor.Game;
+import vapor.Listing;
+import vapor.Market;
+import vapor.MarketSnapshot;
+import vapor.MarketToJSON;
+import vapor.SerializeMarket;
+import vapor.exceptions.VaporException;
+import vapor.users.AdminUser;
+import vapor.users.BuyerUser;
+import vapor.users.SellerUser;
+import vapor.users.StandardUser;
+import vapor.users.User;
+
+/**
+ * Tests the functionality of MarketSnapshot.java
+ */
+public class MarketSnapshotTest {
+
+    @TempDir
+    Path directory;
+
+    Market market;
+
+    /**
+     * Creates a market holding one user of each type
+     */
+    @BeforeEach
+    public void setup() throws VaporException{
+        market = new Market();
+
+        BuyerUser buyer = new BuyerUser("snapshot buyer", 1000);
+        buyer.getInventory().addEntry(new Game("Smash Bros"));
+        buyer.getInventory().endDay();
+        buyer.getInventory().addEntry(new Game("Pending Game"));
+        buyer.addCredit(500);
+
+        SellerUser seller = new SellerUser("snapshot seller", 2000);
+        seller.getStoreFront().addEntry(new Listing(new Game("Smash Bros"), 2500, 12.5f));
+        seller.getStoreFront().endDay();
+        seller.getStoreFront().addEntry(new Listing(new Game("Pending Game"), 1000, 5.f));
+
+        market.forceAddUser(buyer);
+        market.forceAddUser(seller);
+        market.forceAddUser(new StandardUser("snapshot full", 3000));
+        market.forceAddUser(new AdminUser("snapshot admin", 4000));
+        market.addPendingEndOfDay(buyer.getInventory());
+        market.addPendingEndOfDay(seller.getStoreFront());
+
+        market.saleActivated = true;
+        market.getStats().updateRevenue(1234);
+        market.getStats().updateRefunded(56);
+        market.loginUser(buyer);
+    }
+
+    /**
+     * Tests that a snapshot restores every part of the market
+     */
+    @Test
+    public void test_roundTrip() throws IOException, VaporException{
+        File file = directory.resolve("market.ser").toFile();
+        MarketSnapshot.write(market, file);
+
+        assertTrue(MarketSnapshot.isSnapshot(file));
+        assertMatches(MarketSnapshot.read(file));
+    }
+
+    /**
+     * Tests that a Java serialized market is loaded and migrated to a snapshot
+     */
+    @Test
+    public void test_migration() throws IOException, VaporException{
+        File file = directory.resolve("market.ser").toFile();
+        try (ObjectOutputStream output = new ObjectOutputStream(new FileOutputStream(file))) {
+            output.writeObject(market);
+        }
+        assertFalse(MarketSnapshot.isSnapshot(file));
+
+        assertMatches(SerializeMarket.load(file.getPath()));
+        assertTrue(MarketSnapshot.isSnapshot(file));
+        assertMatches(SerializeMarket.load(file.getPath()));
+    }
+
+    /**
+     * Tests that a truncated snapshot is rejected
+     */
+    @Test
+    public void test_truncated() throws IOException{
+        File file = directory.resolve("market.ser").toFile();
+        MarketSnapshot.write(market, file);
+        try (RandomAccessFile truncated = new RandomAccessFile(file, "rw")) {
+            truncated.setLength(file.length() - 3);
+        }
+
+        assertThrows(IOException.class, () -> MarketSnapshot.read(file));
+    }
+
+    /**
+     * Tests that users are loaded on demand and that untouched, changed, removed
+     * and added users all survive a second save
+     */
+    @Test
+    public void test_resave() throws IOException, VaporException{
+        File file = directory.resolve("market.ser").toFile();
+        market.logoutUser();
+        market.getUsers().clear();
+        market.getUsers().put("snapshot buyer", new BuyerUser("snapshot buyer", 1000));
+        for (int i = 0; i < 100; i++)
+            market.forceAddUser(new BuyerUser("snapshot user " + i, i));
+        MarketSnapshot.write(market, file);
+
+        Market loaded = MarketSnapshot.read(file);
+        assertTrue(loaded.existsUser("snapshot user 7"));
+        assertFalse(loaded.existsUser("snapshot nobody"));
+        loaded.getUser("snapshot user 7").forceAddCredit(1000);
+        loaded.loginUser(loaded.getUser("snapshot buyer"));
+        assertThrows(VaporException.class, () -> loaded.removeUser(loaded.getUser("snapshot user 8")));
+        loaded.logoutUser();
+        loaded.loginUser(new AdminUser("snapshot admin", 0));
+        loaded.removeUser(loaded.getUser("snapshot user 8"));
+        loaded.forceAddUser(new SellerUser("snapshot user 9b", 9));
+        loaded.logoutUser();
+
+        int count = 0;
+        for (User user : loaded.getAllUsers())
+            count++;
+        assertEquals(101, count);
+
+        MarketSnapshot.write(loaded, file);
+        Market reloaded = MarketSnapshot.read(file);
+
+        assertEquals(101, reloaded.getUsers().size());
+        assertEquals(1007, reloaded.getUser("snapshot user 7").getCredit());
+        assertFalse(reloaded.existsUser("snapshot user 8"));
+        assertEquals(42, reloaded.getUser("snapshot user 42").getCredit());
+        assertEquals(User.UserType.SELLER, reloaded.getUser("snapshot user 9b").getUserType());
+    }
+
+    /**
+     * Tests that saving a loaded market appends only the changed users, and that
+     * the deltas read back and compact to the same market
+     */
+    @Test
+    public void test_delta() throws IOException, VaporException{
+        File file = directory.resolve("market.ser").toFile();
+        market.logoutUser();
+        for (int i = 0; i < 100; i++)
+            market.forceAddUser(new BuyerUser("snapshot user " + i, i));
+        MarketSnapshot.save(market, file);
+        long base = file.length();
+
+        Market loaded = MarketSnapshot.read(file);
+        loaded.getUser("snapshot user 3");
+        MarketSnapshot.save(loaded, file);
+        long unchanged = file.length();
+        assertTrue(unchanged - base < 200);
+
+        loaded.getUser("snapshot user 7").forceAddCredit(1000);
+        ((BuyerUser) loaded.getUser("snapshot user 9")).getInventory().addEntry(new Game("Delta Game"));
+        loaded.loginUser(new AdminUser("snapshot admin", 0));
+        loaded.removeUser(loaded.getUser("snapshot user 8"));
+        loaded.removeUser(loaded.getUser("snapshot user 10"));
+        loaded.forceAddUser(new SellerUser("snapshot user 10", 10));
+        loaded.logoutUser();
+        MarketSnapshot.save(loaded, file);
+        assertTrue(file.length() - unchanged < 400);
+
+        assertDelta(MarketSnapshot.read(file));
+        MarketSnapshot.compact(file);
+        assertTrue(file.length() < unchanged + 100);
+        assertDelta(MarketSnapshot.read(file));
+    }
+
+    /**
+     * Tests that a delta left incomplete by an interrupted save is ignored and
+     * overwritten by the next save
+     */
+    @Test
+    public void test_incompleteDelta() throws IOException, VaporException{
+        File file = directory.resolve("market.ser").toFile();
+        MarketSnapshot.save(market, file);
+        long base = file.length();
+
+        Market loaded = MarketSnapshot.read(file);
+        loaded.getUser("snapshot full").forceAddCredit(1);
+        MarketSnapshot.save(loaded, file);
+        try (RandomAccessFile truncated = new RandomAccessFile(file, "rw")) {
+            truncated.setLength(file.length() - 3);
+        }
+        assertEquals(3000, MarketSnapshot.read(file).getUser("snapshot full").getCredit());
+
+        loaded.getUser("snapshot full").forceAddCredit(1);
+        MarketSnapshot.save(loaded, file);
+        assertTrue(file.length() > base);
+        assertEquals(3002, MarketSnapshot.read(file).getUser("snapshot full").getCredit());
+    }
+
+    /**
+     * Tests that the market's day is saved, and that an allowance saved before
+     * the day ended is restored in full even though its user is not saved again
+     */
+    @Test
+    public void test_dailyLimitDay() throws IOException, VaporException{
+        File file = directory.resolve("market.ser").toFile();
+        MarketSnapshot.save(market, file);
+
+        Market loaded = MarketSnapshot.read(file);
+        loaded.getUser("snapshot full").addCredit(700);
+        MarketSnapshot.save(loaded, file);
+        assertEquals(100000 - 700, MarketSnapshot.read(file).getUser("snapshot full").getDailyCreditAvailability());
+
+        loaded.endDay();
+        MarketSnapshot.save(loaded, file);
+        Market reloaded = MarketSnapshot.read(file);
+        assertEquals(loaded.getDay(), reloaded.getDay());
+        assertEquals(100000, reloaded.getUser("snapshot full").getDailyCreditAvailability());
+        assertEquals(3700, reloaded.getUser("snapshot full").getCredit());
+    }
+
+    /**
+     * Tests that an entry added today, and saved, becomes visible once the market
+     * ends the day, without being registered or saved again
+     */
+    @Test
+    public void test_visibleFrom() throws IOException, VaporException{
+        File file = directory.resolve("market.ser").toFile();
+        ((StandardUser) market.getUser("snapshot full")).getInventory().addEntry(new Game("Epoch Game"));
+        MarketSnapshot.save(market, file);
+
+        Market loaded = MarketSnapshot.read(file);
+        StandardUser user = (StandardUser) loaded.getUser("snapshot full");
+        assertTrue(user.getInventory().containsEntry("Epoch Game"));
+        assertEquals(0, user.getInventory().getEntries().length);
+
+        loaded.endDay();
+        assertEquals(1, user.getInventory().getEntries().length);
+        MarketSnapshot.save(loaded, file);
+        user = (StandardUser) MarketSnapshot.read(file).getUser("snapshot full");
+        assertEquals("Epoch Game", user.getInventory().getEntry("Epoch Game").getName());
+    }
+
+    /**
+     * Tests that a market saved after its first day and reloaded exports the
+     * games and listings of users not yet accessed, which are visible that day
+     */
+    @Test
+    public void test_exportAfterDay() throws IOException, VaporException, ParseException{
+        File file = directory.resolve("market.ser").toFile();
+        market.endDay();
+        MarketSnapshot.save(market, file);
+
+        Market loaded = MarketSnapshot.read(file);
+        assertEquals(1, loaded.getDay());
+        File exported = new File("users.json");
+        JSONArray users;
+        try {
+            MarketToJSON.toJSON(loaded);
+            users = (JSONArray) new JSONParser().parse(Files.readString(exported.toPath()));
+        } finally {
+            exported.delete();
+        }
+
+        for (Object user : users) {
+            JSONObject fields = (JSONObject) user;
+            if ("snapshot buyer".equals(fields.get("username")))
+                assertEquals(2, ((JSONArray) fields.get("games")).size());
+            if ("snapshot seller".equals(fields.get("username")))
+                assertEquals(2, ((JSONArray) fields.get("listings")).size());
+        }
+        assertEquals(4, users.size());
+    }
+
+    /**
+     * Tests that a save in the background holds the market as it was when the
+     * save was taken, while the market goes on changing
+     */
+    @Test
+    public void test_saveInBackground() throws Exception{
+        File file = directory.resolve("market.ser").toFile();
+        MarketSnapshot.save(market, file);
+
+        Market loaded = MarketSnapshot.read(file);
+        loaded.getUser("snapshot full").forceAddCredit(1);
+        CompletableFuture<Void> saved = MarketSnapshot.saveInBackground(loaded, file);
+        loaded.getUser("snapshot full").forceAddCredit(10);
+        loaded.getUser("snapshot admin").forceAddCredit(10);
+        saved.get();
+
+        Market reloaded = MarketSnapshot.read(file);
+        assertEquals(3001, reloaded.getUser("snapshot full").getCredit());
+        assertEquals(4000, reloaded.getUser("snapshot admin").getCredit());
+
+        MarketSnapshot.save(loaded, file);
+        reloaded = MarketSnapshot.read(file);
+        assertEquals(3011, reloaded.getUser("snapshot full").getCredit());
+        assertEquals(4010, reloaded.getUser("snapshot admin").getCredit());
+    }
+
+    /**
+     * Tests that the snapshots replaced by whole writes are kept, up to the
+     * number of generations retained
+     */
+    @Test
+    public void test_retainedGenerations() throws IOException, VaporException{
+        File file = directory.resolve("market.ser").toFile();
+        MarketSnapshot.retainGenerations(2);
+        try {
+            for (int i = 0; i < 4; i++) {
+                market.getUser("snapshot full").forceAddCredit(1);
+                MarketSnapshot.write(market, file);
+            }
+        } finally {
+            MarketSnapshot.retainGenerations(MarketSnapshot.DEFAULT_RETAINED_GENERATIONS);
+        }
+
+        assertFalse(directory.resolve("market.ser.1").toFile().exists());
+        assertEquals(3002, MarketSnapshot.read(directory.resolve("market.ser.2").toFile())
+                .getUser("snapshot full").getCredit());
+        assertEquals(3003, MarketSnapshot.read(directory.resolve("market.ser.3").toFile())
+                .getUser("snapshot full").getCredit());
+        assertEquals(3004, MarketSnapshot.read(file).getUser("snapshot full").getCredit());
+    }
+
+    /**
+     * Asserts that a market matches the one changed in test_delta
+     */
+    private void assertDelta(Market loaded) throws VaporException{
+        assertEquals(103, loaded.getUsers().size());
+        assertEquals(1007, loaded.getUser("snapshot user 7").getCredit());
+        assertTrue(((BuyerUser) loaded.getUser("snapshot user 9")).getInventory().containsEntry("Delta Game"));
+        assertFalse(loaded.existsUser("snapshot user 8"));
+        assertEquals(User.UserType.SELLER, loaded.getUser("snapshot user 10").getUserType());
+        assertEquals(42, loaded.getUser("snapshot user 42").getCredit());
+        assertEquals(1500, loaded.getUser("snapshot buyer").getCredit());
+    }
+
+    /**
+     * Asserts that a loaded market matches the one set up
+     */
+    private void assertMatches(Market loaded) throws VaporException{
+        assertEquals(4, loaded.getUsers().size());
+        assertTrue(loaded.saleActivated);
+        assertArrayEquals(market.getStats().getValues(), loaded.getStats().getValues());
+        assertEquals("snapshot buyer", loaded.getActiveUser().getUsername());
+
+        BuyerUser buyer = (BuyerUser) loaded.getUser("snapshot buyer");
+        assertEquals(1500, buyer.getCredit());
+        assertEquals(100000 - 500, buyer.getDailyCreditAvailability());
+        assertSame(loaded.getGames().getGame("Smash Bros"), buyer.getInventory().getEntry("Smash Bros"));
+        assertTrue(buyer.getInventory().containsEntry("Pending Game"));
+        assertThrows(VaporException.class, () -> buyer.getInventory().getEntry("Pending Game"));
+
+        SellerUser seller = (SellerUser) loaded.getUser("snapshot seller");
+        Listing listing = seller.getStoreFront().getEntry("Smash Bros");
+        assertEquals(2500, listing.getPrice());
+        assertEquals(12.5f, listing.getDiscount());
+        assertThrows(VaporException.class, () -> seller.getStoreFront().getEntry("Pending Game"));
+
+        assertEquals(User.UserType.FULL, loaded.getUser("snapshot full").getUserType());
+        assertEquals(User.UserType.ADMIN, loaded.getUser("snapshot admin").getUserType());
+
+        loaded.endDay();
+        assertDoesNotThrow(() -> buyer.getInventory().getEntry("Pending Game"));
+        assertDoesNotThrow(() -> seller.getStoreFront().getEntry("Pending Game"));
+    }
+}
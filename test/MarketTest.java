@@ -3,6 +3,8 @@ package test;
 import org.junit.jupiter.api.*;
 import org.junit.jupiter.api.function.Executable;
 import vapor.Market;
+import vapor.Session;
+import vapor.transactions.TransactionBuilder;
 import vapor.exceptions.*;
 import static org.junit.jupiter.api.Assertions.*;
 import vapor.users.*;
@@ -270,6 +272,81 @@ public class MarketTest {
         }
     }
 
+    /**
+     * Tests that users log in and out of sessions opened on the market
+     * independently of each other and of the market's own session
+     */
+    @Test
+    public void test_sessions() throws VaporException{
+        market.forceAddUser(admin_user);
+        market.forceAddUser(buyer_user);
+        Session first = market.openSession();
+        Session second = market.openSession();
+
+        market.loginUser(first, admin_user);
+        market.loginUser(second, buyer_user);
+        assertNull(market.getActiveUser());
+        assertTrue(first.isAuthorised());
+        assertFalse(second.isAuthorised());
+        assertThrows(UnauthorisedUserException.class, () -> {market.toggleAuctionSale(second);});
+        market.toggleAuctionSale(first);
+        assertTrue(market.getAuctionSale());
+
+        assertEquals(buyer_user, market.logoutUser(second));
+        assertThrows(NoLoginException.class, () -> {market.logoutUser(second);});
+        assertEquals(admin_user, first.getUser());
+        market.closeSession(second);
+
+        market.resumeSession(first);
+        assertNull(first.getUser());
+        assertEquals(admin_user, market.getActiveUser());
+        assertTrue(market.isAuthorisedState());
+    }
+
+    /**
+     * Tests that threads refunding between the same users in opposite
+     * directions in concurrent mode neither deadlock nor lose any credit
+     */
+    @Test
+    public void test_concurrentMode() throws VaporException, InterruptedException{
+        for (int i = 0; i < 4; i++)
+            market.forceAddUser(new StandardUser("concurrent " + i, 100000));
+        market.forceAddUser(admin_user);
+        market.enableConcurrentMode(16);
+        assertTrue(market.isConcurrent());
+
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            String from = String.format("%-15s", "concurrent " + t);
+            String to = String.format("%-15s", "concurrent " + (t + 1) % threads.length);
+            threads[t] = new Thread(() -> {
+                try {
+                    Session session = market.openSession();
+                    market.loginUser(session, admin_user);
+                    for (int i = 0; i < 1000; i++) {
+                        new TransactionBuilder("05 " + from + " " + to + " 000001.00").parse().execute(market, session);
+                        new TransactionBuilder("05 " + to + " " + from + " 000001.00").parse().execute(market, session);
+                    }
+                    market.closeSession(session);
+                } catch (VaporException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            threads[t].setDaemon(true);
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join(30000);
+            assertFalse(thread.isAlive());
+        }
+
+        long total = 0;
+        for (int i = 0; i < 4; i++)
+            total += market.getUser("concurrent " + i).getCredit();
+        assertEquals(400000, total);
+        assertEquals(8000f, market.getStats().getValues()[2]);
+    }
+
     /**
      * Resets the market to null
      */
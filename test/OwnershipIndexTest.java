@@ -0,0 +1,90 @@
+package test;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+
+import vapor.Game;
+import vapor.Market;
+import vapor.MarketSnapshot;
+import vapor.exceptions.VaporException;
+import vapor.transactions.TransactionBuilder;
+import vapor.users.AdminUser;
+import vapor.users.BuyerUser;
+import vapor.users.StandardUser;
+
+/**
+ * Tests the functionality of OwnershipIndex.java
+ */
+public class OwnershipIndexTest {
+
+    @TempDir
+    Path directory;
+
+    Market market;
+
+    /**
+     * Creates a market in which a few users own a few games
+     */
+    @BeforeEach
+    public void setup() throws VaporException{
+        market = new Market();
+        for (int i = 0; i < 10; i++) {
+            BuyerUser user = new BuyerUser("owner user " + i, 100);
+            user.getInventory().addEntry(new Game("Owned Game"));
+            if (i % 2 == 0)
+                user.getInventory().addEntry(new Game("Even Game"));
+            user.getInventory().endDay();
+            market.forceAddUser(user);
+        }
+        market.forceAddUser(new AdminUser("owner admin", 100));
+    }
+
+    /**
+     * Tests that the index follows games gifted, removed and deleted with their
+     * owners
+     */
+    @Test
+    public void test_transactions() throws VaporException{
+        assertEquals(10, market.getOwnerCount("Owned Game"));
+        assertEquals(5, market.getOwnerCount("Even Game"));
+        assertEquals(0, market.getOwnerCount("Unowned Game"));
+
+        market.loginUser(market.getUser("owner admin"));
+        new TransactionBuilder("09 Even Game                 owner user 0    owner user 1   ").parse().execute(market);
+        assertArrayEquals(new String[] { "owner user 1", "owner user 2", "owner user 4", "owner user 6",
+                "owner user 8" }, market.getOwners("Even Game"));
+
+        ((BuyerUser) market.getUser("owner user 3")).getInventory().remove("Owned Game");
+        market.removeUser(market.getUser("owner user 4"));
+        assertEquals(8, market.getOwnerCount("Owned Game"));
+        assertEquals(4, market.getOwnerCount("Even Game"));
+    }
+
+    /**
+     * Tests that the index is restored from beside the snapshot, and rebuilt
+     * from the snapshot's users if it is missing
+     */
+    @Test
+    public void test_snapshot() throws IOException, VaporException{
+        File file = directory.resolve("market.ser").toFile();
+        MarketSnapshot.save(market, file);
+
+        Market loaded = MarketSnapshot.read(file);
+        assertEquals(10, loaded.getOwnerCount("Owned Game"));
+        ((BuyerUser) loaded.getUser("owner user 1")).getInventory().addEntry(new Game("Even Game"));
+        assertEquals(6, loaded.getOwnerCount("Even Game"));
+        MarketSnapshot.save(loaded, file);
+
+        assertTrue(new File(file.getPath() + ".owners").delete());
+        Market rebuilt = MarketSnapshot.read(file);
+        StandardUser newcomer = new StandardUser("owner newcomer", 100);
+        newcomer.getInventory().addEntry(new Game("Owned Game"));
+        rebuilt.forceAddUser(newcomer);
+        assertEquals(11, rebuilt.getOwnerCount("Owned Game"));
+        assertEquals(6, rebuilt.getOwnerCount("Even Game"));
+    }
+}
@@ -0,0 +1,272 @@
+package test;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeMap;
+
+import vapor.Game;
+import vapor.Listing;
+import vapor.Market;
+import vapor.MarketJournal;
+import vapor.MarketSnapshot;
+import vapor.exceptions.ErrorLogger;
+import vapor.exceptions.VaporException;
+import vapor.transactions.SessionExecutor;
+import vapor.transactions.Transaction;
+import vapor.transactions.Transaction.TransactionType;
+import vapor.transactions.TransactionBuilder;
+import vapor.users.AdminUser;
+import vapor.users.Buyer;
+import vapor.users.BuyerUser;
+import vapor.users.Seller;
+import vapor.users.SellerUser;
+import vapor.users.User;
+
+/**
+ * Tests the functionality of SessionExecutor.java
+ */
+public class SessionExecutorTest {
+    @TempDir
+    Path directory;
+
+    /**
+     * Creates a market in which sellers list a few games to buyers
+     */
+    private Market createMarket() throws VaporException{
+        Market market = new Market();
+        for (int i = 0; i < 8; i++) {
+            SellerUser seller = new SellerUser("seller " + i, 100000);
+            for (int j = 0; j < 4; j++)
+                seller.list(new Listing(new Game("Session Game " + j), 1000 + i * 100 + j, 50f));
+            seller.getStoreFront().endDay();
+            market.forceAddUser(seller);
+            market.forceAddUser(new BuyerUser("buyer " + i, 5000));
+        }
+        market.forceAddUser(new AdminUser("session admin", 100000));
+        market.forceAddUser(new SellerUser("idle seller", 0));
+        return market;
+    }
+
+    /**
+     * Pads a field of a transaction record to its width
+     */
+    private String pad(String field, int width) {
+        StringBuilder builder = new StringBuilder(field);
+        while (builder.length() < width)
+            builder.append(' ');
+        return builder.toString();
+    }
+
+    /**
+     * Creates a day of sessions, some of which conflict and some of which fail
+     */
+    private List<Transaction> createDay() throws VaporException{
+        return createDay(0);
+    }
+
+    /**
+     * Creates a day of sessions, some of which conflict and some of which fail.
+     * On the first day an idle seller lists a game; every day a buy without a
+     * login names the seller, which is then only loaded by running in parallel
+     */
+    private List<Transaction> createDay(int day) throws VaporException{
+        ArrayList<String> records = new ArrayList<>();
+        if (day == 0) {
+            records.add("00 " + pad("idle seller", 15) + " SS 000000.00");
+            records.add("03 " + pad("Idle Game", 25) + " " + pad("idle seller", 15) + " 00.00 010.00");
+            records.add("10 " + pad("idle seller", 15) + " SS 000000.00");
+        }
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 8; i++) {
+                String buyer = pad("buyer " + i, 15);
+                records.add("00 " + buyer + " BS 000000.00");
+                records.add("04 " + pad("Session Game " + (i + round) % 4, 25) + " " + pad("seller " + (i + round) % 8, 15) + " " + buyer);
+                records.add("04 " + pad("Session Game " + (i + round) % 4, 25) + " " + pad("seller " + (i + round) % 8, 15) + " " + buyer);
+                records.add("06 " + buyer + " BS 000010.00");
+                records.add("10 " + buyer + " BS 000000.00");
+            }
+            records.add("00 " + pad("session admin", 15) + " AA 000000.00");
+            records.add("07 " + pad("session admin", 15) + " AA 000000.00");
+            records.add("05 " + pad("buyer " + round, 15) + " " + pad("seller " + round, 15) + " 000005.00");
+            records.add("01 " + pad("new user " + round, 15) + " FS 000010.00");
+            records.add("10 " + pad("session admin", 15) + " AA 000000.00");
+            records.add("00 " + pad("missing user", 15) + " BS 000000.00");
+            records.add("10 " + pad("missing user", 15) + " BS 000000.00");
+        }
+        records.add("04 " + pad("Idle Game", 25) + " " + pad("idle seller", 15) + " " + pad("buyer 0", 15));
+        records.add("00 " + pad("buyer 7", 15) + " BS 000000.00");
+
+        ArrayList<Transaction> transactions = new ArrayList<>();
+        for (String record : records)
+            transactions.add(new TransactionBuilder(record).parse());
+        return transactions;
+    }
+
+    /**
+     * Tests that executing sessions in parallel leaves the market, its
+     * statistics and the error log as executing them in order does
+     */
+    @Test
+    public void test_matchesSequential() throws VaporException{
+        Market sequential = createMarket();
+        ErrorLogger.hold();
+        for (Transaction transaction : createDay())
+            transaction.execute(sequential);
+        List<String> sequentialErrors = ErrorLogger.release();
+
+        Market parallel = createMarket();
+        ErrorLogger.hold();
+        new SessionExecutor(4).execute(createDay(), parallel);
+        List<String> parallelErrors = ErrorLogger.release();
+
+        assertFalse(sequentialErrors.isEmpty());
+        assertEquals(sequentialErrors, parallelErrors);
+        assertArrayEquals(sequential.getStats().getValues(), parallel.getStats().getValues());
+        assertEquals(sequential.getAuctionSale(), parallel.getAuctionSale());
+        assertEquals("buyer 7", parallel.getActiveUser().getUsername());
+
+        assertEquals(sequential.getUsers().keySet(), parallel.getUsers().keySet());
+        for (User user : sequential.getUsers().values()) {
+            User other = parallel.getUser(user.getUsername());
+            assertEquals(user.getCredit(), other.getCredit());
+            if (user instanceof BuyerUser) {
+                Game[] games = ((BuyerUser) user).getInventory().getEntries();
+                Game[] otherGames = ((BuyerUser) other).getInventory().getEntries();
+                assertEquals(games.length, otherGames.length);
+                for (Game game : games)
+                    assertTrue(((BuyerUser) other).getInventory().containsEntry(game.getName()));
+            }
+        }
+        assertTrue(parallel.getOwnerCount("Session Game 0") > 0);
+        for (int j = 0; j < 4; j++)
+            assertEquals(Arrays.asList(sequential.getOwners("Session Game " + j)),
+                    Arrays.asList(parallel.getOwners("Session Game " + j)));
+    }
+
+    /**
+     * Describes what the export of a market holds: each user's credit and
+     * visible games and listings, by username
+     */
+    private TreeMap<String, String> export(Market market) {
+        TreeMap<String, String> users = new TreeMap<>();
+        for (User user : market.getAllUsers()) {
+            StringBuilder builder = new StringBuilder().append(user.getCredit());
+            if (user instanceof Buyer)
+                for (Game game : ((Buyer) user).getInventory().getEntries())
+                    builder.append(" game ").append(game.getName());
+            if (user instanceof Seller)
+                for (Listing listing : ((Seller) user).getStoreFront().getEntries())
+                    builder.append(" listing ").append(listing.getGame().getName()).append(' ').append(listing.getPrice());
+            users.put(user.getUsername(), builder.toString());
+        }
+        return users;
+    }
+
+    /**
+     * Runs three days on a market loaded from a snapshot, saving it after each
+     * as a daily run does, and describes the export of each day
+     */
+    private List<TreeMap<String, String>> runDays(File snapshot, int parallelism) throws IOException, VaporException{
+        File file = directory.resolve("market " + parallelism + ".ser").toFile();
+        MarketSnapshot.save(MarketSnapshot.read(snapshot), file);
+
+        ArrayList<TreeMap<String, String>> exports = new ArrayList<>();
+        for (int day = 0; day < 3; day++) {
+            Market market = MarketSnapshot.read(file);
+            MarketJournal journal = MarketJournal.open(directory.resolve("market " + parallelism + ".journal").toFile(),
+                    market, 16);
+            if (parallelism == 0) {
+                for (Transaction transaction : createDay(day)) {
+                    transaction.execute(market);
+                    journal.applied();
+                }
+            } else {
+                new SessionExecutor(parallelism).execute(createDay(day).iterator(), market, journal);
+            }
+            journal.commit();
+            market.endDay();
+            exports.add(export(market));
+            MarketSnapshot.save(market, file);
+            journal.delete();
+        }
+        return exports;
+    }
+
+    /**
+     * Tests that days run in parallel on a market loaded from a snapshot export
+     * the same market as days run in order
+     */
+    @Test
+    public void test_matchesSequentialDays() throws IOException, VaporException{
+        File snapshot = directory.resolve("market.ser").toFile();
+        MarketSnapshot.save(createMarket(), snapshot);
+
+        ErrorLogger.hold();
+        List<TreeMap<String, String>> sequential = runDays(snapshot, 0);
+        List<String> sequentialErrors = ErrorLogger.release();
+        for (int parallelism : new int[] { 1, 4 }) {
+            ErrorLogger.hold();
+            List<TreeMap<String, String>> parallel = runDays(snapshot, parallelism);
+            List<String> parallelErrors = ErrorLogger.release();
+
+            for (int day = 0; day < sequential.size(); day++)
+                assertEquals(sequential.get(day), parallel.get(day), "--parallel=" + parallelism + ", day " + day);
+            assertEquals(sequentialErrors, parallelErrors, "--parallel=" + parallelism);
+        }
+    }
+
+    /**
+     * Tests that a day run in parallel and interrupted partway resumes from its
+     * journal at the end of a session, and then matches the day run in order
+     */
+    @Test
+    public void test_resumesFromJournal() throws IOException, VaporException{
+        File snapshot = directory.resolve("market.ser").toFile();
+        File journalFile = directory.resolve("market.journal").toFile();
+        MarketSnapshot.save(createMarket(), snapshot);
+
+        Market sequential = MarketSnapshot.read(snapshot);
+        ErrorLogger.hold();
+        for (Transaction transaction : createDay(0))
+            transaction.execute(sequential);
+
+        List<Transaction> day = createDay(0);
+        Iterator<Transaction> interrupted = new Iterator<Transaction>() {
+            int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                if (next == 60)
+                    throw new IllegalStateException("interrupted");
+                return next < day.size();
+            }
+
+            @Override
+            public Transaction next() {
+                return day.get(next++);
+            }
+        };
+        Market crashed = MarketSnapshot.read(snapshot);
+        MarketJournal journal = MarketJournal.open(journalFile, crashed, 16);
+        assertThrows(IllegalStateException.class, () -> new SessionExecutor(4).execute(interrupted, crashed, journal));
+
+        Market resumed = MarketSnapshot.read(snapshot);
+        MarketJournal reopened = MarketJournal.open(journalFile, resumed, 16);
+        long applied = reopened.getApplied();
+        assertTrue(applied >= 16 && applied < 60);
+        assertEquals(TransactionType.LOGOUT, day.get((int) applied - 1).getType());
+
+        new SessionExecutor(4).execute(createDay(0).iterator(), resumed, reopened);
+        reopened.close();
+        ErrorLogger.release();
+        assertEquals(export(sequential), export(resumed));
+    }
+}
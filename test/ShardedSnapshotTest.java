@@ -0,0 +1,141 @@
+package test;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+
+import vapor.Game;
+import vapor.Market;
+import vapor.MarketSnapshot;
+import vapor.SerializeMarket;
+import vapor.exceptions.VaporException;
+import vapor.users.AdminUser;
+import vapor.users.BuyerUser;
+import vapor.users.User;
+
+/**
+ * Tests the functionality of ShardedSnapshot.java
+ */
+public class ShardedSnapshotTest {
+
+    @TempDir
+    Path directory;
+
+    File file;
+    Market market;
+
+    /**
+     * Creates a market of a hundred users to be saved in four shards
+     */
+    @BeforeEach
+    public void setup() throws VaporException{
+        file = directory.resolve("market.ser").toFile();
+        market = new Market();
+        for (int i = 0; i < 100; i++)
+            market.forceAddUser(new BuyerUser("shard user " + i, i));
+        ((BuyerUser) market.getUser("shard user 1")).getInventory().addEntry(new Game("Shard Game"));
+        market.addPendingEndOfDay(((BuyerUser) market.getUser("shard user 1")).getInventory());
+        market.saleActivated = true;
+        market.loginUser(market.getUser("shard user 0"));
+        market.setShards(4);
+    }
+
+    /**
+     * Counts the shard files beside the manifest
+     */
+    private int countShards(){
+        return directory.toFile().list((parent, name) -> name.startsWith("market.ser.shard")).length;
+    }
+
+    /**
+     * Tests that a sharded snapshot restores every user and the market state
+     */
+    @Test
+    public void test_roundTrip() throws IOException, VaporException{
+        MarketSnapshot.save(market, file);
+        assertFalse(MarketSnapshot.isSnapshot(file));
+        assertEquals(4, countShards());
+
+        Market loaded = SerializeMarket.load(file.getPath());
+        assertEquals(4, loaded.getShards());
+        assertTrue(loaded.saleActivated);
+        assertEquals("shard user 0", loaded.getActiveUser().getUsername());
+        assertEquals(100, loaded.getUsers().size());
+        assertEquals(42, loaded.getUser("shard user 42").getCredit());
+
+        loaded.endDay();
+        assertDoesNotThrow(() -> ((BuyerUser) loaded.getUser("shard user 1")).getInventory().getEntry("Shard Game"));
+    }
+
+    /**
+     * Tests that saving a loaded sharded market appends to its shards, and that
+     * a delta its manifest does not commit is ignored
+     */
+    @Test
+    public void test_delta() throws IOException, VaporException{
+        MarketSnapshot.save(market, file);
+
+        Market loaded = MarketSnapshot.read(file);
+        loaded.getUser("shard user 7").forceAddCredit(1000);
+        loaded.logoutUser();
+        loaded.loginUser(new AdminUser("shard admin", 0));
+        loaded.removeUser(loaded.getUser("shard user 8"));
+        loaded.logoutUser();
+        MarketSnapshot.save(loaded, file);
+        assertEquals(4, countShards());
+
+        for (File shard : directory.toFile().listFiles((parent, name) -> name.startsWith("market.ser.shard")))
+            try (FileOutputStream torn = new FileOutputStream(shard, true)) {
+                torn.write(new byte[] { 1, 2, 3 });
+            }
+
+        Market reloaded = MarketSnapshot.read(file);
+        assertNull(reloaded.getActiveUser());
+        assertEquals(99, reloaded.getUsers().size());
+        assertEquals(1007, reloaded.getUser("shard user 7").getCredit());
+        assertFalse(reloaded.existsUser("shard user 8"));
+
+        reloaded.getUser("shard user 9").forceAddCredit(1);
+        MarketSnapshot.save(reloaded, file);
+        assertEquals(10, MarketSnapshot.read(file).getUser("shard user 9").getCredit());
+    }
+
+    /**
+     * Tests that a market is moved between a single snapshot and shards, and
+     * that shard files no longer referenced are deleted
+     */
+    @Test
+    public void test_reshard() throws IOException, VaporException{
+        market.setShards(1);
+        MarketSnapshot.save(market, file);
+        assertTrue(MarketSnapshot.isSnapshot(file));
+
+        Market loaded = MarketSnapshot.read(file);
+        loaded.getUser("shard user 5").forceAddCredit(100);
+        loaded.setShards(3);
+        MarketSnapshot.save(loaded, file);
+        assertEquals(3, countShards());
+
+        Market sharded = MarketSnapshot.read(file);
+        assertEquals(3, sharded.getShards());
+        assertEquals(105, sharded.getUser("shard user 5").getCredit());
+        int count = 0;
+        for (User user : sharded.getAllUsers())
+            count++;
+        assertEquals(100, count);
+
+        MarketSnapshot.retainGenerations(0);
+        try {
+            sharded.setShards(2);
+            MarketSnapshot.save(sharded, file);
+        } finally {
+            MarketSnapshot.retainGenerations(MarketSnapshot.DEFAULT_RETAINED_GENERATIONS);
+        }
+        assertEquals(2, countShards());
+        assertEquals(100, MarketSnapshot.read(file).getUsers().size());
+    }
+}
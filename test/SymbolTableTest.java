@@ -0,0 +1,134 @@
+package test;
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import vapor.Market;
+import vapor.SymbolTable;
+import vapor.exceptions.VaporException;
+import vapor.transactions.TransactionBuilder;
+import vapor.users.StandardUser;
+import vapor.users.User;
+
+/**
+ * Tests the functionality of SymbolTable.java
+ */
+public class SymbolTableTest {
+
+    SymbolTable symbols = new SymbolTable();
+
+    /**
+     * Tests that equal symbols intern to the same instance and id
+     */
+    @Test
+    public void test_intern(){
+        String first = symbols.intern(new String("symbol test user"));
+        String second = symbols.intern(new String("symbol test user"));
+
+        assertSame(first, second);
+        assertEquals(symbols.id(first), symbols.id(new String("symbol test user")));
+        assertSame(first, symbols.symbol(symbols.id(first)));
+        assertNull(symbols.intern(null));
+    }
+
+    /**
+     * Tests that finding a symbol does not add it
+     */
+    @Test
+    public void test_find(){
+        int size = symbols.size();
+
+        assertEquals(-1, symbols.find("symbol test unknown"));
+        assertEquals(size, symbols.size());
+        assertEquals(symbols.id("symbol test known"), symbols.find(new String("symbol test known")));
+    }
+
+    /**
+     * Tests that looking a symbol up returns its canonical instance if known,
+     * without adding it otherwise
+     */
+    @Test
+    public void test_canonical(){
+        String known = symbols.intern("symbol test known");
+        String record = "00 symbol test unknown";
+        int size = symbols.size();
+
+        assertSame(known, symbols.canonical(new String("symbol test known")));
+        assertEquals("symbol test unknown", symbols.canonical(record, 3, record.length()));
+        assertEquals(-1, symbols.find("symbol test unknown"));
+        assertEquals(size, symbols.size());
+    }
+
+    /**
+     * Tests that a span of a record interns to the same instance as the String
+     */
+    @Test
+    public void test_internSpan(){
+        String record = "03 symbol test game        sellerName     050.0";
+        String game = symbols.intern("symbol test game");
+
+        assertSame(game, symbols.intern(record, 3, 19));
+        assertEquals(symbols.id(game), symbols.id(record, 3, 19));
+    }
+
+    /**
+     * Tests that interning stays correct as the table grows
+     */
+    @Test
+    public void test_grow(){
+        for (int i = 0; i < 5000; i++) {
+            String symbol = "symbol grow " + i;
+            assertEquals(symbol, symbols.intern(new String(symbol)));
+            assertEquals(symbol, symbols.intern(symbol + "!", 0, symbol.length()));
+        }
+    }
+
+    /**
+     * Tests that a user added to a market holds the canonical username of that
+     * market's own table, and that records naming unknown users do not grow it
+     */
+    @Test
+    public void test_canonicalNames() throws VaporException{
+        Market market = new Market();
+        User user = market.forceAddUser(new StandardUser(new String("symbol canonical user"), 0));
+
+        assertSame(market.getSymbols().intern("symbol canonical user"), user.getUsername());
+        assertEquals(-1, new Market().getSymbols().find("symbol canonical user"));
+
+        int size = market.getSymbols().size();
+        new TransactionBuilder("00 symbol stranger FS 000000.00", market.getSymbols()).parse();
+        assertEquals(size, market.getSymbols().size());
+    }
+
+    /**
+     * Tests that concurrent interning assigns each symbol exactly one id
+     */
+    @Test
+    public void test_concurrentIntern() throws InterruptedException{
+        ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+        List<Thread> threads = new ArrayList<>();
+
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 2000; i++) {
+                    String symbol = "symbol concurrent " + i;
+                    int id = symbols.id(symbol);
+                    Integer previous = ids.putIfAbsent(symbol, id);
+                    if (previous != null)
+                        assertEquals(previous.intValue(), id);
+                    assertEquals(symbol, symbols.symbol(id));
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+
+        assertEquals(2000, ids.size());
+        assertEquals(2000, ids.values().stream().distinct().count());
+    }
+}
@@ -0,0 +1,66 @@
+package test;
+
+import org.junit.jupiter.api.*;
+import vapor.Market;
+import vapor.exceptions.*;
+import vapor.transactions.*;
+import vapor.users.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the functionality of TransactionBatch.java and BatchExecutor.java
+ */
+public class TransactionBatchTest {
+    Market market;
+    TransactionBatch batch;
+    StandardUser user;
+
+    /**
+     * Creates a market, a user and a batch used for testing
+     */
+    @BeforeEach
+    public void setup() {
+        try {
+            market = new Market();
+            user = new StandardUser("Dinodaddy#", 1000);
+            market.forceAddUser(user);
+            batch = new TransactionBatch();
+            batch.add("00 Dinodaddy#      FS 000010.00");
+            batch.add("06 Dinodaddy#      FS 000005.25");
+            batch.add("03 Smash Bros                Dinodaddy#      12.50 010.00");
+            batch.add("10 Dinodaddy#      FS 000015.25");
+        } catch (final VaporException e) {
+            ErrorLogger.log(ErrorLogger.ErrorType.ERROR, "TransactionBatchTest, setup", e.getError());
+        }
+    }
+
+    /**
+     * Tests that records are decoded into the batch columns
+     */
+    @Test
+    public void test_add() {
+        assertEquals(4, batch.size());
+        assertEquals(6, batch.getCode(1));
+        assertEquals("Dinodaddy#", batch.getUserID1(1));
+        assertSame(batch.getUserID1(0), batch.getUserID1(3));
+        assertEquals(User.UserType.FULL, batch.getUserType(1));
+        assertEquals(525, batch.getCredit(1));
+        assertEquals("Smash Bros", batch.getGameID(2));
+        assertEquals(1000, batch.getPrice(2));
+        assertEquals(12.5f, batch.getDiscount(2));
+        assertNull(batch.getUserID2(2));
+        assertThrows(InvalidTransactionCodeException.class, () -> batch.add("11 Dinodaddy#      FS 000010.00"));
+    }
+
+    /**
+     * Tests that the executor runs every record of the batch in order
+     */
+    @Test
+    public void test_execute() {
+        new BatchExecutor().execute(batch, market);
+        assertEquals(1525, user.getCredit());
+        assertTrue(user.getStoreFront().containsEntry("Smash Bros"));
+        assertNull(market.getActiveUser());
+    }
+}
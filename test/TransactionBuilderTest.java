@@ -96,6 +96,58 @@ public class TransactionBuilderTest {
         }
     }
 
+    /**
+     * Tests that the cursor parser agrees with the reference regex parser on every record,
+     * both in the fields it splits and in the values it decodes.
+     */
+    @Test
+    public void test_parseModes() {
+        String[] records = new String[]{login, create, delete, addCredit, auctionSale, buy, sell, refund, logout, gift,
+                "08 Smash Bros                Dinodaddy#      _______________",
+                "03 Smash Bros                Dinodaddy#      99.99 999.99",
+                "00 Dinodaddy#\u00e9     AA 999999.99",
+                "00 Dinodaddy#     \n AA 000010.00",
+                "00 Dinodaddy#      AA 000010.00 ",
+                "04 Smash Bros                Dinodaddy#      UUUUUUUUUUUUUU\u2028",
+                "09 \tmash Bros                Dinodaddy#      UUUUUUUUUUUUUUU",
+                "0", "", "ji", "12 UUUUUUUUUUUUUUU AA 000010.00",
+                "00  UUUUUUUUUUUUUU AA 000010.00", "00 UUUUUUUUUUUUUUU YO 000010.00",
+                "03 Smash Bros                Dinodaddy#      1.000 000.00",
+                "03 Smash Bros                Dinodaddy#      05.50 123.45",
+                "01 Dinodaddy#      SS 123456.78", "05 BBBBBBBBBBBBB   Dinodaddy#      999999.99"};
+
+        for (String record : records) {
+            TransactionBuilder cursor = null;
+            TransactionBuilder regex = null;
+            try {
+                cursor = new TransactionBuilder(record, TransactionBuilder.ParseMode.CURSOR);
+            } catch (final InvalidTransactionCodeException e) {
+            }
+            try {
+                regex = new TransactionBuilder(record, TransactionBuilder.ParseMode.REGEX);
+            } catch (final InvalidTransactionCodeException e) {
+            }
+
+            assertEquals(regex == null, cursor == null, record);
+            if (regex == null)
+                continue;
+
+            assertEquals(regex.getFieldCount(), cursor.getFieldCount(), record);
+            for (int i = 1; i <= regex.getFieldCount(); i++)
+                assertEquals(regex.getField(i), cursor.getField(i), record);
+
+            try {
+                assertEquals(regex.parse().getClass(), cursor.parse().getClass(), record);
+            } catch (final VaporException e) {
+                fail(e.getError());
+            }
+            assertEquals(regex.getUserType(), cursor.getUserType(), record);
+            assertEquals(regex.getCredit(), cursor.getCredit(), record);
+            assertEquals(regex.getPrice(), cursor.getPrice(), record);
+            assertEquals(regex.getDiscount(), cursor.getDiscount(), record);
+        }
+    }
+
     public TransactionBuilder transactionBuilder_helper(String transaction) throws InvalidTransactionCodeException {
         return new TransactionBuilder(transaction);
     }
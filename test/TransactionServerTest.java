@@ -0,0 +1,306 @@
+package test;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.Semaphore;
+
+import vapor.Market;
+import vapor.MarketJournal;
+import vapor.MarketSnapshot;
+import vapor.TransactionServer;
+import vapor.exceptions.VaporException;
+import vapor.users.BuyerUser;
+
+/**
+ * Tests the functionality of TransactionServer.java
+ */
+public class TransactionServerTest {
+    @TempDir
+    Path directory;
+
+    Market market;
+    TransactionServer server;
+    Thread serving;
+
+    /**
+     * Creates a market of a few buyers
+     */
+    @BeforeEach
+    public void setup() throws VaporException{
+        market = new Market();
+        for (int i = 0; i < 8; i++)
+            market.forceAddUser(new BuyerUser("server buyer " + i, 0));
+    }
+
+    /**
+     * Starts a server for the market on its own thread
+     */
+    private void start(String address) throws IOException{
+        MarketJournal journal = MarketJournal.open(directory.resolve("market.journal").toFile(), market, 16,
+                "terminals");
+        server = new TransactionServer(TransactionServer.address(address), market, journal);
+        serving = new Thread(() -> {
+            try {
+                server.serve();
+            } catch (IOException e) {
+            }
+        });
+        serving.start();
+    }
+
+    /**
+     * Stops the server once every record received is applied
+     */
+    private void stop() throws IOException, InterruptedException{
+        server.close();
+        serving.join(30000);
+        assertFalse(serving.isAlive());
+    }
+
+    /**
+     * Pads a field of a transaction record to its width
+     */
+    private String pad(String field) {
+        StringBuilder builder = new StringBuilder(field);
+        while (builder.length() < 15)
+            builder.append(' ');
+        return builder.toString();
+    }
+
+    /**
+     * Tests that each record is answered in order, with OK or the errors it logged
+     */
+    @Test
+    public void test_replies() throws IOException, InterruptedException, VaporException{
+        start("0");
+        try (SocketChannel channel = SocketChannel.open(server.getAddress())) {
+            BufferedReader input = new BufferedReader(Channels.newReader(channel, StandardCharsets.UTF_8));
+            Writer output = Channels.newWriter(channel, StandardCharsets.UTF_8);
+
+            output.write("00 " + pad("server buyer 0") + " BS 000000.00\n");
+            output.flush();
+            assertEquals("OK", input.readLine());
+
+            output.write("06 " + pad("server buyer 0") + " BS 000010.00\n");
+            output.write("99 not a record\n");
+            output.write("00 " + pad("server buyer 1") + " BS 000000.00\n");
+            output.write("10 " + pad("server buyer 0") + " BS 000010.00\n");
+            output.flush();
+            assertEquals("OK", input.readLine());
+            assertTrue(input.readLine().startsWith("ERROR"));
+            assertTrue(input.readLine().startsWith("ERROR"));
+            assertEquals("OK", input.readLine());
+        }
+        stop();
+
+        assertEquals(1000, market.getUser("server buyer 0").getCredit());
+        assertNull(market.getActiveUser());
+    }
+
+    /**
+     * Tests that pipelined records from many connections over a Unix-domain
+     * socket are all applied, each connection in its own session
+     */
+    @Test
+    public void test_concurrentConnections() throws IOException, InterruptedException, VaporException{
+        start(directory.resolve("vapor.sock").toString());
+        assertTrue(server.getAddress() instanceof UnixDomainSocketAddress);
+
+        Thread[] terminals = new Thread[8];
+        boolean[] answered = new boolean[terminals.length];
+        for (int t = 0; t < terminals.length; t++) {
+            int terminal = t;
+            terminals[t] = new Thread(() -> {
+                try (SocketChannel channel = SocketChannel.open(server.getAddress())) {
+                    BufferedReader input = new BufferedReader(Channels.newReader(channel, StandardCharsets.UTF_8));
+                    Writer output = Channels.newWriter(channel, StandardCharsets.UTF_8);
+
+                    String username = pad("server buyer " + terminal);
+                    output.write("00 " + username + " BS 000000.00\n");
+                    for (int i = 0; i < 100; i++)
+                        output.write("06 " + username + " BS 000001.00\n");
+                    output.write("10 " + username + " BS 000100.00\n");
+                    output.flush();
+
+                    boolean ok = true;
+                    for (int i = 0; i < 102; i++)
+                        ok &= "OK".equals(input.readLine());
+                    answered[terminal] = ok;
+                } catch (IOException e) {
+                }
+            });
+            terminals[t].start();
+        }
+        for (Thread terminal : terminals)
+            terminal.join(30000);
+        stop();
+
+        for (int t = 0; t < terminals.length; t++) {
+            assertTrue(answered[t]);
+            assertEquals(10000, market.getUser("server buyer " + t).getCredit());
+        }
+    }
+
+    /**
+     * Tests that a record answered is already committed to the journal, so the
+     * market recovered from a crash right after the reply holds it
+     */
+    @Test
+    public void test_answeredIsDurable() throws IOException, InterruptedException, VaporException{
+        File snapshot = directory.resolve("market.ser").toFile();
+        MarketSnapshot.save(market, snapshot);
+        start("0");
+        try (SocketChannel channel = SocketChannel.open(server.getAddress())) {
+            BufferedReader input = new BufferedReader(Channels.newReader(channel, StandardCharsets.UTF_8));
+            Writer output = Channels.newWriter(channel, StandardCharsets.UTF_8);
+
+            output.write("00 " + pad("server buyer 0") + " BS 000000.00\n");
+            output.write("06 " + pad("server buyer 0") + " BS 000010.00\n");
+            output.flush();
+            assertEquals("OK", input.readLine());
+            assertEquals("OK", input.readLine());
+
+            Path crashed = directory.resolve("crashed.journal");
+            Files.copy(directory.resolve("market.journal"), crashed);
+            Market recovered = MarketSnapshot.read(snapshot);
+            MarketJournal journal = MarketJournal.open(crashed.toFile(), recovered, 16, "terminals");
+            assertEquals(2, journal.getApplied());
+            assertEquals(1000, recovered.getUser("server buyer 0").getCredit());
+            journal.close();
+        }
+        stop();
+    }
+
+    /**
+     * Tests that the journal of an interrupted terminals day is not resumed by a
+     * daily file, whose records it would otherwise skip by count
+     */
+    @Test
+    public void test_notResumedByFile() throws IOException, InterruptedException, VaporException{
+        File snapshot = directory.resolve("market.ser").toFile();
+        MarketSnapshot.save(market, snapshot);
+        start("0");
+        try (SocketChannel channel = SocketChannel.open(server.getAddress())) {
+            BufferedReader input = new BufferedReader(Channels.newReader(channel, StandardCharsets.UTF_8));
+            Writer output = Channels.newWriter(channel, StandardCharsets.UTF_8);
+
+            output.write("00 " + pad("server buyer 0") + " BS 000000.00\n");
+            output.write("06 " + pad("server buyer 0") + " BS 000010.00\n");
+            output.flush();
+            assertEquals("OK", input.readLine());
+            assertEquals("OK", input.readLine());
+        }
+        stop();
+
+        File journalFile = directory.resolve("market.journal").toFile();
+        Market market = MarketSnapshot.read(snapshot);
+        assertEquals("terminals", MarketJournal.getSource(journalFile, market));
+        MarketJournal journal = MarketJournal.open(journalFile, market, 16, "daily.txt");
+
+        assertEquals(0, journal.getApplied());
+        assertEquals(0, market.getUser("server buyer 0").getCredit());
+        assertTrue(new File(journalFile.getPath() + ".unresumed").exists());
+        journal.close();
+    }
+
+    /**
+     * Generates load from many pipelining terminals over a Unix-domain socket
+     * and reports the throughput and tail latency of the replies; every record
+     * is answered OK, and the server keeps up tens of thousands of records a second
+     */
+    @Test
+    public void test_load() throws IOException, InterruptedException, VaporException{
+        int terminals = 8;
+        int records = 20000;
+        int burst = 16;
+        int window = 64;
+
+        start(directory.resolve("load.sock").toString());
+        long[][] latencies = new long[terminals][records];
+        int[] answered = new int[terminals];
+        Thread[] readers = new Thread[terminals];
+        Thread[] writers = new Thread[terminals];
+        SocketChannel[] channels = new SocketChannel[terminals];
+
+        long started = System.nanoTime();
+        for (int t = 0; t < terminals; t++) {
+            int terminal = t;
+            SocketChannel channel = SocketChannel.open(server.getAddress());
+            channels[t] = channel;
+            Semaphore inFlight = new Semaphore(window);
+            long[] sent = new long[records];
+
+            writers[t] = new Thread(() -> {
+                try {
+                    Writer output = Channels.newWriter(channel, StandardCharsets.UTF_8);
+                    String username = pad("server buyer " + terminal);
+                    for (int i = 0; i < records; i += burst) {
+                        int count = Math.min(burst, records - i);
+                        inFlight.acquire(count);
+                        long now = System.nanoTime();
+                        for (int j = i; j < i + count; j++) {
+                            sent[j] = now;
+                            if (j == 0)
+                                output.write("00 " + username + " BS 000000.00\n");
+                            else
+                                output.write("06 " + username + " BS 000000.01\n");
+                        }
+                        output.flush();
+                    }
+                } catch (IOException | InterruptedException e) {
+                }
+            });
+            readers[t] = new Thread(() -> {
+                try {
+                    BufferedReader input = new BufferedReader(Channels.newReader(channel, StandardCharsets.UTF_8));
+                    for (int i = 0; i < records; i++) {
+                        String reply = input.readLine();
+                        latencies[terminal][i] = System.nanoTime() - sent[i];
+                        inFlight.release();
+                        if ("OK".equals(reply))
+                            answered[terminal]++;
+                    }
+                } catch (IOException e) {
+                }
+            });
+            writers[t].start();
+            readers[t].start();
+        }
+        for (Thread reader : readers)
+            reader.join(120000);
+        long elapsed = System.nanoTime() - started;
+        for (int t = 0; t < terminals; t++) {
+            writers[t].join(10000);
+            channels[t].close();
+        }
+        stop();
+
+        long[] all = new long[terminals * records];
+        for (int t = 0; t < terminals; t++)
+            System.arraycopy(latencies[t], 0, all, t * records, records);
+        Arrays.sort(all);
+        double perSecond = all.length / (elapsed / 1e9);
+        System.out.printf("TransactionServer load: %d records in %.0f ms, %.0f records/s,"
+                + " latency p50 %.2f ms, p99 %.2f ms, p99.9 %.2f ms%n", all.length, elapsed / 1e6, perSecond,
+                all[all.length / 2] / 1e6, all[(int) (all.length * 0.99)] / 1e6,
+                all[(int) (all.length * 0.999)] / 1e6);
+
+        for (int t = 0; t < terminals; t++) {
+            assertEquals(records, answered[t]);
+            assertEquals(records - 1, market.getUser("server buyer " + t).getCredit());
+        }
+        assertTrue(perSecond > 10000, "records/s " + perSecond);
+    }
+}
@@ -0,0 +1,416 @@
+package vapor;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * The credit and remaining daily credit allowance of the {@code User}s in a
+ * {@code Market}, held off the heap column by column in direct buffers, one row
+ * per username indexed by its {@code SymbolTable} id.
+ *
+ * A {@code User} holds its balances in its own fields until attached to a
+ * table, and in its row of the table from then until detached. The rows of
+ * usernames no {@code User} is attached under hold zero, so a market-wide scan
+ * reads each column straight through without visiting a {@code User}.
+ *
+ * Each row also holds the day on which its allowance was last spent, read
+ * against the market's {@code MarketClock}. An allowance stamped with an
+ * earlier day has been restored in full, so a new day begins without visiting
+ * any row.
+ *
+ * The table is written to a flat file: a header ({@code MAGIC},
+ * {@code VERSION}, the day, the number of rows), the credit column, the
+ * allowance column, the stamp column, then the username of each row. Only
+ * attached rows are written, and multi-byte values are big-endian. The file is
+ * mapped to be read, and each row is copied out of its columns into a new table
+ * as it is attached.
+ *
+ * A credit may be compared and set atomically, so that threads charging and
+ * crediting the same {@code User} lose no update. Attaching and detaching rows
+ * are exclusive, as they may grow the columns; other writes to a row share the
+ * table, and reads are optimistic, retried only if the columns grew meanwhile.
+ */
+public final class BalanceTable {
+  // Identifies a balance file.
+  static final int MAGIC = 0x5650424C; // "VPBL"
+  // The version of the balance file format written.
+  static final int VERSION = 2;
+  // The size of the header in bytes.
+  private static final int HEADER_SIZE = Integer.BYTES + 1 + 2 * Integer.BYTES;
+
+  // The initial number of rows allocated.
+  private static final int INITIAL_ROWS = 1024;
+  // Atomic access to the native-order ints of a direct column.
+  private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class,
+      ByteOrder.nativeOrder());
+
+  // Columns, one element per row.
+  private ByteBuffer credits; // credit in cents.
+  private ByteBuffer allowances; // remaining daily credit allowance in cents.
+  private ByteBuffer creditDays; // the day on which the allowance was stamped.
+  private ByteBuffer attached; // 1 if a {@code User} is attached, 0 otherwise.
+  private int rows; // the number of rows allocated.
+  private int size; // the number of rows attached.
+  private final MarketClock clock; // the market's day.
+  // Held exclusively while the columns may be replaced, shared while written.
+  private final StampedLock resizing = new StampedLock();
+
+  // The table in which usernames are interned.
+  private final SymbolTable symbols;
+
+  /**
+   * Create a new, empty BalanceTable with a clock and symbol table of its own.
+   */
+  public BalanceTable() {
+    this(new MarketClock(), new SymbolTable());
+  }
+
+  /**
+   * Create a new, empty BalanceTable.
+   *
+   * @param clock   the clock of the market whose balances are held.
+   * @param symbols the table interning the market's usernames.
+   */
+  public BalanceTable(final MarketClock clock, final SymbolTable symbols) {
+    this.clock = clock;
+    this.symbols = symbols;
+    allocate(INITIAL_ROWS);
+  }
+
+  /**
+   * Access the table whose ids index the rows.
+   *
+   * @return the {@code SymbolTable} interning the usernames.
+   */
+  public SymbolTable getSymbols() {
+    return symbols;
+  }
+
+  /**
+   * Move the balances of a {@code User} into its row, replacing any held there.
+   *
+   * @param username  the username of the {@code User}.
+   * @param credit    the credit of the {@code User}.
+   * @param allowance the remaining daily credit allowance of the {@code User}.
+   * @param creditDay the day on which the allowance was stamped.
+   * @return the row of the {@code User}.
+   */
+  public int attach(final String username, final int credit, final int allowance, final int creditDay) {
+    final int row = symbols.id(username);
+
+    final long stamp = resizing.writeLock();
+    try {
+      if (row >= rows)
+        allocate(Math.max(rows * 2, row + 1));
+
+      if (attached.get(row) == 0) {
+        attached.put(row, (byte) 1);
+        size++;
+      }
+      put(credits, row, credit);
+      put(allowances, row, allowance);
+      put(creditDays, row, creditDay);
+    } finally {
+      resizing.unlockWrite(stamp);
+    }
+
+    return row;
+  }
+
+  /**
+   * Clear a row, as its {@code User} has taken its balances back.
+   *
+   * @param row the row of the {@code User}.
+   */
+  public void detach(final int row) {
+    final long stamp = resizing.writeLock();
+    try {
+      if (attached.get(row) == 0)
+        return;
+
+      attached.put(row, (byte) 0);
+      size--;
+      put(credits, row, 0);
+      put(allowances, row, 0);
+      put(creditDays, row, 0);
+    } finally {
+      resizing.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Query the credit held in a row.
+   *
+   * @param row the row of a {@code User}.
+   * @return the credit.
+   */
+  public int getCredit(final int row) {
+    long stamp = resizing.tryOptimisticRead();
+    int credit = credits.getInt(row * Integer.BYTES);
+    if (!resizing.validate(stamp)) {
+      stamp = resizing.readLock();
+      try {
+        credit = credits.getInt(row * Integer.BYTES);
+      } finally {
+        resizing.unlockRead(stamp);
+      }
+    }
+
+    return credit;
+  }
+
+  /**
+   * Set the credit held in a row.
+   *
+   * @param row    the row of a {@code User}.
+   * @param credit the credit.
+   */
+  public void setCredit(final int row, final int credit) {
+    final long stamp = resizing.readLock();
+    try {
+      put(credits, row, credit);
+    } finally {
+      resizing.unlockRead(stamp);
+    }
+  }
+
+  /**
+   * Set the credit held in a row atomically, if it holds an expected credit.
+   *
+   * @param row      the row of a {@code User}.
+   * @param expected the credit expected.
+   * @param credit   the new credit.
+   * @return true if the credit was set, false if the row held another credit.
+   */
+  public boolean compareAndSetCredit(final int row, final int expected, final int credit) {
+    final long stamp = resizing.readLock();
+    try {
+      return INTS.compareAndSet(credits, row * Integer.BYTES, expected, credit);
+    } finally {
+      resizing.unlockRead(stamp);
+    }
+  }
+
+  /**
+   * Query the remaining daily credit allowance held in a row.
+   *
+   * @param row the row of a {@code User}.
+   * @return the remaining daily credit allowance.
+   */
+  public int getAllowance(final int row) {
+    long stamp = resizing.tryOptimisticRead();
+    int allowance = allowances.getInt(row * Integer.BYTES);
+    if (!resizing.validate(stamp)) {
+      stamp = resizing.readLock();
+      try {
+        allowance = allowances.getInt(row * Integer.BYTES);
+      } finally {
+        resizing.unlockRead(stamp);
+      }
+    }
+
+    return allowance;
+  }
+
+  /**
+   * Set the remaining daily credit allowance held in a row.
+   *
+   * @param row       the row of a {@code User}.
+   * @param allowance the remaining daily credit allowance.
+   */
+  public void setAllowance(final int row, final int allowance) {
+    final long stamp = resizing.readLock();
+    try {
+      put(allowances, row, allowance);
+    } finally {
+      resizing.unlockRead(stamp);
+    }
+  }
+
+  /**
+   * Query the day on which the allowance held in a row was stamped.
+   *
+   * @param row the row of a {@code User}.
+   * @return the day.
+   */
+  public int getCreditDay(final int row) {
+    long stamp = resizing.tryOptimisticRead();
+    int creditDay = creditDays.getInt(row * Integer.BYTES);
+    if (!resizing.validate(stamp)) {
+      stamp = resizing.readLock();
+      try {
+        creditDay = creditDays.getInt(row * Integer.BYTES);
+      } finally {
+        resizing.unlockRead(stamp);
+      }
+    }
+
+    return creditDay;
+  }
+
+  /**
+   * Stamp the allowance held in a row with a day.
+   *
+   * @param row       the row of a {@code User}.
+   * @param creditDay the day.
+   */
+  public void setCreditDay(final int row, final int creditDay) {
+    final long stamp = resizing.readLock();
+    try {
+      put(creditDays, row, creditDay);
+    } finally {
+      resizing.unlockRead(stamp);
+    }
+  }
+
+  /**
+   * Query the market's day.
+   *
+   * @return the day, counted from zero.
+   */
+  public int getDay() {
+    return clock.getDay();
+  }
+
+  /**
+   * Query the number of {@code User}s attached.
+   *
+   * @return the number of rows attached.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Sum the credit of every {@code User} attached.
+   *
+   * @return the total credit in cents.
+   */
+  public long getTotalCredit() {
+    long total = 0;
+    for (int offset = 0; offset < rows * Integer.BYTES; offset += Integer.BYTES)
+      total += credits.getInt(offset);
+
+    return total;
+  }
+
+  /**
+   * Write the attached rows to a balance file, replacing it atomically.
+   *
+   * @param file the file to be written.
+   * @throws IOException the file could not be written.
+   */
+  public void write(final File file) throws IOException {
+    final File temporary = new File(file.getPath() + ".tmp");
+
+    try (FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      final ChannelOutput output = new ChannelOutput(channel);
+      output.putInt(MAGIC);
+      output.putByte(VERSION);
+      output.putInt(getDay());
+      output.putInt(size);
+
+      for (int row = 0; row < rows; row++)
+        if (attached.get(row) != 0)
+          output.putInt(getCredit(row));
+      for (int row = 0; row < rows; row++)
+        if (attached.get(row) != 0)
+          output.putInt(getAllowance(row));
+      for (int row = 0; row < rows; row++)
+        if (attached.get(row) != 0)
+          output.putInt(getCreditDay(row));
+      for (int row = 0; row < rows; row++)
+        if (attached.get(row) != 0)
+          output.putText(symbols.symbol(row));
+
+      output.flush();
+      channel.force(true);
+    }
+
+    Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Map a balance file and read its rows into a new table, each attached under
+   * its username.
+   *
+   * @param file the file to be read.
+   * @return the table read.
+   * @throws IOException the file could not be read or is not a balance file.
+   */
+  public static BalanceTable read(final File file) throws IOException {
+    final ByteBuffer input;
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      input = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+
+    if (input.limit() < HEADER_SIZE || input.getInt(0) != MAGIC || input.get(Integer.BYTES) != VERSION)
+      throw new IOException("not a balance file: " + file);
+
+    final int count = input.getInt(Integer.BYTES + 1 + Integer.BYTES);
+    final int credits = HEADER_SIZE;
+    final int allowances = credits + count * Integer.BYTES;
+    final int creditDays = allowances + count * Integer.BYTES;
+
+    final BalanceTable table = new BalanceTable();
+    table.clock.setDay(input.getInt(Integer.BYTES + 1));
+    input.position(creditDays + count * Integer.BYTES);
+    for (int i = 0; i < count; i++) {
+      final String username = MarketSnapshot.getText(input);
+      table.attach(username, input.getInt(credits + i * Integer.BYTES),
+          input.getInt(allowances + i * Integer.BYTES), input.getInt(creditDays + i * Integer.BYTES));
+    }
+
+    return table;
+  }
+
+  /**
+   * Grow the columns, keeping the rows held.
+   *
+   * @param capacity the number of rows to allocate.
+   */
+  private void allocate(final int capacity) {
+    credits = grow(credits, capacity * Integer.BYTES);
+    allowances = grow(allowances, capacity * Integer.BYTES);
+    creditDays = grow(creditDays, capacity * Integer.BYTES);
+    attached = grow(attached, capacity);
+    rows = capacity;
+  }
+
+  /**
+   * Write the int of a row into a column, without taking the lock.
+   *
+   * @param column the column.
+   * @param row    the row.
+   * @param value  the value.
+   */
+  private static void put(final ByteBuffer column, final int row, final int value) {
+    column.putInt(row * Integer.BYTES, value);
+  }
+
+  /**
+   * Copy a column into a new, larger direct buffer.
+   *
+   * @param column the column, null if not yet allocated.
+   * @param bytes  the size of the new column in bytes.
+   * @return the new column, zeroed past the bytes copied.
+   */
+  private static ByteBuffer grow(final ByteBuffer column, final int bytes) {
+    final ByteBuffer grown = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+    if (column != null)
+      grown.put(column.duplicate().clear());
+
+    return grown.clear();
+  }
+}
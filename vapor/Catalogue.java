@@ -1,7 +1,13 @@
 package vapor;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Map;
 
 import vapor.exceptions.GameDNEException;
 import vapor.exceptions.MultipleCopyException;
@@ -9,39 +15,86 @@ import vapor.exceptions.MultipleCopyException;
 /**
  * Abstraction of {@code StoreFront} and {@code Inventory} into a base class
  * using generics.
+ *
+ * Keys are the canonical titles of the entries' {@code Game}s. Each entry
+ * is stamped with the day from which it is visible, read against the
+ * {@code MarketClock} of the {@code Market} holding the {@code Catalogue}
+ * (day zero if none): an entry added today is visible from tomorrow, so the
+ * end of the day makes it available without copying it. Each subclass holds
+ * its entries and their days as suits them, behind a handful of storage
+ * methods.
  */
 public abstract class Catalogue<T> implements Serializable, EndOfDay {
-  // Holds the collection of {@code T}s for fast access
-  private final HashMap<String, T> entries;
-  private final HashMap<String, T> newEntries;
+  private static final long serialVersionUID = 707947508208791527L;
+  // The serialized form, which holds the available and pending entries apart.
+  private static final ObjectStreamField[] serialPersistentFields = {
+      new ObjectStreamField("entries", HashMap.class), new ObjectStreamField("newEntries", HashMap.class) };
+
+  // The day of a key which this {@code Catalogue} does not hold.
+  static final int ABSENT = Integer.MIN_VALUE;
 
   /**
-   * No arg constructor to initialise entries collection.
+   * A position among the entries of a {@code Catalogue}, which visits each once
+   * in no particular order.
    */
-  public Catalogue() {
-    entries = new HashMap<>();
-    newEntries = new HashMap<>();
+  interface Cursor<T> {
+    /**
+     * Move to the next entry.
+     *
+     * @return true if there is one, false once every entry has been visited.
+     */
+    boolean next();
+
+    /**
+     * Query the key of the current entry.
+     *
+     * @return the canonical key.
+     */
+    String getKey();
+
+    /**
+     * Access the current entry.
+     *
+     * @return the entry.
+     */
+    T getEntry();
+
+    /**
+     * Query the day from which the current entry is visible.
+     *
+     * @return the day.
+     */
+    int getVisibleFrom();
+
+    /**
+     * Change the day from which the current entry is visible.
+     *
+     * @param day the day.
+     */
+    void setVisibleFrom(final int day);
   }
 
+  // Whether this {@code Catalogue} changed since it was last saved to a snapshot.
+  private transient boolean dirty = true;
+  // The clock of the {@code Market} holding this {@code Catalogue}, if any.
+  private transient MarketClock clock;
+
   /**
-   * Query whether a {@code T} already exists in this {@code Catalogue}.
-   * 
+   * Query whether a {@code T} already exists in this {@code Catalogue}, visible
+   * or not.
+   *
    * @param ID the key for the {@code T}.
    * @return true if this {@code Catalogue} contains the {@code T}, false
    *         otherwise.
    */
   public boolean containsEntry(final String ID) {
-    if (entries.get(ID) != null)
-      return true;
-    if (newEntries.get(ID) != null)
-      return true;
-
-    return false;
+    return getVisibleFrom(ID) != ABSENT;
   }
 
   /**
-   * Add a {@code T} to the {@code Catalogue} with the key specified.
-   * 
+   * Add a {@code T} to the {@code Catalogue} with the key specified, visible from
+   * the next day.
+   *
    * @param ID    the key to assign the {@code T} to.
    * @param entry the {@code T} to be added.
    * @return the {@code T} for further processing.
@@ -52,14 +105,15 @@ public abstract class Catalogue<T> implements Serializable, EndOfDay {
     if (containsEntry(ID))
       throw new MultipleCopyException(ID);
 
-    newEntries.put(ID, entry);
+    store(ID, entry, today() + 1);
+    dirty = true;
 
     return entry;
   }
 
   /**
    * Add a {@code T} to the {@code Catalogue}.
-   * 
+   *
    * @param entry the {@code T} to be added.
    * @return the {@code T} for further processing.
    * @throws MultipleCopyException a {@code T} with this name exists in the
@@ -68,63 +122,221 @@ public abstract class Catalogue<T> implements Serializable, EndOfDay {
   public abstract T addEntry(final T entry) throws MultipleCopyException;
 
   /**
-   * Remove a {@code T} from this {@code Catalogue}.
-   * 
+   * Remove a visible {@code T} from this {@code Catalogue}.
+   *
    * @param ID the key corresponding to the {@code T} to be deleted.
    * @return the entry deleted from entries.
-   * @throws GameDNEException no {@code T} with this ID exists in this
+   * @throws GameDNEException no visible {@code T} with this ID exists in this
    *                          {@code Catalogue}.
    */
   public T remove(final String ID) throws GameDNEException {
-    final T entry = entries.get(ID);
+    final T entry = getEntry(ID);
 
-    if (entry == null)
-      throw new GameDNEException(ID);
-
-    entries.remove(ID);
+    delete(ID);
+    dirty = true;
 
     return entry;
   }
 
   /**
-   * Query this {@code Catalogue}s entries.
-   * 
-   * @return this {@code Catalogue}s entries.
+   * Query this {@code Catalogue}s visible entries.
+   *
+   * @return this {@code Catalogue}s visible entries.
+   */
+  protected ArrayList<T> getVisibleEntries() {
+    final int today = today();
+
+    final ArrayList<T> visible = new ArrayList<>(size());
+    for (final Cursor<T> cursor = cursor(); cursor.next();)
+      if (cursor.getVisibleFrom() <= today)
+        visible.add(cursor.getEntry());
+
+    return visible;
+  }
+
+  /**
+   * Query the day from which the entry with a key is visible.
+   *
+   * @param ID the key of the entry.
+   * @return the day, {@code ABSENT} if this {@code Catalogue} holds no such
+   *         entry.
+   */
+  abstract int getVisibleFrom(final String ID);
+
+  /**
+   * Access the entry with a key, visible or not, which this {@code Catalogue}
+   * holds.
+   *
+   * @param ID the key of the entry.
+   * @return the entry.
+   */
+  abstract T lookup(final String ID);
+
+  /**
+   * Hold an entry, replacing any with the same key.
+   *
+   * @param ID          the key of the entry.
+   * @param entry       the entry.
+   * @param visibleFrom the day from which the entry is visible.
+   */
+  abstract void store(final String ID, final T entry, final int visibleFrom);
+
+  /**
+   * Stop holding the entry with a key, if any.
+   *
+   * @param ID the key of the entry.
+   */
+  abstract void delete(final String ID);
+
+  /**
+   * Query the number of entries held, visible or not.
+   *
+   * @return the number of entries.
+   */
+  abstract int size();
+
+  /**
+   * Visit every entry held, visible or not.
+   *
+   * @return a {@code Cursor} before the first entry.
+   */
+  abstract Cursor<T> cursor();
+
+  /**
+   * Query whether this {@code Catalogue} changed since it was created, loaded or
+   * last saved.
+   *
+   * @return true if changed, false otherwise.
+   */
+  boolean isDirty() {
+    return dirty;
+  }
+
+  /**
+   * Record that this {@code Catalogue} has been loaded from or saved to a
+   * snapshot.
+   */
+  void markClean() {
+    dirty = false;
+  }
+
+  /**
+   * Read this {@code Catalogue}'s entries against the day of a {@code Market}.
+   *
+   * @param clock the clock of the {@code Market} holding this {@code Catalogue}.
+   */
+  void attachClock(final MarketClock clock) {
+    this.clock = clock;
+  }
+
+  /**
+   * Query the day against which this {@code Catalogue}'s entries are read.
+   *
+   * @return the day of the {@code Market} holding it, 0 if none.
+   */
+  private int today() {
+    return clock == null ? 0 : clock.getDay();
+  }
+
+  /**
+   * Restore an entry of a {@code Catalogue} loaded from a market snapshot,
+   * without checking for copies, replacing any with the same key.
+   *
+   * @param ID          the key of the {@code T}.
+   * @param entry       the {@code T} to be restored.
+   * @param visibleFrom the day from which the entry is visible.
    */
-  protected HashMap<String, T> getEntryMap() {
-    return entries;
+  void restoreEntry(final String ID, final T entry, final int visibleFrom) {
+    store(ID, entry, visibleFrom);
   }
 
   /**
-   * Access a {@code T} in the {@code Catalogue}.
-   * 
+   * Access a visible {@code T} in the {@code Catalogue}.
+   *
    * @param ID the name of the {@code T}.
    * @return the {@code T} corresponding to the name provided.
-   * @throws GameDNEException no {@code T} with this name exists in the
+   * @throws GameDNEException no visible {@code T} with this name exists in the
    *                          {@code Catalogue}.
    */
   public T getEntry(final String ID) throws GameDNEException {
-    final T entry = entries.get(ID);
+    final int visibleFrom = getVisibleFrom(ID);
 
-    if (entry == null)
+    if (visibleFrom == ABSENT || visibleFrom > today())
       throw new GameDNEException(ID);
 
-    return entry;
+    return lookup(ID);
   }
 
   /**
-   * Return an array of the {@code T}s in the {@code Catalogue}.
+   * Return an array of the visible {@code T}s in the {@code Catalogue}.
    *
-   * @return entries' values as a {@code T[]}.
+   * @return the visible entries as a {@code T[]}.
    */
   public abstract T[] getEntries();
 
   /**
-   * Make buffered listings available for purchase and clear buffer.
+   * Make every entry visible now, rather than from the next day. A
+   * {@code Market} ends its day without calling this.
    */
   public void endDay() {
-    entries.putAll(newEntries);
+    final int today = today();
 
-    newEntries.clear();
+    for (final Cursor<T> cursor = cursor(); cursor.next();)
+      if (cursor.getVisibleFrom() > today) {
+        cursor.setVisibleFrom(today);
+        dirty = true;
+      }
+  }
+
+  /**
+   * Serialize this {@code Catalogue}, holding the entries visible today apart
+   * from the others.
+   *
+   * @param output the stream to which this {@code Catalogue} is written.
+   * @throws IOException the stream could not be written.
+   */
+  private void writeObject(final ObjectOutputStream output) throws IOException {
+    final int today = today();
+
+    final HashMap<String, T> available = new HashMap<>();
+    final HashMap<String, T> pending = new HashMap<>();
+    for (final Cursor<T> cursor = cursor(); cursor.next();)
+      (cursor.getVisibleFrom() <= today ? available : pending).put(cursor.getKey(), cursor.getEntry());
+
+    final ObjectOutputStream.PutField fields = output.putFields();
+    fields.put("entries", available);
+    fields.put("newEntries", pending);
+    output.writeFields();
+  }
+
+  /**
+   * Deserialize this {@code Catalogue}, re-keying its entries by the canonical
+   * titles of their {@code Game}s. Pending entries are visible from
+   * day one, the day after that of a deserialized {@code Market}. The fields of
+   * a subclass are yet to be read, so its storage is created by the first entry
+   * stored.
+   *
+   * @param input the stream from which this {@code Catalogue} is read.
+   * @throws IOException            the stream could not be read.
+   * @throws ClassNotFoundException a class in the stream could not be found.
+   */
+  @SuppressWarnings("unchecked")
+  private void readObject(final ObjectInputStream input) throws IOException, ClassNotFoundException {
+    final ObjectInputStream.GetField fields = input.readFields();
+
+    restoreEntries((HashMap<String, T>) fields.get("entries", null), 0);
+    restoreEntries((HashMap<String, T>) fields.get("newEntries", null), 1);
+  }
+
+  /**
+   * Restore the entries of a map.
+   *
+   * @param map         the map to be restored, may be null.
+   * @param visibleFrom the day from which its entries are visible.
+   */
+  private void restoreEntries(final HashMap<String, T> map, final int visibleFrom) {
+    if (map != null)
+      for (final Map.Entry<String, T> entry : map.entrySet())
+        restoreEntry(entry.getKey(), entry.getValue(), visibleFrom);
   }
 }
@@ -0,0 +1,185 @@
+package vapor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * A buffered writer of primitives to a {@code FileChannel}, through which
+ * market snapshots and journal entries are written. Multi-byte values are
+ * big-endian.
+ */
+final class ChannelOutput {
+  // The size of the buffer through which bytes are written.
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  // The channel written.
+  private final FileChannel channel;
+  // The bytes not yet written to the channel.
+  private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+  // The checksum of every byte written, if one is kept.
+  private final CRC32 checksum;
+  // The position in the channel up to which bytes are written.
+  private long flushed;
+
+  /**
+   * Create a new ChannelOutput writing to a channel from its current position.
+   *
+   * @param channel the channel to be written.
+   * @throws IOException the channel's position could not be queried.
+   */
+  ChannelOutput(final FileChannel channel) throws IOException {
+    this(channel, null);
+  }
+
+  /**
+   * Create a new ChannelOutput writing to a channel from its current position
+   * and keeping a checksum of the bytes written.
+   *
+   * @param channel  the channel to be written.
+   * @param checksum the checksum to be updated, null to keep none.
+   * @throws IOException the channel's position could not be queried.
+   */
+  ChannelOutput(final FileChannel channel, final CRC32 checksum) throws IOException {
+    this.channel = channel;
+    this.checksum = checksum;
+    this.flushed = channel.position();
+  }
+
+  /**
+   * Access the channel written.
+   *
+   * @return the channel.
+   */
+  FileChannel getChannel() {
+    return channel;
+  }
+
+  /**
+   * Query the position in the channel of the next byte written.
+   *
+   * @return the position of the next byte written.
+   */
+  long position() {
+    return flushed + buffer.position();
+  }
+
+  /**
+   * Ensure the buffer has space for a number of bytes, flushing it if not.
+   *
+   * @param bytes the number of bytes about to be written.
+   * @throws IOException the buffer could not be flushed.
+   */
+  private void ensure(final int bytes) throws IOException {
+    if (buffer.remaining() < bytes)
+      flush();
+  }
+
+  /**
+   * Write the contents of the buffer to the channel.
+   *
+   * @throws IOException the channel could not be written.
+   */
+  void flush() throws IOException {
+    buffer.flip();
+    if (checksum != null)
+      checksum.update(buffer.duplicate());
+    while (buffer.hasRemaining())
+      flushed += channel.write(buffer);
+    buffer.clear();
+  }
+
+  /**
+   * Write a single byte.
+   *
+   * @param value the byte to be written, in its low 8 bits.
+   * @throws IOException the buffer could not be flushed.
+   */
+  void putByte(final int value) throws IOException {
+    ensure(1);
+    buffer.put((byte) value);
+  }
+
+  /**
+   * Write an int.
+   *
+   * @param value the value to be written.
+   * @throws IOException the buffer could not be flushed.
+   */
+  void putInt(final int value) throws IOException {
+    ensure(4);
+    buffer.putInt(value);
+  }
+
+  /**
+   * Write a long.
+   *
+   * @param value the value to be written.
+   * @throws IOException the buffer could not be flushed.
+   */
+  void putLong(final long value) throws IOException {
+    ensure(8);
+    buffer.putLong(value);
+  }
+
+  /**
+   * Write a float.
+   *
+   * @param value the value to be written.
+   * @throws IOException the buffer could not be flushed.
+   */
+  void putFloat(final float value) throws IOException {
+    ensure(4);
+    buffer.putFloat(value);
+  }
+
+  /**
+   * Write a non-negative int as an unsigned LEB128 varint.
+   *
+   * @param value the value to be written.
+   * @throws IOException the buffer could not be flushed.
+   */
+  void putVarInt(int value) throws IOException {
+    ensure(5);
+    while ((value & ~0x7F) != 0) {
+      buffer.put((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    buffer.put((byte) value);
+  }
+
+  /**
+   * Write the remaining bytes of a buffer.
+   *
+   * @param bytes the bytes to be written.
+   * @throws IOException the buffer could not be flushed.
+   */
+  void putBytes(final ByteBuffer bytes) throws IOException {
+    if (bytes.remaining() > buffer.capacity()) {
+      flush();
+      if (checksum != null)
+        checksum.update(bytes.duplicate());
+      while (bytes.hasRemaining())
+        flushed += channel.write(bytes);
+      return;
+    }
+
+    ensure(bytes.remaining());
+    buffer.put(bytes);
+  }
+
+  /**
+   * Write length-prefixed UTF-8 text.
+   *
+   * @param text the text to be written.
+   * @throws IOException the buffer could not be flushed.
+   */
+  void putText(final String text) throws IOException {
+    final byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+
+    putVarInt(bytes.length);
+    putBytes(ByteBuffer.wrap(bytes));
+  }
+}
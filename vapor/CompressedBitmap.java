@@ -0,0 +1,293 @@
+package vapor;
+
+import java.util.Arrays;
+
+/**
+ * A set of non-negative ints held as a compressed bitmap, in the manner of a
+ * roaring bitmap.
+ *
+ * Values are split by their high 16 bits into containers, kept sorted by key.
+ * A container holding at most {@code ARRAY_LIMIT} values is a sorted array of
+ * their low 16 bits; a fuller container is a bitmap of all 65536 low values.
+ * A sparse set thus costs two bytes a value, a dense one a bit, and the
+ * cardinality of each container is kept so that counting the set visits only
+ * its containers.
+ */
+public final class CompressedBitmap {
+  // The most values a container holds as an array.
+  static final int ARRAY_LIMIT = 4096;
+  // The number of longs of a bitmap container.
+  private static final int BITMAP_WORDS = (1 << 16) / Long.SIZE;
+  // The initial length of an array container.
+  private static final int INITIAL_LENGTH = 4;
+
+  // The high 16 bits of the values of each container, ascending.
+  private char[] keys = new char[1];
+  // Each container: a char[] array of low bits or a long[] bitmap.
+  private Object[] containers = new Object[1];
+  // The number of values in each container.
+  private int[] cardinalities = new int[1];
+  // The number of containers.
+  private int size;
+
+  /**
+   * Add a value to the set.
+   *
+   * @param value the value, not negative.
+   * @return true if the value was added, false if it was already held.
+   */
+  public boolean add(final int value) {
+    final char key = (char) (value >>> 16);
+    final char low = (char) value;
+
+    int index = indexOf(key);
+    if (index < 0) {
+      index = -index - 1;
+      insertContainer(index, key);
+    }
+
+    final Object container = containers[index];
+    if (container instanceof long[]) {
+      final long[] bitmap = (long[]) container;
+      final long bit = 1L << low;
+      if ((bitmap[low >>> 6] & bit) != 0)
+        return false;
+
+      bitmap[low >>> 6] |= bit;
+      cardinalities[index]++;
+      return true;
+    }
+
+    char[] array = (char[]) container;
+    final int cardinality = cardinalities[index];
+    final int position = Arrays.binarySearch(array, 0, cardinality, low);
+    if (position >= 0)
+      return false;
+
+    if (cardinality == ARRAY_LIMIT) {
+      final long[] bitmap = toBitmap(array, cardinality);
+      bitmap[low >>> 6] |= 1L << low;
+      containers[index] = bitmap;
+      cardinalities[index]++;
+      return true;
+    }
+
+    if (cardinality == array.length) {
+      array = Arrays.copyOf(array, Math.min(array.length * 2, ARRAY_LIMIT));
+      containers[index] = array;
+    }
+
+    final int insertion = -position - 1;
+    System.arraycopy(array, insertion, array, insertion + 1, cardinality - insertion);
+    array[insertion] = low;
+    cardinalities[index]++;
+    return true;
+  }
+
+  /**
+   * Remove a value from the set.
+   *
+   * @param value the value.
+   * @return true if the value was removed, false if it was not held.
+   */
+  public boolean remove(final int value) {
+    if (value < 0)
+      return false;
+
+    final char low = (char) value;
+    final int index = indexOf((char) (value >>> 16));
+    if (index < 0)
+      return false;
+
+    final Object container = containers[index];
+    if (container instanceof long[]) {
+      final long[] bitmap = (long[]) container;
+      final long bit = 1L << low;
+      if ((bitmap[low >>> 6] & bit) == 0)
+        return false;
+
+      bitmap[low >>> 6] &= ~bit;
+      if (--cardinalities[index] == ARRAY_LIMIT)
+        containers[index] = toArray(bitmap);
+      return true;
+    }
+
+    final char[] array = (char[]) container;
+    final int cardinality = cardinalities[index];
+    final int position = Arrays.binarySearch(array, 0, cardinality, low);
+    if (position < 0)
+      return false;
+
+    System.arraycopy(array, position + 1, array, position, cardinality - position - 1);
+    if (--cardinalities[index] == 0)
+      removeContainer(index);
+    return true;
+  }
+
+  /**
+   * Query whether the set holds a value.
+   *
+   * @param value the value.
+   * @return true if the value is held, false otherwise.
+   */
+  public boolean contains(final int value) {
+    if (value < 0)
+      return false;
+
+    final char low = (char) value;
+    final int index = indexOf((char) (value >>> 16));
+    if (index < 0)
+      return false;
+
+    final Object container = containers[index];
+    if (container instanceof long[])
+      return (((long[]) container)[low >>> 6] & (1L << low)) != 0;
+
+    return Arrays.binarySearch((char[]) container, 0, cardinalities[index], low) >= 0;
+  }
+
+  /**
+   * Query the number of values in the set.
+   *
+   * @return the number of values.
+   */
+  public int getCardinality() {
+    int cardinality = 0;
+    for (int i = 0; i < size; i++)
+      cardinality += cardinalities[i];
+
+    return cardinality;
+  }
+
+  /**
+   * Query whether the set holds no values.
+   *
+   * @return true if the set is empty, false otherwise.
+   */
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * List the values of the set.
+   *
+   * @return the values, ascending.
+   */
+  public int[] toArray() {
+    final int[] values = new int[getCardinality()];
+
+    int next = 0;
+    for (int i = 0; i < size; i++) {
+      final int high = keys[i] << 16;
+      final Object container = containers[i];
+
+      if (container instanceof long[]) {
+        final long[] bitmap = (long[]) container;
+        for (int word = 0; word < BITMAP_WORDS; word++)
+          for (long bits = bitmap[word]; bits != 0; bits &= bits - 1)
+            values[next++] = high | (word << 6) | Long.numberOfTrailingZeros(bits);
+      } else {
+        final char[] array = (char[]) container;
+        for (int j = 0; j < cardinalities[i]; j++)
+          values[next++] = high | array[j];
+      }
+    }
+
+    return values;
+  }
+
+  /**
+   * Copy the set, so that the copy does not change with it.
+   *
+   * @return the copy.
+   */
+  public CompressedBitmap copy() {
+    final CompressedBitmap copy = new CompressedBitmap();
+    copy.keys = keys.clone();
+    copy.containers = new Object[containers.length];
+    for (int i = 0; i < size; i++)
+      copy.containers[i] = containers[i] instanceof long[] ? ((long[]) containers[i]).clone()
+          : ((char[]) containers[i]).clone();
+    copy.cardinalities = cardinalities.clone();
+    copy.size = size;
+
+    return copy;
+  }
+
+  /**
+   * Find the container of a key.
+   *
+   * @param key the high 16 bits of a value.
+   * @return the index of the container, or -(insertion point) - 1 if none.
+   */
+  private int indexOf(final char key) {
+    return Arrays.binarySearch(keys, 0, size, key);
+  }
+
+  /**
+   * Insert an empty array container.
+   *
+   * @param index the index at which the container is inserted.
+   * @param key   the high 16 bits of its values.
+   */
+  private void insertContainer(final int index, final char key) {
+    if (size == keys.length) {
+      keys = Arrays.copyOf(keys, size * 2);
+      containers = Arrays.copyOf(containers, size * 2);
+      cardinalities = Arrays.copyOf(cardinalities, size * 2);
+    }
+
+    System.arraycopy(keys, index, keys, index + 1, size - index);
+    System.arraycopy(containers, index, containers, index + 1, size - index);
+    System.arraycopy(cardinalities, index, cardinalities, index + 1, size - index);
+    keys[index] = key;
+    containers[index] = new char[INITIAL_LENGTH];
+    cardinalities[index] = 0;
+    size++;
+  }
+
+  /**
+   * Remove an empty container.
+   *
+   * @param index the index of the container.
+   */
+  private void removeContainer(final int index) {
+    System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+    System.arraycopy(containers, index + 1, containers, index, size - index - 1);
+    System.arraycopy(cardinalities, index + 1, cardinalities, index, size - index - 1);
+    containers[--size] = null;
+  }
+
+  /**
+   * Convert an array container into a bitmap container.
+   *
+   * @param array       the low bits of the values, ascending.
+   * @param cardinality the number of values.
+   * @return the bitmap.
+   */
+  private static long[] toBitmap(final char[] array, final int cardinality) {
+    final long[] bitmap = new long[BITMAP_WORDS];
+    for (int i = 0; i < cardinality; i++)
+      bitmap[array[i] >>> 6] |= 1L << array[i];
+
+    return bitmap;
+  }
+
+  /**
+   * Convert a bitmap container holding {@code ARRAY_LIMIT} values into an array
+   * container.
+   *
+   * @param bitmap the bitmap.
+   * @return the low bits of the values, ascending.
+   */
+  private static char[] toArray(final long[] bitmap) {
+    final char[] array = new char[ARRAY_LIMIT];
+
+    int next = 0;
+    for (int word = 0; word < BITMAP_WORDS; word++)
+      for (long bits = bitmap[word]; bits != 0; bits &= bits - 1)
+        array[next++] = (char) ((word << 6) | Long.numberOfTrailingZeros(bits));
+
+    return array;
+  }
+}
@@ -0,0 +1,151 @@
+package vapor;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.TreeSet;
+
+/**
+ * A directory into which daily transaction files are dropped for a resident
+ * {@code Market} to process, watched through a {@code WatchService}.
+ *
+ * Files are taken in name order: those already in the directory when it is
+ * opened first, then each as it lands. A file should be moved into the
+ * directory once complete, as it is taken as soon as it appears. A file is
+ * moved into the {@code DONE_DIRECTORY} beneath the directory as its day
+ * begins, so that it is never taken again; a day interrupted after that is
+ * found there again by name, through {@code getDone}.
+ */
+public class DailyInbox implements Closeable {
+  // The directory beneath the inbox into which processed files are moved.
+  static final String DONE_DIRECTORY = "done";
+
+  // The directory watched.
+  private final Path directory;
+  // The suffix of the names of the files taken.
+  private final String suffix;
+  // The service reporting files created in the directory.
+  private final WatchService watcher;
+  // The names of the files landed but not yet taken, in name order.
+  private final TreeSet<String> pending = new TreeSet<>();
+
+  /**
+   * Create a new DailyInbox, creating its directory if it does not exist.
+   *
+   * @param directory the directory to be watched.
+   * @param suffix    the suffix of the names of the files to be taken.
+   * @throws IOException the directory could not be created or watched.
+   */
+  public DailyInbox(final File directory, final String suffix) throws IOException {
+    this.directory = directory.toPath();
+    this.suffix = suffix;
+
+    Files.createDirectories(this.directory);
+    watcher = FileSystems.getDefault().newWatchService();
+    this.directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE);
+    scan();
+  }
+
+  /**
+   * Take the next file to be processed, waiting for one to land if there is
+   * none.
+   *
+   * @return the file, null once the inbox is closed.
+   * @throws InterruptedException the calling thread was interrupted while
+   *                              waiting.
+   */
+  public File take() throws InterruptedException {
+    try {
+      while (true) {
+        for (String name; (name = pending.pollFirst()) != null;) {
+          final File file = directory.resolve(name).toFile();
+          if (file.isFile())
+            return file;
+        }
+
+        final WatchKey key = watcher.take();
+        for (final WatchEvent<?> event : key.pollEvents()) {
+          if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+            scan();
+          else
+            land(event.context().toString());
+        }
+        key.reset();
+      }
+    } catch (final ClosedWatchServiceException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Move a file taken into the {@code DONE_DIRECTORY}, replacing any of the same
+   * name, so that it is not taken again. A file already there is left as it is.
+   *
+   * @param file the file taken.
+   * @return the file in the {@code DONE_DIRECTORY}.
+   * @throws IOException the file could not be moved.
+   */
+  public File done(final File file) throws IOException {
+    final Path done = directory.resolve(DONE_DIRECTORY);
+    final Path moved = done.resolve(file.getName());
+
+    if (moved.equals(file.toPath()))
+      return file;
+    Files.createDirectories(done);
+    Files.move(file.toPath(), moved, StandardCopyOption.REPLACE_EXISTING);
+
+    return moved.toFile();
+  }
+
+  /**
+   * Query a file moved into the {@code DONE_DIRECTORY}, such as that of a day
+   * interrupted.
+   *
+   * @param name the name of the file.
+   * @return the file, null if there is no such file.
+   */
+  public File getDone(final String name) {
+    final File file = directory.resolve(DONE_DIRECTORY).resolve(name).toFile();
+
+    return file.isFile() ? file : null;
+  }
+
+  /**
+   * Stop watching the directory; a thread waiting in {@code take} returns null.
+   *
+   * @throws IOException the watch service could not be closed.
+   */
+  @Override
+  public void close() throws IOException {
+    watcher.close();
+  }
+
+  /**
+   * Add every file in the directory to those pending.
+   */
+  private void scan() {
+    final String[] names = directory.toFile().list();
+    if (names != null)
+      for (final String name : names)
+        land(name);
+  }
+
+  /**
+   * Add a file landed in the directory to those pending, if it is to be taken.
+   *
+   * @param name the name of the file.
+   */
+  private void land(final String name) {
+    if (name.endsWith(suffix) && directory.resolve(name).toFile().isFile())
+      pending.add(name);
+  }
+}
@@ -202,6 +202,7 @@ public class DatabaseBuilder {
     final int numGames = getCount(gameReader.readLine());
 
     final Inventory inventory = ((Buyer) newUserBuffer).getInventory();
+    inventory.attachGames(newStateMarket.getGames());
 
     String gameRecord;
     for (int i = 0; i < numGames; i++) {
@@ -212,7 +213,7 @@ public class DatabaseBuilder {
       final String gameID = gameMatcher.group(0).trim();
 
       try {
-        inventory.addEntry(new Game(gameID));
+        inventory.addEntry(newStateMarket.getGames().getGame(gameID));
       } catch (final MultipleCopyException e) {
         ErrorLogger.log(ErrorType.WARNING, "DATABASE BUILDER", e.getError());
         throw new InvalidDBBuilderRecord(gameRecord);
@@ -237,6 +238,7 @@ public class DatabaseBuilder {
     final int numGames = getCount(listingReader.readLine());
 
     final StoreFront storeFront = ((Seller) newUserBuffer).getStoreFront();
+    storeFront.attachGames(newStateMarket.getGames());
 
     String listingRecord;
     for (int i = 0; i < numGames; i++) {
@@ -245,7 +247,7 @@ public class DatabaseBuilder {
       final Matcher listingMatcher = forceMatchRecordFormat(State.LISTING.getPattern(), listingRecord);
 
       final String gameID = listingMatcher.group(1).trim();
-      final Game game = new Game(gameID);
+      final Game game = newStateMarket.getGames().getGame(gameID);
       final float discount = Float.parseFloat(listingMatcher.group(2));
       final int price = Integer.parseInt(listingMatcher.group(3));
 
@@ -1,8 +1,13 @@
 package vapor;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import vapor.exceptions.ErrorLogger;
 import vapor.exceptions.InvalidTransactionCodeException;
@@ -16,8 +21,146 @@ import vapor.transactions.TransactionBuilder;
  * into a list of {@code Transaction}s according to the specification provided
  */
 public class FileParser {
+  // The default number of parsed records which may await execution at once.
+  public static final int DEFAULT_CAPACITY = 1024;
+
   // reader to act as the {@code FileParser}'s source
   BufferedReader reader;
+  // The table in which user and game IDs are looked up, null if none.
+  private final SymbolTable symbols;
+
+  /**
+   * A record handed from the parsing thread to the consumer: either a parsed
+   * {@code Transaction}, an error to be logged in its place, or the exception
+   * which stopped the parser.
+   */
+  private static class ParsedRecord {
+    // Marks the end of the source.
+    private static final ParsedRecord END = new ParsedRecord(null, null, null);
+
+    private final Transaction transaction; // the parsed {@code Transaction}, if any.
+    private final String context; // the error context, if parsing failed.
+    private final String error; // the error message, if parsing failed.
+    private final RuntimeException failure; // the exception which stopped the parser, if any.
+
+    /**
+     * Create a new ParsedRecord.
+     *
+     * @param transaction the parsed {@code Transaction}, if any.
+     * @param context     the error context, if parsing failed.
+     * @param error       the error message, if parsing failed.
+     */
+    private ParsedRecord(final Transaction transaction, final String context, final String error) {
+      this.transaction = transaction;
+      this.context = context;
+      this.error = error;
+      this.failure = null;
+    }
+
+    /**
+     * Create a new ParsedRecord for the exception which stopped the parser.
+     *
+     * @param failure the exception thrown while parsing.
+     */
+    private ParsedRecord(final RuntimeException failure) {
+      this.transaction = null;
+      this.context = null;
+      this.error = null;
+      this.failure = failure;
+    }
+  }
+
+  /**
+   * An {@code Iterator} over {@code Transaction}s parsed on a separate thread
+   * and handed over through a bounded queue, in file order. Parse errors are
+   * logged by the consumer as it reaches them, so the log keeps file order.
+   *
+   * A stream abandoned before its end should be closed, which stops the parser
+   * and closes the source.
+   */
+  public static final class TransactionStream implements Iterator<Transaction>, Closeable {
+    private final BlockingQueue<ParsedRecord> queue; // records awaiting the consumer.
+    private final Thread parser; // the thread parsing the source.
+    private Transaction next; // the next {@code Transaction}, once fetched.
+    private boolean finished; // whether the end of the source was reached.
+
+    /**
+     * Create a new TransactionStream fed through the queue given.
+     *
+     * @param queue  the queue through which records are handed over.
+     * @param parser the thread parsing the source into the queue, not yet
+     *               started.
+     */
+    private TransactionStream(final BlockingQueue<ParsedRecord> queue, final Thread parser) {
+      this.queue = queue;
+      this.parser = parser;
+    }
+
+    /**
+     * Query whether another {@code Transaction} remains, waiting for the parser
+     * if necessary.
+     *
+     * @return true if another {@code Transaction} remains, false otherwise,
+     *         including once the calling thread is interrupted, which is logged
+     *         and stops the parser.
+     * @throws RuntimeException the exception which stopped the parser, once
+     *                          the records before it are taken.
+     */
+    @Override
+    public boolean hasNext() {
+      while (next == null && !finished) {
+        final ParsedRecord record;
+        try {
+          record = queue.take();
+        } catch (final InterruptedException e) {
+          // The day is cut short; say so rather than end it as if the source had.
+          ErrorLogger.log(ErrorType.ERROR, "FILE PARSER",
+              "Interrupted; the remaining transactions were not processed.");
+          close();
+          Thread.currentThread().interrupt();
+          break;
+        }
+
+        if (record == ParsedRecord.END)
+          finished = true;
+        else if (record.failure != null) {
+          finished = true;
+          throw record.failure;
+        } else if (record.error != null)
+          ErrorLogger.log(ErrorType.ERROR, record.context, record.error);
+        else
+          next = record.transaction;
+      }
+
+      return next != null;
+    }
+
+    /**
+     * Take the next {@code Transaction}, waiting for the parser if necessary.
+     *
+     * @return the next {@code Transaction} in file order.
+     */
+    @Override
+    public Transaction next() {
+      if (!hasNext())
+        throw new NoSuchElementException();
+
+      final Transaction transaction = next;
+      next = null;
+
+      return transaction;
+    }
+
+    /**
+     * Stop the parser, which closes the source, and take nothing more.
+     */
+    @Override
+    public void close() {
+      finished = true;
+      next = null;
+      parser.interrupt();
+    }
+  }
 
   /**
    * Create a new FileParser and initialize its source
@@ -26,7 +169,22 @@ public class FileParser {
    *               source
    */
   public FileParser(final BufferedReader reader) {
+    this(reader, null);
+  }
+
+  /**
+   * Create a new FileParser and initialize its source, looking user and game
+   * IDs up in a {@code Market}'s {@code SymbolTable}
+   * 
+   * @param reader  {@code BufferedReader} to serve as the {@code FileParser}'s
+   *                source
+   * @param symbols the table of the {@code Market} on which the
+   *                {@code Transaction}s are to be executed, null to leave IDs as
+   *                parsed
+   */
+  public FileParser(final BufferedReader reader, final SymbolTable symbols) {
     this.reader = reader;
+    this.symbols = symbols;
   }
 
   /**
@@ -43,7 +201,7 @@ public class FileParser {
     try {
       while ((rawTransaction = reader.readLine()) != null) {
         try {
-          transactionParser = new TransactionBuilder(rawTransaction);
+          transactionParser = new TransactionBuilder(rawTransaction, symbols);
           transactions.add(transactionParser.parse());
         } catch (final InvalidTransactionCodeException e) {
           ErrorLogger.log(ErrorType.ERROR, "[" + rawTransaction + "]", e.getError());
@@ -55,4 +213,78 @@ public class FileParser {
 
     return transactions;
   }
+
+  /**
+   * Parse the source on a separate thread, handing each {@code Transaction} over
+   * as soon as it is parsed. At most {@code capacity} records are held at once,
+   * so memory use does not grow with the size of the source. The source is
+   * closed once exhausted, once the parser fails, or once the stream is closed.
+   *
+   * @param capacity the number of parsed records which may await the consumer.
+   * @return a {@code TransactionStream} over the {@code Transaction}s in file
+   *         order.
+   */
+  public TransactionStream stream(final int capacity) {
+    final BlockingQueue<ParsedRecord> queue = new ArrayBlockingQueue<>(capacity);
+
+    final Thread parser = new Thread(() -> produce(queue), "vapor-file-parser");
+    parser.setDaemon(true);
+    final TransactionStream stream = new TransactionStream(queue, parser);
+    parser.start();
+
+    return stream;
+  }
+
+  /**
+   * Parse the source into the queue given, always ending with
+   * {@code ParsedRecord.END} unless the consumer has closed the stream. An
+   * exception which stops the parser is handed over before the end.
+   *
+   * @param queue the queue through which records are handed over.
+   */
+  private void produce(final BlockingQueue<ParsedRecord> queue) {
+    boolean open = true; // whether the consumer still takes records.
+    String rawTransaction;
+    try {
+      while (open && (rawTransaction = reader.readLine()) != null) {
+        ParsedRecord record;
+        try {
+          record = new ParsedRecord(new TransactionBuilder(rawTransaction, symbols).parse(), null, null);
+        } catch (final InvalidTransactionCodeException e) {
+          record = new ParsedRecord(null, "[" + rawTransaction + "]", e.getError());
+        }
+        open = hand(queue, record);
+      }
+    } catch (final IOException e) {
+      open = hand(queue, new ParsedRecord(null, "FILE PARSER", "Failed to process file."));
+    } catch (final RuntimeException e) {
+      open = hand(queue, new ParsedRecord(e));
+    } finally {
+      try {
+        reader.close();
+      } catch (final IOException e) {
+        ErrorLogger.log(ErrorType.ERROR, "FILE PARSER", "Failed to close file.");
+      }
+
+      if (open)
+        hand(queue, ParsedRecord.END);
+    }
+  }
+
+  /**
+   * Hand a record over to the consumer, waiting for room in the queue.
+   *
+   * @param queue  the queue through which records are handed over.
+   * @param record the record to be handed over.
+   * @return true if the record was queued, false if the stream was closed
+   *         while waiting.
+   */
+  private static boolean hand(final BlockingQueue<ParsedRecord> queue, final ParsedRecord record) {
+    try {
+      queue.put(record);
+      return true;
+    } catch (final InterruptedException e) {
+      return false;
+    }
+  }
 }
@@ -5,8 +5,13 @@ import java.io.Serializable;
 /**
  * A representation of a {@code Game} belonging to a {@code Buyer} through
  * purchase or receipt as a gift.
+ *
+ * {@code Game}s are equal if their titles are; the {@code GameRegistry} of each
+ * {@code Market} holds its canonical instance of each title.
  */
   public class Game implements Serializable {
+  private static final long serialVersionUID = -7247676340531035551L;
+
   private final String name; // Title of this {@code Game}.
 
   /**
@@ -26,4 +31,31 @@ import java.io.Serializable;
   public String getName() {
     return name;
   }
+
+  /**
+   * Query whether another object is a {@code Game} with the same title.
+   *
+   * @param other the object to be compared.
+   * @return true if other is a {@code Game} with the same title, false
+   *         otherwise.
+   */
+  @Override
+  public boolean equals(final Object other) {
+    if (this == other)
+      return true;
+    if (!(other instanceof Game))
+      return false;
+
+    return name.equals(((Game) other).name);
+  }
+
+  /**
+   * Query the hash code of this {@code Game}'s title.
+   *
+   * @return the hash code.
+   */
+  @Override
+  public int hashCode() {
+    return name.hashCode();
+  }
 }
@@ -0,0 +1,152 @@
+package vapor;
+
+import java.util.Arrays;
+
+/**
+ * The registry of every {@code Game} known to a {@code Market}, holding one
+ * canonical {@code Game} per title. Each {@code Market} owns its registry, so
+ * the titles of one are never held for another.
+ *
+ * Every {@code Inventory}, {@code Listing} and transaction of the
+ * {@code Market} refers to the canonical instance, so a title owned by many
+ * {@code User}s is held on the heap, and written to the market snapshot, only
+ * once. {@code Game}s are indexed by the id of their title in the
+ * {@code SymbolTable} of the registry, which serves as the game id: an
+ * {@code Inventory} holds only the ids of its {@code Game}s.
+ */
+public final class GameRegistry {
+  // The table in which titles are interned.
+  private final SymbolTable symbols;
+  // Canonical {@code Game}s indexed by the symbol id of their title.
+  private Game[] games = new Game[1024];
+  // The number of {@code Game}s registered.
+  private int size;
+
+  /**
+   * Create a new, empty GameRegistry interning titles in a table of its own.
+   */
+  public GameRegistry() {
+    this(new SymbolTable());
+  }
+
+  /**
+   * Create a new, empty GameRegistry interning titles in a table shared with
+   * the usernames of its {@code Market}, so that parsers find either in one
+   * table.
+   *
+   * @param symbols the table in which titles are interned.
+   */
+  public GameRegistry(final SymbolTable symbols) {
+    this.symbols = symbols;
+  }
+
+  /**
+   * Access the canonical {@code Game} with a title, registering it if new.
+   *
+   * @param gameID the title of the {@code Game}.
+   * @return the canonical {@code Game}.
+   */
+  public synchronized Game getGame(final String gameID) {
+    final int id = symbols.id(gameID);
+
+    final Game game = find(id);
+    if (game != null)
+      return game;
+
+    return register(id, new Game(symbols.symbol(id)));
+  }
+
+  /**
+   * Access the canonical {@code Game} with the same title as another, registering
+   * that one if the title is new.
+   *
+   * @param game the {@code Game} to be canonicalised, may be null.
+   * @return the canonical {@code Game}, null if game is null.
+   */
+  public synchronized Game canonical(final Game game) {
+    if (game == null)
+      return null;
+
+    final int id = symbols.id(game.getName());
+
+    final Game canonical = find(id);
+    if (canonical != null)
+      return canonical;
+
+    return register(id, game);
+  }
+
+  /**
+   * Access the canonical {@code Game} with an id.
+   *
+   * @param id the id of the {@code Game}.
+   * @return the {@code Game}, null if none is registered under the id.
+   */
+  public synchronized Game getGame(final int id) {
+    return id >= 0 ? find(id) : null;
+  }
+
+  /**
+   * Query the id of a {@code Game}, registering it as canonical if its title is
+   * new.
+   *
+   * @param game the {@code Game} to be queried.
+   * @return the id of the {@code Game}.
+   */
+  public synchronized int id(final Game game) {
+    final int id = symbols.id(game.getName());
+
+    if (find(id) == null)
+      register(id, game);
+
+    return id;
+  }
+
+  /**
+   * Query the id of the {@code Game} with a title, without registering it.
+   *
+   * @param gameID the title of the {@code Game}.
+   * @return the id of the {@code Game}, -1 if none is registered with the title.
+   */
+  public synchronized int find(final String gameID) {
+    final int id = symbols.find(gameID);
+
+    return id >= 0 && find(id) != null ? id : -1;
+  }
+
+  /**
+   * Query the number of {@code Game}s registered.
+   *
+   * @return the number of {@code Game}s.
+   */
+  public synchronized int size() {
+    return size;
+  }
+
+  /**
+   * Look up the {@code Game} registered under a symbol id.
+   *
+   * @param id the symbol id of the title.
+   * @return the {@code Game}, null if none is registered.
+   */
+  private Game find(final int id) {
+    return id < games.length ? games[id] : null;
+  }
+
+  /**
+   * Register a {@code Game} as canonical for its title.
+   *
+   * @param id   the symbol id of the title.
+   * @param game the {@code Game} to be registered.
+   * @return the {@code Game} registered.
+   */
+  private Game register(final int id, final Game game) {
+    if (id >= games.length)
+      games = Arrays.copyOf(games, Math.max(games.length * 2, id + 1));
+
+    games[id] = game;
+    size++;
+
+    return game;
+  }
+}
@@ -0,0 +1,114 @@
+package vapor;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import vapor.users.User;
+
+/**
+ * A {@code UserStore} holding every {@code User} in a {@code HashMap}, or in a
+ * {@code ConcurrentHashMap} for a {@code Market} in concurrent mode.
+ */
+public class InMemoryUserStore implements UserStore {
+  // The {@code User}s by username.
+  private final Map<String, User> users;
+
+  /**
+   * Create a new, empty InMemoryUserStore.
+   */
+  public InMemoryUserStore() {
+    this(new HashMap<>());
+  }
+
+  /**
+   * Create a new InMemoryUserStore backed by a map.
+   *
+   * @param users the {@code User}s by username, held by reference.
+   */
+  InMemoryUserStore(final Map<String, User> users) {
+    this.users = users;
+  }
+
+  /**
+   * Create a new, empty InMemoryUserStore which threads may update at once.
+   *
+   * @return the store, backed by a {@code ConcurrentHashMap}.
+   */
+  public static InMemoryUserStore concurrent() {
+    return new InMemoryUserStore(new ConcurrentHashMap<>());
+  }
+
+  /**
+   * Access the {@code User} with a username.
+   *
+   * @param username the username of the {@code User}.
+   * @return the {@code User}, null if there is none with the username.
+   */
+  @Override
+  public User get(final String username) {
+    return users.get(username);
+  }
+
+  /**
+   * Add a {@code User}, replacing any with the same username.
+   *
+   * @param user the {@code User} to be added.
+   */
+  @Override
+  public void put(final User user) {
+    users.put(user.getUsername(), user);
+  }
+
+  /**
+   * Remove the {@code User} with a username.
+   *
+   * @param username the username of the {@code User}.
+   */
+  @Override
+  public void remove(final String username) {
+    users.remove(username);
+  }
+
+  /**
+   * Query whether there is a {@code User} with a username.
+   *
+   * @param username the username to be queried.
+   * @return true if there is such a {@code User}, false otherwise.
+   */
+  @Override
+  public boolean contains(final String username) {
+    return users.containsKey(username);
+  }
+
+  /**
+   * Query the number of {@code User}s held.
+   *
+   * @return the number of {@code User}s.
+   */
+  @Override
+  public int size() {
+    return users.size();
+  }
+
+  /**
+   * Iterate over every {@code User} held.
+   *
+   * @return the {@code User}s held.
+   */
+  @Override
+  public Iterable<User> values() {
+    return users.values();
+  }
+
+  /**
+   * Access the map backing the store, or a copy of a concurrent one.
+   *
+   * @return the {@code User}s by username, by reference if held in a
+   *         {@code HashMap}.
+   */
+  @Override
+  public HashMap<String, User> asMap() {
+    return users instanceof HashMap ? (HashMap<String, User>) users : new HashMap<>(users);
+  }
+}
@@ -1,14 +1,51 @@
 package vapor;
 
+import java.util.Arrays;
+
 import vapor.exceptions.MultipleCopyException;
 
 /**
  * Container to hold user {@code Game}s and manage access and manipulation.
+ *
+ * An {@code Inventory} holds only the {@code GameRegistry} ids of its
+ * {@code Game}s, in the registry of the {@code Market} it is attached to or,
+ * until then, in one of its own, and the day from which each is visible, in
+ * two parallel int arrays: sorted by id while it holds at most
+ * {@code SORTED_LIMIT} {@code Game}s, then as an open-addressing hash set. An
+ * empty {@code Inventory} holds no arrays at all.
+ *
+ * An {@code Inventory} attached to the {@code OwnershipIndex} of a
+ * {@code Market} records each {@code Game} it gains or loses there under the
+ * id of its owner's username.
  */
 public class Inventory extends Catalogue<Game> {
+  private static final long serialVersionUID = -8539948923300087844L;
+
+  // The most {@code Game}s held in sorted arrays.
+  private static final int SORTED_LIMIT = 32;
+  // The initial length of the sorted arrays.
+  private static final int INITIAL_LENGTH = 4;
+  // Marks an empty slot of the hash set.
+  private static final int EMPTY = -1;
+
+  // The ids of the {@code Game}s, null while there are none.
+  private transient int[] ids;
+  // The day from which the {@code Game} in each slot of ids is visible.
+  private transient int[] stamps;
+  // The number of {@code Game}s held.
+  private transient int size;
+  // Whether ids is a hash set rather than sorted.
+  private transient boolean hashed;
+  // The registry of the ids held, created with the first unless attached.
+  private transient GameRegistry games;
+  // The index recording the {@code Game}s of this {@code Inventory}, if any.
+  private transient OwnershipIndex ownership;
+  // The symbol id of the owner's username in the index.
+  private transient int owner;
+
   /**
    * Add a {@code Game} to the {@code Inventory}.
-   * 
+   *
    * @param game the {@code Game} to be added.
    * @return the {@code Game} for further processing.
    * @throws MultipleCopyException a {@code Game} with this name exists in the
@@ -16,7 +53,7 @@ public class Inventory extends Catalogue<Game> {
    */
   @Override
   public Game addEntry(final Game game) throws MultipleCopyException {
-    return addEntryWithKey(game.getName(), game);
+    return addEntryWithKey(game.getName(), games().canonical(game));
   }
 
   /**
@@ -26,6 +63,370 @@ public class Inventory extends Catalogue<Game> {
    */
   @Override
   public Game[] getEntries() {
-    return this.getEntryMap().values().toArray(new Game[0]);
+    return this.getVisibleEntries().toArray(new Game[0]);
+  }
+
+  /**
+   * Hold the ids of a {@code Market}'s registry from now on, moving the
+   * {@code Game}s held from any other. The {@code Inventory} must then be
+   * attached to the ownership index of that {@code Market}.
+   *
+   * @param games the registry of the {@code Market} holding the owner.
+   */
+  void attachGames(final GameRegistry games) {
+    if (this.games == games)
+      return;
+
+    final GameRegistry previous = this.games;
+    final int[] previousIds = ids;
+    final int[] previousStamps = stamps;
+    final int end = hashed ? ids.length : size;
+
+    this.games = games;
+    ownership = null;
+    if (previousIds == null)
+      return;
+
+    ids = null;
+    stamps = null;
+    size = 0;
+    hashed = false;
+    for (int slot = 0; slot < end; slot++)
+      if (previousIds[slot] != EMPTY) {
+        final Game game = previous.getGame(previousIds[slot]);
+        store(game.getName(), game, previousStamps[slot]);
+      }
+  }
+
+  /**
+   * Access the registry of the ids held.
+   *
+   * @return the {@code GameRegistry}, null if no {@code Game} has been held and
+   *         the {@code Inventory} is not attached to a {@code Market}'s.
+   */
+  GameRegistry getGames() {
+    return games;
+  }
+
+  /**
+   * Record the {@code Game}s of this {@code Inventory} in an index, and every
+   * {@code Game} it gains or loses from now on.
+   *
+   * @param ownership the index of the {@code Market} holding the owner.
+   * @param owner     the symbol id of the owner's username.
+   */
+  void attachOwnership(final OwnershipIndex ownership, final int owner) {
+    if (this.ownership == ownership && this.owner == owner)
+      return;
+
+    this.ownership = ownership;
+    this.owner = owner;
+    ownership.addAll(owner, this);
+  }
+
+  /**
+   * Stop recording the {@code Game}s this {@code Inventory} gains or loses.
+   */
+  void detachOwnership() {
+    ownership = null;
+  }
+
+  /**
+   * Query the day from which the {@code Game} with a title is visible.
+   *
+   * @param ID the title of the {@code Game}.
+   * @return the day, {@code ABSENT} if there is no such {@code Game}.
+   */
+  @Override
+  int getVisibleFrom(final String ID) {
+    if (ids == null)
+      return ABSENT;
+
+    final int id = games.find(ID);
+    final int slot = id < 0 ? -1 : slotOf(id);
+
+    return slot < 0 ? ABSENT : stamps[slot];
+  }
+
+  /**
+   * Access the {@code Game} with a title held by this {@code Inventory}.
+   *
+   * @param ID the title of the {@code Game}.
+   * @return the canonical {@code Game}.
+   */
+  @Override
+  Game lookup(final String ID) {
+    return games().getGame(ID);
+  }
+
+  /**
+   * Hold a {@code Game}, under its own title, replacing any of the same title.
+   *
+   * @param ID          the title of the {@code Game}.
+   * @param game        the {@code Game}.
+   * @param visibleFrom the day from which the {@code Game} is visible.
+   */
+  @Override
+  void store(final String ID, final Game game, final int visibleFrom) {
+    final int id = games().id(game);
+    if (ownership != null)
+      ownership.add(id, owner);
+
+    if (ids == null) {
+      ids = new int[INITIAL_LENGTH];
+      stamps = new int[INITIAL_LENGTH];
+    }
+
+    if (hashed) {
+      insert(id, visibleFrom);
+      return;
+    }
+
+    final int index = Arrays.binarySearch(ids, 0, size, id);
+    if (index >= 0) {
+      stamps[index] = visibleFrom;
+      return;
+    }
+
+    if (size == SORTED_LIMIT) {
+      rehash(SORTED_LIMIT * 4);
+      insert(id, visibleFrom);
+      return;
+    }
+
+    if (size == ids.length) {
+      ids = Arrays.copyOf(ids, Math.min(ids.length * 2, SORTED_LIMIT));
+      stamps = Arrays.copyOf(stamps, ids.length);
+    }
+
+    final int insertion = -index - 1;
+    System.arraycopy(ids, insertion, ids, insertion + 1, size - insertion);
+    System.arraycopy(stamps, insertion, stamps, insertion + 1, size - insertion);
+    ids[insertion] = id;
+    stamps[insertion] = visibleFrom;
+    size++;
+  }
+
+  /**
+   * Stop holding the {@code Game} with a title, if any.
+   *
+   * @param ID the title of the {@code Game}.
+   */
+  @Override
+  void delete(final String ID) {
+    if (ids == null)
+      return;
+
+    final int id = games.find(ID);
+    final int slot = id < 0 ? -1 : slotOf(id);
+    if (slot < 0)
+      return;
+    if (ownership != null)
+      ownership.remove(id, owner);
+
+    if (hashed) {
+      remove(slot);
+      return;
+    }
+
+    System.arraycopy(ids, slot + 1, ids, slot, size - slot - 1);
+    System.arraycopy(stamps, slot + 1, stamps, slot, size - slot - 1);
+    if (--size == 0) {
+      ids = null;
+      stamps = null;
+    }
+  }
+
+  /**
+   * Access the registry of the ids held, creating one of the
+   * {@code Inventory}'s own if it is not attached to a {@code Market}'s.
+   *
+   * @return the {@code GameRegistry}.
+   */
+  private GameRegistry games() {
+    if (games == null)
+      games = new GameRegistry();
+
+    return games;
+  }
+
+  /**
+   * Query the number of {@code Game}s held, visible or not.
+   *
+   * @return the number of {@code Game}s.
+   */
+  @Override
+  int size() {
+    return size;
+  }
+
+  /**
+   * Visit every {@code Game} held, visible or not.
+   *
+   * @return a {@code Cursor} before the first {@code Game}.
+   */
+  @Override
+  Cursor<Game> cursor() {
+    return new SlotCursor();
+  }
+
+  /**
+   * Find the slot holding an id.
+   *
+   * @param id the id of the {@code Game}, while ids is not null.
+   * @return the slot, negative if the id is not held.
+   */
+  private int slotOf(final int id) {
+    if (!hashed)
+      return Arrays.binarySearch(ids, 0, size, id);
+
+    final int mask = ids.length - 1;
+    for (int slot = home(id, mask);; slot = (slot + 1) & mask) {
+      if (ids[slot] == id)
+        return slot;
+      if (ids[slot] == EMPTY)
+        return -1;
+    }
+  }
+
+  /**
+   * Add an id to, or replace its day in, the hash set, growing it once three
+   * quarters full.
+   *
+   * @param id          the id of the {@code Game}.
+   * @param visibleFrom the day from which the {@code Game} is visible.
+   */
+  private void insert(final int id, final int visibleFrom) {
+    final int mask = ids.length - 1;
+
+    int slot = home(id, mask);
+    while (ids[slot] != EMPTY && ids[slot] != id)
+      slot = (slot + 1) & mask;
+
+    if (ids[slot] == EMPTY)
+      size++;
+    ids[slot] = id;
+    stamps[slot] = visibleFrom;
+
+    if (size * 4 > ids.length * 3)
+      rehash(ids.length * 2);
+  }
+
+  /**
+   * Empty a slot of the hash set, moving back the ids probed past it so that no
+   * probe sequence is broken.
+   *
+   * @param slot the slot to be emptied.
+   */
+  private void remove(final int slot) {
+    final int mask = ids.length - 1;
+
+    int hole = slot;
+    for (int next = (hole + 1) & mask; ids[next] != EMPTY; next = (next + 1) & mask)
+      if (((next - home(ids[next], mask)) & mask) >= ((next - hole) & mask)) {
+        ids[hole] = ids[next];
+        stamps[hole] = stamps[next];
+        hole = next;
+      }
+
+    ids[hole] = EMPTY;
+    size--;
+  }
+
+  /**
+   * Move every id held into a new hash set.
+   *
+   * @param length the number of slots of the new hash set, a power of two.
+   */
+  private void rehash(final int length) {
+    final int[] oldIds = ids;
+    final int[] oldStamps = stamps;
+    final int count = hashed ? oldIds.length : size;
+
+    ids = new int[length];
+    stamps = new int[length];
+    Arrays.fill(ids, EMPTY);
+    hashed = true;
+    size = 0;
+
+    for (int i = 0; i < count; i++)
+      if (oldIds[i] != EMPTY)
+        insert(oldIds[i], oldStamps[i]);
+  }
+
+  /**
+   * Query the slot at which the probe for an id starts.
+   *
+   * @param id   the id of the {@code Game}.
+   * @param mask the number of slots less one.
+   * @return the slot.
+   */
+  private static int home(final int id, final int mask) {
+    final int hash = id * 0x9E3779B9;
+
+    return (hash ^ (hash >>> 16)) & mask;
+  }
+
+  /**
+   * A {@code Cursor} over the slots of the id arrays.
+   */
+  private final class SlotCursor implements Cursor<Game> {
+    private int slot = -1;
+
+    /**
+     * Move to the next slot holding a {@code Game}.
+     *
+     * @return true if there is one, false once every slot has been visited.
+     */
+    @Override
+    public boolean next() {
+      final int end = ids == null ? 0 : hashed ? ids.length : size;
+
+      do
+        slot++;
+      while (slot < end && ids[slot] == EMPTY);
+
+      return slot < end;
+    }
+
+    /**
+     * Query the title of the current {@code Game}.
+     *
+     * @return the canonical title.
+     */
+    @Override
+    public String getKey() {
+      return games.getGame(ids[slot]).getName();
+    }
+
+    /**
+     * Access the current {@code Game}.
+     *
+     * @return the canonical {@code Game}.
+     */
+    @Override
+    public Game getEntry() {
+      return games.getGame(ids[slot]);
+    }
+
+    /**
+     * Query the day from which the current {@code Game} is visible.
+     *
+     * @return the day.
+     */
+    @Override
+    public int getVisibleFrom() {
+      return stamps[slot];
+    }
+
+    /**
+     * Change the day from which the current {@code Game} is visible.
+     *
+     * @param day the day.
+     */
+    @Override
+    public void setVisibleFrom(final int day) {
+      stamps[slot] = day;
+    }
   }
 }
@@ -5,7 +5,9 @@ package vapor;
  * {@code User} for the sake of selling a {@code Game}.
  */
 public class Listing implements java.io.Serializable {
-  private final Game game; // {@code Game} being listed.
+  private static final long serialVersionUID = 2105326307445267947L;
+
+  private Game game; // {@code Game} being listed, canonical once held by a {@code Market}.
   private final int price; // Base cost of the {@code Game}.
   private final float discount; // Percentage discount applied in an auction sale.
 
@@ -31,6 +33,16 @@ public class Listing implements java.io.Serializable {
     return game;
   }
 
+  /**
+   * Replace the {@code Game} being listed with the canonical {@code Game} of its
+   * title in a registry.
+   *
+   * @param games the registry of the {@code Market} holding the {@code Listing}.
+   */
+  void attachGames(final GameRegistry games) {
+    game = games.canonical(game);
+  }
+
   /**
    * Query the base cost of the {@code Game}.
    * 
@@ -0,0 +1,474 @@
+package vapor;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+
+import vapor.users.User;
+
+/**
+ * A {@code UserStore} keeping a bounded cache of the {@code User}s most
+ * recently accessed in memory, and the rest in a log-structured file.
+ *
+ * When the cache exceeds its capacity the least recently accessed
+ * {@code User}s are evicted, except those pinned, which are held apart from the
+ * cache until they are no longer pinned. An evicted {@code User} is
+ * appended to the log as a flags byte and a user record (see
+ * {@code MarketSnapshot}), unless the log already holds its state, and is
+ * decoded from the log again when next accessed. The flags record whether the
+ * {@code User} had changed since the {@code Market} was last saved, so a save
+ * still finds the changed {@code User}s the cache evicted. Records share a
+ * title table held in memory.
+ *
+ * Records replaced or removed are left in the log as garbage; once the log is
+ * more than twice the size of its live records it is compacted by copying them
+ * to a new log. The log is scratch space: it is truncated when opened and
+ * deleted when closed, as the snapshot and journal hold the durable state.
+ */
+public class LogUserStore implements UserStore, Closeable {
+  // The fewest {@code User}s cached, so a transaction's {@code User}s stay cached.
+  private static final int MIN_CAPACITY = 16;
+  // The size of the log below which it is never compacted.
+  private static final long MIN_COMPACT_SIZE = 1 << 20;
+  // Flags a record of a {@code User} changed since the {@code Market} was saved.
+  private static final int FLAG_CHANGED = 1;
+
+  /**
+   * The location of a record in the log.
+   */
+  private static final class Entry {
+    private final long offset; // the offset of the record's flags byte.
+    private final int length; // the length of the record with its flags byte.
+
+    /**
+     * Create a new Entry.
+     *
+     * @param offset the offset of the record in the log.
+     * @param length the length of the record.
+     */
+    Entry(final long offset, final int length) {
+      this.offset = offset;
+      this.length = length;
+    }
+  }
+
+  // The log file.
+  private final File file;
+  // The most {@code User}s cached, not counting those held.
+  private final int capacity;
+  // The cached {@code User}s by username, least recently accessed first.
+  private final LinkedHashMap<String, User> cache = new LinkedHashMap<>(16, 0.75f, true);
+  // The {@code User}s found pinned when evicted, by username.
+  private final HashMap<String, User> held = new HashMap<>();
+  // The number of {@code User}s held at which they are next checked for unpinning.
+  private int sweepAt;
+  // The record of each {@code User} the log holds the state of, by username.
+  private final HashMap<String, Entry> index = new HashMap<>();
+  // The index of each title in the log's title table.
+  private final HashMap<String, Integer> references = new HashMap<>();
+  // The log's title table.
+  private final ArrayList<String> titles = new ArrayList<>();
+  // The title table as an array, rebuilt once titles are added.
+  private String[] titleTable = new String[0];
+  // The number of {@code User}s held.
+  private int size;
+  // The total length of the records in {@code index}.
+  private long live;
+  // Whether a {@code User} must stay cached.
+  private Predicate<User> pinned = user -> false;
+  // The registry of the market's {@code Game}s, null if not yet set.
+  private GameRegistry games;
+
+  // The open log.
+  private FileChannel channel;
+  // Appends records to the log.
+  private ChannelOutput output;
+
+  /**
+   * Create a new LogUserStore over an empty log.
+   *
+   * @param file     the log file, truncated if it exists.
+   * @param capacity the most {@code User}s cached.
+   * @throws IOException the log could not be created.
+   */
+  public LogUserStore(final File file, final int capacity) throws IOException {
+    this.file = file;
+    this.capacity = Math.max(capacity, MIN_CAPACITY);
+    sweepAt = this.capacity;
+
+    channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE,
+        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+    output = new ChannelOutput(channel);
+  }
+
+  /**
+   * Access the {@code User} with a username, returning it to the cache if it was
+   * held and decoding it from the log if it was evicted.
+   *
+   * @param username the username of the {@code User}.
+   * @return the {@code User}, null if the store holds none with the username.
+   * @throws UncheckedIOException the log could not be read.
+   */
+  @Override
+  public User get(final String username) {
+    User user = cache.get(username);
+    if (user != null)
+      return user;
+
+    user = held.remove(username);
+    if (user == null) {
+      final Entry entry = index.get(username);
+      if (entry == null)
+        return null;
+
+      user = read(entry);
+    }
+
+    cache.put(username, user);
+    evict();
+
+    return user;
+  }
+
+  /**
+   * Add a {@code User}, replacing any with the same username.
+   *
+   * @param user the {@code User} to be added.
+   * @throws UncheckedIOException the log could not be written.
+   */
+  @Override
+  public void put(final User user) {
+    final String username = user.getUsername();
+    if (!contains(username))
+      size++;
+
+    held.remove(username);
+    cache.put(username, user);
+    discardRecord(username);
+    evict();
+  }
+
+  /**
+   * Remove the {@code User} with a username.
+   *
+   * @param username the username of the {@code User}.
+   */
+  @Override
+  public void remove(final String username) {
+    if (contains(username))
+      size--;
+
+    cache.remove(username);
+    held.remove(username);
+    discardRecord(username);
+  }
+
+  /**
+   * Query whether the store holds a {@code User} with a username, without
+   * decoding it.
+   *
+   * @param username the username to be queried.
+   * @return true if the store holds such a {@code User}, false otherwise.
+   */
+  @Override
+  public boolean contains(final String username) {
+    return cache.containsKey(username) || held.containsKey(username) || index.containsKey(username);
+  }
+
+  /**
+   * Query whether a {@code User} is the one in memory under its username. An
+   * evicted {@code User} is decoded anew, so no {@code User} outside memory is
+   * held.
+   *
+   * @param user the {@code User} to be queried.
+   * @return true if the store holds the {@code User} itself, false otherwise.
+   */
+  @Override
+  public boolean holds(final User user) {
+    final String username = user.getUsername();
+    return held.get(username) == user || (cache.containsKey(username) && cache.get(username) == user);
+  }
+
+  /**
+   * Query the number of {@code User}s in the store, in memory or not.
+   *
+   * @return the number of {@code User}s.
+   */
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Iterate over every {@code User} in the store: those in memory, then those
+   * evicted, each decoded from the log as it is reached.
+   *
+   * @return the {@code User}s held when this is called.
+   * @throws UncheckedIOException the log could not be read.
+   */
+  @Override
+  public Iterable<User> values() {
+    final ArrayList<User> cached = new ArrayList<>(cache.values());
+    cached.addAll(held.values());
+    final ArrayList<Entry> evicted = new ArrayList<>();
+    for (final Map.Entry<String, Entry> entry : index.entrySet())
+      if (!cache.containsKey(entry.getKey()) && !held.containsKey(entry.getKey()))
+        evicted.add(entry.getValue());
+
+    return () -> new Iterator<User>() {
+      private int next = 0;
+
+      @Override
+      public boolean hasNext() {
+        return next < cached.size() + evicted.size();
+      }
+
+      @Override
+      public User next() {
+        if (!hasNext())
+          throw new NoSuchElementException();
+
+        final int i = next++;
+        return i < cached.size() ? cached.get(i) : read(evicted.get(i - cached.size()));
+      }
+    };
+  }
+
+  /**
+   * Copy every {@code User} in the store into a map, decoding those evicted.
+   *
+   * @return a new map of the {@code User}s by username.
+   * @throws UncheckedIOException the log could not be read.
+   */
+  @Override
+  public HashMap<String, User> asMap() {
+    final HashMap<String, User> users = new HashMap<>();
+    for (final User user : values())
+      users.put(user.getUsername(), user);
+
+    return users;
+  }
+
+  /**
+   * Record that a {@code User} has been saved. The record of an evicted
+   * {@code User} is flagged unchanged; that of a {@code User} in memory is
+   * discarded, as it may predate the changes saved, so it is appended again once
+   * evicted.
+   *
+   * @param user the {@code User} saved.
+   * @throws UncheckedIOException the log could not be written.
+   */
+  @Override
+  public void markSaved(final User user) {
+    final String username = user.getUsername();
+    if (cache.containsKey(username) || held.containsKey(username)) {
+      discardRecord(username);
+      return;
+    }
+
+    final Entry entry = index.get(username);
+    if (entry == null)
+      return;
+
+    try {
+      output.flush();
+      channel.write(ByteBuffer.wrap(new byte[] { 0 }), entry.offset);
+    } catch (final IOException e) {
+      throw new UncheckedIOException("user store log could not be written.", e);
+    }
+  }
+
+  /**
+   * Set which {@code User}s must stay in memory, as they are referenced outside
+   * the store.
+   *
+   * @param pinned whether a {@code User} must stay cached.
+   */
+  @Override
+  public void pin(final Predicate<User> pinned) {
+    this.pinned = pinned;
+  }
+
+  /**
+   * Set the registry of the {@code Game}s the {@code User}s decoded refer to.
+   *
+   * @param games the {@code GameRegistry} of the {@code Market}.
+   */
+  @Override
+  public void useGames(final GameRegistry games) {
+    this.games = games;
+  }
+
+  /**
+   * Close and delete the log. The store must not be used after.
+   *
+   * @throws IOException the log could not be closed.
+   */
+  @Override
+  public void close() throws IOException {
+    channel.close();
+    Files.deleteIfExists(file.toPath());
+  }
+
+  /**
+   * Evict the least recently accessed {@code User}s until the cache is within
+   * its capacity, appending those whose state the log does not hold. Those
+   * pinned are held instead, and are evicted in turn once the number held has
+   * doubled and they are no longer pinned.
+   *
+   * @throws UncheckedIOException the log could not be written.
+   */
+  private void evict() {
+    if (cache.size() <= capacity)
+      return;
+
+    final Iterator<User> eldest = cache.values().iterator();
+    while (cache.size() > capacity) {
+      final User user = eldest.next();
+      eldest.remove();
+      if (pinned.test(user))
+        held.put(user.getUsername(), user);
+      else
+        writeBack(user);
+    }
+
+    if (held.size() >= sweepAt) {
+      final Iterator<User> unpinned = held.values().iterator();
+      while (unpinned.hasNext()) {
+        final User user = unpinned.next();
+        if (!pinned.test(user)) {
+          unpinned.remove();
+          writeBack(user);
+        }
+      }
+      sweepAt = Math.max(capacity, 2 * held.size());
+    }
+
+    if (output.position() > MIN_COMPACT_SIZE && output.position() > 2 * live)
+      compact();
+  }
+
+  /**
+   * Append the record of a {@code User} leaving memory, unless the log already
+   * holds its state.
+   *
+   * @param user the {@code User} leaving memory.
+   * @throws UncheckedIOException the log could not be written.
+   */
+  private void writeBack(final User user) {
+    if (!index.containsKey(user.getUsername()) || MarketSnapshot.isDirty(user))
+      append(user);
+  }
+
+  /**
+   * Append the record of a {@code User} to the log.
+   *
+   * @param user the {@code User} to be appended.
+   * @throws UncheckedIOException the log could not be written.
+   */
+  private void append(final User user) {
+    try {
+      final long offset = output.position();
+      output.putByte(MarketSnapshot.isDirty(user) ? FLAG_CHANGED : 0);
+      MarketSnapshot.writeUserRecord(user, references, titles, output);
+
+      discardRecord(user.getUsername());
+      final Entry entry = new Entry(offset, (int) (output.position() - offset));
+      index.put(user.getUsername(), entry);
+      live += entry.length;
+    } catch (final IOException e) {
+      throw new UncheckedIOException("user store log could not be written.", e);
+    }
+  }
+
+  /**
+   * Discard the record of a username, if the log holds one.
+   *
+   * @param username the username whose record is discarded.
+   */
+  private void discardRecord(final String username) {
+    final Entry entry = index.remove(username);
+    if (entry != null)
+      live -= entry.length;
+  }
+
+  /**
+   * Decode a {@code User} from its record in the log.
+   *
+   * @param entry the location of the record.
+   * @return the {@code User}, marked changed as its record is flagged.
+   * @throws UncheckedIOException the log could not be read.
+   */
+  private User read(final Entry entry) {
+    try {
+      output.flush();
+
+      final ByteBuffer record = ByteBuffer.allocate(entry.length);
+      while (record.hasRemaining())
+        if (channel.read(record, entry.offset + record.position()) < 0)
+          throw new IOException("user store log is truncated.");
+      record.flip();
+
+      if (titleTable.length != titles.size())
+        titleTable = titles.toArray(new String[0]);
+
+      final int flags = record.get();
+      final User user = MarketSnapshot.decodeUserRecord(record, titleTable, games);
+      if ((flags & FLAG_CHANGED) == 0)
+        MarketSnapshot.markClean(user);
+
+      return user;
+    } catch (final IOException e) {
+      throw new UncheckedIOException("user store log could not be read.", e);
+    }
+  }
+
+  /**
+   * Copy the live records to a new log and replace the log with it.
+   *
+   * @throws UncheckedIOException the log could not be compacted.
+   */
+  private void compact() {
+    final File compacted = new File(file.getPath() + ".compact");
+
+    try {
+      output.flush();
+
+      final FileChannel target = FileChannel.open(compacted.toPath(), StandardOpenOption.READ,
+          StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+      final HashMap<String, Entry> moved = new HashMap<>();
+      long position = 0;
+      for (final Map.Entry<String, Entry> entry : index.entrySet()) {
+        final Entry record = entry.getValue();
+        long copied = 0;
+        while (copied < record.length)
+          copied += channel.transferTo(record.offset + copied, record.length - copied, target);
+
+        moved.put(entry.getKey(), new Entry(position, record.length));
+        position += record.length;
+      }
+
+      Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      index.putAll(moved);
+      channel.close();
+      channel = target;
+      channel.position(position);
+      output = new ChannelOutput(channel);
+    } catch (final IOException e) {
+      throw new UncheckedIOException("user store log could not be compacted.", e);
+    }
+  }
+}
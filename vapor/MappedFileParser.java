@@ -0,0 +1,324 @@
+package vapor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import vapor.exceptions.ErrorLogger;
+import vapor.exceptions.InvalidTransactionCodeException;
+import vapor.exceptions.ErrorLogger.ErrorType;
+import vapor.transactions.Transaction;
+import vapor.transactions.TransactionBuilder;
+
+/**
+ * A {@code FileParser} alternative which memory-maps a daily transaction file,
+ * splits it into newline-aligned chunks and parses the chunks in parallel on a
+ * {@code ForkJoinPool}, straight from the mapped bytes. The parsed
+ * {@code Transaction}s are stitched back together in their original order.
+ */
+public class MappedFileParser {
+  // The largest region of the file mapped at once.
+  private static final long MAX_REGION_SIZE = Integer.MAX_VALUE;
+  // The size below which a chunk is parsed rather than split further.
+  private static final int CHUNK_SIZE = 1 << 20;
+
+  // The file to act as the {@code MappedFileParser}'s source.
+  private final File file;
+  // The pool on which chunks are parsed.
+  private final ForkJoinPool pool;
+  // The largest region of the file mapped at once.
+  private final long regionSize;
+  // The size below which a chunk is parsed rather than split further.
+  private final int chunkSize;
+  // The table in which user and game IDs are looked up, null if none.
+  private final SymbolTable symbols;
+
+  /**
+   * A run of consecutive records parsed from one chunk of the file.
+   */
+  private static class ParsedChunk {
+    // The {@code Transaction}s parsed, in file order.
+    private final ArrayList<Transaction> transactions = new ArrayList<>();
+    // The records which failed to parse and their errors, in file order.
+    private final ArrayList<String[]> errors = new ArrayList<>();
+  }
+
+  /**
+   * Parses the chunks between two newline-aligned offsets of a mapped region,
+   * splitting the range in half until it is small enough to parse directly.
+   */
+  private static class ChunkTask extends RecursiveTask<ArrayList<ParsedChunk>> {
+    private static final long serialVersionUID = 3920514488315527301L;
+
+    private final transient ByteBuffer region; // the mapped region holding the chunk.
+    private final int start; // the offset of the first record in the chunk.
+    private final int end; // the offset after the last record in the chunk.
+    private final int chunkSize; // the size below which the range is parsed directly.
+    private final transient SymbolTable symbols; // the table in which IDs are looked up, if any.
+
+    /**
+     * Create a new task to parse the records between start and end.
+     *
+     * @param region    the mapped region holding the records.
+     * @param start     the offset of the first record.
+     * @param end       the offset after the last record.
+     * @param chunkSize the size below which the range is parsed directly.
+     * @param symbols   the table in which IDs are looked up, null if none.
+     */
+    private ChunkTask(final ByteBuffer region, final int start, final int end, final int chunkSize,
+        final SymbolTable symbols) {
+      this.region = region;
+      this.start = start;
+      this.end = end;
+      this.chunkSize = chunkSize;
+      this.symbols = symbols;
+    }
+
+    /**
+     * Parse this task's records, forking halves of the range if it is large.
+     *
+     * @return the chunks parsed, in file order.
+     */
+    @Override
+    protected ArrayList<ParsedChunk> compute() {
+      if (end - start > chunkSize) {
+        final int middle = nextLineStart(region, start + (end - start) / 2, end);
+
+        if (middle < end) {
+          final ChunkTask left = new ChunkTask(region, start, middle, chunkSize, symbols);
+          left.fork();
+
+          final ArrayList<ParsedChunk> right = new ChunkTask(region, middle, end, chunkSize, symbols).compute();
+          final ArrayList<ParsedChunk> chunks = left.join();
+          chunks.addAll(right);
+
+          return chunks;
+        }
+      }
+
+      final ArrayList<ParsedChunk> chunks = new ArrayList<>();
+      chunks.add(parseChunk(region, start, end, symbols));
+
+      return chunks;
+    }
+  }
+
+  /**
+   * Create a new MappedFileParser for the file given, parsing on the common
+   * {@code ForkJoinPool}.
+   *
+   * @param file the daily transaction file to be parsed.
+   */
+  public MappedFileParser(final File file) {
+    this(file, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Create a new MappedFileParser for the file given, parsing on the common
+   * {@code ForkJoinPool} and looking user and game IDs up in a {@code Market}'s
+   * {@code SymbolTable}.
+   *
+   * @param file    the daily transaction file to be parsed.
+   * @param symbols the table of the {@code Market} on which the
+   *                {@code Transaction}s are to be executed, null to leave IDs
+   *                as parsed.
+   */
+  public MappedFileParser(final File file, final SymbolTable symbols) {
+    this(file, ForkJoinPool.commonPool(), MAX_REGION_SIZE, CHUNK_SIZE, symbols);
+  }
+
+  /**
+   * Create a new MappedFileParser for the file given.
+   *
+   * @param file the daily transaction file to be parsed.
+   * @param pool the pool on which to parse the file's chunks.
+   */
+  public MappedFileParser(final File file, final ForkJoinPool pool) {
+    this(file, pool, MAX_REGION_SIZE, CHUNK_SIZE);
+  }
+
+  /**
+   * Create a new MappedFileParser for the file given, mapping and splitting it
+   * in pieces of the sizes given.
+   *
+   * @param file       the daily transaction file to be parsed.
+   * @param pool       the pool on which to parse the file's chunks.
+   * @param regionSize the largest region of the file mapped at once, longer
+   *                   than any record.
+   * @param chunkSize  the size below which a chunk is parsed rather than split
+   *                   further.
+   */
+  public MappedFileParser(final File file, final ForkJoinPool pool, final long regionSize, final int chunkSize) {
+    this(file, pool, regionSize, chunkSize, null);
+  }
+
+  /**
+   * Create a new MappedFileParser for the file given, mapping and splitting it
+   * in pieces of the sizes given and looking user and game IDs up in a
+   * {@code SymbolTable}.
+   *
+   * @param file       the daily transaction file to be parsed.
+   * @param pool       the pool on which to parse the file's chunks.
+   * @param regionSize the largest region of the file mapped at once, longer
+   *                   than any record.
+   * @param chunkSize  the size below which a chunk is parsed rather than split
+   *                   further.
+   * @param symbols    the table in which IDs are looked up, null to leave them
+   *                   as parsed.
+   */
+  public MappedFileParser(final File file, final ForkJoinPool pool, final long regionSize, final int chunkSize,
+      final SymbolTable symbols) {
+    this.file = file;
+    this.pool = pool;
+    this.regionSize = Math.min(regionSize, MAX_REGION_SIZE);
+    this.chunkSize = chunkSize;
+    this.symbols = symbols;
+  }
+
+  /**
+   * Assemble a list of parsed {@code Transaction}s as per the specification.
+   * Records which fail to parse are logged in file order once parsing is
+   * complete.
+   *
+   * @return an {@code ArrayList} of {@code Transaction}s containing all
+   *         transactions in the file, null if the file could not be opened.
+   */
+  public ArrayList<Transaction> parse() {
+    final ArrayList<ParsedChunk> chunks = new ArrayList<>();
+
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      final long size = channel.size();
+
+      long regionStart = 0;
+      while (regionStart < size) {
+        final long mapped = Math.min(regionSize, size - regionStart);
+        final MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, regionStart, mapped);
+
+        // Only parse up to the last complete record unless this is the file's tail.
+        int regionEnd = (int) mapped;
+        if (regionStart + mapped < size) {
+          regionEnd = lastLineEnd(region, regionEnd);
+
+          if (regionEnd == 0) {
+            ErrorLogger.log(ErrorType.ERROR, "FILE PARSER", "Record exceeds mappable region.");
+            break;
+          }
+        }
+
+        chunks.addAll(pool.invoke(new ChunkTask(region, 0, regionEnd, chunkSize, symbols)));
+
+        regionStart += regionEnd;
+      }
+    } catch (final IOException e) {
+      ErrorLogger.log(ErrorType.ERROR, "FILE PARSER", "Failed to process file.");
+
+      if (chunks.isEmpty())
+        return null;
+    }
+
+    int count = 0;
+    for (final ParsedChunk chunk : chunks)
+      count += chunk.transactions.size();
+
+    final ArrayList<Transaction> transactions = new ArrayList<>(count);
+    for (final ParsedChunk chunk : chunks) {
+      transactions.addAll(chunk.transactions);
+
+      for (final String[] error : chunk.errors)
+        ErrorLogger.log(ErrorType.ERROR, "[" + error[0] + "]", error[1]);
+    }
+
+    return transactions;
+  }
+
+  /**
+   * Parse every record between two offsets of a mapped region.
+   *
+   * Records are split on {@code \n}, {@code \r} or {@code \r\n} as
+   * {@code BufferedReader.readLine} would. ASCII records are copied straight
+   * into compact Latin-1 Strings without charset decoding; any other record is
+   * decoded with the platform charset, as {@code FileReader} would.
+   *
+   * @param region  the mapped region holding the records.
+   * @param start   the offset of the first record.
+   * @param end     the offset after the last record.
+   * @param symbols the table in which IDs are looked up, null if none.
+   * @return the parsed chunk.
+   */
+  private static ParsedChunk parseChunk(final ByteBuffer region, final int start, final int end,
+      final SymbolTable symbols) {
+    final ParsedChunk chunk = new ParsedChunk();
+    final Charset platformCharset = Charset.defaultCharset();
+
+    byte[] record = new byte[128];
+    int position = start;
+    while (position < end) {
+      int lineEnd = position;
+      boolean ascii = true;
+      byte b = 0;
+      while (lineEnd < end && (b = region.get(lineEnd)) != '\n' && b != '\r') {
+        ascii &= b >= 0;
+        lineEnd++;
+      }
+
+      final int length = lineEnd - position;
+      if (length > record.length)
+        record = new byte[Math.max(length, record.length * 2)];
+      region.get(position, record, 0, length);
+
+      final String rawTransaction = new String(record, 0, length,
+          ascii ? StandardCharsets.ISO_8859_1 : platformCharset);
+
+      try {
+        chunk.transactions.add(new TransactionBuilder(rawTransaction, symbols).parse());
+      } catch (final InvalidTransactionCodeException e) {
+        chunk.errors.add(new String[] { rawTransaction, e.getError() });
+      }
+
+      position = lineEnd + 1;
+      if (lineEnd < end && b == '\r' && position < end && region.get(position) == '\n')
+        position++;
+    }
+
+    return chunk;
+  }
+
+  /**
+   * Find the first record starting at or after an offset.
+   *
+   * @param region the mapped region to be searched.
+   * @param from   the offset from which to search.
+   * @param end    the offset at which to stop searching.
+   * @return the offset after the next {@code \n}, or end if there is none.
+   */
+  private static int nextLineStart(final ByteBuffer region, final int from, final int end) {
+    for (int i = from; i < end; i++)
+      if (region.get(i) == '\n')
+        return i + 1;
+
+    return end;
+  }
+
+  /**
+   * Find the end of the last complete record before an offset.
+   *
+   * @param region the mapped region to be searched.
+   * @param end    the offset before which to search.
+   * @return the offset after the last {@code \n}, or 0 if there is none.
+   */
+  private static int lastLineEnd(final ByteBuffer region, final int end) {
+    for (int i = end - 1; i >= 0; i--)
+      if (region.get(i) == '\n')
+        return i + 1;
+
+    return 0;
+  }
+}
@@ -0,0 +1,342 @@
+package vapor;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import vapor.users.User;
+
+/**
+ * The user records of a memory-mapped binary market snapshot, from which a
+ * {@code Market} materializes each {@code User} on first access.
+ *
+ * A snapshot is a base segment followed by any number of delta segments, each
+ * holding the records of the {@code User}s changed since the segment before it
+ * and the usernames of those removed. The latest record of a username is found
+ * by searching the segments newest first; within a segment, through its index,
+ * a table of (username hash, record offset, record length) entries sorted by
+ * hash, by binary search and a comparison of the encoded username. No other
+ * record is decoded.
+ *
+ * A username is claimed once its {@code User} is materialized, after which the
+ * {@code Market} holds the only copy. The latest records of unclaimed usernames
+ * are carried into the next full snapshot verbatim.
+ */
+final class MappedSnapshot {
+  // The size in bytes of an index entry.
+  static final int INDEX_ENTRY_SIZE = 12;
+
+  /**
+   * The index and removed usernames of one segment of a snapshot.
+   */
+  static final class Segment {
+    private final int indexOffset; // the offset of the index in the snapshot.
+    private final int size; // the number of records in the segment.
+    private final HashSet<String> removed; // the usernames removed by the segment.
+
+    /**
+     * Create a new Segment.
+     *
+     * @param indexOffset the offset of the segment's index in the snapshot.
+     * @param size        the number of records in the segment.
+     * @param removed     the usernames removed by the segment.
+     */
+    Segment(final int indexOffset, final int size, final HashSet<String> removed) {
+      this.indexOffset = indexOffset;
+      this.size = size;
+      this.removed = removed;
+    }
+  }
+
+  // The mapped snapshot.
+  private final ByteBuffer map;
+  // The version of the snapshot format, which its records are decoded as.
+  private final int version;
+  // The market's day in the snapshot, against which records of earlier versions
+  // are decoded.
+  private final int day;
+  // The snapshot's title table, across every segment.
+  private final String[] titles;
+  // The registry of the {@code Game}s of the {@code Market} reading the snapshot.
+  private final GameRegistry games;
+  // The segments of the snapshot, oldest first.
+  private final Segment[] segments;
+  // The usernames whose {@code User}s have been materialized.
+  private final HashSet<String> claimed = new HashSet<>();
+
+  /**
+   * Create a new MappedSnapshot over a mapped snapshot.
+   *
+   * @param map      the mapped snapshot.
+   * @param version  the version of the snapshot format.
+   * @param day      the market's day in the snapshot.
+   * @param titles   the snapshot's title table.
+   * @param games    the registry of the {@code Game}s of the {@code Market}
+   *                 reading the snapshot.
+   * @param segments the segments of the snapshot, oldest first.
+   */
+  MappedSnapshot(final ByteBuffer map, final int version, final int day, final String[] titles,
+      final GameRegistry games, final Segment[] segments) {
+    this.map = map;
+    this.version = version;
+    this.day = day;
+    this.titles = titles;
+    this.games = games;
+    this.segments = segments;
+  }
+
+  /**
+   * Query the version of the snapshot format, which its records are decoded as.
+   *
+   * @return the version.
+   */
+  int getVersion() {
+    return version;
+  }
+
+  /**
+   * Access the title table referenced by the snapshot's records.
+   *
+   * @return the titles, by reference.
+   */
+  String[] getTitles() {
+    return titles;
+  }
+
+  /**
+   * Query the username hash of an index entry.
+   *
+   * @param location the segment in the high and the entry in the low 32 bits.
+   * @return the hash of the record's username.
+   */
+  int getHash(final long location) {
+    return getHash((int) (location >>> 32), (int) location);
+  }
+
+  /**
+   * Access the encoded record of an index entry.
+   *
+   * @param location the segment in the high and the entry in the low 32 bits.
+   * @return the record, positioned at its start.
+   */
+  ByteBuffer getRecord(final long location) {
+    return getRecord((int) (location >>> 32), (int) location);
+  }
+
+  /**
+   * Query the username hash of an index entry.
+   *
+   * @param segment the segment holding the entry.
+   * @param entry   the index of the entry in the segment.
+   * @return the hash of the record's username.
+   */
+  private int getHash(final int segment, final int entry) {
+    return map.getInt(segments[segment].indexOffset + entry * INDEX_ENTRY_SIZE);
+  }
+
+  /**
+   * Access the encoded record of an index entry.
+   *
+   * @param segment the segment holding the entry.
+   * @param entry   the index of the entry in the segment.
+   * @return the record, positioned at its start.
+   */
+  private ByteBuffer getRecord(final int segment, final int entry) {
+    final int position = segments[segment].indexOffset + entry * INDEX_ENTRY_SIZE;
+    final int offset = map.getInt(position + 4);
+    final int length = map.getInt(position + 8);
+
+    return map.duplicate().position(offset).limit(offset + length).slice();
+  }
+
+  /**
+   * Find the latest record of a username. A segment's records are newer than
+   * its removals, which are newer than every record of the segments before it.
+   *
+   * @param username the username to be found.
+   * @return the segment in the high and the entry in the low 32 bits, -1 if no
+   *         segment holds a record or the username was last removed.
+   */
+  private long findLatest(final String username) {
+    final int hash = username.hashCode();
+    final byte[] encoded = username.getBytes(StandardCharsets.UTF_8);
+
+    for (int segment = segments.length - 1; segment >= 0; segment--) {
+      final int entry = find(segment, hash, encoded);
+      if (entry >= 0)
+        return ((long) segment << 32) | entry;
+      if (segments[segment].removed.contains(username))
+        return -1;
+    }
+
+    return -1;
+  }
+
+  /**
+   * Find the index entry of a username in a segment.
+   *
+   * @param segment the segment to be searched.
+   * @param hash    the hash of the username.
+   * @param encoded the UTF-8 encoded username.
+   * @return the index of the entry, -1 if the segment has no such record.
+   */
+  private int find(final int segment, final int hash, final byte[] encoded) {
+    final int size = segments[segment].size;
+
+    // Find the first entry with the hash.
+    int low = 0;
+    int high = size;
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      if (getHash(segment, middle) < hash)
+        low = middle + 1;
+      else
+        high = middle;
+    }
+
+    for (int entry = low; entry < size && getHash(segment, entry) == hash; entry++)
+      if (matches(getRecord(segment, entry), encoded))
+        return entry;
+
+    return -1;
+  }
+
+  /**
+   * Query whether the snapshot holds an unclaimed record for a username.
+   *
+   * @param username the username to be queried.
+   * @return true if an unclaimed record exists, false otherwise.
+   */
+  boolean contains(final String username) {
+    return !claimed.contains(username) && findLatest(username) >= 0;
+  }
+
+  /**
+   * Claim and materialize the latest record of a username.
+   *
+   * @param username the username to be materialized.
+   * @return the {@code User}, null if there is no unclaimed record for it.
+   */
+  User take(final String username) {
+    if (claimed.contains(username))
+      return null;
+
+    final long location = findLatest(username);
+    if (location < 0)
+      return null;
+
+    claimed.add(username);
+
+    return MarketSnapshot.readUserRecord(getRecord(location), version, day, titles, games);
+  }
+
+  /**
+   * Claim a username without materializing it, as its {@code User} has been
+   * replaced or removed.
+   *
+   * @param username the username to be claimed.
+   */
+  void claim(final String username) {
+    claimed.add(username);
+  }
+
+  /**
+   * Claim and materialize every unclaimed {@code User}.
+   *
+   * @return the {@code User}s materialized.
+   */
+  ArrayList<User> takeAll() {
+    final ArrayList<User> users = new ArrayList<>();
+
+    for (final long location : locateUnclaimed()) {
+      final User user = MarketSnapshot.readUserRecord(getRecord(location), version, day, titles, games);
+      claimed.add(user.getUsername());
+      users.add(user);
+    }
+
+    return users;
+  }
+
+  /**
+   * Locate the latest record of every unclaimed username, newest segment first.
+   * Each record's username is decoded, so this is proportional to the size of
+   * the whole snapshot.
+   *
+   * @return the segment in the high and the entry in the low 32 bits of each.
+   */
+  long[] locateUnclaimed() {
+    final HashSet<String> seen = new HashSet<>(claimed);
+    long[] locations = new long[64];
+    int count = 0;
+
+    for (int segment = segments.length - 1; segment >= 0; segment--) {
+      for (int entry = 0; entry < segments[segment].size; entry++) {
+        final ByteBuffer record = getRecord(segment, entry);
+        record.get(); // user type tag.
+
+        final byte[] encoded = new byte[MarketSnapshot.getVarInt(record)];
+        record.get(encoded);
+        if (!seen.add(new String(encoded, StandardCharsets.UTF_8)))
+          continue;
+
+        if (count == locations.length)
+          locations = Arrays.copyOf(locations, count * 2);
+        locations[count++] = ((long) segment << 32) | entry;
+      }
+
+      seen.addAll(segments[segment].removed);
+    }
+
+    return Arrays.copyOf(locations, count);
+  }
+
+  /**
+   * Iterate over the unclaimed {@code User}s without claiming them. Each
+   * {@code User} is decoded as it is reached and not retained.
+   *
+   * @return an {@code Iterator} over the unclaimed {@code User}s.
+   */
+  Iterator<User> unclaimed() {
+    final long[] locations = locateUnclaimed();
+
+    return new Iterator<User>() {
+      private int next = 0;
+
+      @Override
+      public boolean hasNext() {
+        return next < locations.length;
+      }
+
+      @Override
+      public User next() {
+        if (!hasNext())
+          throw new NoSuchElementException();
+
+        return MarketSnapshot.readUserRecord(getRecord(locations[next++]), version, day, titles, games);
+      }
+    };
+  }
+
+  /**
+   * Query whether a record holds a username.
+   *
+   * @param record   the record, positioned at its start.
+   * @param username the UTF-8 encoded username.
+   * @return true if the record's username matches, false otherwise.
+   */
+  private static boolean matches(final ByteBuffer record, final byte[] username) {
+    record.get(); // user type tag.
+    if (MarketSnapshot.getVarInt(record) != username.length)
+      return false;
+
+    for (final byte b : username)
+      if (record.get() != b)
+        return false;
+
+    return true;
+  }
+}
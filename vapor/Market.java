@@ -1,10 +1,23 @@
 package vapor;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
+import vapor.exceptions.ErrorLogger;
+import vapor.exceptions.ErrorLogger.ErrorType;
 import vapor.exceptions.MultipleLoginException;
 import vapor.exceptions.NoLoginException;
 import vapor.exceptions.NotBuyerException;
@@ -25,14 +38,58 @@ import vapor.users.User;
  */
 
 public class Market implements Serializable, EndOfDay {
+  private static final long serialVersionUID = -5756708335918712700L;
 
+  // The {@code User}s as serialized; backs {@code store} while it is in memory.
   private final HashMap<String, User> users;
+  // The {@code User} logged in to the market's own session, as serialized; moved
+  // into the session as the market is read.
   private User activeUser = null;
   private final StatsLogger stats;
-  public boolean saleActivated;
+  public volatile boolean saleActivated;
 
   private HashSet<EndOfDay> endOfDayBuffer;
 
+  // The {@code User}s loaded or added.
+  private transient UserStore store;
+  // The table interning the market's usernames and game titles.
+  private transient SymbolTable symbols;
+  // The canonical {@code Game} of each title in the market.
+  private transient GameRegistry games;
+  // The day of the market, which balances and catalogues are read against.
+  private transient MarketClock clock;
+  // The balances of the {@code User}s loaded or added.
+  private transient BalanceTable balances;
+  // The owners of each {@code Game}.
+  private transient OwnershipIndex ownership;
+  // Whether the ownership index holds the {@code User}s not yet accessed.
+  private transient boolean indexed;
+
+  // The snapshot from which {@code User}s not yet accessed are loaded, one per
+  // shard, if any.
+  private transient MappedSnapshot[] snapshots;
+  // The snapshot file whose state the market matches but for its changes since.
+  private transient File savedFile;
+  // The generation of the snapshot in {@code savedFile}, counted in saves.
+  private transient long generation;
+  // The number of the day's transactions the snapshot covers, -1 once the day
+  // is complete.
+  private transient long checkpoint = -1;
+  // The number of shards the market is saved in.
+  private transient int shards = 1;
+  // The number of shards of the snapshot in {@code savedFile}.
+  private transient int savedShards = 1;
+  // The usernames removed since the market was last saved to {@code savedFile}.
+  private transient HashSet<String> removedUsers;
+  // The {@code User}s accessed since last drained, if accesses are tracked.
+  private transient Set<User> accessed;
+  // The market's own session.
+  private transient Session session;
+  // The sessions opened besides the market's own.
+  private transient Set<Session> sessions;
+  // The locks of the {@code User}s in concurrent mode, null otherwise.
+  private transient UserLocks locks;
+
   /**
    * Initializes an empty market.
    */
@@ -41,13 +98,635 @@ public class Market implements Serializable, EndOfDay {
     this.saleActivated = false;
     this.stats = new StatsLogger();
     this.endOfDayBuffer = new HashSet<>();
+    this.clock = new MarketClock();
+    this.symbols = new SymbolTable();
+    this.games = new GameRegistry(symbols);
+    this.balances = new BalanceTable(clock, symbols);
+    this.ownership = new OwnershipIndex(symbols, games);
+    this.indexed = true;
+    this.session = new Session();
+    this.sessions = ConcurrentHashMap.newKeySet();
+    useStore(new InMemoryUserStore(users));
+  }
+
+  /**
+   * Access the table interning every username and game title in the
+   * {@code Market}.
+   *
+   * @return the {@code SymbolTable} of the {@code Market}.
+   */
+  public SymbolTable getSymbols() {
+    return symbols;
+  }
+
+  /**
+   * Access the registry holding the canonical {@code Game} of every title in the
+   * {@code Market}.
+   *
+   * @return the {@code GameRegistry} of the {@code Market}.
+   */
+  public GameRegistry getGames() {
+    return games;
+  }
+
+  /**
+   * Access the table holding the balances of every {@code User} loaded or added,
+   * for market-wide scans.
+   *
+   * @return the {@code BalanceTable} of the {@code Market}.
+   */
+  public BalanceTable getBalances() {
+    return balances;
+  }
+
+  /**
+   * Query the market's day, counted in ends of day from zero. A {@code User}'s
+   * daily credit allowance spent on an earlier day is restored in full.
+   *
+   * @return the day.
+   */
+  public int getDay() {
+    return clock.getDay();
+  }
+
+  /**
+   * Restore the market's day, as loaded from a snapshot.
+   *
+   * @param day the day.
+   */
+  void restoreDay(final int day) {
+    clock.setDay(day);
+  }
+
+  /**
+   * Sum the credit of every {@code User} in the market from the
+   * {@code BalanceTable}.
+   *
+   * @return the total credit in cents.
+   */
+  public long getTotalCredit() {
+    attachAll();
+
+    return balances.getTotalCredit();
+  }
+
+  /**
+   * Write the balances of every {@code User} in the market to a flat balance
+   * file, which may be mapped to scan them without loading the market.
+   *
+   * @param fileName the name of the file to be written.
+   */
+  public void exportBalances(final String fileName) {
+    attachAll();
+
+    try {
+      balances.write(new File(fileName));
+    } catch (final IOException e) {
+      ErrorLogger.log(ErrorType.WARNING, "BALANCES [FILE: " + fileName + "]", "could not be written.");
+    }
+  }
+
+  /**
+   * Query the number of copies of a {@code Game} owned in the market, from the
+   * ownership index.
+   *
+   * @param gameID the title of the {@code Game}.
+   * @return the number of {@code User}s whose {@code Inventory} holds it.
+   */
+  public int getOwnerCount(final String gameID) {
+    indexAll();
+
+    return ownership.getOwnerCount(gameID);
+  }
+
+  /**
+   * List the owners of a {@code Game} in the market, from the ownership index.
+   *
+   * @param gameID the title of the {@code Game}.
+   * @return the usernames of the {@code User}s whose {@code Inventory} holds it.
+   */
+  public String[] getOwners(final String gameID) {
+    indexAll();
+
+    return ownership.getOwners(gameID);
+  }
+
+  /**
+   * Access the ownership index to be written beside a snapshot of the market.
+   *
+   * @param copy whether to copy it, as it is written while the market changes.
+   * @return the index, null if it does not yet hold the {@code User}s not yet
+   *         accessed.
+   */
+  OwnershipIndex captureOwnership(final boolean copy) {
+    if (!indexed)
+      return null;
+
+    return copy ? ownership.copy() : ownership;
   }
 
   /**
+   * Restore the ownership index of the market as loaded from a snapshot, from
+   * the ownership file written beside the snapshot, if it matches the
+   * snapshot. Otherwise the index is built when first queried.
+   *
+   * @param file the ownership file.
+   */
+  void restoreOwnership(final File file) {
+    if (indexed)
+      return;
+
+    try {
+      indexed = ownership.restore(file, generation, checkpoint);
+    } catch (final IOException e) {
+      ErrorLogger.log(ErrorType.WARNING, "OWNERSHIP [FILE: " + file.getPath() + "]",
+          "unreadable ownership index ignored.");
+    }
+  }
+
+  /**
+   * Add the {@code Game}s of every {@code User} not yet accessed to the ownership
+   * index without loading it into the {@code UserStore}, once.
+   */
+  private void indexAll() {
+    if (indexed)
+      return;
+
+    if (snapshots != null)
+      for (final MappedSnapshot snapshot : snapshots)
+        for (final Iterator<User> unclaimed = snapshot.unclaimed(); unclaimed.hasNext();) {
+          final User user = unclaimed.next();
+          if (user instanceof Buyer)
+            ownership.addAll(symbols.id(user.getUsername()), ((Buyer) user).getInventory());
+        }
+    indexed = true;
+  }
+
+  /**
+   * Attach every {@code User} not yet accessed to the market without loading it
+   * into the {@code UserStore}, giving it a row in the {@code BalanceTable}. Its
+   * row holds the balances of the snapshot, which are unchanged until the
+   * {@code User} is loaded.
+   */
+  private void attachAll() {
+    if (snapshots != null)
+      for (final MappedSnapshot snapshot : snapshots)
+        for (final Iterator<User> unclaimed = snapshot.unclaimed(); unclaimed.hasNext();)
+          attach(unclaimed.next());
+  }
+
+  /**
+   * Access every {@code User} in the market, first loading any not yet accessed
+   * from the snapshot. If the {@code UserStore} evicts {@code User}s, the map is
+   * a copy.
+   * 
    * @return The list of users currently in the market.
    */
   public HashMap<String, User> getUsers() {
-    return this.users;
+    loadAll();
+
+    return store.asMap();
+  }
+
+  /**
+   * Load every {@code User} not yet accessed from the snapshot into the
+   * {@code UserStore}.
+   */
+  void loadAll() {
+    if (snapshots != null)
+      for (final MappedSnapshot snapshot : snapshots)
+        for (final User user : snapshot.takeAll())
+          put(user);
+  }
+
+  /**
+   * Add a {@code User} to the {@code UserStore}, attaching it to the market.
+   * 
+   * @param user the {@code User} to be added.
+   */
+  private void put(final User user) {
+    attach(user);
+    store.put(user);
+  }
+
+  /**
+   * Move a {@code User}'s balances into the {@code BalanceTable}, bind its
+   * {@code Catalogue}s to the market's {@code GameRegistry}, read them against
+   * the market's day and record its {@code Game}s in
+   * the ownership index.
+   * 
+   * @param user the {@code User} to be attached.
+   */
+  private void attach(final User user) {
+    user.attachBalances(balances);
+    if (user instanceof Buyer) {
+      ((Buyer) user).getInventory().attachGames(games);
+      ((Buyer) user).getInventory().attachClock(clock);
+      ((Buyer) user).getInventory().attachOwnership(ownership, symbols.id(user.getUsername()));
+    }
+    if (user instanceof Seller) {
+      ((Seller) user).getStoreFront().attachGames(games);
+      ((Seller) user).getStoreFront().attachClock(clock);
+    }
+  }
+
+  /**
+   * Release a {@code User}'s balances from the {@code BalanceTable} and remove its
+   * {@code Game}s from the ownership index.
+   * 
+   * @param user the {@code User} to be detached.
+   */
+  private void detach(final User user) {
+    user.detachBalances();
+    if (user instanceof Buyer) {
+      // A {@code UserStore} may have decoded the {@code User} anew, unattached.
+      ownership.removeAll(symbols.id(user.getUsername()), ((Buyer) user).getInventory());
+      ((Buyer) user).getInventory().detachOwnership();
+    }
+  }
+
+  /**
+   * Iterate over every {@code User} in the market without loading those not yet
+   * accessed into it; each is decoded from the snapshot, and attached to the
+   * market, as it is reached.
+   * 
+   * @return the {@code User}s in the market.
+   */
+  public Iterable<User> getAllUsers() {
+    if (snapshots == null)
+      return store.values();
+
+    final Iterable<User> loaded = store.values();
+    return () -> new Iterator<User>() {
+      private Iterator<User> current = loaded.iterator();
+      private int next = 0; // the next snapshot whose {@code User}s are iterated.
+
+      @Override
+      public boolean hasNext() {
+        while (!current.hasNext() && next < snapshots.length)
+          current = snapshots[next++].unclaimed();
+
+        return current.hasNext();
+      }
+
+      @Override
+      public User next() {
+        if (!hasNext())
+          throw new NoSuchElementException();
+
+        // Decoded from a snapshot unattached, so read against day zero until attached.
+        final User user = current.next();
+        if (next > 0)
+          attach(user);
+
+        return user;
+      }
+    };
+  }
+
+  /**
+   * Access the store of the {@code User}s which have been accessed or added
+   * since the market was loaded.
+   * 
+   * @return the {@code UserStore} of the market.
+   */
+  UserStore getUserStore() {
+    return store;
+  }
+
+  /**
+   * Move the {@code User}s loaded or added into another {@code UserStore}, which
+   * then holds them. {@code User}s referenced by the market itself, such as the
+   * active {@code User}, are pinned in it.
+   * 
+   * @param store the {@code UserStore} to be used.
+   */
+  public void useStore(final UserStore store) {
+    if (this.store != null && this.store != store) {
+      for (final User user : this.store.values())
+        store.put(user);
+      users.clear();
+    }
+
+    store.pin(this::isPinned);
+    store.useGames(games);
+    this.store = store;
+  }
+
+  /**
+   * Query whether a {@code User} is referenced by the market other than through
+   * its {@code UserStore}: it is logged in to a session, awaits the end of the
+   * day, or has been
+   * accessed since the journal last drained the accesses.
+   * 
+   * @param user the {@code User} to be queried.
+   * @return true if the {@code User} must stay in memory, false otherwise.
+   */
+  private boolean isPinned(final User user) {
+    return isLoggedIn(user) || (accessed != null && accessed.contains(user))
+        || (user instanceof Buyer && endOfDayBuffer.contains(((Buyer) user).getInventory()))
+        || (user instanceof Seller && endOfDayBuffer.contains(((Seller) user).getStoreFront()));
+  }
+
+  /**
+   * Query whether a {@code User} is the one the market holds under its
+   * username, rather than one since replaced or removed.
+   * 
+   * @param user the {@code User} to be queried.
+   * @return true if the market holds the {@code User}, false otherwise.
+   */
+  boolean holds(final User user) {
+    return store.holds(user);
+  }
+
+  /**
+   * Access the snapshots from which {@code User}s not yet accessed are loaded,
+   * one per shard of the snapshot the market was read from.
+   * 
+   * @return the snapshots, null if every {@code User} is loaded.
+   */
+  MappedSnapshot[] getSnapshots() {
+    return snapshots;
+  }
+
+  /**
+   * Load {@code User}s from snapshots as they are first accessed.
+   * 
+   * @param snapshots the snapshot of each shard the market was read from.
+   */
+  void attachSnapshots(final MappedSnapshot[] snapshots) {
+    this.snapshots = snapshots;
+    this.indexed = snapshots == null;
+  }
+
+  /**
+   * Access the snapshot which holds a username, if not yet accessed.
+   * 
+   * @param username the username to be found.
+   * @return the snapshot of the username's shard, null if there are none.
+   */
+  private MappedSnapshot snapshotOf(final String username) {
+    if (snapshots == null)
+      return null;
+
+    return snapshots[ShardedSnapshot.shardOf(username.hashCode(), snapshots.length)];
+  }
+
+  /**
+   * Claim a username in its snapshot, as its {@code User} has been replaced or
+   * removed.
+   * 
+   * @param username the username to be claimed.
+   */
+  private void claim(final String username) {
+    final MappedSnapshot snapshot = snapshotOf(username);
+    if (snapshot != null)
+      snapshot.claim(username);
+  }
+
+  /**
+   * Query the number of shards the market is saved in.
+   * 
+   * @return the number of shards, 1 if saved in a single snapshot.
+   */
+  public int getShards() {
+    return shards;
+  }
+
+  /**
+   * Set the number of shards the market is saved in from its next save.
+   * 
+   * @param shards the number of shards, 1 to save a single snapshot.
+   */
+  public void setShards(final int shards) {
+    this.shards = Math.max(shards, 1);
+  }
+
+  /**
+   * Query the number of shards of the snapshot the market was last saved to or
+   * loaded from.
+   * 
+   * @return the number of shards, 1 if a single snapshot.
+   */
+  int getSavedShards() {
+    return savedShards;
+  }
+
+  /**
+   * Access the snapshot file whose state the market matches, but for the changes
+   * to its {@code User}s marked dirty and those removed since.
+   * 
+   * @return the absolute snapshot file, null if the market was never saved or
+   *         loaded from one.
+   */
+  File getSavedFile() {
+    return savedFile;
+  }
+
+  /**
+   * Query the generation of the snapshot the market was last saved to or loaded
+   * from.
+   * 
+   * @return the generation, 0 if the market was never saved or loaded from one.
+   */
+  long getGeneration() {
+    return generation;
+  }
+
+  /**
+   * Query the number of the day's transactions covered by the snapshot the
+   * market was last saved to or loaded from, if it is a checkpoint taken partway
+   * through a day.
+   * 
+   * @return the number of transactions, -1 if the snapshot completes a day.
+   */
+  long getCheckpoint() {
+    return checkpoint;
+  }
+
+  /**
+   * Record that the market's state has been saved to, or loaded from, a snapshot
+   * file.
+   * 
+   * @param file       the snapshot file.
+   * @param generation the generation of the snapshot.
+   * @param checkpoint the number of the day's transactions the snapshot covers,
+   *                   -1 if it completes a day.
+   */
+  void markSaved(final File file, final long generation, final long checkpoint) {
+    markSaved(file, generation, checkpoint, 1);
+  }
+
+  /**
+   * Record that the market's state has been saved to, or loaded from, a sharded
+   * snapshot.
+   * 
+   * @param file       the manifest of the snapshot.
+   * @param generation the generation of the snapshot.
+   * @param checkpoint the number of the day's transactions the snapshot covers,
+   *                   -1 if it completes a day.
+   * @param shards     the number of shards of the snapshot.
+   */
+  void markSaved(final File file, final long generation, final long checkpoint, final int shards) {
+    this.savedFile = file.getAbsoluteFile();
+    this.generation = generation;
+    this.checkpoint = checkpoint;
+    this.savedShards = shards;
+    this.removedUsers = null;
+  }
+
+  /**
+   * Start recording every {@code User} looked up or added, for
+   * {@code drainAccessed}.
+   */
+  void trackAccesses() {
+    if (accessed == null)
+      accessed = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+  }
+
+  /**
+   * Take the {@code User}s looked up, added or logged out since last drained,
+   * which include every {@code User} changed since but the active one.
+   * 
+   * @return the {@code User}s accessed; empty if accesses are not tracked.
+   */
+  ArrayList<User> drainAccessed() {
+    if (accessed == null)
+      return new ArrayList<>();
+
+    final ArrayList<User> drained = new ArrayList<>(accessed);
+    accessed.clear();
+
+    return drained;
+  }
+
+  /**
+   * Replace the state of a {@code User} with one restored from a journal,
+   * whether or not the {@code User} exists.
+   * 
+   * @param user              the restored {@code User}.
+   * @param inventoryPending  whether its {@code Inventory} awaits the end of the
+   *                          day.
+   * @param storeFrontPending whether its {@code StoreFront} awaits the end of
+   *                          the day.
+   */
+  void restoreUser(final User user, final boolean inventoryPending, final boolean storeFrontPending) {
+    final String username = user.getUsername();
+
+    discard(replaced(username));
+    claim(username);
+    unmarkRemoved(username);
+
+    put(user);
+    if (inventoryPending)
+      addPendingEndOfDay(((Buyer) user).getInventory());
+    if (storeFrontPending)
+      addPendingEndOfDay(((Seller) user).getStoreFront());
+  }
+
+  /**
+   * Remove a {@code User} restored as removed from a journal, whether or not the
+   * {@code User} exists.
+   * 
+   * @param username the username removed.
+   */
+  void restoreRemoval(final String username) {
+    discard(replaced(username));
+    store.remove(username);
+    claim(username);
+
+    markRemoved(username);
+  }
+
+  /**
+   * Restore the active {@code User} from a journal.
+   * 
+   * @param username the username of the active {@code User}, null if none.
+   * @throws UserDNEException no {@code User} with the username exists.
+   */
+  void restoreActiveUser(final String username) throws UserDNEException {
+    session.setUser(username == null ? null : getUser(username));
+  }
+
+  /**
+   * Access the {@code User} with a username about to be replaced or removed,
+   * loading it from the snapshot if the ownership index holds its {@code Game}s
+   * from there.
+   * 
+   * @param username the username.
+   * @return the {@code User}, null if there is none to be detached.
+   */
+  private User replaced(final String username) {
+    final User user = store.get(username);
+
+    return user != null || !indexed ? user : load(username);
+  }
+
+  /**
+   * Stop tracking the {@code Catalogue}s of a {@code User} being replaced or
+   * removed for the end of the day, and detach it from the market.
+   * 
+   * @param user the {@code User}, may be null.
+   */
+  private void discard(final User user) {
+    if (user != null)
+      detach(user);
+    if (user instanceof Buyer)
+      endOfDayBuffer.remove(((Buyer) user).getInventory());
+    if (user instanceof Seller)
+      endOfDayBuffer.remove(((Seller) user).getStoreFront());
+  }
+
+  /**
+   * Record a username as removed since the market was last saved, if it has
+   * been saved.
+   * 
+   * @param username the username removed.
+   */
+  private synchronized void markRemoved(final String username) {
+    if (savedFile != null) {
+      if (removedUsers == null)
+        removedUsers = new HashSet<>();
+      removedUsers.add(username);
+    }
+  }
+
+  /**
+   * Stop recording a username as removed, as a {@code User} has taken it again.
+   * 
+   * @param username the username taken.
+   */
+  private synchronized void unmarkRemoved(final String username) {
+    if (removedUsers != null)
+      removedUsers.remove(username);
+  }
+
+  /**
+   * Access the usernames removed since the market was last saved.
+   * 
+   * @return the usernames removed, empty if none.
+   */
+  HashSet<String> getRemovedUsers() {
+    return removedUsers == null ? new HashSet<>() : removedUsers;
+  }
+
+  /**
+   * Load a {@code User} from the snapshot if it has not been accessed yet.
+   * 
+   * @param username the username of the {@code User}.
+   * @return the {@code User} loaded, null if the snapshot holds no such
+   *         {@code User} not yet accessed.
+   */
+  private User load(final String username) {
+    final MappedSnapshot snapshot = snapshotOf(username);
+    if (snapshot == null)
+      return null;
+
+    final User user = snapshot.take(username);
+    if (user != null)
+      put(user);
+
+    return user;
   }
 
   /**
@@ -61,10 +740,18 @@ public class Market implements Serializable, EndOfDay {
   public User forceAddUser(final User user) throws UserExistsException {
     final String username = user.getUsername();
 
-    if (existsUser(username))
-      throw new UserExistsException(username);
+    final UserLocks.Held held = lockUsers(username);
+    try {
+      if (existsUser(username))
+        throw new UserExistsException(username);
 
-    this.users.put(username, user);
+      put(user);
+    } finally {
+      held.close();
+    }
+    unmarkRemoved(username);
+    if (accessed != null)
+      accessed.add(user);
 
     return user;
   }
@@ -77,11 +764,14 @@ public class Market implements Serializable, EndOfDay {
    *         otherwise.
    */
   public boolean existsUser(final String username) {
-    return users.get(username) != null;
+    final MappedSnapshot snapshot = snapshotOf(username);
+
+    return store.contains(username) || (snapshot != null && snapshot.contains(username));
   }
 
   /**
-   * Adds a newly created {@code User} to the collection of {@code User}s.
+   * Adds a newly created {@code User} to the collection of {@code User}s, from
+   * the market's own session.
    * 
    * @param user the newly created {@code User} to add.
    * @return the {@code User} for further processing.
@@ -91,25 +781,40 @@ public class Market implements Serializable, EndOfDay {
    *                                   privileged.
    */
   public User addUser(final User user) throws UserExistsException, UnauthorisedUserException {
-    if (isAuthorisedState())
+    return addUser(session, user);
+  }
+
+  /**
+   * Adds a newly created {@code User} to the collection of {@code User}s.
+   * 
+   * @param session the session creating the {@code User}.
+   * @param user    the newly created {@code User} to add.
+   * @return the {@code User} for further processing.
+   * @throws UserExistsException       a {@code User} with that username already
+   *                                   exists.
+   * @throws UnauthorisedUserException the {@code User} logged in to the session
+   *                                   is not privileged.
+   */
+  public User addUser(final Session session, final User user) throws UserExistsException, UnauthorisedUserException {
+    if (session.isAuthorised())
       return forceAddUser(user);
 
     throw new UnauthorisedUserException();
   }
 
   /**
-   * Queries whether the logged in {@code User} is privileged.
+   * Queries whether the {@code User} logged in to the market's own session is
+   * privileged.
    * 
    * @return true if logged in {@code User} is an {@code ADMIN}, false otherwise.
    */
   public boolean isAuthorisedState() {
-    final User authorisingUser = getActiveUser();
-
-    return authorisingUser != null && authorisingUser.getUserType().isPrivileged();
+    return session.isAuthorised();
   }
 
   /**
-   * Removes a {@code User} from the collection of all {@code User}s.
+   * Removes a {@code User} from the collection of all {@code User}s, from the
+   * market's own session.
    * 
    * @param user The {@code User} to be removed.
    * @throws UnauthorisedUserException the currently logged in {@code User} is not
@@ -118,13 +823,36 @@ public class Market implements Serializable, EndOfDay {
    *                                   authorising the deletion himself.
    */
   public void removeUser(final User user) throws UnauthorisedUserException, SelfDeletionException {
-    if (!isAuthorisedState())
+    removeUser(session, user);
+  }
+
+  /**
+   * Removes a {@code User} from the collection of all {@code User}s.
+   * 
+   * @param session the session removing the {@code User}.
+   * @param user    The {@code User} to be removed.
+   * @throws UnauthorisedUserException the {@code User} logged in to the session
+   *                                   is not privileged.
+   * @throws SelfDeletionException     attempting to delete the {@code User}
+   *                                   authorising the deletion himself.
+   */
+  public void removeUser(final Session session, final User user)
+      throws UnauthorisedUserException, SelfDeletionException {
+    if (!session.isAuthorised())
       throw new UnauthorisedUserException();
 
-    if (getActiveUser() == user)
+    if (session.getUser() == user)
       throw new SelfDeletionException(user.getUsername());
 
-    users.remove(user.getUsername());
+    final UserLocks.Held held = lockUsers(user.getUsername());
+    try {
+      store.remove(user.getUsername());
+      detach(user);
+    } finally {
+      held.close();
+    }
+
+    markRemoved(user.getUsername());
   }
 
   /**
@@ -137,10 +865,17 @@ public class Market implements Serializable, EndOfDay {
    * @throws UserDNEException Signifies no {@code User} with given username.
    */
   public User getUser(final String username) throws UserDNEException {
-    final User user = users.get(username);
+    User user = store.get(username);
+    if (user == null)
+      user = load(username);
 
-    if (user != null)
+    if (user != null) {
+      // A {@code UserStore} may have decoded the {@code User} anew.
+      attach(user);
+      if (accessed != null)
+        accessed.add(user);
       return user;
+    }
 
     throw new UserDNEException(username);
   }
@@ -182,16 +917,168 @@ public class Market implements Serializable, EndOfDay {
   }
 
   /**
-   * @return The currently logged in user, null if none.
+   * @return The user logged in to the market's own session, null if none.
    */
   public User getActiveUser() {
-    return activeUser;
+    return session.getUser();
+  }
+
+  /**
+   * Access the market's own session, whose {@code User} is saved with the
+   * market.
+   * 
+   * @return the market's session.
+   */
+  public Session getSession() {
+    return session;
+  }
+
+  /**
+   * Open a session in which {@code Transaction}s run alongside those of the
+   * market's own session and any other open one.
+   * 
+   * @return the session, with no {@code User} logged in.
+   */
+  public Session openSession() {
+    final Session opened = new Session();
+    sessions.add(opened);
+
+    return opened;
+  }
+
+  /**
+   * Close a session opened by {@code openSession}, logging out its {@code User}
+   * if any.
+   * 
+   * @param closed the session to be closed.
+   */
+  public void closeSession(final Session closed) {
+    final User user = closed.getUser();
+
+    closed.setUser(null);
+    sessions.remove(closed);
+    // Changes made while it was logged in are journalled with the accesses.
+    if (user != null && accessed != null)
+      accessed.add(user);
+  }
+
+  /**
+   * Carry on the market's own session from another, closing it: its
+   * {@code User}, if any, becomes the one logged in to the market's session.
+   * 
+   * @param resumed the session to be carried on, opened by {@code openSession}.
+   */
+  public void resumeSession(final Session resumed) {
+    final User user = resumed.getUser();
+
+    resumed.setUser(null);
+    sessions.remove(resumed);
+    session.setUser(user);
+  }
+
+  /**
+   * Access the {@code User}s logged in to the market's own session and every
+   * open one.
+   * 
+   * @return the {@code User}s logged in, without repeats.
+   */
+  ArrayList<User> getLoggedIn() {
+    final Set<User> loggedIn = Collections.newSetFromMap(new IdentityHashMap<>());
+    if (session.getUser() != null)
+      loggedIn.add(session.getUser());
+    for (final Session open : sessions)
+      if (open.getUser() != null)
+        loggedIn.add(open.getUser());
+
+    return new ArrayList<>(loggedIn);
+  }
+
+  /**
+   * Query whether a {@code User} is logged in to the market's own session or an
+   * open one.
+   * 
+   * @param user the {@code User} to be queried.
+   * @return true if it is logged in, false otherwise.
+   */
+  private boolean isLoggedIn(final User user) {
+    if (session.getUser() == user)
+      return true;
+    for (final Session open : sessions)
+      if (open.getUser() == user)
+        return true;
+
+    return false;
+  }
+
+  /**
+   * Switch the market to concurrent mode, in which threads may apply
+   * {@code Transaction}s in sessions of their own at once: every {@code User}
+   * is loaded into a {@code UserStore} backed by a {@code ConcurrentHashMap},
+   * and each {@code Transaction} locks the {@code User}s it changes. A market
+   * in concurrent mode keeps every {@code User} in memory.
+   * 
+   * @param stripes the number of locks shared by the {@code User}s.
+   */
+  public void enableConcurrentMode(final int stripes) {
+    if (locks != null)
+      return;
+
+    loadAll();
+    useStore(InMemoryUserStore.concurrent());
+    locks = new UserLocks(stripes);
+  }
+
+  /**
+   * Query whether the market is in concurrent mode.
+   * 
+   * @return true if threads may apply {@code Transaction}s at once, false
+   *         otherwise.
+   */
+  public boolean isConcurrent() {
+    return locks != null;
+  }
+
+  /**
+   * Lock the {@code User}s with some usernames for a {@code Transaction}, in
+   * concurrent mode; a market not in concurrent mode locks nothing.
+   * 
+   * @param usernames the usernames, any of which may be null or empty.
+   * @return the locks held, to be closed once the {@code User}s are updated.
+   */
+  public UserLocks.Held lockUsers(final String... usernames) {
+    return locks == null ? UserLocks.NONE : locks.lock(usernames);
+  }
+
+  /**
+   * Load a {@code User} from the snapshot ahead of its first access, if it has
+   * not been accessed yet, so that sessions running in parallel only read the
+   * {@code UserStore}.
+   * 
+   * @param username the username of the {@code User}.
+   */
+  public void preload(final String username) {
+    if (store.get(username) == null)
+      load(username);
+  }
+
+  /**
+   * Access the target user of a transaction in the market's own session.
+   * 
+   * @param username the name of the target specified.
+   * @return the active user, or the user specified by username if the active user
+   *         is an admin and the username is valid.
+   * @throws NoLoginException no user is logged in.
+   * @throws UserDNEException Signifies no {@code User} with {@code username}.
+   */
+  public User getActiveUserOrTarget(final String username) throws NoLoginException, UserDNEException {
+    return getActiveUserOrTarget(session, username);
   }
 
   /**
    * Access the target user of a transaction based on username and he / she who is
-   * currently logged in if any.
+   * logged in to a session if any.
    * 
+   * @param session  the session of the transaction.
    * @param username the name of the target specified.
    * @return the active user, or the user specified by username if the active user
    *         is an admin and the username is valid.
@@ -199,14 +1086,15 @@ public class Market implements Serializable, EndOfDay {
    *                          there is neither active user nor target.
    * @throws UserDNEException Signifies no {@code User} with {@code username}.
    */
-  public User getActiveUserOrTarget(final String username) throws NoLoginException, UserDNEException {
+  public User getActiveUserOrTarget(final Session session, final String username)
+      throws NoLoginException, UserDNEException {
     // Get active user, either admin or other.
-    final User activeUser = getActiveUser();
+    final User activeUser = session.getUser();
     if (activeUser == null)
       throw new NoLoginException();
 
     // Active user is not admin, return self.
-    if (!isAuthorisedState())
+    if (!session.isAuthorised())
       return activeUser;
 
     // Active user is Admin
@@ -215,45 +1103,84 @@ public class Market implements Serializable, EndOfDay {
   }
 
   /**
-   * Set a {@code User} as the activeUser.
+   * Log a {@code User} in to the market's own session.
    * 
-   * @param user the {@code User} to whom the activeUser should be set.
+   * @param user the {@code User} to be logged in.
    * @throws MultipleLoginException there is already an activeUser logged in.
    */
   public void loginUser(final User user) throws MultipleLoginException {
-    if (getActiveUser() != null)
+    loginUser(session, user);
+  }
+
+  /**
+   * Log a {@code User} in to a session.
+   * 
+   * @param session the session.
+   * @param user    the {@code User} to be logged in.
+   * @throws MultipleLoginException a {@code User} is already logged in to the
+   *                                session.
+   */
+  public void loginUser(final Session session, final User user) throws MultipleLoginException {
+    if (session.getUser() != null)
       throw new MultipleLoginException(user.getUsername());
-    this.activeUser = user;
+    session.setUser(user);
   }
 
   /**
-   * Unset a {@code User} as the activeUser and replace with null.
+   * Log out the {@code User} logged in to the market's own session.
    * 
    * @return the logged out user.
    * @throws NoLoginException there is no logged in user to log out.
    */
   public User logoutUser() throws NoLoginException {
-    final User user = getActiveUser();
+    return logoutUser(session);
+  }
+
+  /**
+   * Log out the {@code User} logged in to a session.
+   * 
+   * @param session the session.
+   * @return the logged out user.
+   * @throws NoLoginException there is no logged in user to log out.
+   */
+  public User logoutUser(final Session session) throws NoLoginException {
+    final User user = session.getUser();
 
     if (user == null)
       throw new NoLoginException();
 
-    this.activeUser = null;
+    session.setUser(null);
+    // Changes made while it was active are journalled with the accesses.
+    if (accessed != null)
+      accessed.add(user);
 
     return user;
   }
 
   /**
-   * Toggles the state of the auction sale.
+   * Toggles the state of the auction sale from the market's own session.
    * 
    * @throws UnauthorisedUserException the currently logged in {@code User} is not
    *                                   privileged.
    */
   public void toggleAuctionSale() throws UnauthorisedUserException {
-    if (!isAuthorisedState())
+    toggleAuctionSale(session);
+  }
+
+  /**
+   * Toggles the state of the auction sale.
+   * 
+   * @param session the session of the toggle.
+   * @throws UnauthorisedUserException the {@code User} logged in to the session
+   *                                   is not privileged.
+   */
+  public void toggleAuctionSale(final Session session) throws UnauthorisedUserException {
+    if (!session.isAuthorised())
       throw new UnauthorisedUserException();
 
-    this.saleActivated = !this.saleActivated;
+    synchronized (this) {
+      this.saleActivated = !this.saleActivated;
+    }
   }
 
   /**
@@ -307,9 +1234,22 @@ public class Market implements Serializable, EndOfDay {
    * Serialize the given {@code Market} to a filename given.
    * 
    * @param saveFileName the name of the file to which the market should be saved.
+   * @return true if the market was saved, false otherwise.
+   */
+  public boolean save(final String saveFileName) {
+    return SerializeMarket.save(this, saveFileName);
+  }
+
+  /**
+   * Serialize the given {@code Market} to a filename given on a background
+   * thread, so that the {@code Market} may go on changing meanwhile.
+   * 
+   * @param saveFileName the name of the file to which the market should be saved.
+   * @return a future completing with true once the market is saved, false if it
+   *         could not be.
    */
-  public void save(final String saveFileName) {
-    SerializeMarket.save(this, saveFileName);
+  public CompletableFuture<Boolean> saveInBackground(final String saveFileName) {
+    return SerializeMarket.saveInBackground(this, saveFileName);
   }
 
   /**
@@ -323,12 +1263,79 @@ public class Market implements Serializable, EndOfDay {
   }
 
   /**
-   * Process all {@code EndOfDay}s' days' ends and reset the buffer.
+   * Query whether an EndOfDay is tracked for processing at the end of the day.
+   * 
+   * @param endOfDay the EndOfDay to be queried.
+   * @return true if it is pending, false otherwise.
+   */
+  boolean isPendingEndOfDay(final EndOfDay endOfDay) {
+    return endOfDayBuffer.contains(endOfDay);
+  }
+
+  /**
+   * Begin the next day, which restores every {@code User}'s daily credit
+   * allowance and makes the day's purchases and listings visible without
+   * visiting them, then process any {@code EndOfDay}s still registered and
+   * reset the buffer.
    */
   public void endDay() {
+    clock.advance();
     for (final EndOfDay endOfDay : endOfDayBuffer)
       endOfDay.endDay();
 
     endOfDayBuffer.clear();
   }
+
+  /**
+   * Serialize this {@code Market}, with the {@code User} logged in to its own
+   * session as the active one.
+   *
+   * @param output the stream to which this {@code Market} is written.
+   * @throws IOException the stream could not be written.
+   */
+  private void writeObject(final ObjectOutputStream output) throws IOException {
+    final ObjectOutputStream.PutField fields = output.putFields();
+    fields.put("users", store.asMap());
+    fields.put("activeUser", session.getUser());
+    fields.put("stats", stats);
+    fields.put("saleActivated", saleActivated);
+    fields.put("endOfDayBuffer", endOfDayBuffer);
+    output.writeFields();
+  }
+
+  /**
+   * Deserialize this {@code Market}, re-keying its {@code User}s by their
+   * canonical usernames.
+   *
+   * @param input the stream from which this {@code Market} is read.
+   * @throws IOException            the stream could not be read.
+   * @throws ClassNotFoundException a class in the stream could not be found.
+   */
+  private void readObject(final ObjectInputStream input) throws IOException, ClassNotFoundException {
+    input.defaultReadObject();
+    checkpoint = -1;
+    shards = 1;
+    savedShards = 1;
+
+    final User[] loaded = users.values().toArray(new User[0]);
+
+    users.clear();
+    clock = new MarketClock();
+    symbols = new SymbolTable();
+    games = new GameRegistry(symbols);
+    balances = new BalanceTable(clock, symbols);
+    ownership = new OwnershipIndex(symbols, games);
+    indexed = true;
+    session = new Session();
+    sessions = ConcurrentHashMap.newKeySet();
+    for (final User user : loaded) {
+      attach(user);
+      users.put(user.getUsername(), user);
+    }
+    useStore(new InMemoryUserStore(users));
+
+    if (activeUser != null)
+      session.setUser(users.get(activeUser.getUsername()));
+    activeUser = null;
+  }
 }
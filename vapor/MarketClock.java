@@ -0,0 +1,40 @@
+package vapor;
+
+/**
+ * The day of a {@code Market}, counted in ends of day from zero.
+ *
+ * State which changes at the end of each day is stamped with a day rather
+ * than reset: a daily credit allowance with the day it was spent, and an entry
+ * of a {@code Catalogue} with the day from which it is visible. Both are read
+ * against the clock, so advancing it ends the day for every {@code User}
+ * without visiting any of them.
+ */
+public final class MarketClock {
+  // The current day.
+  private int day;
+
+  /**
+   * Query the current day.
+   *
+   * @return the day, counted from zero.
+   */
+  public int getDay() {
+    return day;
+  }
+
+  /**
+   * Set the current day, as restored from a snapshot.
+   *
+   * @param day the day.
+   */
+  public void setDay(final int day) {
+    this.day = day;
+  }
+
+  /**
+   * Begin the next day.
+   */
+  public void advance() {
+    day++;
+  }
+}
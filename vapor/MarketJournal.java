@@ -0,0 +1,533 @@
+package vapor;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.CRC32;
+
+import vapor.exceptions.ErrorLogger;
+import vapor.exceptions.ErrorLogger.ErrorType;
+import vapor.users.User;
+
+/**
+ * An append-only journal of the state changed by the day's transactions, from
+ * which a {@code Market} interrupted partway through a day is recovered without
+ * executing the day again.
+ *
+ * Transactions are committed in groups. Every {@code groupSize} transactions,
+ * one entry is appended and forced to disk, holding the number of the day's
+ * transactions applied so far, the market state, the usernames removed and
+ * the state of every {@code User} the group accessed (see
+ * {@code MarketSnapshot.writeJournalEntry}). Each entry is framed by its length
+ * and CRC-32, so an entry torn by a crash is detected and discarded.
+ *
+ * The journal's header holds the generation of the snapshot the day started
+ * from and the source of the day's transactions, such as the name of its daily
+ * file. When opened against a {@code Market} of that generation for the same
+ * source, every entry is applied and the day resumes after the transactions
+ * they cover; a journal of any other generation belongs to a day already saved,
+ * and is discarded. A journal of another source is never resumed, as its count
+ * of transactions applied says nothing of this source's: it is set aside as
+ * {@code <journal>.unresumed} and the day starts afresh.
+ *
+ * Checkpoints of the {@code Market} may be scheduled every so many
+ * transactions or seconds (see {@code MarketSnapshot.checkpoint}). Once a
+ * checkpoint is on disk the entries it covers are dropped from the journal, so
+ * recovery starts from the checkpoint and replays only the entries after it.
+ */
+public class MarketJournal implements Closeable {
+  // Identifies a market journal.
+  static final int MAGIC = 0x56504D4A; // "VPMJ"
+  // The version of the market journal format.
+  static final int VERSION = 4;
+  // The number of transactions committed together by default.
+  public static final int DEFAULT_GROUP_SIZE = 1024;
+  // The transactions between checkpoints by default.
+  public static final long DEFAULT_CHECKPOINT_INTERVAL = 1 << 20;
+  // The seconds between checkpoints by default.
+  public static final long DEFAULT_CHECKPOINT_SECONDS = 60;
+  // The size of the header up to the source: magic, version and snapshot
+  // generation.
+  private static final int HEADER_SIZE = 13;
+  // The suffix of a journal of another source, set aside unresumed.
+  static final String UNRESUMED_SUFFIX = ".unresumed";
+  // The size of an entry's frame: its length and checksum.
+  private static final int FRAME_SIZE = 8;
+
+  // The journal file.
+  private final File file;
+  // The {@code Market} whose changes are journalled.
+  private final Market market;
+  // The number of transactions committed together.
+  private final int groupSize;
+  // The source of the day's transactions.
+  private final String source;
+  // The size of the journal's header, including its source.
+  private long headerSize;
+  // The journal being appended, null if journalling is disabled or failed.
+  private FileChannel channel;
+  // The offset at which the next entry is appended.
+  private long end;
+  // The number of the day's transactions applied.
+  private long applied;
+  // The number of the day's transactions committed to the journal.
+  private long committed;
+  // The {@code User}s logged in to a session when the last group was committed.
+  private ArrayList<User> loggedInAtCommit = new ArrayList<>();
+  // The snapshot file checkpoints are saved to, null if none are scheduled.
+  private File checkpointFile;
+  // The transactions between checkpoints, 0 or less for no limit.
+  private long checkpointInterval;
+  // The nanoseconds between checkpoints, 0 or less for no limit.
+  private long checkpointPeriod;
+  // The number of the day's transactions applied at the last checkpoint.
+  private long checkpointed;
+  // The {@code System.nanoTime} of the last checkpoint.
+  private long checkpointTime;
+
+  /**
+   * Create a new MarketJournal.
+   *
+   * @param file      the journal file.
+   * @param market    the {@code Market} whose changes are journalled.
+   * @param groupSize the number of transactions committed together.
+   * @param source    the source of the day's transactions.
+   */
+  private MarketJournal(final File file, final Market market, final int groupSize, final String source) {
+    this.file = file;
+    this.market = market;
+    this.groupSize = groupSize;
+    this.source = source;
+  }
+
+  /**
+   * Open the journal of a {@code Market}'s day of transactions from an unnamed
+   * source, first recovering the transactions it holds into the {@code Market}.
+   *
+   * @param file      the journal file.
+   * @param market    the {@code Market} loaded at the start of the day.
+   * @param groupSize the number of transactions committed together, 0 or less to
+   *                  run without a journal.
+   * @return the journal, ready for the day's transactions.
+   */
+  public static MarketJournal open(final File file, final Market market, final int groupSize) {
+    return open(file, market, groupSize, "");
+  }
+
+  /**
+   * Open the journal of a {@code Market}'s day of transactions from a source,
+   * first recovering the transactions it holds into the {@code Market} if it
+   * was journalled from the same source. If the {@code Market} was loaded from
+   * a checkpoint the day resumes from it, and only the entries after it are
+   * applied. Failures are logged, after which the day runs without a journal.
+   *
+   * @param file      the journal file.
+   * @param market    the {@code Market} loaded at the start of the day.
+   * @param groupSize the number of transactions committed together, 0 or less to
+   *                  run without a journal.
+   * @param source    the source of the day's transactions.
+   * @return the journal, ready for the day's transactions.
+   */
+  public static MarketJournal open(final File file, final Market market, final int groupSize,
+      final String source) {
+    final MarketJournal journal = new MarketJournal(file, market, groupSize, source);
+    journal.applied = Math.max(market.getCheckpoint(), 0);
+    journal.committed = journal.applied;
+    journal.checkpointed = journal.applied;
+    if (groupSize <= 0)
+      return journal;
+
+    try {
+      journal.recover();
+      market.trackAccesses();
+      market.drainAccessed();
+      journal.loggedInAtCommit = market.getLoggedIn();
+    } catch (final IOException e) {
+      ErrorLogger.log(ErrorType.ERROR, "MARKET JOURNAL [FILE: " + file.getPath() + "]", "recovery failed.");
+      journal.abandon();
+    }
+
+    return journal;
+  }
+
+  /**
+   * Query the source of the day journalled for a {@code Market}, without opening
+   * the journal.
+   *
+   * @param file   the journal file.
+   * @param market the {@code Market} loaded at the start of the day.
+   * @return the source, null if there is no readable journal of the
+   *         {@code Market}'s generation.
+   */
+  public static String getSource(final File file, final Market market) {
+    if (!file.exists())
+      return null;
+
+    try (FileChannel reader = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      final ByteBuffer input = reader.map(FileChannel.MapMode.READ_ONLY, 0, reader.size());
+      if (input.limit() < HEADER_SIZE || input.getInt(0) != MAGIC || input.get(4) != VERSION
+          || input.getLong(5) != market.getGeneration())
+        return null;
+
+      return MarketSnapshot.getText(input.position(HEADER_SIZE));
+    } catch (final IOException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Discard a journal, as the {@code Market} it applies to has been replaced.
+   *
+   * @param file the journal file.
+   */
+  public static void discard(final File file) {
+    if (file.exists() && !file.delete())
+      ErrorLogger.log(ErrorType.ERROR, "MARKET JOURNAL [FILE: " + file.getPath() + "]", "could not be deleted.");
+  }
+
+  /**
+   * Query the number of the day's transactions applied, including those
+   * recovered. The day resumes with the transaction after them.
+   *
+   * @return the number of transactions applied.
+   */
+  public long getApplied() {
+    return applied;
+  }
+
+  /**
+   * Query the number of transactions committed together.
+   *
+   * @return the group size, 0 or less if the day runs without a journal.
+   */
+  public int getGroupSize() {
+    return groupSize;
+  }
+
+  /**
+   * Save checkpoints of the {@code Market} as the day runs, each once either
+   * limit is reached.
+   *
+   * @param snapshot the snapshot file to which checkpoints are saved.
+   * @param interval the transactions between checkpoints, 0 or less for no
+   *                 limit.
+   * @param seconds  the seconds between checkpoints, 0 or less for no limit.
+   */
+  public void scheduleCheckpoints(final File snapshot, final long interval, final long seconds) {
+    checkpointFile = interval > 0 || seconds > 0 ? snapshot : null;
+    checkpointInterval = interval;
+    checkpointPeriod = seconds * 1_000_000_000L;
+    checkpointTime = System.nanoTime();
+  }
+
+  /**
+   * Record that the next of the day's transactions has been applied, committing
+   * the group if it is complete and saving a checkpoint if one is due.
+   */
+  public void applied() {
+    applied(1);
+  }
+
+  /**
+   * Record that a number of the day's next transactions have been applied,
+   * committing them if the group is complete and saving a checkpoint if one is
+   * due. The transactions are committed together, so a journal recovers all of
+   * them or none.
+   *
+   * @param count the number of transactions applied.
+   */
+  public void applied(final long count) {
+    applied += count;
+
+    if (applied - committed >= groupSize)
+      commit();
+
+    if (checkpointFile != null && ((checkpointInterval > 0 && applied - checkpointed >= checkpointInterval)
+        || (checkpointPeriod > 0 && System.nanoTime() - checkpointTime >= checkpointPeriod)))
+      checkpoint();
+  }
+
+  /**
+   * Commit the transactions applied and save a checkpoint of the {@code Market}
+   * to the scheduled snapshot file. The checkpoint is written in the background;
+   * once it is on disk, the entries it covers are dropped from the journal.
+   *
+   * @return a future completing once the journal is truncated, or exceptionally
+   *         if the checkpoint failed.
+   */
+  public CompletableFuture<Void> checkpoint() {
+    if (checkpointFile == null)
+      return CompletableFuture.completedFuture(null);
+
+    commit();
+    final long position = applied;
+    checkpointed = applied;
+    checkpointTime = System.nanoTime();
+
+    try {
+      return MarketSnapshot.checkpoint(market, checkpointFile, position).whenComplete((written, e) -> {
+        if (e == null)
+          truncate(position);
+        else
+          ErrorLogger.log(ErrorType.ERROR, "MARKET SNAPSHOT [FILE: " + checkpointFile.getPath() + "]",
+              "checkpoint failed.");
+      });
+    } catch (final IOException e) {
+      ErrorLogger.log(ErrorType.ERROR, "MARKET SNAPSHOT [FILE: " + checkpointFile.getPath() + "]",
+          "checkpoint failed.");
+      return CompletableFuture.failedFuture(e);
+    }
+  }
+
+  /**
+   * Append an entry covering the transactions applied since the last commit and
+   * force it to disk.
+   */
+  public synchronized void commit() {
+    if (channel == null || applied == committed)
+      return;
+
+    // Every {@code User} changed was looked up or added, or logged in throughout.
+    final ArrayList<User> loggedIn = market.getLoggedIn();
+    final Set<User> users = Collections.newSetFromMap(new IdentityHashMap<>());
+    users.addAll(market.drainAccessed());
+    users.addAll(loggedInAtCommit);
+    users.addAll(loggedIn);
+    // Those since removed, or replaced by a new {@code User} of the same name, are not.
+    users.removeIf(user -> !market.holds(user));
+
+    try {
+      final CRC32 checksum = new CRC32();
+      channel.position(end + FRAME_SIZE);
+
+      final ChannelOutput output = new ChannelOutput(channel, checksum);
+      output.putLong(applied);
+      MarketSnapshot.writeJournalEntry(market, users, output);
+      output.flush();
+
+      final long next = output.position();
+      final ByteBuffer frame = ByteBuffer.allocate(FRAME_SIZE).putInt((int) (next - end - FRAME_SIZE))
+          .putInt((int) checksum.getValue());
+      frame.flip();
+      while (frame.hasRemaining())
+        channel.write(frame, end + frame.position());
+
+      channel.force(false);
+
+      end = next;
+      committed = applied;
+      loggedInAtCommit = loggedIn;
+    } catch (final IOException e) {
+      ErrorLogger.log(ErrorType.ERROR, "MARKET JOURNAL [FILE: " + file.getPath() + "]", "commit failed.");
+      abandon();
+    }
+  }
+
+  /**
+   * Commit any transactions applied and close the journal, keeping it for
+   * recovery.
+   */
+  @Override
+  public synchronized void close() {
+    commit();
+    abandon();
+  }
+
+  /**
+   * Close and delete the journal, once the {@code Market} has been saved.
+   */
+  public synchronized void delete() {
+    abandon();
+    discard(file);
+  }
+
+  /**
+   * Stop journalling without committing, closing the journal if open.
+   */
+  private synchronized void abandon() {
+    if (channel == null)
+      return;
+
+    try {
+      channel.close();
+    } catch (final IOException e) {
+      ErrorLogger.log(ErrorType.ERROR, "MARKET JOURNAL [FILE: " + file.getPath() + "]", "could not be closed.");
+    }
+    channel = null;
+  }
+
+  /**
+   * Drop the entries covered by a checkpoint on disk, copying the rest into a
+   * new journal which is then moved over this one.
+   *
+   * @param checkpoint the number of the day's transactions the checkpoint
+   *                   covers.
+   */
+  private synchronized void truncate(final long checkpoint) {
+    if (channel == null)
+      return;
+
+    try {
+      // Find the first entry after the checkpoint.
+      final ByteBuffer frame = ByteBuffer.allocate(FRAME_SIZE + Long.BYTES);
+      long position = headerSize;
+      while (position < end) {
+        frame.clear();
+        while (frame.hasRemaining() && channel.read(frame, position + frame.position()) >= 0)
+          ;
+        if (frame.getLong(FRAME_SIZE) > checkpoint)
+          break;
+        position += FRAME_SIZE + frame.getInt(0);
+      }
+
+      if (position == headerSize)
+        return;
+
+      final File temporary = new File(file.getPath() + ".tmp");
+      try (FileChannel copy = FileChannel.open(temporary.toPath(), StandardOpenOption.WRITE,
+          StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+        transfer(0, headerSize, copy);
+        transfer(position, end - position, copy);
+        copy.force(true);
+      }
+      Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+
+      channel.close();
+      channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+      end = headerSize + end - position;
+    } catch (final IOException e) {
+      ErrorLogger.log(ErrorType.ERROR, "MARKET JOURNAL [FILE: " + file.getPath() + "]", "truncation failed.");
+      abandon();
+    }
+  }
+
+  /**
+   * Copy a range of the journal to the end of another file.
+   *
+   * @param position the offset of the range in the journal.
+   * @param count    the length of the range.
+   * @param target   the file to which the range is copied.
+   * @throws IOException the range could not be copied.
+   */
+  private void transfer(final long position, final long count, final FileChannel target) throws IOException {
+    for (long copied = 0; copied < count;)
+      copied += channel.transferTo(position + copied, count - copied, target);
+  }
+
+  /**
+   * Apply every complete entry of the journal to the {@code Market} and open it
+   * for appending after them, or start a new journal if there is none of the
+   * {@code Market}'s generation.
+   *
+   * @throws IOException the journal could not be read, applied or created.
+   */
+  private void recover() throws IOException {
+    if (!file.exists()) {
+      create();
+      return;
+    }
+
+    final ByteBuffer input;
+    try (FileChannel reader = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      input = reader.map(FileChannel.MapMode.READ_ONLY, 0, reader.size());
+    }
+
+    if (input.limit() < HEADER_SIZE || input.getInt(0) != MAGIC || input.get(4) != VERSION) {
+      ErrorLogger.log(ErrorType.WARNING, "MARKET JOURNAL [FILE: " + file.getPath() + "]",
+          "unreadable journal discarded.");
+      create();
+      return;
+    }
+
+    if (input.getLong(5) != market.getGeneration()) {
+      create();
+      return;
+    }
+
+    final String journalled;
+    try {
+      journalled = MarketSnapshot.getText(input.position(HEADER_SIZE));
+    } catch (final BufferUnderflowException | IndexOutOfBoundsException e) {
+      ErrorLogger.log(ErrorType.WARNING, "MARKET JOURNAL [FILE: " + file.getPath() + "]",
+          "unreadable journal discarded.");
+      create();
+      return;
+    }
+    if (!journalled.equals(source)) {
+      ErrorLogger.log(ErrorType.ERROR, "MARKET JOURNAL [FILE: " + file.getPath() + "]",
+          "journal of " + journalled + " not resumed for " + source + "; set aside.");
+      Files.move(file.toPath(), new File(file.getPath() + UNRESUMED_SUFFIX).toPath(),
+          StandardCopyOption.REPLACE_EXISTING);
+      create();
+      return;
+    }
+    headerSize = input.position();
+
+    long position = headerSize;
+    while (position + FRAME_SIZE <= input.limit()) {
+      final int length = input.getInt((int) position);
+      final int expected = input.getInt((int) position + 4);
+      if (length < Long.BYTES || position + FRAME_SIZE + length > input.limit())
+        break;
+
+      final ByteBuffer entry = input.duplicate().position((int) position + FRAME_SIZE)
+          .limit((int) position + FRAME_SIZE + length).slice();
+      final CRC32 checksum = new CRC32();
+      checksum.update(entry.duplicate());
+      if ((int) checksum.getValue() != expected)
+        break;
+
+      // Entries covered by the checkpoint loaded are already applied.
+      final long sequence = entry.getLong();
+      if (sequence > applied) {
+        applied = sequence;
+        MarketSnapshot.readJournalEntry(entry, market);
+      }
+      position += FRAME_SIZE + length;
+    }
+    committed = applied;
+
+    // Overwrite any entry torn by the crash.
+    channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+    channel.truncate(position);
+    end = position;
+
+    if (applied > 0)
+      ErrorLogger.log(ErrorType.WARNING, "MARKET JOURNAL [FILE: " + file.getPath() + "]",
+          "recovered " + applied + " transactions.");
+  }
+
+  /**
+   * Start a new, empty journal for the {@code Market}'s generation and the
+   * day's source.
+   *
+   * @throws IOException the journal could not be created.
+   */
+  private void create() throws IOException {
+    channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE,
+        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+
+    final ChannelOutput output = new ChannelOutput(channel);
+    output.putInt(MAGIC);
+    output.putByte(VERSION);
+    output.putLong(market.getGeneration());
+    output.putText(source);
+    output.flush();
+    channel.force(true);
+
+    headerSize = output.position();
+    end = headerSize;
+  }
+}
@@ -0,0 +1,1750 @@
+package vapor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import vapor.exceptions.ErrorLogger;
+import vapor.exceptions.ErrorLogger.ErrorType;
+import vapor.exceptions.VaporException;
+import vapor.users.Buyer;
+import vapor.users.Seller;
+import vapor.users.User;
+import vapor.users.UserFactory;
+
+/**
+ * Reads and writes the binary market snapshot, a compact replacement for the
+ * Java serialization of a {@code Market}.
+ *
+ * The snapshot is a header ({@code MAGIC}, {@code VERSION}) followed by a base
+ * segment and any number of delta segments. Each segment is a
+ * {@code SEGMENT_} kind byte, the generation of the save which wrote it, the
+ * number of the day's transactions it covers if it is a checkpoint taken
+ * partway through a day (-1 otherwise), the market's day, and the market
+ * state: the auction
+ * sale flag, the active {@code User}'s username if any, and the six
+ * statistics as floats.
+ * The titles it adds to the title table follow, which records reference by
+ * index across every segment, then the username of each {@code User} whose
+ * {@code Inventory} or {@code StoreFront} awaits the {@code Market}'s end of
+ * day, with a byte of {@code AWAITING_} flags, then the usernames it removes,
+ * then the number of user records and the offset of the index.
+ *
+ * Each user record is its {@code UserType} index as a tag, its username,
+ * credit, daily credit allowance and the market day on which the allowance was
+ * last set, then its {@code Inventory} if a buyer and its {@code StoreFront} if
+ * a seller. Each {@code Catalogue} is its entries, prefixed by their count; an
+ * {@code Inventory} entry is a title, and a {@code StoreFront} entry a title,
+ * price and discount, each followed by the market day from which the entry is
+ * visible. Counts, references and text lengths are varints; credits, prices,
+ * statistics and the index are fixed-width.
+ *
+ * The index follows a segment's records: one (username hash, record offset,
+ * record length) entry per record, sorted by hash. A snapshot is read by
+ * mapping it and loading only its segment headers; {@code User}s are
+ * materialized from their latest records as the {@code Market} accesses them
+ * (see {@code MappedSnapshot}), and the market state is that of the last
+ * segment.
+ *
+ * A {@code Market} saved to the snapshot it was loaded from or last saved to
+ * appends a delta segment holding only the {@code User}s which changed, so a
+ * save costs time proportional to the changes. Once deltas accumulate the
+ * snapshot is compacted in the background into a single base segment, in which
+ * records that were never accessed are copied verbatim; the title table is
+ * carried over unchanged so that they stay valid. A delta segment left
+ * incomplete by an interrupted save is ignored, and overwritten by the next.
+ *
+ * Segments are forced to disk before the counts which complete them, and
+ * again after. A base segment is written beside the file, forced to disk and
+ * moved over it, and the snapshot it replaces is kept as
+ * {@code <file>.<generation>}, up to {@code retainedGenerations} of them.
+ *
+ * A save may instead be written on a background thread, in which case the
+ * {@code User}s it holds are copied when it is taken, so the {@code Market}
+ * goes on changing meanwhile. A checkpoint is such a save partway through a
+ * day, with the generation of the day's start.
+ *
+ * A {@code Market} saved in more than one shard is written as a
+ * {@code ShardedSnapshot}, each shard of which is a snapshot in this format.
+ *
+ * Version 6 snapshots, whose {@code Catalogue}s hold their available and then
+ * their pending entries with no day (the pending visible from the day after
+ * the snapshot's), version 5 snapshots, whose segments have no day and whose
+ * records have no allowance day either, version 4 snapshots, whose segments
+ * have no checkpoint either, version 3 snapshots, whose segments have no
+ * generation either, version 2 snapshots, a single base segment without the
+ * kind byte or removed usernames, and version 1 snapshots, which held every
+ * {@code User} inline with no index, are still read. Their records are decoded as of their version,
+ * and are never copied verbatim into a snapshot of the current version.
+ */
+public class MarketSnapshot {
+  // Identifies a binary market snapshot.
+  static final int MAGIC = 0x56504D53; // "VPMS"
+  // The version of the binary market snapshot format.
+  static final int VERSION = 7;
+  // The kind of a segment holding every {@code User}.
+  private static final int SEGMENT_BASE = 0;
+  // The kind of a segment holding the {@code User}s changed since the last.
+  private static final int SEGMENT_DELTA = 1;
+  // Flags an {@code Inventory} awaiting the end of the day.
+  private static final int AWAITING_INVENTORY = 1;
+  // Flags a {@code StoreFront} awaiting the end of the day.
+  private static final int AWAITING_STOREFRONT = 2;
+  // The number of delta segments from which a snapshot is compacted.
+  private static final int MAX_DELTAS = 8;
+  // The number of replaced snapshots kept by default.
+  public static final int DEFAULT_RETAINED_GENERATIONS = 3;
+  // The checkpoint of a snapshot which completes a day.
+  static final long DAY_COMPLETE = -1;
+  // Marks {@code Catalogue} entries which each hold the day they are visible from.
+  private static final int STAMPED = -1;
+
+  // Serializes the writing of each snapshot file, by absolute path.
+  private static final ConcurrentHashMap<Path, Object> LOCKS = new ConcurrentHashMap<>();
+  // The snapshot files being compacted in the background.
+  private static final Set<Path> COMPACTING = ConcurrentHashMap.newKeySet();
+  // Writes checkpoints in the background, one at a time and in order.
+  private static final ExecutorService WRITER = Executors.newSingleThreadExecutor(task -> {
+    final Thread writer = new Thread(task, "market-snapshot-writer");
+    writer.setDaemon(true);
+    return writer;
+  });
+  // The last checkpoint of each snapshot file given to {@code WRITER}.
+  private static final ConcurrentHashMap<Path, CompletableFuture<Void>> PENDING = new ConcurrentHashMap<>();
+  // The snapshot files a checkpoint or save failed to append to, which must next
+  // be written whole.
+  private static final Set<Path> FAILED = ConcurrentHashMap.newKeySet();
+  // The number of replaced snapshots kept beside each snapshot file.
+  private static volatile int retainedGenerations = DEFAULT_RETAINED_GENERATIONS;
+
+  /**
+   * The segments of a snapshot and the market state held by the last.
+   */
+  static final class Layout {
+    private final ArrayList<String> titles = new ArrayList<>();
+    private final ArrayList<MappedSnapshot.Segment> segments = new ArrayList<>();
+    private ByteBuffer map; // the mapped snapshot.
+    private int version; // the version of the snapshot format.
+    private int baseEnd; // the offset at which the base segment ends.
+    private int end; // the offset at which the last complete segment ends.
+    private long generation;
+    private long checkpoint = DAY_COMPLETE;
+    private int day;
+    private boolean saleActivated;
+    private String activeUser;
+    private float[] stats;
+    private String[] awaiting;
+    private int[] awaitingFlags;
+  }
+
+  /**
+   * The market state and {@code User}s written by a segment, captured so that
+   * the segment can be written while the {@code Market} goes on changing.
+   */
+  static final class State {
+    private final long generation;
+    private final long checkpoint;
+    private final int day;
+    private final boolean saleActivated;
+    private final String activeUser;
+    private final float[] stats;
+    private final ArrayList<User> users = new ArrayList<>();
+    private final ArrayList<String> removed = new ArrayList<>();
+    private final ArrayList<String> awaiting = new ArrayList<>();
+    private final ArrayList<Integer> awaitingFlags = new ArrayList<>();
+    private MappedSnapshot base; // the snapshot whose records are copied, if any.
+    private long[] copied = new long[0]; // the locations of the records copied.
+
+    /**
+     * Create a new State holding the given market state and no {@code User}s.
+     *
+     * @param generation    the generation of the save writing the segment.
+     * @param checkpoint    the number of the day's transactions the save
+     *                      covers, {@code DAY_COMPLETE} if it completes a day.
+     * @param day           the market's day.
+     * @param saleActivated whether the auction sale is active.
+     * @param activeUser    the username of the active {@code User}, if any.
+     * @param stats         the statistics, as {@code StatsLogger.getValues}
+     *                      returns them.
+     */
+    State(final long generation, final long checkpoint, final int day, final boolean saleActivated,
+        final String activeUser, final float[] stats) {
+      this.generation = generation;
+      this.checkpoint = checkpoint;
+      this.day = day;
+      this.saleActivated = saleActivated;
+      this.activeUser = activeUser;
+      this.stats = stats;
+    }
+
+    /**
+     * Capture the market state of a {@code Market}.
+     *
+     * @param market     the {@code Market} whose state is captured.
+     * @param generation the generation of the save writing the segment.
+     * @param checkpoint the number of the day's transactions the save covers,
+     *                   {@code DAY_COMPLETE} if it completes a day.
+     */
+    State(final Market market, final long generation, final long checkpoint) {
+      this(generation, checkpoint, market.getDay(), market.saleActivated,
+          market.getActiveUser() == null ? null : market.getActiveUser().getUsername(),
+          market.getStats().getValues());
+    }
+
+    /**
+     * Query the market's day.
+     *
+     * @return the day.
+     */
+    int getDay() {
+      return day;
+    }
+
+    /**
+     * Query whether the auction sale is active.
+     *
+     * @return true if active, false otherwise.
+     */
+    boolean isSaleActivated() {
+      return saleActivated;
+    }
+
+    /**
+     * Access the username of the active {@code User}.
+     *
+     * @return the username, null if no {@code User} is logged in.
+     */
+    String getActiveUser() {
+      return activeUser;
+    }
+
+    /**
+     * Access the statistics.
+     *
+     * @return the statistics, as {@code StatsLogger.getValues} returns them.
+     */
+    float[] getStats() {
+      return stats;
+    }
+  }
+
+  /**
+   * A save captured from a {@code Market}, to be written to its file once the
+   * {@code Market} may have changed.
+   */
+  @FunctionalInterface
+  interface Write {
+    /**
+     * Write the save, holding the lock of the file.
+     *
+     * @return whether the snapshot should now be compacted.
+     * @throws IOException the snapshot could not be written.
+     */
+    boolean write() throws IOException;
+  }
+
+  /**
+   * Query whether a file starts with the binary market snapshot header.
+   *
+   * @param file the file to be queried.
+   * @return true if the file is a binary market snapshot, false otherwise.
+   * @throws IOException the file could not be read.
+   */
+  public static boolean isSnapshot(final File file) throws IOException {
+    return getVersion(file) > 0;
+  }
+
+  /**
+   * Query the version of a binary market snapshot.
+   *
+   * @param file the file to be queried.
+   * @return the version, -1 if the file is not a binary market snapshot.
+   * @throws IOException the file could not be read.
+   */
+  static int getVersion(final File file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      final ByteBuffer header = ByteBuffer.allocate(5);
+      while (header.hasRemaining() && channel.read(header) >= 0)
+        ;
+
+      return !header.hasRemaining() && header.getInt(0) == MAGIC ? header.get(4) : -1;
+    }
+  }
+
+  /**
+   * Save a {@code Market} to a binary market snapshot, once any saves of the
+   * file still being written in the background complete. If the file is the
+   * snapshot the {@code Market} was loaded from or last saved to, only the
+   * {@code User}s changed since are appended to it as a delta segment;
+   * otherwise, or if a save of it failed, the whole {@code Market} is written.
+   * Either way the save is the next generation of the {@code Market}, completes
+   * its day and is on disk once this returns. A {@code Market} of more than one
+   * shard is saved as a {@code ShardedSnapshot}.
+   *
+   * @param market the {@code Market} to be saved.
+   * @param file   the file to which the snapshot is saved.
+   * @throws IOException the snapshot could not be written.
+   */
+  public static void save(final Market market, final File file) throws IOException {
+    awaitWrites(file);
+
+    final boolean compact;
+    synchronized (lock(file)) {
+      compact = prepare(market, file, market.getGeneration() + 1, DAY_COMPLETE, false).write();
+    }
+
+    if (compact)
+      compactInBackground(file);
+  }
+
+  /**
+   * Save a {@code Market} to a binary market snapshot on a background thread, as
+   * {@code save} does, so that the {@code Market} may go on changing while it is
+   * written. The {@code User}s to be written are copied before this returns.
+   *
+   * @param market the {@code Market} to be saved.
+   * @param file   the file to which the snapshot is saved.
+   * @return a future completing once the snapshot is on disk, or exceptionally
+   *         if it could not be written.
+   * @throws IOException the file could not be read.
+   */
+  public static CompletableFuture<Void> saveInBackground(final Market market, final File file) throws IOException {
+    return writeInBackground(market, file, market.getGeneration() + 1, DAY_COMPLETE);
+  }
+
+  /**
+   * Save a checkpoint of a {@code Market} partway through a day on a background
+   * thread, keeping its generation, so the day goes on while it is written.
+   *
+   * @param market       the {@code Market} to be saved.
+   * @param file         the file to which the snapshot is saved.
+   * @param transactions the number of the day's transactions applied.
+   * @return a future completing once the checkpoint is on disk, or exceptionally
+   *         if it could not be written.
+   * @throws IOException the file could not be read.
+   */
+  public static CompletableFuture<Void> checkpoint(final Market market, final File file, final long transactions)
+      throws IOException {
+    return writeInBackground(market, file, market.getGeneration(), transactions);
+  }
+
+  /**
+   * Capture a save of a {@code Market}, copying its {@code User}s, and write it
+   * on the background writer thread after any saves of the file already given
+   * to it.
+   *
+   * @param market     the {@code Market} to be saved.
+   * @param file       the file to which the snapshot is saved.
+   * @param generation the generation of the save.
+   * @param checkpoint the number of the day's transactions the save covers,
+   *                   {@code DAY_COMPLETE} if it completes a day.
+   * @return a future completing once the snapshot is on disk, or exceptionally
+   *         if it could not be written.
+   * @throws IOException the file could not be read.
+   */
+  private static CompletableFuture<Void> writeInBackground(final Market market, final File file,
+      final long generation, final long checkpoint) throws IOException {
+    final Write write = prepare(market, file, generation, checkpoint, true);
+
+    final CompletableFuture<Void> written = CompletableFuture.runAsync(() -> {
+      final boolean compact;
+      synchronized (lock(file)) {
+        try {
+          compact = write.write();
+        } catch (final IOException e) {
+          throw new CompletionException(e);
+        }
+      }
+
+      if (compact)
+        compactInBackground(file);
+    }, WRITER);
+    PENDING.put(path(file), written);
+
+    return written;
+  }
+
+  /**
+   * Capture a save of a {@code Market}: a delta segment of the {@code User}s
+   * changed since it was last saved, if the file backs it, or else every
+   * {@code User}. The {@code Market} is then recorded as saved. The save fails
+   * if an earlier save of the file appending to it failed, after which the file
+   * is written whole.
+   *
+   * @param market     the {@code Market} to be saved.
+   * @param file       the file to which the snapshot is saved.
+   * @param generation the generation of the save.
+   * @param checkpoint the number of the day's transactions the save covers,
+   *                   {@code DAY_COMPLETE} if it completes a day.
+   * @param copy       whether to copy the {@code User}s, as the save is written
+   *                   while the {@code Market} changes.
+   * @return the save, to be written holding the lock of the file.
+   * @throws IOException the file could not be read.
+   */
+  private static Write prepare(final Market market, final File file, final long generation, final long checkpoint,
+      final boolean copy) throws IOException {
+    final Path path = path(file);
+    final int shards = market.getShards();
+    final boolean delta = isBacked(market, file, shards);
+
+    final State[] states = capture(market, shards, !delta, generation, checkpoint, copy);
+    final OwnershipIndex ownership = market.captureOwnership(copy);
+    final Write write;
+    if (shards > 1)
+      write = ShardedSnapshot.prepare(file, states, delta, generation, checkpoint);
+    else if (delta)
+      write = () -> append(states[0], file);
+    else
+      write = () -> {
+        writeBase(states[0], file);
+        return false;
+      };
+    market.markSaved(file, generation, checkpoint, shards);
+
+    return () -> {
+      // A delta written after a lost one would not hold its changes.
+      if (delta && FAILED.contains(path))
+        throw new IOException("an earlier save failed.");
+
+      final boolean compact;
+      try {
+        compact = write.write();
+      } catch (final IOException e) {
+        FAILED.add(path);
+        throw e;
+      }
+
+      if (!delta)
+        FAILED.remove(path);
+      if (ownership != null)
+        writeOwnership(ownership, file, generation, checkpoint);
+      return compact;
+    };
+  }
+
+  /**
+   * Write the ownership index of a save beside its snapshot. The index is
+   * rebuilt when next queried if this fails, so the save does not.
+   *
+   * @param ownership  the index captured with the save.
+   * @param file       the snapshot file.
+   * @param generation the generation of the save.
+   * @param checkpoint the checkpoint of the save.
+   */
+  private static void writeOwnership(final OwnershipIndex ownership, final File file, final long generation,
+      final long checkpoint) {
+    try {
+      ownership.write(getOwnershipFile(file), generation, checkpoint);
+    } catch (final IOException e) {
+      ErrorLogger.log(ErrorType.WARNING, "OWNERSHIP [FILE: " + getOwnershipFile(file).getPath() + "]",
+          "could not be written.");
+    }
+  }
+
+  /**
+   * Name the ownership file written beside a snapshot file or the manifest of
+   * a sharded snapshot.
+   *
+   * @param file the snapshot file.
+   * @return the ownership file.
+   */
+  static File getOwnershipFile(final File file) {
+    return new File(file.getPath() + ".owners");
+  }
+
+  /**
+   * Wait for the saves of a snapshot file being written in the background.
+   *
+   * @param file the snapshot file.
+   */
+  private static void awaitWrites(final File file) {
+    final CompletableFuture<Void> pending = PENDING.get(path(file));
+    if (pending == null)
+      return;
+
+    try {
+      pending.join();
+    } catch (final CompletionException e) {
+      // The failure is recorded in {@code FAILED}.
+    }
+  }
+
+  /**
+   * Query whether a {@code Market} can be saved by appending delta segments to
+   * a snapshot file: it was loaded from or last saved to the file in as many
+   * shards, which is of the current version or being written in the
+   * background, and no save of it has failed.
+   *
+   * @param market the {@code Market} to be saved.
+   * @param file   the snapshot file.
+   * @param shards the number of shards to be saved.
+   * @return true if deltas can be appended, false if the whole {@code Market}
+   *         must be written.
+   * @throws IOException the file could not be read.
+   */
+  private static boolean isBacked(final Market market, final File file, final int shards) throws IOException {
+    if (!file.getAbsoluteFile().equals(market.getSavedFile()) || market.getSavedShards() != shards
+        || FAILED.contains(path(file)))
+      return false;
+
+    final CompletableFuture<Void> pending = PENDING.get(path(file));
+    if (pending != null && !pending.isDone())
+      return true;
+
+    return file.exists() && (shards > 1 ? ShardedSnapshot.isCurrent(file) : getVersion(file) == VERSION);
+  }
+
+  /**
+   * Write a whole {@code Market} to a binary market snapshot of a single base
+   * segment. The snapshot is written beside the file and then moved over it, so
+   * a snapshot the {@code Market} was loaded from remains readable throughout.
+   *
+   * @param market the {@code Market} to be written.
+   * @param file   the file to which the snapshot is written.
+   * @throws IOException the snapshot could not be written.
+   */
+  public static void write(final Market market, final File file) throws IOException {
+    awaitWrites(file);
+
+    synchronized (lock(file)) {
+      final long generation = market.getGeneration() + 1;
+      final State state = capture(market, 1, true, generation, DAY_COMPLETE, false)[0];
+      market.markSaved(file, generation, DAY_COMPLETE);
+
+      writeBase(state, file);
+      FAILED.remove(path(file));
+    }
+  }
+
+  /**
+   * Merge the delta segments of a binary market snapshot into its base segment.
+   * The snapshot keeps its generation and checkpoint, as its content is
+   * unchanged.
+   *
+   * @param file the snapshot to be compacted.
+   * @throws IOException the snapshot could not be read or written.
+   */
+  public static void compact(final File file) throws IOException {
+    synchronized (lock(file)) {
+      final Market market = read(file);
+      writeBase(capture(market, 1, true, market.getGeneration(), market.getCheckpoint(), false)[0], file);
+    }
+  }
+
+  /**
+   * Set the number of snapshots replaced by a base segment which are kept
+   * beside the file, named after the generation they hold.
+   *
+   * @param count the number of snapshots kept, 0 for none.
+   */
+  public static void retainGenerations(final int count) {
+    retainedGenerations = Math.max(count, 0);
+  }
+
+  /**
+   * Compact a binary market snapshot on a background thread, unless one is
+   * already compacting it. The thread is not a daemon, so a save completes its
+   * compaction before the process exits.
+   *
+   * @param file the snapshot to be compacted.
+   */
+  private static void compactInBackground(final File file) {
+    final Path path = path(file);
+    if (!COMPACTING.add(path))
+      return;
+
+    final Thread compactor = new Thread(() -> {
+      try {
+        compact(file);
+      } catch (final IOException e) {
+        ErrorLogger.log(ErrorType.ERROR, "MARKET SNAPSHOT [FILE: " + file.getPath() + "]", "compaction failed.");
+      } finally {
+        COMPACTING.remove(path);
+      }
+    }, "market-snapshot-compactor");
+    // Not inherited from a background writer, which is a daemon.
+    compactor.setDaemon(false);
+    compactor.start();
+  }
+
+  /**
+   * Access the key by which the state of a snapshot file is kept.
+   *
+   * @param file the snapshot file.
+   * @return the absolute, normalized path of the file.
+   */
+  private static Path path(final File file) {
+    return file.toPath().toAbsolutePath().normalize();
+  }
+
+  /**
+   * Access the object on which the writing of a snapshot file is synchronized.
+   *
+   * @param file the snapshot file.
+   * @return the lock of the file.
+   */
+  private static Object lock(final File file) {
+    return LOCKS.computeIfAbsent(path(file), path -> new Object());
+  }
+
+  /**
+   * Capture the state saved of a {@code Market} in each of its shards: the
+   * market state, then either every loaded {@code User} and the location of the
+   * records of those not yet loaded, or the {@code User}s changed and the
+   * usernames removed since it was last saved. The {@code User}s captured are
+   * recorded as saved.
+   *
+   * @param market     the {@code Market} to be saved.
+   * @param shards     the number of shards saved.
+   * @param whole      whether every {@code User} is saved, rather than the
+   *                   changes.
+   * @param generation the generation of the save.
+   * @param checkpoint the number of the day's transactions the save covers,
+   *                   {@code DAY_COMPLETE} if it completes a day.
+   * @param copy       whether to copy the {@code User}s, as the save is written
+   *                   while the {@code Market} changes.
+   * @return the state of each shard.
+   */
+  private static State[] capture(final Market market, final int shards, final boolean whole, final long generation,
+      final long checkpoint, final boolean copy) {
+    // Records are only copied verbatim into the shard they were read from, and
+    // only if of the current version.
+    final MappedSnapshot[] snapshots = market.getSnapshots();
+    if (whole && snapshots != null && (snapshots.length != shards || !isCurrent(snapshots)))
+      market.loadAll();
+
+    final State[] states = new State[shards];
+    for (int shard = 0; shard < shards; shard++) {
+      states[shard] = new State(market, generation, checkpoint);
+      if (whole && snapshots != null && snapshots.length == shards) {
+        states[shard].base = snapshots[shard];
+        states[shard].copied = snapshots[shard].locateUnclaimed();
+      }
+    }
+
+    final UserStore store = market.getUserStore();
+    for (final User user : store.values()) {
+      final State state = states[ShardedSnapshot.shardOf(user.getUsername().hashCode(), shards)];
+
+      int flags = 0;
+      if (user instanceof Buyer && market.isPendingEndOfDay(((Buyer) user).getInventory()))
+        flags |= AWAITING_INVENTORY;
+      if (user instanceof Seller && market.isPendingEndOfDay(((Seller) user).getStoreFront()))
+        flags |= AWAITING_STOREFRONT;
+      if (flags != 0) {
+        state.awaiting.add(user.getUsername());
+        state.awaitingFlags.add(flags);
+      }
+
+      final boolean dirty = isDirty(user);
+      if (whole || dirty)
+        state.users.add(copy ? copyUser(user) : user);
+      if (dirty) {
+        markClean(user);
+        store.markSaved(user);
+      }
+    }
+
+    if (!whole)
+      for (final String username : market.getRemovedUsers())
+        states[ShardedSnapshot.shardOf(username.hashCode(), shards)].removed.add(username);
+
+    return states;
+  }
+
+  /**
+   * Query whether the records of snapshots are of the current version.
+   *
+   * @param snapshots the snapshots to be queried.
+   * @return true if every snapshot is of the current version, false otherwise.
+   */
+  private static boolean isCurrent(final MappedSnapshot[] snapshots) {
+    for (final MappedSnapshot snapshot : snapshots)
+      if (snapshot.getVersion() != VERSION)
+        return false;
+
+    return true;
+  }
+
+  /**
+   * Write captured state to a binary market snapshot of a single base segment.
+   * The snapshot is written beside the file, forced to disk and then moved over
+   * it, keeping the snapshot it replaces if generations are retained.
+   *
+   * @param state the state to be written.
+   * @param file  the file to which the snapshot is written.
+   * @throws IOException the snapshot could not be written.
+   */
+  private static void writeBase(final State state, final File file) throws IOException {
+    final File temporary = new File(file.getPath() + ".tmp");
+    writeShard(state, temporary);
+
+    retain(file);
+    Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    forceDirectory(file);
+  }
+
+  /**
+   * Keep a snapshot or manifest about to be replaced beside it, named after the
+   * generation it holds, and delete the oldest kept beyond
+   * {@code retainedGenerations}. It is kept by a hard link where the file system
+   * supports one, so it is not copied. One holding a checkpoint is not kept, as
+   * it does not hold a completed day.
+   *
+   * @param file the snapshot about to be replaced.
+   */
+  static void retain(final File file) {
+    final int count = retainedGenerations;
+    if (count == 0 || !file.exists())
+      return;
+
+    final long generation = getGeneration(file);
+    final File directory = path(file).getParent().toFile();
+    final String prefix = file.getName() + ".";
+
+    try {
+      final Path kept = new File(directory, prefix + generation).toPath();
+      if (generation < 0 || Files.exists(kept))
+        return;
+      try {
+        Files.createLink(kept, file.toPath());
+      } catch (final UnsupportedOperationException | IOException e) {
+        Files.copy(file.toPath(), kept);
+      }
+    } catch (final IOException e) {
+      ErrorLogger.log(ErrorType.WARNING, "MARKET SNAPSHOT [FILE: " + file.getPath() + "]",
+          "previous generation could not be kept.");
+      return;
+    }
+
+    final ArrayList<File> retained = getRetained(file);
+    for (final File kept : retained.subList(Math.min(count, retained.size()), retained.size()))
+      if (!kept.delete())
+        ErrorLogger.log(ErrorType.WARNING, "MARKET SNAPSHOT [FILE: " + file.getPath() + "]",
+            kept.getName() + " could not be deleted.");
+  }
+
+  /**
+   * List the snapshots kept beside a snapshot file by {@code retain}.
+   *
+   * @param file the snapshot file.
+   * @return the snapshots kept, newest generation first.
+   */
+  static ArrayList<File> getRetained(final File file) {
+    final File directory = path(file).getParent().toFile();
+    final String prefix = file.getName() + ".";
+
+    final ArrayList<Long> generations = new ArrayList<>();
+    final String[] names = directory.list();
+    if (names != null)
+      for (final String name : names)
+        if (name.startsWith(prefix) && name.length() > prefix.length()
+            && name.substring(prefix.length()).chars().allMatch(Character::isDigit))
+          generations.add(Long.parseLong(name.substring(prefix.length())));
+    generations.sort(null);
+
+    final ArrayList<File> retained = new ArrayList<>();
+    for (int i = generations.size() - 1; i >= 0; i--)
+      retained.add(new File(directory, prefix + generations.get(i)));
+
+    return retained;
+  }
+
+  /**
+   * Query the generation of the completed day held by a snapshot file or the
+   * manifest of a sharded snapshot.
+   *
+   * @param file the snapshot file.
+   * @return the generation, 0 if the file is not a binary market snapshot with
+   *         generations, and -1 if it holds a checkpoint.
+   */
+  private static long getGeneration(final File file) {
+    try {
+      if (ShardedSnapshot.isManifest(file))
+        return ShardedSnapshot.getGeneration(file);
+
+      final Layout layout = parseShard(file, -1);
+
+      return layout.checkpoint == DAY_COMPLETE ? layout.generation : -1;
+    } catch (final IOException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * Force the entry of a file moved into its directory to disk. Not every
+   * platform supports this, in which case the move is durable once the file
+   * system next syncs.
+   *
+   * @param file the file moved.
+   */
+  static void forceDirectory(final File file) {
+    try (FileChannel directory = FileChannel.open(path(file).getParent(), StandardOpenOption.READ)) {
+      directory.force(true);
+    } catch (final IOException e) {
+      // The directory cannot be opened or forced on this platform.
+    }
+  }
+
+  /**
+   * Write captured state to a new file as a snapshot of a single base segment,
+   * and force it to disk.
+   *
+   * @param state the state to be written.
+   * @param file  the file to which the snapshot is written.
+   * @return the length of the snapshot.
+   * @throws IOException the snapshot could not be written.
+   */
+  static long writeShard(final State state, final File file) throws IOException {
+    // Carry over the base snapshot's title table, so its records stay valid.
+    final HashMap<String, Integer> references = new HashMap<>();
+    final ArrayList<String> titles = new ArrayList<>();
+    if (state.base != null)
+      for (final String title : state.base.getTitles())
+        addTitle(title, references, titles);
+    addTitles(state.users, references, titles);
+
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING)) {
+      final ChannelOutput output = new ChannelOutput(channel);
+
+      output.putInt(MAGIC);
+      output.putByte(VERSION);
+      writeSegment(SEGMENT_BASE, state, titles, references, output);
+      channel.force(true);
+
+      return output.position();
+    }
+  }
+
+  /**
+   * Append captured state to the snapshot it was captured for as a delta
+   * segment, holding the lock of the file, and force it to disk.
+   *
+   * @param state the state to be appended.
+   * @param file  the snapshot to which it is appended.
+   * @return whether the snapshot should now be compacted.
+   * @throws IOException the snapshot could not be read or written.
+   */
+  private static boolean append(final State state, final File file) throws IOException {
+    final Layout layout = parseShard(file, -1);
+    final long end = append(state, file, layout);
+
+    // Checkpoints are compacted once the day completes, so that each snapshot
+    // replaced by compaction ends with a completed day.
+    return state.checkpoint == DAY_COMPLETE && shouldCompact(layout.segments.size(), end, layout.baseEnd);
+  }
+
+  /**
+   * Append captured state to the shard of a sharded snapshot as a delta segment,
+   * after the last segment committed by its manifest, and force it to disk.
+   *
+   * @param state the state to be appended.
+   * @param file  the shard to which it is appended.
+   * @param end   the length of the shard committed by the manifest.
+   * @return the length of the shard, to be committed.
+   * @throws IOException the shard could not be read or written.
+   */
+  static long appendShard(final State state, final File file, final long end) throws IOException {
+    return append(state, file, parseShard(file, end));
+  }
+
+  /**
+   * Append captured state to a snapshot after its last complete segment.
+   *
+   * @param state  the state to be appended.
+   * @param file   the snapshot to which it is appended.
+   * @param layout the layout of the snapshot.
+   * @return the length of the snapshot.
+   * @throws IOException the snapshot could not be written.
+   */
+  private static long append(final State state, final File file, final Layout layout) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+        StandardOpenOption.WRITE)) {
+      // Extend the snapshot's title table with those of the changed records.
+      final HashMap<String, Integer> references = new HashMap<>();
+      final ArrayList<String> titles = new ArrayList<>();
+      for (final String title : layout.titles)
+        addTitle(title, references, titles);
+      addTitles(state.users, references, titles);
+
+      // Overwrite any incomplete segment left by an interrupted save.
+      channel.truncate(layout.end);
+      channel.position(layout.end);
+
+      final ChannelOutput output = new ChannelOutput(channel);
+      writeSegment(SEGMENT_DELTA, state, titles.subList(layout.titles.size(), titles.size()), references, output);
+      channel.force(true);
+
+      return output.position();
+    }
+  }
+
+  /**
+   * Query whether a snapshot has accumulated enough delta segments to be
+   * compacted.
+   *
+   * @param deltas  the number of delta segments before the last appended.
+   * @param end     the length of the snapshot.
+   * @param baseEnd the offset at which its base segment ends.
+   * @return true if the snapshot should be compacted, false otherwise.
+   */
+  static boolean shouldCompact(final int deltas, final long end, final long baseEnd) {
+    return deltas >= MAX_DELTAS || end > 2L * baseEnd;
+  }
+
+  /**
+   * Merge the segments of a shard committed by its manifest into a new shard of
+   * a single base segment. Records are copied verbatim, unless of an earlier
+   * version, in which case they are decoded and written anew.
+   *
+   * @param source the shard to be compacted.
+   * @param end    the length of the shard committed by the manifest.
+   * @param target the new shard.
+   * @return the length of the new shard.
+   * @throws IOException the shard could not be read or written.
+   */
+  static long compactShard(final File source, final long end, final File target) throws IOException {
+    final Layout layout = parseShard(source, end);
+
+    final State state = new State(layout.generation, layout.checkpoint, layout.day, layout.saleActivated,
+        layout.activeUser, layout.stats);
+    // Records decoded anew refer to the titles of a registry of their own.
+    if (layout.version == VERSION) {
+      state.base = attach(layout, null);
+      state.copied = state.base.locateUnclaimed();
+    } else {
+      state.users.addAll(attach(layout, new GameRegistry()).takeAll());
+    }
+    for (int i = 0; i < layout.awaiting.length; i++) {
+      state.awaiting.add(layout.awaiting[i]);
+      state.awaitingFlags.add(layout.awaitingFlags[i]);
+    }
+
+    return writeShard(state, target);
+  }
+
+  /**
+   * Write a segment and patch its record count and index offset in once the
+   * segment is complete.
+   *
+   * @param kind       the {@code SEGMENT_} kind of the segment.
+   * @param state      the market state and {@code User}s written.
+   * @param titles     the titles added to the title table by the segment.
+   * @param references the index of each title in the whole table.
+   * @param output     the snapshot being written.
+   * @throws IOException the segment could not be written.
+   */
+  private static void writeSegment(final int kind, final State state, final Collection<String> titles,
+      final HashMap<String, Integer> references, final ChannelOutput output) throws IOException {
+    final ArrayList<User> users = state.users;
+    final MappedSnapshot base = state.base;
+    final long[] copied = state.copied;
+
+    output.putByte(kind);
+    output.putLong(state.generation);
+    output.putLong(state.checkpoint);
+    output.putInt(state.day);
+
+    output.putByte(state.saleActivated ? 1 : 0);
+    output.putByte(state.activeUser == null ? 0 : 1);
+    if (state.activeUser != null)
+      output.putText(state.activeUser);
+    for (final float value : state.stats)
+      output.putFloat(value);
+
+    output.putVarInt(titles.size());
+    for (final String title : titles)
+      output.putText(title);
+
+    output.putVarInt(state.awaiting.size());
+    for (int i = 0; i < state.awaiting.size(); i++) {
+      output.putText(state.awaiting.get(i));
+      output.putByte(state.awaitingFlags.get(i));
+    }
+
+    output.putVarInt(state.removed.size());
+    for (final String username : state.removed)
+      output.putText(username);
+
+    // The record count and index offset are filled in once known; until then the
+    // segment reads as incomplete.
+    final long countPosition = output.position();
+    output.putInt(0);
+    output.putInt(0);
+
+    final int[] hashes = new int[users.size() + copied.length];
+    final long[] offsets = new long[hashes.length];
+    final int[] lengths = new int[hashes.length];
+    int count = 0;
+
+    for (final User user : users) {
+      offsets[count] = output.position();
+      writeUserRecord(user, references, output);
+      hashes[count] = user.getUsername().hashCode();
+      lengths[count] = (int) (output.position() - offsets[count]);
+      count++;
+    }
+
+    for (final long location : copied) {
+      final ByteBuffer record = base.getRecord(location);
+      offsets[count] = output.position();
+      hashes[count] = base.getHash(location);
+      lengths[count] = record.remaining();
+      output.putBytes(record);
+      count++;
+    }
+
+    final long indexOffset = output.position();
+    if (indexOffset + (long) count * MappedSnapshot.INDEX_ENTRY_SIZE > Integer.MAX_VALUE)
+      throw new IOException("market snapshot exceeds 2GB.");
+
+    // Sort the index by hash, breaking ties by record order.
+    final long[] order = new long[count];
+    for (int i = 0; i < count; i++)
+      order[i] = ((long) hashes[i] << 32) | i;
+    Arrays.sort(order, 0, count);
+
+    for (int i = 0; i < count; i++) {
+      final int record = (int) order[i];
+      output.putInt(hashes[record]);
+      output.putInt((int) offsets[record]);
+      output.putInt(lengths[record]);
+    }
+
+    // The segment must be on disk before the counts which complete it.
+    output.flush();
+    output.getChannel().force(false);
+
+    final ByteBuffer counts = ByteBuffer.allocate(8).putInt(count).putInt((int) indexOffset);
+    counts.flip();
+    while (counts.hasRemaining())
+      output.getChannel().write(counts, countPosition + counts.position());
+  }
+
+  /**
+   * Query whether a {@code User} or its {@code Catalogue}s changed since it was
+   * loaded or last saved.
+   *
+   * @param user the {@code User} to be queried.
+   * @return true if changed, false otherwise.
+   */
+  static boolean isDirty(final User user) {
+    return user.isDirty() || (user instanceof Buyer && ((Buyer) user).getInventory().isDirty())
+        || (user instanceof Seller && ((Seller) user).getStoreFront().isDirty());
+  }
+
+  /**
+   * Record that a {@code User} and its {@code Catalogue}s have been loaded or
+   * saved.
+   *
+   * @param user the {@code User} loaded or saved.
+   */
+  static void markClean(final User user) {
+    user.markClean();
+    if (user instanceof Buyer)
+      ((Buyer) user).getInventory().markClean();
+    if (user instanceof Seller)
+      ((Seller) user).getStoreFront().markClean();
+  }
+
+  /**
+   * Copy a {@code User} and its {@code Catalogue}s, so that its state can be
+   * written while the original changes. Entries are immutable and shared.
+   *
+   * @param user the {@code User} to be copied.
+   * @return the copy.
+   */
+  private static User copyUser(final User user) {
+    final User copy = UserFactory.createTypedUser(user.getUsername(), user.getCredit(), user.getUserType());
+    copy.restoreDailyCreditAvailability(user.getDailyCreditAvailability());
+    copy.restoreCreditDay(user.getCreditDay());
+
+    if (user instanceof Buyer) {
+      final Inventory inventory = ((Buyer) user).getInventory();
+      ((Buyer) copy).getInventory().attachGames(inventory.getGames());
+      copyCatalogue(inventory, ((Buyer) copy).getInventory());
+    }
+    if (user instanceof Seller)
+      copyCatalogue(((Seller) user).getStoreFront(), ((Seller) copy).getStoreFront());
+
+    return copy;
+  }
+
+  /**
+   * Copy the entries of a {@code Catalogue} into another.
+   *
+   * @param <T>    the type of the entries.
+   * @param source the {@code Catalogue} copied.
+   * @param copy   the empty {@code Catalogue} into which the entries are copied.
+   */
+  private static <T> void copyCatalogue(final Catalogue<T> source, final Catalogue<T> copy) {
+    for (final Catalogue.Cursor<T> cursor = source.cursor(); cursor.next();)
+      copy.restoreEntry(cursor.getKey(), cursor.getEntry(), cursor.getVisibleFrom());
+  }
+
+  /**
+   * Read a {@code Market} from a binary market snapshot, or the manifest of a
+   * sharded snapshot. {@code User}s are materialized on first access, except the
+   * active {@code User} and those awaiting the end of the day.
+   *
+   * @param file the snapshot to be read.
+   * @return the {@code Market} held by the snapshot.
+   * @throws IOException the snapshot could not be read, or is not a valid binary
+   *                     market snapshot.
+   */
+  public static Market read(final File file) throws IOException {
+    if (ShardedSnapshot.isManifest(file))
+      return ShardedSnapshot.read(file);
+
+    final ByteBuffer input;
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      input = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+
+    try {
+      if (input.getInt(0) == MAGIC && input.get(4) == 1)
+        return readInline(input.position(5));
+
+      final Layout layout = parse(input);
+
+      final Market market = new Market();
+      market.restoreDay(layout.day);
+      market.saleActivated = layout.saleActivated;
+      market.getStats().restore(layout.stats);
+      attach(market, new Layout[] { layout });
+      if (layout.activeUser != null)
+        market.loginUser(market.getUser(layout.activeUser));
+
+      market.markSaved(file, layout.generation, layout.checkpoint);
+      market.restoreOwnership(getOwnershipFile(file));
+
+      return market;
+    } catch (final VaporException e) {
+      throw new IOException("inconsistent binary market snapshot: " + e.getError());
+    } catch (final BufferUnderflowException | IndexOutOfBoundsException e) {
+      throw new IOException("truncated or corrupt binary market snapshot.");
+    }
+  }
+
+  /**
+   * Map a snapshot, or the shard of a sharded snapshot, and read the headers of
+   * its segments.
+   *
+   * @param file the snapshot to be read.
+   * @param end  the length of the snapshot committed by its manifest, -1 to read
+   *             the whole file.
+   * @return the layout of the snapshot.
+   * @throws IOException the snapshot could not be read, or is not a valid binary
+   *                     market snapshot.
+   */
+  static Layout parseShard(final File file, final long end) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      if (end > channel.size())
+        throw new IOException("truncated binary market snapshot shard.");
+
+      return parse(channel.map(FileChannel.MapMode.READ_ONLY, 0, end < 0 ? channel.size() : end));
+    }
+  }
+
+  /**
+   * Load the {@code User}s of a {@code Market} from the snapshots of its shards
+   * as they are first accessed, materializing those awaiting the end of the day.
+   *
+   * @param market  the {@code Market} read.
+   * @param layouts the layout of each shard, in order.
+   * @throws VaporException the snapshots are inconsistent with one another.
+   */
+  static void attach(final Market market, final Layout[] layouts) throws VaporException {
+    final MappedSnapshot[] snapshots = new MappedSnapshot[layouts.length];
+    for (int shard = 0; shard < layouts.length; shard++)
+      snapshots[shard] = attach(layouts[shard], market.getGames());
+    market.attachSnapshots(snapshots);
+
+    for (final Layout layout : layouts)
+      for (int i = 0; i < layout.awaiting.length; i++) {
+        final User user = market.getUser(layout.awaiting[i]);
+        if ((layout.awaitingFlags[i] & AWAITING_INVENTORY) != 0)
+          market.addPendingEndOfDay(((Buyer) user).getInventory());
+        if ((layout.awaitingFlags[i] & AWAITING_STOREFRONT) != 0)
+          market.addPendingEndOfDay(((Seller) user).getStoreFront());
+      }
+  }
+
+  /**
+   * Create the {@code MappedSnapshot} of a parsed snapshot.
+   *
+   * @param layout the layout of the snapshot.
+   * @param games  the registry of the {@code Game}s of the {@code Market} read,
+   *               null if none is.
+   * @return the user records of the snapshot.
+   */
+  private static MappedSnapshot attach(final Layout layout, final GameRegistry games) {
+    return new MappedSnapshot(layout.map, layout.version, layout.day, layout.titles.toArray(new String[0]), games,
+        layout.segments.toArray(new MappedSnapshot.Segment[0]));
+  }
+
+  /**
+   * Read the headers of every complete segment of a version 2 to 6 snapshot. A
+   * truncated or unpatched segment after the base ends the snapshot.
+   *
+   * @param input the snapshot, from its start.
+   * @return the layout of the snapshot.
+   * @throws IOException the snapshot is not a valid binary market snapshot.
+   */
+  private static Layout parse(final ByteBuffer input) throws IOException {
+    final Layout layout = new Layout();
+    layout.map = input;
+    layout.version = input.get(4);
+
+    try {
+      if (input.getInt(0) != MAGIC)
+        throw new IOException("not a binary market snapshot.");
+
+      final int version = input.get(4);
+      if (version < 2 || version > VERSION)
+        throw new IOException("unsupported binary market snapshot version " + version + ".");
+
+      input.position(5);
+      while (input.hasRemaining()) {
+        final boolean base = layout.segments.isEmpty();
+        final int titleCount = layout.titles.size();
+
+        try {
+          if (version >= 3 && (input.get() == SEGMENT_BASE) != base)
+            throw new IOException("corrupt binary market snapshot.");
+          final long generation = version >= 4 ? input.getLong() : 0;
+          final long checkpoint = version >= 5 ? input.getLong() : DAY_COMPLETE;
+          final int day = version >= 6 ? input.getInt() : 0;
+
+          final boolean saleActivated = input.get() != 0;
+          final String activeUser = input.get() != 0 ? getText(input) : null;
+          final float[] stats = getValues(input);
+
+          for (final String title : getTitles(input, null))
+            layout.titles.add(title);
+
+          final String[] awaiting = new String[getVarInt(input)];
+          final int[] awaitingFlags = new int[awaiting.length];
+          for (int i = 0; i < awaiting.length; i++) {
+            awaiting[i] = getText(input);
+            awaitingFlags[i] = input.get();
+          }
+
+          final HashSet<String> removed = new HashSet<>();
+          final int removedCount = version >= 3 ? getVarInt(input) : 0;
+          for (int i = 0; i < removedCount; i++)
+            removed.add(getText(input));
+
+          final int count = input.getInt();
+          final int indexOffset = input.getInt();
+          final long end = (long) indexOffset + (long) count * MappedSnapshot.INDEX_ENTRY_SIZE;
+          if (indexOffset < input.position() || end > input.limit())
+            throw new IOException("truncated or corrupt binary market snapshot.");
+
+          layout.segments.add(new MappedSnapshot.Segment(indexOffset, count, removed));
+          layout.end = (int) end;
+          if (base)
+            layout.baseEnd = layout.end;
+          layout.generation = generation;
+          layout.checkpoint = checkpoint;
+          layout.day = day;
+          layout.saleActivated = saleActivated;
+          layout.activeUser = activeUser;
+          layout.stats = stats;
+          layout.awaiting = awaiting;
+          layout.awaitingFlags = awaitingFlags;
+        } catch (final IOException | BufferUnderflowException | IndexOutOfBoundsException e) {
+          if (base)
+            throw e;
+
+          // An incomplete delta segment, left by an interrupted save.
+          layout.titles.subList(titleCount, layout.titles.size()).clear();
+          break;
+        }
+
+        input.position(layout.end);
+        if (version == 2)
+          break;
+      }
+
+      if (layout.segments.isEmpty())
+        throw new IOException("truncated or corrupt binary market snapshot.");
+
+      return layout;
+    } catch (final BufferUnderflowException | IndexOutOfBoundsException e) {
+      throw new IOException("truncated or corrupt binary market snapshot.");
+    }
+  }
+
+  /**
+   * Write the body of a journal entry: the market state, then the usernames
+   * removed since the {@code Market} was last saved and the records of the
+   * {@code User}s given, each preceded by its {@code AWAITING_} flags. The
+   * entry holds its own title table, so it can be read without the snapshot.
+   *
+   * @param market the {@code Market} whose state is written.
+   * @param users  the {@code User}s whose records are written.
+   * @param output the journal being written.
+   * @throws IOException the entry could not be written.
+   */
+  static void writeJournalEntry(final Market market, final Collection<User> users, final ChannelOutput output)
+      throws IOException {
+    final HashMap<String, Integer> references = new HashMap<>();
+    final ArrayList<String> titles = new ArrayList<>();
+    addTitles(users, references, titles);
+
+    final User activeUser = market.getActiveUser();
+    output.putByte(market.saleActivated ? 1 : 0);
+    output.putByte(activeUser == null ? 0 : 1);
+    if (activeUser != null)
+      output.putText(activeUser.getUsername());
+    for (final float value : market.getStats().getValues())
+      output.putFloat(value);
+
+    output.putVarInt(titles.size());
+    for (final String title : titles)
+      output.putText(title);
+
+    final HashSet<String> removed = market.getRemovedUsers();
+    output.putVarInt(removed.size());
+    for (final String username : removed)
+      output.putText(username);
+
+    output.putVarInt(users.size());
+    for (final User user : users) {
+      int flags = 0;
+      if (user instanceof Buyer && market.isPendingEndOfDay(((Buyer) user).getInventory()))
+        flags |= AWAITING_INVENTORY;
+      if (user instanceof Seller && market.isPendingEndOfDay(((Seller) user).getStoreFront()))
+        flags |= AWAITING_STOREFRONT;
+
+      output.putByte(flags);
+      writeUserRecord(user, references, output);
+    }
+  }
+
+  /**
+   * Apply the body of a journal entry to a {@code Market}, replacing the state of
+   * each {@code User} it holds and removing those it lists.
+   *
+   * @param input  the entry, positioned after its sequence number.
+   * @param market the {@code Market} to be restored.
+   * @throws IOException the entry is corrupt or inconsistent with the
+   *                     {@code Market}.
+   */
+  static void readJournalEntry(final ByteBuffer input, final Market market) throws IOException {
+    try {
+      final boolean saleActivated = input.get() != 0;
+      final String activeUser = input.get() != 0 ? getText(input) : null;
+      final float[] stats = getValues(input);
+      final String[] titles = getTitles(input, market.getGames());
+
+      final int removed = getVarInt(input);
+      for (int i = 0; i < removed; i++)
+        market.restoreRemoval(getText(input));
+
+      final int count = getVarInt(input);
+      for (int i = 0; i < count; i++) {
+        final int flags = input.get();
+        market.restoreUser(decodeUserRecord(input, titles, market.getGames()), (flags & AWAITING_INVENTORY) != 0,
+            (flags & AWAITING_STOREFRONT) != 0);
+      }
+
+      market.saleActivated = saleActivated;
+      market.getStats().restore(stats);
+      market.restoreActiveUser(activeUser);
+    } catch (final VaporException e) {
+      throw new IOException("inconsistent market journal entry: " + e.getError());
+    } catch (final BufferUnderflowException | IndexOutOfBoundsException e) {
+      throw new IOException("corrupt market journal entry.");
+    }
+  }
+
+  /**
+   * Read the remainder of a version 1 snapshot, which holds a string table of
+   * usernames and titles and every {@code User} inline.
+   *
+   * @param input the snapshot, positioned after its header.
+   * @return the {@code Market} held by the snapshot.
+   * @throws VaporException the snapshot holds duplicate or missing
+   *                        {@code User}s.
+   */
+  private static Market readInline(final ByteBuffer input) throws VaporException {
+    final Market market = new Market();
+    final String[] strings = getTitles(input, market.getGames());
+
+    market.saleActivated = input.get() != 0;
+    final int activeUser = getVarInt(input);
+    market.getStats().restore(getValues(input));
+
+    final int count = getVarInt(input);
+    for (int i = 0; i < count; i++) {
+      final User.UserType userType = User.UserType.values()[input.get()];
+      final String username = strings[getVarInt(input)];
+
+      final User user = readUserBody(input, 1, 0, userType, username, strings, market.getGames());
+      markClean(user);
+      market.forceAddUser(user);
+    }
+
+    if (activeUser != 0)
+      market.loginUser(market.getUser(strings[activeUser - 1]));
+
+    return market;
+  }
+
+  /**
+   * Decode a user record.
+   *
+   * @param record  the record, positioned at its start.
+   * @param version the version of the snapshot holding the record.
+   * @param day     the market's day in the snapshot.
+   * @param titles  the title table referenced by the record.
+   * @param games   the registry of the {@code Game}s of the {@code Market}
+   *                decoding the record.
+   * @return the {@code User} decoded.
+   */
+  static User readUserRecord(final ByteBuffer record, final int version, final int day, final String[] titles,
+      final GameRegistry games) {
+    final User user = decodeUserRecord(record, version, day, titles, games);
+    markClean(user);
+
+    return user;
+  }
+
+  /**
+   * Decode a user record of the current version, leaving the {@code User}
+   * marked as changed.
+   *
+   * @param record the record, positioned at its start.
+   * @param titles the title table referenced by the record.
+   * @param games  the registry of the {@code Game}s of the {@code Market}
+   *               decoding the record, null to bind them when attached.
+   * @return the {@code User} decoded.
+   */
+  static User decodeUserRecord(final ByteBuffer record, final String[] titles, final GameRegistry games) {
+    return decodeUserRecord(record, VERSION, 0, titles, games);
+  }
+
+  /**
+   * Decode a user record, leaving the {@code User} marked as changed.
+   *
+   * @param record  the record, positioned at its start.
+   * @param version the version of the snapshot holding the record.
+   * @param day     the market's day in the snapshot.
+   * @param titles  the title table referenced by the record.
+   * @param games   the registry of the {@code Game}s of the {@code Market}
+   *                decoding the record, null to bind them when attached.
+   * @return the {@code User} decoded.
+   */
+  private static User decodeUserRecord(final ByteBuffer record, final int version, final int day,
+      final String[] titles, final GameRegistry games) {
+    final User.UserType userType = User.UserType.values()[record.get()];
+    final String username = getText(record);
+
+    return readUserBody(record, version, day, userType, username, titles, games);
+  }
+
+  /**
+   * Decode the fields of a user record after its tag and username.
+   *
+   * @param input    the record, positioned after its username.
+   * @param version  the version of the snapshot holding the record.
+   * @param day      the market's day in the snapshot.
+   * @param userType the {@code UserType} of the record.
+   * @param username the username of the record.
+   * @param titles   the title table referenced by the record.
+   * @param games    the registry of the {@code Game}s of the {@code Market}
+   *                 decoding the record, null to bind them when attached.
+   * @return the {@code User} decoded.
+   */
+  private static User readUserBody(final ByteBuffer input, final int version, final int day,
+      final User.UserType userType, final String username, final String[] titles, final GameRegistry games) {
+    final int credit = input.getInt();
+
+    final User user = UserFactory.createTypedUser(username, credit, userType);
+    user.restoreDailyCreditAvailability(input.getInt());
+    if (version >= 6)
+      user.restoreCreditDay(input.getInt());
+
+    // Before version 7, the available entries and then the pending entries.
+    if (user instanceof Buyer) {
+      final Inventory inventory = ((Buyer) user).getInventory();
+      if (games != null)
+        inventory.attachGames(games);
+      if (version >= 7) {
+        readInventory(inventory, STAMPED, titles, input);
+      } else {
+        readInventory(inventory, 0, titles, input);
+        readInventory(inventory, day + 1, titles, input);
+      }
+    }
+    if (user instanceof Seller) {
+      final StoreFront storeFront = ((Seller) user).getStoreFront();
+      if (games != null)
+        storeFront.attachGames(games);
+      if (version >= 7) {
+        readStoreFront(storeFront, STAMPED, titles, games, input);
+      } else {
+        readStoreFront(storeFront, 0, titles, games, input);
+        readStoreFront(storeFront, day + 1, titles, games, input);
+      }
+    }
+
+    return user;
+  }
+
+  /**
+   * Encode a user record referencing a title table shared across records, first
+   * adding the titles it references to the table.
+   *
+   * @param user       the {@code User} to be written.
+   * @param references the index of each title in the table.
+   * @param titles     the title table.
+   * @param output     the file being written.
+   * @throws IOException the record could not be written.
+   */
+  static void writeUserRecord(final User user, final HashMap<String, Integer> references,
+      final ArrayList<String> titles, final ChannelOutput output) throws IOException {
+    addTitles(Collections.singletonList(user), references, titles);
+    writeUserRecord(user, references, output);
+  }
+
+  /**
+   * Encode a user record.
+   *
+   * @param user       the {@code User} to be written.
+   * @param references the index of each title in the table.
+   * @param output     the snapshot being written.
+   * @throws IOException the record could not be written.
+   */
+  private static void writeUserRecord(final User user, final HashMap<String, Integer> references,
+      final ChannelOutput output) throws IOException {
+    output.putByte(user.getUserType().ordinal());
+    output.putText(user.getUsername());
+    output.putInt(user.getCredit());
+    output.putInt(user.getDailyCreditAvailability());
+    output.putInt(user.getCreditDay());
+
+    if (user instanceof Buyer) {
+      final Inventory inventory = ((Buyer) user).getInventory();
+      writeInventory(inventory, references, output);
+    }
+    if (user instanceof Seller) {
+      final StoreFront storeFront = ((Seller) user).getStoreFront();
+      writeStoreFront(storeFront, references, output);
+    }
+  }
+
+  /**
+   * Add a title to the title table if new.
+   *
+   * @param title      the title to be added.
+   * @param references the index of each title in the table.
+   * @param titles     the title table.
+   */
+  private static void addTitle(final String title, final HashMap<String, Integer> references,
+      final ArrayList<String> titles) {
+    if (references.putIfAbsent(title, titles.size()) == null)
+      titles.add(title);
+  }
+
+  /**
+   * Add the keys of a {@code Catalogue} to the title table.
+   *
+   * @param catalogue  the {@code Catalogue} whose keys are added.
+   * @param references the index of each title in the table.
+   * @param titles     the title table.
+   */
+  private static void addTitles(final Catalogue<?> catalogue, final HashMap<String, Integer> references,
+      final ArrayList<String> titles) {
+    for (final Catalogue.Cursor<?> cursor = catalogue.cursor(); cursor.next();)
+      addTitle(cursor.getKey(), references, titles);
+  }
+
+  /**
+   * Add the titles held by the {@code Catalogue}s of {@code User}s to the title
+   * table.
+   *
+   * @param users      the {@code User}s whose titles are added.
+   * @param references the index of each title in the table.
+   * @param titles     the title table.
+   */
+  private static void addTitles(final Collection<User> users, final HashMap<String, Integer> references,
+      final ArrayList<String> titles) {
+    for (final User user : users) {
+      if (user instanceof Buyer) {
+        final Inventory inventory = ((Buyer) user).getInventory();
+        addTitles(inventory, references, titles);
+      }
+      if (user instanceof Seller) {
+        final StoreFront storeFront = ((Seller) user).getStoreFront();
+        addTitles(storeFront, references, titles);
+      }
+    }
+  }
+
+  /**
+   * Write the {@code Game}s of an {@code Inventory}.
+   *
+   * @param inventory  the {@code Inventory} to be written.
+   * @param references the index of each title in the table.
+   * @param output     the snapshot being written.
+   * @throws IOException the entries could not be written.
+   */
+  private static void writeInventory(final Inventory inventory, final HashMap<String, Integer> references,
+      final ChannelOutput output) throws IOException {
+    output.putVarInt(inventory.size());
+    for (final Catalogue.Cursor<Game> cursor = inventory.cursor(); cursor.next();) {
+      output.putVarInt(references.get(cursor.getKey()));
+      output.putVarInt(cursor.getVisibleFrom());
+    }
+  }
+
+  /**
+   * Write the {@code Listing}s of a {@code StoreFront}.
+   *
+   * @param storeFront the {@code StoreFront} to be written.
+   * @param references the index of each title in the table.
+   * @param output     the snapshot being written.
+   * @throws IOException the entries could not be written.
+   */
+  private static void writeStoreFront(final StoreFront storeFront, final HashMap<String, Integer> references,
+      final ChannelOutput output) throws IOException {
+    output.putVarInt(storeFront.size());
+    for (final Catalogue.Cursor<Listing> cursor = storeFront.cursor(); cursor.next();) {
+      final Listing listing = cursor.getEntry();
+      output.putVarInt(references.get(cursor.getKey()));
+      output.putInt(listing.getPrice());
+      output.putFloat(listing.getDiscount());
+      output.putVarInt(cursor.getVisibleFrom());
+    }
+  }
+
+  /**
+   * Read the {@code Game}s of an {@code Inventory}.
+   *
+   * @param inventory   the {@code Inventory} to be restored.
+   * @param visibleFrom the day from which the entries are visible,
+   *                    {@code STAMPED} if each entry holds its own.
+   * @param titles      the title table.
+   * @param input       the snapshot being read.
+   */
+  private static void readInventory(final Inventory inventory, final int visibleFrom, final String[] titles,
+      final ByteBuffer input) {
+    final int count = getVarInt(input);
+    for (int i = 0; i < count; i++) {
+      final String gameID = titles[getVarInt(input)];
+      inventory.restoreEntry(gameID, inventory.lookup(gameID), visibleFrom == STAMPED ? getVarInt(input) : visibleFrom);
+    }
+  }
+
+  /**
+   * Read the {@code Listing}s of a {@code StoreFront}.
+   *
+   * @param storeFront  the {@code StoreFront} to be restored.
+   * @param visibleFrom the day from which the entries are visible,
+   *                    {@code STAMPED} if each entry holds its own.
+   * @param titles      the title table.
+   * @param games       the registry of the {@code Market}'s {@code Game}s, null
+   *                    if the {@code StoreFront} is bound to one when attached.
+   * @param input       the snapshot being read.
+   */
+  private static void readStoreFront(final StoreFront storeFront, final int visibleFrom, final String[] titles,
+      final GameRegistry games, final ByteBuffer input) {
+    final int count = getVarInt(input);
+    for (int i = 0; i < count; i++) {
+      final String gameID = titles[getVarInt(input)];
+      final int price = input.getInt();
+      final float discount = input.getFloat();
+      final Game game = games == null ? new Game(gameID) : games.getGame(gameID);
+      storeFront.restoreEntry(gameID, new Listing(game, price, discount),
+          visibleFrom == STAMPED ? getVarInt(input) : visibleFrom);
+    }
+  }
+
+  /**
+   * Read a table of titles, prefixed by its length, as the canonical titles of
+   * their {@code Game}s in a registry.
+   *
+   * @param input the snapshot being read.
+   * @param games the registry of the {@code Market}'s {@code Game}s, null to
+   *              read the titles as they are.
+   * @return the titles read.
+   */
+  private static String[] getTitles(final ByteBuffer input, final GameRegistry games) {
+    final String[] titles = new String[getVarInt(input)];
+    for (int i = 0; i < titles.length; i++)
+      titles[i] = games == null ? getText(input) : games.getGame(getText(input)).getName();
+
+    return titles;
+  }
+
+  /**
+   * Read the six statistics of a {@code StatsLogger}.
+   *
+   * @param input the snapshot being read.
+   * @return the statistics, as {@code StatsLogger.restore} takes them.
+   */
+  static float[] getValues(final ByteBuffer input) {
+    final float[] values = new float[6];
+    for (int i = 0; i < values.length; i++)
+      values[i] = input.getFloat();
+
+    return values;
+  }
+
+  /**
+   * Read length-prefixed UTF-8 text.
+   *
+   * @param input the snapshot being read.
+   * @return the text read.
+   */
+  static String getText(final ByteBuffer input) {
+    final byte[] bytes = new byte[getVarInt(input)];
+    input.get(bytes);
+
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Read an unsigned LEB128 varint.
+   *
+   * @param input the snapshot being read.
+   * @return the value read.
+   */
+  static int getVarInt(final ByteBuffer input) {
+    int value = 0;
+    int shift = 0;
+
+    byte b;
+    do {
+      b = input.get();
+      value |= (b & 0x7F) << shift;
+      shift += 7;
+    } while (b < 0);
+
+    return value;
+  }
+}
@@ -131,7 +131,7 @@ public class MarketToJSON {
         JSONArray usersArray = new JSONArray();
 
         // Add a JSON representation of each user to the usersArray.
-        for (User user: market.getUsers().values()) {
+        for (User user: market.getAllUsers()) {
             JSONObject userObj = createUserJSON(user);
 
             // All users except Sellers have an inventory of games they own.
@@ -0,0 +1,271 @@
+package vapor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * The owners of every {@code Game} in a {@code Market}: for each game id, a
+ * {@code CompressedBitmap} of the {@code SymbolTable} ids of the usernames
+ * whose {@code Inventory} holds the {@code Game}, visible or not.
+ *
+ * An {@code Inventory} attached to the index adds its {@code Game}s to it and
+ * keeps it up to date as {@code Game}s are bought, gifted and removed, so the
+ * number of copies of a {@code Game} and its owners are found without visiting
+ * any {@code User}. Its changes are synchronized, as sessions running in
+ * parallel change the owners of the same {@code Game}.
+ *
+ * The index is written beside each market snapshot to a flat file: a header
+ * ({@code MAGIC}, {@code VERSION}), the generation and checkpoint of the
+ * snapshot, the owner table (the number of usernames and each username), then
+ * the number of {@code Game}s and, for each, its title, its number of owners
+ * and the indexes of its owners in the owner table, ascending and
+ * delta-encoded. Symbol ids differ between runs, so the file names owners and
+ * {@code Game}s by their text. Multi-byte values are big-endian.
+ */
+public final class OwnershipIndex {
+  // Identifies an ownership file.
+  static final int MAGIC = 0x56504F57; // "VPOW"
+  // The version of the ownership file format written.
+  static final int VERSION = 1;
+
+  // The owners of each {@code Game}, indexed by game id; null if none.
+  private CompressedBitmap[] owners = new CompressedBitmap[1024];
+
+  // The table in which usernames are interned.
+  private final SymbolTable symbols;
+  // The registry of the market's {@code Game}s, whose ids index owners.
+  private final GameRegistry games;
+
+  /**
+   * Create a new, empty OwnershipIndex.
+   *
+   * @param symbols the table interning the market's usernames.
+   * @param games   the registry of the market's {@code Game}s.
+   */
+  OwnershipIndex(final SymbolTable symbols, final GameRegistry games) {
+    this.symbols = symbols;
+    this.games = games;
+  }
+
+  /**
+   * Record that a username owns a {@code Game}.
+   *
+   * @param game  the id of the {@code Game}.
+   * @param owner the symbol id of the username.
+   */
+  synchronized void add(final int game, final int owner) {
+    if (game >= owners.length)
+      owners = Arrays.copyOf(owners, Math.max(owners.length * 2, game + 1));
+
+    if (owners[game] == null)
+      owners[game] = new CompressedBitmap();
+    owners[game].add(owner);
+  }
+
+  /**
+   * Record that a username no longer owns a {@code Game}.
+   *
+   * @param game  the id of the {@code Game}.
+   * @param owner the symbol id of the username.
+   */
+  synchronized void remove(final int game, final int owner) {
+    if (game >= owners.length || owners[game] == null)
+      return;
+
+    owners[game].remove(owner);
+    if (owners[game].isEmpty())
+      owners[game] = null;
+  }
+
+  /**
+   * Record that a username owns every {@code Game} of an {@code Inventory}.
+   *
+   * @param owner     the symbol id of the username.
+   * @param inventory the {@code Inventory}.
+   */
+  synchronized void addAll(final int owner, final Inventory inventory) {
+    for (final Catalogue.Cursor<Game> cursor = inventory.cursor(); cursor.next();)
+      add(games.find(cursor.getKey()), owner);
+  }
+
+  /**
+   * Record that a username no longer owns any {@code Game} of an
+   * {@code Inventory}.
+   *
+   * @param owner     the symbol id of the username.
+   * @param inventory the {@code Inventory}.
+   */
+  synchronized void removeAll(final int owner, final Inventory inventory) {
+    for (final Catalogue.Cursor<Game> cursor = inventory.cursor(); cursor.next();)
+      remove(games.find(cursor.getKey()), owner);
+  }
+
+  /**
+   * Query the number of copies of a {@code Game}.
+   *
+   * @param gameID the title of the {@code Game}.
+   * @return the number of usernames owning it.
+   */
+  public synchronized int getOwnerCount(final String gameID) {
+    final CompressedBitmap bitmap = getOwners(games.find(gameID));
+
+    return bitmap == null ? 0 : bitmap.getCardinality();
+  }
+
+  /**
+   * List the owners of a {@code Game}.
+   *
+   * @param gameID the title of the {@code Game}.
+   * @return the usernames owning it, in symbol id order.
+   */
+  public synchronized String[] getOwners(final String gameID) {
+    final CompressedBitmap bitmap = getOwners(games.find(gameID));
+    if (bitmap == null)
+      return new String[0];
+
+    final int[] ids = bitmap.toArray();
+    final String[] usernames = new String[ids.length];
+    for (int i = 0; i < ids.length; i++)
+      usernames[i] = symbols.symbol(ids[i]);
+
+    return usernames;
+  }
+
+  /**
+   * Access the owners of a {@code Game}.
+   *
+   * @param game the id of the {@code Game}, -1 if unknown.
+   * @return the symbol ids of its owners, null if it has none.
+   */
+  CompressedBitmap getOwners(final int game) {
+    return game >= 0 && game < owners.length ? owners[game] : null;
+  }
+
+  /**
+   * Copy the index, so that the copy does not change with it.
+   *
+   * @return the copy.
+   */
+  synchronized OwnershipIndex copy() {
+    final OwnershipIndex copy = new OwnershipIndex(symbols, games);
+    copy.owners = new CompressedBitmap[owners.length];
+    for (int game = 0; game < owners.length; game++)
+      if (owners[game] != null)
+        copy.owners[game] = owners[game].copy();
+
+    return copy;
+  }
+
+  /**
+   * Write the index to an ownership file beside a snapshot, through a temporary
+   * file forced to disk and moved over it.
+   *
+   * @param file       the file to be written.
+   * @param generation the generation of the snapshot.
+   * @param checkpoint the checkpoint of the snapshot.
+   * @throws IOException the file could not be written.
+   */
+  void write(final File file, final long generation, final long checkpoint) throws IOException {
+    final CompressedBitmap everyOwner = new CompressedBitmap();
+    int owned = 0;
+    for (final CompressedBitmap bitmap : owners)
+      if (bitmap != null) {
+        owned++;
+        for (final int owner : bitmap.toArray())
+          everyOwner.add(owner);
+      }
+    final int[] table = everyOwner.toArray();
+
+    final File temporary = new File(file.getPath() + ".tmp");
+    try (FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      final ChannelOutput output = new ChannelOutput(channel);
+      output.putInt(MAGIC);
+      output.putByte(VERSION);
+      output.putLong(generation);
+      output.putLong(checkpoint);
+
+      output.putVarInt(table.length);
+      for (final int owner : table)
+        output.putText(symbols.symbol(owner));
+
+      output.putVarInt(owned);
+      for (int game = 0; game < owners.length; game++) {
+        if (owners[game] == null)
+          continue;
+
+        final int[] ids = owners[game].toArray();
+        output.putText(games.getGame(game).getName());
+        output.putVarInt(ids.length);
+        int previous = 0;
+        for (final int owner : ids) {
+          // Ascending ids map to ascending indexes, so the deltas are positive.
+          final int index = Arrays.binarySearch(table, owner);
+          output.putVarInt(index - previous);
+          previous = index;
+        }
+      }
+
+      output.flush();
+      channel.force(true);
+    }
+
+    Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Add the owners held by an ownership file to the index, if the file was
+   * written beside a given save of a snapshot.
+   *
+   * @param file       the file to be read.
+   * @param generation the generation of the snapshot.
+   * @param checkpoint the checkpoint of the snapshot.
+   * @return true if the file matched the save and was read, false if it does
+   *         not exist or belongs to another save.
+   * @throws IOException the file could not be read, or is not a valid ownership
+   *                     file.
+   */
+  boolean restore(final File file, final long generation, final long checkpoint) throws IOException {
+    if (!file.exists())
+      return false;
+
+    final ByteBuffer input;
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      input = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+
+    try {
+      if (input.getInt() != MAGIC || input.get() != VERSION)
+        throw new IOException("not an ownership file: " + file);
+      if (input.getLong() != generation || input.getLong() != checkpoint)
+        return false;
+
+      final int[] table = new int[MarketSnapshot.getVarInt(input)];
+      for (int i = 0; i < table.length; i++)
+        table[i] = symbols.id(MarketSnapshot.getText(input));
+
+      final int count = MarketSnapshot.getVarInt(input);
+      for (int i = 0; i < count; i++) {
+        final int game = games.id(games.getGame(MarketSnapshot.getText(input)));
+        final int owned = MarketSnapshot.getVarInt(input);
+        int index = 0;
+        for (int j = 0; j < owned; j++) {
+          index += MarketSnapshot.getVarInt(input);
+          add(game, table[index]);
+        }
+      }
+
+      return true;
+    } catch (final BufferUnderflowException | IndexOutOfBoundsException e) {
+      throw new IOException("truncated or corrupt ownership file: " + file);
+    }
+  }
+}
@@ -1,19 +1,28 @@
 package vapor;
 
+import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.util.concurrent.CompletableFuture;
 
 import vapor.exceptions.ErrorLogger;
 import vapor.exceptions.ErrorLogger.ErrorType;
 
 /**
  * A class tasked with the serialization and deserialization of a {@code Market}.
+ *
+ * Markets are saved as binary market snapshots written by
+ * {@code MarketSnapshot}; a market saved to the snapshot it was loaded from
+ * appends only the users changed since, and a save may be written in the
+ * background while the market goes on changing. A market saved in shards is
+ * loaded from its manifest (see {@code ShardedSnapshot}). A market file still
+ * holding the Java serialization of a {@code Market}, as written by earlier
+ * versions, is loaded as before and migrated to a snapshot in place.
  */
 public class SerializeMarket {
-    
+
     /** Attempt to deserialize and return the market object from {@code filename}.
      *  Returns null if no such object exists.
      *
@@ -23,39 +32,85 @@ public class SerializeMarket {
     public static Market load(String fileName){
         Market market = null;
         try {
-            FileInputStream file = new FileInputStream(fileName);
-            ObjectInputStream input = new ObjectInputStream(file);
-            market = (Market) input.readObject();
-
-            input.close();
-            file.close();
+            final File file = new File(fileName);
+            if (MarketSnapshot.isSnapshot(file) || ShardedSnapshot.isManifest(file)) {
+                market = MarketSnapshot.read(file);
+                System.out.println("Market was deserialized!");
+                return market;
+            }
 
+            market = loadLegacy(fileName);
             System.out.println("Market was deserialized!");
         } catch (final IOException | ClassNotFoundException e) {
             ErrorLogger.log(ErrorType.ERROR, "MARKET SERIALIZATION [FILE: " + fileName + "]",
                     "deserialization failed.");
+            return market;
         }
+
+        // One-time migration of a Java serialized market to a snapshot.
+        ErrorLogger.log(ErrorType.WARNING, "MARKET SERIALIZATION [FILE: " + fileName + "]",
+                "migrating from Java serialization to a binary market snapshot.");
+        save(market, fileName);
+
         return market;
     }
 
+    /** Deserialize a market saved with Java serialization by earlier versions.
+     *
+     * @param fileName - The file where the market is stored.
+     * @return - The market loaded from {@code filename}.
+     * @throws IOException - The file could not be read.
+     * @throws ClassNotFoundException - A class in the file could not be found.
+     */
+    private static Market loadLegacy(String fileName) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream input = new ObjectInputStream(
+                new BufferedInputStream(new FileInputStream(fileName)))) {
+            return (Market) input.readObject();
+        }
+    }
+
     /** Attempt to serialize {@code market} in the file {@code marketFileName}
      *
      * @param market - The market to be serialized.
      * @param marketFileName - the name of the file where we want to save {@code market}.
+     * @return - true if {@code market} was saved, false otherwise.
      */
-    public static void save(Market market, String marketFileName) {
+    public static boolean save(Market market, String marketFileName) {
         try {
-            FileOutputStream file = new FileOutputStream(marketFileName);
-            ObjectOutputStream output = new ObjectOutputStream(file);
-            output.writeObject(market);
-
-            output.close();
-            file.close();
+            MarketSnapshot.save(market, new File(marketFileName));
 
             System.out.println("Market was serialized!");
+            return true;
+        } catch (final IOException e) {
+            ErrorLogger.log(ErrorType.ERROR, "MARKET SERIALIZATION [FILE: " + marketFileName + "]",
+                    "serialization failed.");
+            return false;
+        }
+    }
+
+    /** Serialize {@code market} in the file {@code marketFileName} on a background
+     *  thread, returning once the users to be saved have been copied.
+     *
+     * @param market - The market to be serialized.
+     * @param marketFileName - the name of the file where we want to save {@code market}.
+     * @return - a future completing with true once {@code market} is saved, false if it could not be.
+     */
+    public static CompletableFuture<Boolean> saveInBackground(Market market, String marketFileName) {
+        try {
+            return MarketSnapshot.saveInBackground(market, new File(marketFileName)).handle((saved, e) -> {
+                if (e != null) {
+                    ErrorLogger.log(ErrorType.ERROR, "MARKET SERIALIZATION [FILE: " + marketFileName + "]",
+                            "serialization failed.");
+                    return false;
+                }
+
+                System.out.println("Market was serialized!");
+                return true;
+            });
         } catch (final IOException e) {
             ErrorLogger.log(ErrorType.ERROR, "MARKET SERIALIZATION [FILE: " + marketFileName + "]",
                     "serialization failed.");
+            return CompletableFuture.completedFuture(false);
         }
     }
 }
@@ -0,0 +1,54 @@
+package vapor;
+
+import vapor.users.User;
+
+/**
+ * A front-end terminal's connection to a {@code Market}, carrying the
+ * {@code User} logged in to it. Each {@code Transaction} is executed in a
+ * session, and acts as, or on behalf of, its {@code User}; logging in and out
+ * begin and end a {@code User}'s use of the session.
+ *
+ * A {@code Market} has a session of its own, saved with it, and opens others
+ * on request, so that several terminals' transactions may run at once. A
+ * session is used by one thread at a time.
+ */
+public final class Session {
+  // The {@code User} logged in, null if none.
+  private User user;
+
+  /**
+   * Create a new Session with no {@code User} logged in; a {@code Market} opens
+   * sessions through {@code openSession}.
+   */
+  Session() {
+  }
+
+  /**
+   * Query the {@code User} logged in to this session.
+   *
+   * @return the {@code User}, null if none.
+   */
+  public User getUser() {
+    return user;
+  }
+
+  /**
+   * Query whether the {@code User} logged in to this session is privileged.
+   *
+   * @return true if an {@code ADMIN} is logged in, false otherwise.
+   */
+  public boolean isAuthorised() {
+    final User user = this.user;
+
+    return user != null && user.getUserType().isPrivileged();
+  }
+
+  /**
+   * Set the {@code User} logged in to this session.
+   *
+   * @param user the {@code User}, null if none.
+   */
+  void setUser(final User user) {
+    this.user = user;
+  }
+}
@@ -0,0 +1,432 @@
+package vapor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import vapor.exceptions.ErrorLogger;
+import vapor.exceptions.ErrorLogger.ErrorType;
+import vapor.exceptions.VaporException;
+
+/**
+ * Reads and writes a sharded market snapshot: the {@code User}s of a
+ * {@code Market} partitioned by username hash into shards, each a binary market
+ * snapshot of its own (see {@code MarketSnapshot}), and a manifest holding the
+ * market-wide state. The shards are read and written in parallel on the common
+ * fork-join pool.
+ *
+ * The manifest is a header ({@code MAGIC}, {@code VERSION}), the generation and
+ * checkpoint of the save which wrote it, the market's day and the market state
+ * as a snapshot segment holds them, then the number of shards and, for each,
+ * the name of its file, the length of the file the manifest commits, the offset
+ * at which its base segment ends and the number of its delta segments.
+ *
+ * A save appends a delta segment to each shard, or writes each to a new file,
+ * and then moves a new manifest over the old. Segments past the length a
+ * manifest commits are ignored, so a save interrupted before its manifest is
+ * written leaves the snapshot as it was, and the next save overwrites them. A
+ * shard whose deltas accumulate is compacted into a new file within the save.
+ * Shard files are named {@code <manifest>.shard<i>.<generation>.<k>} and
+ * deleted once neither the manifest nor a kept generation of it references
+ * them.
+ *
+ * Version 1 manifests, which have no day and whose shards are version 5
+ * snapshots, are still read; so are shards of any earlier snapshot version.
+ * The next save of either writes every shard anew.
+ */
+final class ShardedSnapshot {
+  // Identifies the manifest of a sharded market snapshot.
+  static final int MAGIC = 0x56504D4D; // "VPMM"
+  // The version of the manifest format.
+  static final int VERSION = 2;
+
+  /**
+   * The file of one shard and the part of it a manifest commits.
+   */
+  private static final class Shard {
+    private final String name; // the name of the file, in the manifest's directory.
+    private final long end; // the length of the file committed.
+    private final long baseEnd; // the offset at which the base segment ends.
+    private final int deltas; // the number of delta segments.
+
+    /**
+     * Create a new Shard.
+     *
+     * @param name    the name of the shard's file.
+     * @param end     the length of the file committed.
+     * @param baseEnd the offset at which the base segment ends.
+     * @param deltas  the number of delta segments.
+     */
+    Shard(final String name, final long end, final long baseEnd, final int deltas) {
+      this.name = name;
+      this.end = end;
+      this.baseEnd = baseEnd;
+      this.deltas = deltas;
+    }
+  }
+
+  /**
+   * The content of a manifest.
+   */
+  private static final class Manifest {
+    private long generation;
+    private long checkpoint;
+    private int day;
+    private boolean saleActivated;
+    private String activeUser;
+    private float[] stats;
+    private Shard[] shards;
+  }
+
+  /**
+   * Query the shard holding a username.
+   *
+   * @param hash   the hash of the username.
+   * @param shards the number of shards.
+   * @return the index of the shard.
+   */
+  static int shardOf(final int hash, final int shards) {
+    return Math.floorMod(hash, shards);
+  }
+
+  /**
+   * Query whether a file starts with the manifest header.
+   *
+   * @param file the file to be queried.
+   * @return true if the file is the manifest of a sharded snapshot, false
+   *         otherwise.
+   * @throws IOException the file could not be read.
+   */
+  static boolean isManifest(final File file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      final ByteBuffer header = ByteBuffer.allocate(4);
+      while (header.hasRemaining() && channel.read(header) >= 0)
+        ;
+
+      return !header.hasRemaining() && header.getInt(0) == MAGIC;
+    }
+  }
+
+  /**
+   * Query whether a file is a manifest of the current version referencing shards
+   * of the current snapshot version, to which delta segments may be appended.
+   *
+   * @param file the file to be queried.
+   * @return true if the file is a current manifest, false otherwise.
+   * @throws IOException the file could not be read.
+   */
+  static boolean isCurrent(final File file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      final ByteBuffer header = ByteBuffer.allocate(5);
+      while (header.hasRemaining() && channel.read(header) >= 0)
+        ;
+
+      if (header.hasRemaining() || header.getInt(0) != MAGIC || header.get(4) != VERSION)
+        return false;
+    }
+
+    final File directory = file.getAbsoluteFile().getParentFile();
+    for (final Shard shard : readManifest(file).shards) {
+      final File shardFile = new File(directory, shard.name);
+      if (!shardFile.exists() || MarketSnapshot.getVersion(shardFile) != MarketSnapshot.VERSION)
+        return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Query the generation of the completed day held by a manifest.
+   *
+   * @param file the manifest.
+   * @return the generation, -1 if it holds a checkpoint.
+   * @throws IOException the manifest could not be read.
+   */
+  static long getGeneration(final File file) throws IOException {
+    final Manifest manifest = readManifest(file);
+
+    return manifest.checkpoint == MarketSnapshot.DAY_COMPLETE ? manifest.generation : -1;
+  }
+
+  /**
+   * Read a {@code Market} from a sharded snapshot, mapping its shards in
+   * parallel. {@code User}s are materialized on first access, except the active
+   * {@code User} and those awaiting the end of the day.
+   *
+   * @param file the manifest of the snapshot.
+   * @return the {@code Market} held by the snapshot.
+   * @throws IOException the snapshot could not be read, or is not a valid sharded
+   *                     snapshot.
+   */
+  static Market read(final File file) throws IOException {
+    final Manifest manifest = readManifest(file);
+    final File directory = file.getAbsoluteFile().getParentFile();
+
+    final ArrayList<Callable<MarketSnapshot.Layout>> tasks = new ArrayList<>();
+    for (final Shard shard : manifest.shards)
+      tasks.add(() -> MarketSnapshot.parseShard(new File(directory, shard.name), shard.end));
+    final List<MarketSnapshot.Layout> layouts = invokeAll(tasks);
+
+    try {
+      final Market market = new Market();
+      market.restoreDay(manifest.day);
+      market.saleActivated = manifest.saleActivated;
+      market.getStats().restore(manifest.stats);
+      MarketSnapshot.attach(market, layouts.toArray(new MarketSnapshot.Layout[0]));
+      if (manifest.activeUser != null)
+        market.loginUser(market.getUser(manifest.activeUser));
+
+      market.setShards(manifest.shards.length);
+      market.markSaved(file, manifest.generation, manifest.checkpoint, manifest.shards.length);
+      market.restoreOwnership(MarketSnapshot.getOwnershipFile(file));
+
+      return market;
+    } catch (final VaporException e) {
+      throw new IOException("inconsistent sharded market snapshot: " + e.getError());
+    }
+  }
+
+  /**
+   * Prepare the writing of a save captured in shards. If the save is a delta, a
+   * delta segment is appended to each shard the manifest references; otherwise
+   * each shard is written to a new file. The new manifest is then moved over the
+   * old, keeping it if generations are retained, and the shard files no longer
+   * referenced are deleted.
+   *
+   * @param file       the manifest of the snapshot.
+   * @param states     the state captured of each shard.
+   * @param delta      whether the states hold only the changes since the
+   *                   manifest was written.
+   * @param generation the generation of the save.
+   * @param checkpoint the number of the day's transactions the save covers,
+   *                   {@code DAY_COMPLETE} if it completes a day.
+   * @return the save, to be written holding the lock of the manifest.
+   */
+  static MarketSnapshot.Write prepare(final File file, final MarketSnapshot.State[] states,
+      final boolean delta, final long generation, final long checkpoint) {
+    final File directory = file.getAbsoluteFile().getParentFile();
+
+    return () -> {
+      final Manifest previous = delta ? readManifest(file) : null;
+      if (previous != null && previous.shards.length != states.length)
+        throw new IOException("sharded market snapshot has " + previous.shards.length + " shards.");
+
+      final ArrayList<Callable<Shard>> tasks = new ArrayList<>();
+      for (int i = 0; i < states.length; i++) {
+        final int index = i;
+        tasks.add(() -> {
+          if (previous == null) {
+            final File target = createShardFile(file, index, generation);
+            final long end = MarketSnapshot.writeShard(states[index], target);
+            return new Shard(target.getName(), end, end, 0);
+          }
+
+          final Shard shard = previous.shards[index];
+          final File source = new File(directory, shard.name);
+          final long end = MarketSnapshot.appendShard(states[index], source, shard.end);
+
+          // Checkpoints are compacted once the day completes, as for a single file.
+          if (checkpoint != MarketSnapshot.DAY_COMPLETE
+              || !MarketSnapshot.shouldCompact(shard.deltas, end, shard.baseEnd))
+            return new Shard(shard.name, end, shard.baseEnd, shard.deltas + 1);
+
+          final File target = createShardFile(file, index, generation);
+          final long compacted = MarketSnapshot.compactShard(source, end, target);
+          return new Shard(target.getName(), compacted, compacted, 0);
+        });
+      }
+
+      final Manifest manifest = new Manifest();
+      manifest.generation = generation;
+      manifest.checkpoint = checkpoint;
+      manifest.day = states[0].getDay();
+      manifest.saleActivated = states[0].isSaleActivated();
+      manifest.activeUser = states[0].getActiveUser();
+      manifest.stats = states[0].getStats();
+      manifest.shards = invokeAll(tasks).toArray(new Shard[0]);
+
+      writeManifest(manifest, file);
+      deleteUnreferenced(file);
+
+      return false;
+    };
+  }
+
+  /**
+   * Create a new, empty file for a shard beside the manifest.
+   *
+   * @param file       the manifest.
+   * @param shard      the index of the shard.
+   * @param generation the generation of the save.
+   * @return the file created.
+   * @throws IOException the file could not be created.
+   */
+  private static File createShardFile(final File file, final int shard, final long generation)
+      throws IOException {
+    final File directory = file.getAbsoluteFile().getParentFile();
+    final String prefix = file.getName() + ".shard" + shard + "." + generation + ".";
+
+    for (int k = 0;; k++) {
+      final File created = new File(directory, prefix + k);
+      if (created.createNewFile())
+        return created;
+    }
+  }
+
+  /**
+   * Write a manifest beside the file, force it to disk and move it over the
+   * file, keeping the manifest it replaces if generations are retained.
+   *
+   * @param manifest the manifest to be written.
+   * @param file     the file to which it is written.
+   * @throws IOException the manifest could not be written.
+   */
+  private static void writeManifest(final Manifest manifest, final File file) throws IOException {
+    final File temporary = new File(file.getPath() + ".tmp");
+    try (FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.WRITE,
+        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      final ChannelOutput output = new ChannelOutput(channel);
+
+      output.putInt(MAGIC);
+      output.putByte(VERSION);
+      output.putLong(manifest.generation);
+      output.putLong(manifest.checkpoint);
+      output.putInt(manifest.day);
+
+      output.putByte(manifest.saleActivated ? 1 : 0);
+      output.putByte(manifest.activeUser == null ? 0 : 1);
+      if (manifest.activeUser != null)
+        output.putText(manifest.activeUser);
+      for (final float value : manifest.stats)
+        output.putFloat(value);
+
+      output.putVarInt(manifest.shards.length);
+      for (final Shard shard : manifest.shards) {
+        output.putText(shard.name);
+        output.putLong(shard.end);
+        output.putLong(shard.baseEnd);
+        output.putVarInt(shard.deltas);
+      }
+
+      output.flush();
+      channel.force(true);
+    }
+
+    MarketSnapshot.retain(file);
+    Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    MarketSnapshot.forceDirectory(file);
+  }
+
+  /**
+   * Read a manifest.
+   *
+   * @param file the manifest to be read.
+   * @return the content of the manifest.
+   * @throws IOException the manifest could not be read, or is not a valid
+   *                     manifest.
+   */
+  private static Manifest readManifest(final File file) throws IOException {
+    final ByteBuffer input = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+
+    try {
+      if (input.getInt() != MAGIC)
+        throw new IOException("not a sharded market snapshot.");
+      final int version = input.get();
+      if (version < 1 || version > VERSION)
+        throw new IOException("unsupported sharded market snapshot version " + version + ".");
+
+      final Manifest manifest = new Manifest();
+      manifest.generation = input.getLong();
+      manifest.checkpoint = input.getLong();
+      manifest.day = version >= 2 ? input.getInt() : 0;
+      manifest.saleActivated = input.get() != 0;
+      manifest.activeUser = input.get() != 0 ? MarketSnapshot.getText(input) : null;
+      manifest.stats = MarketSnapshot.getValues(input);
+
+      manifest.shards = new Shard[MarketSnapshot.getVarInt(input)];
+      for (int i = 0; i < manifest.shards.length; i++)
+        manifest.shards[i] = new Shard(MarketSnapshot.getText(input), input.getLong(), input.getLong(),
+            MarketSnapshot.getVarInt(input));
+
+      if (manifest.shards.length == 0)
+        throw new IOException("sharded market snapshot has no shards.");
+
+      return manifest;
+    } catch (final BufferUnderflowException | IndexOutOfBoundsException e) {
+      throw new IOException("truncated or corrupt sharded market snapshot.");
+    }
+  }
+
+  /**
+   * Delete the shard files beside a manifest which neither it nor a kept
+   * generation of it references.
+   *
+   * @param file the manifest.
+   */
+  private static void deleteUnreferenced(final File file) {
+    final HashSet<String> referenced = new HashSet<>();
+    final ArrayList<File> manifests = MarketSnapshot.getRetained(file);
+    manifests.add(file);
+
+    for (final File manifest : manifests) {
+      try {
+        if (!isManifest(manifest))
+          continue;
+        for (final Shard shard : readManifest(manifest).shards)
+          referenced.add(shard.name);
+      } catch (final IOException e) {
+        // An unreadable manifest cannot be loaded, so references nothing.
+      }
+    }
+
+    final String prefix = file.getName() + ".shard";
+    final File[] shards = file.getAbsoluteFile().getParentFile().listFiles(
+        (directory, name) -> name.startsWith(prefix) && !referenced.contains(name));
+    if (shards == null)
+      return;
+
+    for (final File shard : shards)
+      if (!shard.delete())
+        ErrorLogger.log(ErrorType.WARNING, "MARKET SNAPSHOT [FILE: " + file.getPath() + "]",
+            shard.getName() + " could not be deleted.");
+  }
+
+  /**
+   * Run tasks on the common fork-join pool and wait for every one.
+   *
+   * @param <T>   the type of the tasks' results.
+   * @param tasks the tasks to be run.
+   * @return the result of each task, in order.
+   * @throws IOException a task failed.
+   */
+  private static <T> List<T> invokeAll(final List<Callable<T>> tasks) throws IOException {
+    final ArrayList<T> results = new ArrayList<>();
+
+    try {
+      for (final Future<T> result : ForkJoinPool.commonPool().invokeAll(tasks))
+        results.add(result.get());
+    } catch (final ExecutionException e) {
+      if (e.getCause() instanceof IOException)
+        throw (IOException) e.getCause();
+      throw new IOException(e.getCause());
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted.");
+    }
+
+    return results;
+  }
+}
@@ -1,12 +1,46 @@
 package vapor;
 
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
 import vapor.exceptions.MultipleCopyException;
 
 /**
  * Container to hold {@code Seller} {@code Listing}s and manage access and
  * manipulation.
+ *
+ * {@code Listing}s are held in a map by title, each with the day from which it
+ * is visible. A {@code StoreFront} attached to the {@code GameRegistry} of a
+ * {@code Market} lists only the canonical {@code Game}s of that registry.
  */
 public class StoreFront extends Catalogue<Listing> {
+  private static final long serialVersionUID = -1462575808116060962L;
+
+  /**
+   * A {@code Listing} and the day from which it is visible.
+   */
+  private static final class Stamped {
+    private final Listing listing;
+    private int visibleFrom;
+
+    /**
+     * Create a new Stamped listing.
+     *
+     * @param listing     the {@code Listing}.
+     * @param visibleFrom the day from which the {@code Listing} is visible.
+     */
+    Stamped(final Listing listing, final int visibleFrom) {
+      this.listing = listing;
+      this.visibleFrom = visibleFrom;
+    }
+  }
+
+  // Holds the {@code Listing}s by title, created with the first.
+  private transient HashMap<String, Stamped> entries;
+  // The registry of the {@code Market} holding the {@code StoreFront}, if any.
+  private transient GameRegistry games;
+
   /**
    * Add a {@code Listing} to the {@code StoreFront}.
    * 
@@ -27,6 +61,165 @@ public class StoreFront extends Catalogue<Listing> {
    */
   @Override
   public Listing[] getEntries() {
-    return this.getEntryMap().values().toArray(new Listing[0]);
+    return this.getVisibleEntries().toArray(new Listing[0]);
+  }
+
+  /**
+   * List the canonical {@code Game}s of a {@code Market}'s registry, from now
+   * on and in every {@code Listing} held.
+   *
+   * @param games the registry of the {@code Market} holding the owner.
+   */
+  void attachGames(final GameRegistry games) {
+    if (this.games == games)
+      return;
+
+    this.games = games;
+    if (entries != null)
+      for (final Stamped stamped : entries.values())
+        stamped.listing.attachGames(games);
+  }
+
+  /**
+   * Query the day from which the {@code Listing} of a title is visible.
+   *
+   * @param ID the title of the {@code Listing}.
+   * @return the day, {@code ABSENT} if there is no such {@code Listing}.
+   */
+  @Override
+  int getVisibleFrom(final String ID) {
+    final Stamped stamped = entries == null ? null : entries.get(ID);
+
+    return stamped == null ? ABSENT : stamped.visibleFrom;
+  }
+
+  /**
+   * Access the {@code Listing} of a title held by this {@code StoreFront}.
+   *
+   * @param ID the title of the {@code Listing}.
+   * @return the {@code Listing}.
+   */
+  @Override
+  Listing lookup(final String ID) {
+    return entries.get(ID).listing;
+  }
+
+  /**
+   * Hold a {@code Listing}, replacing any of the same title.
+   *
+   * @param ID          the title of the {@code Listing}.
+   * @param listing     the {@code Listing}.
+   * @param visibleFrom the day from which the {@code Listing} is visible.
+   */
+  @Override
+  void store(final String ID, final Listing listing, final int visibleFrom) {
+    if (entries == null)
+      entries = new HashMap<>();
+    if (games != null)
+      listing.attachGames(games);
+
+    // Keyed by the canonical title of the {@code Listing}'s {@code Game}.
+    entries.put(listing.getGame().getName(), new Stamped(listing, visibleFrom));
+  }
+
+  /**
+   * Stop holding the {@code Listing} of a title, if any.
+   *
+   * @param ID the title of the {@code Listing}.
+   */
+  @Override
+  void delete(final String ID) {
+    if (entries != null)
+      entries.remove(ID);
+  }
+
+  /**
+   * Query the number of {@code Listing}s held, visible or not.
+   *
+   * @return the number of {@code Listing}s.
+   */
+  @Override
+  int size() {
+    return entries == null ? 0 : entries.size();
+  }
+
+  /**
+   * Visit every {@code Listing} held, visible or not.
+   *
+   * @return a {@code Cursor} before the first {@code Listing}.
+   */
+  @Override
+  Cursor<Listing> cursor() {
+    return new MapCursor(entries == null ? null : entries.entrySet().iterator());
+  }
+
+  /**
+   * A {@code Cursor} over the map of {@code Listing}s.
+   */
+  private static final class MapCursor implements Cursor<Listing> {
+    private final Iterator<Map.Entry<String, Stamped>> iterator; // null if there are no entries.
+    private Map.Entry<String, Stamped> current;
+
+    /**
+     * Create a new MapCursor.
+     *
+     * @param iterator the entries of the map, null if there are none.
+     */
+    MapCursor(final Iterator<Map.Entry<String, Stamped>> iterator) {
+      this.iterator = iterator;
+    }
+
+    /**
+     * Move to the next {@code Listing}.
+     *
+     * @return true if there is one, false once every {@code Listing} has been
+     *         visited.
+     */
+    @Override
+    public boolean next() {
+      current = iterator != null && iterator.hasNext() ? iterator.next() : null;
+
+      return current != null;
+    }
+
+    /**
+     * Query the title of the current {@code Listing}.
+     *
+     * @return the canonical title.
+     */
+    @Override
+    public String getKey() {
+      return current.getKey();
+    }
+
+    /**
+     * Access the current {@code Listing}.
+     *
+     * @return the {@code Listing}.
+     */
+    @Override
+    public Listing getEntry() {
+      return current.getValue().listing;
+    }
+
+    /**
+     * Query the day from which the current {@code Listing} is visible.
+     *
+     * @return the day.
+     */
+    @Override
+    public int getVisibleFrom() {
+      return current.getValue().visibleFrom;
+    }
+
+    /**
+     * Change the day from which the current {@code Listing} is visible.
+     *
+     * @param day the day.
+     */
+    @Override
+    public void setVisibleFrom(final int day) {
+      current.getValue().visibleFrom = day;
+    }
   }
 }
@@ -0,0 +1,270 @@
+package vapor;
+
+import java.util.Arrays;
+
+/**
+ * The table of every distinct username and game title known to a
+ * {@code Market}, mapping each to a stable int id and a single canonical
+ * String instance.
+ *
+ * Each {@code Market} owns its table. Its {@code Catalogue}s, balances,
+ * ownership index and persistence all intern IDs through it, so each title is
+ * held on the heap once and every map keyed by it hashes the same instance,
+ * whose hash code String caches. Parsers only look IDs up in it, without
+ * adding those not yet known, so records naming users or games which never
+ * enter the market do not grow it. Spans of a record can be looked up without
+ * allocating a String, and the table may be used from several threads at
+ * once.
+ */
+public final class SymbolTable {
+  // The number of independently locked stripes; a power of two.
+  private static final int STRIPES = 16;
+  // The initial number of slots in each stripe; a power of two.
+  private static final int INITIAL_SLOTS = 64;
+
+  /**
+   * An open-addressing hash set of symbol ids, guarded by its own lock.
+   */
+  private static final class Stripe {
+    private int[] slots = new int[INITIAL_SLOTS]; // symbol id + 1 per slot, 0 if empty.
+    private int count; // the number of occupied slots.
+  }
+
+  private final Stripe[] stripes = new Stripe[STRIPES];
+
+  // Canonical symbols indexed by id; replaced wholesale when grown.
+  private volatile String[] symbols = new String[1024];
+  // The number of ids assigned, guarded by this table's lock.
+  private int size;
+
+  /**
+   * Create a new, empty SymbolTable.
+   */
+  public SymbolTable() {
+    for (int i = 0; i < STRIPES; i++)
+      stripes[i] = new Stripe();
+  }
+
+  /**
+   * Return the canonical instance of a symbol, adding it if new.
+   *
+   * @param symbol the symbol to be interned, may be null.
+   * @return the canonical instance, null if symbol is null.
+   */
+  public String intern(final String symbol) {
+    if (symbol == null)
+      return null;
+
+    final int id = id(symbol, 0, symbol.length(), symbol, true);
+
+    return symbols[id];
+  }
+
+  /**
+   * Return the canonical instance of a span of characters, adding it if new. No
+   * String is allocated if the symbol is already known.
+   *
+   * @param text  the text holding the symbol.
+   * @param start the index of the first character of the symbol.
+   * @param end   the index after the last character of the symbol.
+   * @return the canonical instance.
+   */
+  public String intern(final CharSequence text, final int start, final int end) {
+    final int id = id(text, start, end, null, true);
+
+    return symbols[id];
+  }
+
+  /**
+   * Return the canonical instance of a symbol if it is known, without adding it
+   * otherwise.
+   *
+   * @param symbol the symbol to be looked up, may be null.
+   * @return the canonical instance, symbol itself if it is not in the table.
+   */
+  public String canonical(final String symbol) {
+    if (symbol == null)
+      return null;
+
+    final int id = id(symbol, 0, symbol.length(), symbol, false);
+
+    return id < 0 ? symbol : symbols[id];
+  }
+
+  /**
+   * Return the canonical instance of a span of characters if it is known,
+   * without adding it otherwise. No String is allocated if the symbol is known.
+   *
+   * @param text  the text holding the symbol.
+   * @param start the index of the first character of the symbol.
+   * @param end   the index after the last character of the symbol.
+   * @return the canonical instance, a new String if it is not in the table.
+   */
+  public String canonical(final CharSequence text, final int start, final int end) {
+    final int id = id(text, start, end, null, false);
+
+    return id < 0 ? text.subSequence(start, end).toString() : symbols[id];
+  }
+
+  /**
+   * Query the id of a symbol, adding it if new.
+   *
+   * @param symbol the symbol to be looked up.
+   * @return the id of the symbol.
+   */
+  public int id(final String symbol) {
+    return id(symbol, 0, symbol.length(), symbol, true);
+  }
+
+  /**
+   * Query the id of a symbol without adding it.
+   *
+   * @param symbol the symbol to be looked up.
+   * @return the id of the symbol, -1 if it is not in the table.
+   */
+  public int find(final String symbol) {
+    return id(symbol, 0, symbol.length(), symbol, false);
+  }
+
+  /**
+   * Query the id of a span of characters, adding it if new.
+   *
+   * @param text  the text holding the symbol.
+   * @param start the index of the first character of the symbol.
+   * @param end   the index after the last character of the symbol.
+   * @return the id of the symbol.
+   */
+  public int id(final CharSequence text, final int start, final int end) {
+    return id(text, start, end, null, true);
+  }
+
+  /**
+   * Access the canonical instance of a symbol by id.
+   *
+   * @param id the id of the symbol.
+   * @return the canonical instance.
+   */
+  public String symbol(final int id) {
+    return symbols[id];
+  }
+
+  /**
+   * Query the number of symbols in the table.
+   *
+   * @return the number of symbols.
+   */
+  public synchronized int size() {
+    return size;
+  }
+
+  /**
+   * Look up a span in its stripe, adding it if new and asked to.
+   *
+   * @param text      the text holding the symbol.
+   * @param start     the index of the first character of the symbol.
+   * @param end       the index after the last character of the symbol.
+   * @param candidate a String equal to the span to adopt as canonical if new,
+   *                  null to copy the span.
+   * @param add       whether the span is added if new.
+   * @return the id of the symbol, -1 if new and not added.
+   */
+  private int id(final CharSequence text, final int start, final int end, final String candidate,
+      final boolean add) {
+    // Same hash as String.hashCode, so canonical instances agree with it.
+    int hash = 0;
+    for (int i = start; i < end; i++)
+      hash = 31 * hash + text.charAt(i);
+
+    final int spread = hash ^ (hash >>> 16);
+    final Stripe stripe = stripes[spread & (STRIPES - 1)];
+
+    synchronized (stripe) {
+      final int[] slots = stripe.slots;
+      final int mask = slots.length - 1;
+      final String[] known = symbols;
+
+      int slot = (spread >>> 4) & mask;
+      while (slots[slot] != 0) {
+        final String symbol = known[slots[slot] - 1];
+        if (symbol.hashCode() == hash && matches(symbol, text, start, end))
+          return slots[slot] - 1;
+
+        slot = (slot + 1) & mask;
+      }
+      if (!add)
+        return -1;
+
+      final String symbol = candidate != null ? candidate : text.subSequence(start, end).toString();
+      final int id = add(symbol);
+
+      slots[slot] = id + 1;
+      if (++stripe.count * 2 > slots.length)
+        rehash(stripe);
+
+      return id;
+    }
+  }
+
+  /**
+   * Assign the next id to a new symbol.
+   *
+   * @param symbol the new canonical symbol.
+   * @return the id assigned.
+   */
+  private synchronized int add(final String symbol) {
+    String[] known = symbols;
+    if (size == known.length)
+      known = Arrays.copyOf(known, known.length * 2);
+
+    known[size] = symbol;
+    symbols = known;
+
+    return size++;
+  }
+
+  /**
+   * Double the slots of a full stripe.
+   *
+   * @param stripe the stripe to be grown, whose lock is held.
+   */
+  private void rehash(final Stripe stripe) {
+    final int[] old = stripe.slots;
+    final int[] slots = new int[old.length * 2];
+    final int mask = slots.length - 1;
+    final String[] known = symbols;
+
+    for (final int entry : old) {
+      if (entry == 0)
+        continue;
+
+      final int hash = known[entry - 1].hashCode();
+      int slot = ((hash ^ (hash >>> 16)) >>> 4) & mask;
+      while (slots[slot] != 0)
+        slot = (slot + 1) & mask;
+
+      slots[slot] = entry;
+    }
+
+    stripe.slots = slots;
+  }
+
+  /**
+   * Query whether a symbol equals a span of characters.
+   *
+   * @param symbol the symbol to be compared.
+   * @param text   the text holding the span.
+   * @param start  the index of the first character of the span.
+   * @param end    the index after the last character of the span.
+   * @return true if they hold the same characters, false otherwise.
+   */
+  private static boolean matches(final String symbol, final CharSequence text, final int start, final int end) {
+    if (symbol.length() != end - start)
+      return false;
+
+    for (int i = start; i < end; i++)
+      if (symbol.charAt(i - start) != text.charAt(i))
+        return false;
+
+    return true;
+  }
+}
@@ -0,0 +1,388 @@
+package vapor;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import vapor.exceptions.ErrorLogger;
+import vapor.exceptions.ErrorLogger.ErrorType;
+import vapor.exceptions.InvalidTransactionCodeException;
+import vapor.transactions.Transaction;
+import vapor.transactions.TransactionBuilder;
+
+/**
+ * Accepts daily transaction records from front-end terminals in real time over
+ * a local TCP or Unix-domain socket, and applies them to a resident
+ * {@code Market}.
+ *
+ * Each connection is served by a thread of its own, virtual where the runtime
+ * provides them, and runs its records in a {@code Session} of its own. A
+ * terminal sends one fixed-width record per line and receives one reply line
+ * per record, in order: {@code OK}, or the errors and warnings the record
+ * logged. Records may be pipelined; replies are flushed once every record
+ * received has been answered.
+ *
+ * Connection threads only parse. A single writer thread applies the records of
+ * every connection in arrival order, draining them in batches, records each
+ * batch in the journal and logs its errors, so the {@code Market}, journal and
+ * error log see one stream of transactions as they would from a daily file.
+ * Each batch is committed to the journal before its records are answered, so a
+ * record answered is never lost to a crash. A day interrupted is resumed from
+ * the state the journal holds rather than by skipping records, as a terminal
+ * resends whatever it was not answered.
+ */
+public class TransactionServer implements Closeable {
+  // The most records applied between journal updates.
+  private static final int BATCH_SIZE = 256;
+  // The most records awaiting the writer before connections wait for it.
+  private static final int QUEUE_CAPACITY = 1 << 16;
+  // The most records of one connection parsed before their replies are sent.
+  private static final int PIPELINE_DEPTH = 1024;
+  // The reply to a record which logged nothing.
+  static final String OK = "OK";
+
+  // Ends the writer once every earlier request is applied.
+  private static final Request STOP = new Request(null, null, null);
+
+  // The {@code Market} to which records are applied.
+  private final Market market;
+  // The journal of the {@code Market}'s day.
+  private final MarketJournal journal;
+  // The socket on which terminals connect.
+  private final ServerSocketChannel server;
+  // The address bound, a file to be deleted on close if Unix-domain.
+  private final SocketAddress address;
+  // The requests awaiting the writer, in arrival order.
+  private final BlockingQueue<Request> requests = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+  // The connections open, closed with the server.
+  private final Set<SocketChannel> open = ConcurrentHashMap.newKeySet();
+  // The threads serving connections.
+  private final ExecutorService connections = newConnectionExecutor();
+
+  /**
+   * Create a new TransactionServer bound to a local address.
+   *
+   * @param address the address to listen on: a loopback
+   *                {@code InetSocketAddress} or a
+   *                {@code UnixDomainSocketAddress}.
+   * @param market  the {@code Market} to which records are applied.
+   * @param journal the journal of the {@code Market}'s day.
+   * @throws IOException the address could not be bound.
+   */
+  public TransactionServer(final SocketAddress address, final Market market, final MarketJournal journal)
+      throws IOException {
+    this.market = market;
+    this.journal = journal;
+
+    if (address instanceof UnixDomainSocketAddress) {
+      Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+      server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+    } else
+      server = ServerSocketChannel.open();
+    server.bind(address);
+    this.address = server.getLocalAddress();
+  }
+
+  /**
+   * Resolve the address named by a {@code --serve} option: a port on the
+   * loopback interface if a number, a Unix-domain socket file otherwise.
+   *
+   * @param name the port or path.
+   * @return the address.
+   */
+  public static SocketAddress address(final String name) {
+    try {
+      return new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(name));
+    } catch (final NumberFormatException e) {
+      return UnixDomainSocketAddress.of(name);
+    }
+  }
+
+  /**
+   * Query the address on which terminals connect.
+   *
+   * @return the address bound.
+   */
+  public SocketAddress getAddress() {
+    return address;
+  }
+
+  /**
+   * Accept connections on the calling thread until the server is closed, then
+   * apply every record received before returning.
+   *
+   * @throws IOException the socket failed.
+   */
+  public void serve() throws IOException {
+    final Thread writer = new Thread(this::apply, "transaction writer");
+    writer.start();
+
+    try {
+      while (true) {
+        final SocketChannel channel = server.accept();
+        open.add(channel);
+        connections.execute(() -> handle(channel));
+      }
+    } catch (final AsynchronousCloseException e) {
+      // Closed: stop reading, then let the writer finish what was received.
+    } finally {
+      for (final SocketChannel channel : open)
+        channel.close();
+      connections.shutdown();
+      try {
+        connections.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        requests.put(STOP);
+        writer.join();
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Stop accepting connections; {@code serve} closes those open and returns
+   * once their records are applied.
+   *
+   * @throws IOException the socket could not be closed.
+   */
+  @Override
+  public void close() throws IOException {
+    server.close();
+    if (address instanceof UnixDomainSocketAddress)
+      Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+  }
+
+  /**
+   * Serve a connection in a session of its own: parse each record received,
+   * queue it for the writer, and reply once it is applied.
+   *
+   * @param channel the connection.
+   */
+  private void handle(final SocketChannel channel) {
+    final Session session = market.openSession();
+
+    try (BufferedReader input = new BufferedReader(Channels.newReader(channel, StandardCharsets.UTF_8));
+        Writer output = Channels.newWriter(channel, StandardCharsets.UTF_8)) {
+      if (address instanceof InetSocketAddress)
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+      final ArrayDeque<CompletableFuture<List<String>>> replies = new ArrayDeque<>();
+      for (String record; (record = input.readLine()) != null;) {
+        replies.add(submit(session, record));
+        while (replies.size() < PIPELINE_DEPTH && input.ready() && (record = input.readLine()) != null)
+          replies.add(submit(session, record));
+
+        while (!replies.isEmpty())
+          output.write(reply(replies.poll().join()));
+        output.flush();
+      }
+    } catch (final IOException e) {
+      // The terminal disconnected, or the server closed.
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      open.remove(channel);
+      try {
+        requests.put(new Request(session, null, null));
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Parse a record and queue it for the writer.
+   *
+   * @param session the session of the connection.
+   * @param record  the record received.
+   * @return the messages it logs, once applied.
+   * @throws InterruptedException the calling thread was interrupted waiting for
+   *                              space in the queue.
+   */
+  private CompletableFuture<List<String>> submit(final Session session, final String record)
+      throws InterruptedException {
+    final CompletableFuture<List<String>> reply = new CompletableFuture<>();
+
+    try {
+      requests.put(new Request(session, new TransactionBuilder(record, market.getSymbols()).parse(), reply));
+    } catch (final InvalidTransactionCodeException e) {
+      ErrorLogger.hold();
+      ErrorLogger.log(ErrorType.ERROR, "[" + record + "]", e.getError());
+      requests.put(new Request(session, null, reply, ErrorLogger.release()));
+    }
+
+    return reply;
+  }
+
+  /**
+   * Render the reply to a record.
+   *
+   * @param messages the messages the record logged.
+   * @return the reply line.
+   */
+  private static String reply(final List<String> messages) {
+    if (messages.isEmpty())
+      return OK + "\n";
+
+    final StringBuilder reply = new StringBuilder();
+    for (final String message : messages) {
+      if (reply.length() > 0)
+        reply.append("; ");
+      reply.append(message.strip());
+    }
+
+    return reply.append('\n').toString();
+  }
+
+  /**
+   * Apply the queued requests in order, in batches, until stopped.
+   */
+  private void apply() {
+    final ArrayList<Request> batch = new ArrayList<>(BATCH_SIZE);
+    final ArrayList<String> logged = new ArrayList<>();
+
+    try {
+      boolean stopped = false;
+      while (!stopped) {
+        batch.add(requests.take());
+        requests.drainTo(batch, BATCH_SIZE - 1);
+
+        long applied = 0;
+        for (final Request request : batch) {
+          if (request == STOP) {
+            stopped = true;
+            break;
+          }
+          if (request.apply(market))
+            applied++;
+          logged.addAll(request.messages);
+        }
+
+        journal.applied(applied);
+        journal.commit();
+        ErrorLogger.logAll(logged);
+        for (final Request request : batch)
+          if (request.reply != null)
+            request.reply.complete(request.messages);
+
+        batch.clear();
+        logged.clear();
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Run connections on virtual threads where the runtime provides them, and on
+   * a cached pool of platform threads otherwise.
+   *
+   * @return the executor, one thread per connection.
+   */
+  private static ExecutorService newConnectionExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (final ReflectiveOperationException e) {
+      return Executors.newCachedThreadPool(runnable -> {
+        final Thread thread = new Thread(runnable, "transaction connection");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+  }
+
+  /**
+   * A record queued for the writer, or the close of its connection's session.
+   */
+  private static final class Request {
+    // The session of the connection.
+    private final Session session;
+    // The {@code Transaction} to be applied, null if the record failed to parse
+    // or the session is to be closed.
+    private final Transaction transaction;
+    // Completes with the messages logged once applied, null to close the session.
+    private final CompletableFuture<List<String>> reply;
+    // The messages the record logged.
+    private List<String> messages;
+
+    /**
+     * Create a new Request.
+     *
+     * @param session     the session of the connection.
+     * @param transaction the {@code Transaction} to be applied, null if none.
+     * @param reply       completes with the messages logged, null to close the
+     *                    session.
+     */
+    Request(final Session session, final Transaction transaction, final CompletableFuture<List<String>> reply) {
+      this(session, transaction, reply, List.of());
+    }
+
+    /**
+     * Create a new Request for a record which has already logged messages.
+     *
+     * @param session     the session of the connection.
+     * @param transaction the {@code Transaction} to be applied, null if none.
+     * @param reply       completes with the messages logged, null to close the
+     *                    session.
+     * @param messages    the messages already logged.
+     */
+    Request(final Session session, final Transaction transaction, final CompletableFuture<List<String>> reply,
+        final List<String> messages) {
+      this.session = session;
+      this.transaction = transaction;
+      this.reply = reply;
+      this.messages = messages;
+    }
+
+    /**
+     * Apply the request on the writer thread, holding back the messages the
+     * {@code Transaction} logs. A {@code Transaction} which throws is logged as
+     * failed, so that the writer carries on.
+     *
+     * @param market the {@code Market} to be updated.
+     * @return true if a {@code Transaction} was applied, false otherwise.
+     */
+    boolean apply(final Market market) {
+      if (reply == null) {
+        market.closeSession(session);
+        return false;
+      }
+      if (transaction == null)
+        return false;
+
+      ErrorLogger.hold();
+      try {
+        transaction.execute(market, session);
+      } catch (final RuntimeException e) {
+        ErrorLogger.log(ErrorType.ERROR, "[" + transaction.getRecord() + "]", "could not be applied: " + e + ".");
+      } finally {
+        messages = ErrorLogger.release();
+      }
+      return true;
+    }
+  }
+}
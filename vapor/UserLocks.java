@@ -0,0 +1,89 @@
+package vapor;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Striped locks over the usernames of a {@code Market} in concurrent mode. A
+ * username is guarded by the stripe its hash code falls in, so that any number
+ * of {@code User}s share a fixed number of locks, and locking a username which
+ * names no {@code User} interns nothing.
+ *
+ * A {@code Transaction} locks every {@code User} it changes at once, before
+ * reading any of them. Stripes are always locked in ascending order, so two
+ * threads locking overlapping {@code User}s never wait for each other in a
+ * cycle, even when two usernames share a stripe.
+ */
+public final class UserLocks {
+  // Held by a market not in concurrent mode, locking nothing.
+  public static final Held NONE = () -> {
+  };
+
+  // The locks, one per stripe.
+  private final ReentrantLock[] stripes;
+
+  /**
+   * Create a new UserLocks.
+   *
+   * @param stripes the number of locks, at least one.
+   */
+  public UserLocks(final int stripes) {
+    this.stripes = new ReentrantLock[stripes];
+    for (int i = 0; i < stripes; i++)
+      this.stripes[i] = new ReentrantLock();
+  }
+
+  /**
+   * Lock the {@code User}s with some usernames, waiting for any thread holding
+   * one of them.
+   *
+   * @param usernames the usernames, any of which may be null or empty.
+   * @return the locks held, to be closed once the {@code User}s are updated.
+   */
+  public Held lock(final String... usernames) {
+    final int[] held = new int[usernames.length];
+    int count = 0;
+    for (final String username : usernames)
+      if (username != null && !username.isEmpty())
+        held[count++] = stripeOf(username);
+
+    Arrays.sort(held, 0, count);
+    int distinct = 0;
+    for (int i = 0; i < count; i++)
+      if (distinct == 0 || held[distinct - 1] != held[i])
+        held[distinct++] = held[i];
+
+    for (int i = 0; i < distinct; i++)
+      stripes[held[i]].lock();
+
+    final int locked = distinct;
+    return () -> {
+      for (int i = locked - 1; i >= 0; i--)
+        stripes[held[i]].unlock();
+    };
+  }
+
+  /**
+   * Query the stripe guarding a username.
+   *
+   * @param username the username.
+   * @return the index of its stripe.
+   */
+  private int stripeOf(final String username) {
+    final int hash = username.hashCode();
+
+    return Math.floorMod(hash ^ (hash >>> 16), stripes.length);
+  }
+
+  /**
+   * The locks of some {@code User}s, held until closed.
+   */
+  @FunctionalInterface
+  public interface Held extends AutoCloseable {
+    /**
+     * Unlock the {@code User}s.
+     */
+    @Override
+    void close();
+  }
+}
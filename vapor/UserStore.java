@@ -0,0 +1,106 @@
+package vapor;
+
+import java.util.HashMap;
+import java.util.function.Predicate;
+
+import vapor.users.User;
+
+/**
+ * The {@code User}s a {@code Market} has loaded or added, by username. A store
+ * may keep only some of them in memory, writing the rest elsewhere and loading
+ * them again as they are accessed; the {@code User} returned for a username is
+ * then only the same object for as long as it stays in memory.
+ */
+public interface UserStore {
+  /**
+   * Access the {@code User} with a username, loading it if it was evicted.
+   *
+   * @param username the username of the {@code User}.
+   * @return the {@code User}, null if the store holds none with the username.
+   */
+  User get(String username);
+
+  /**
+   * Add a {@code User}, replacing any with the same username.
+   *
+   * @param user the {@code User} to be added.
+   */
+  void put(User user);
+
+  /**
+   * Remove the {@code User} with a username.
+   *
+   * @param username the username of the {@code User}.
+   */
+  void remove(String username);
+
+  /**
+   * Query whether the store holds a {@code User} with a username, without
+   * loading it.
+   *
+   * @param username the username to be queried.
+   * @return true if the store holds such a {@code User}, false otherwise.
+   */
+  boolean contains(String username);
+
+  /**
+   * Query whether a {@code User} is the one held under its username, without
+   * loading or evicting any {@code User}.
+   *
+   * @param user the {@code User} to be queried.
+   * @return true if the store holds the {@code User} itself, false otherwise.
+   */
+  default boolean holds(final User user) {
+    return get(user.getUsername()) == user;
+  }
+
+  /**
+   * Query the number of {@code User}s held.
+   *
+   * @return the number of {@code User}s.
+   */
+  int size();
+
+  /**
+   * Iterate over every {@code User} held. Those evicted are decoded as they are
+   * reached and not loaded back into memory.
+   *
+   * @return the {@code User}s held.
+   */
+  Iterable<User> values();
+
+  /**
+   * Access every {@code User} held as a map by username.
+   *
+   * @return the map backing the store, or a copy if the store evicts
+   *         {@code User}s.
+   */
+  HashMap<String, User> asMap();
+
+  /**
+   * Record that a {@code User}, as iterated from {@code values}, has been saved
+   * and marked clean, so that it is no longer changed.
+   *
+   * @param user the {@code User} saved.
+   */
+  default void markSaved(final User user) {
+  }
+
+  /**
+   * Set which {@code User}s are referenced outside the store and so must stay
+   * in memory.
+   *
+   * @param pinned whether a {@code User} must stay in memory.
+   */
+  default void pin(final Predicate<User> pinned) {
+  }
+
+  /**
+   * Set the registry whose canonical {@code Game}s the {@code User}s decoded by
+   * the store refer to.
+   *
+   * @param games the {@code GameRegistry} of the {@code Market}.
+   */
+  default void useGames(final GameRegistry games) {
+  }
+}
@@ -4,56 +4,550 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.io.IOException;
+import java.net.SocketAddress;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 
 import vapor.exceptions.ErrorLogger;
 import vapor.exceptions.ErrorLogger.ErrorType;
+import vapor.transactions.BatchExecutor;
+import vapor.transactions.BinaryTransactionReader;
+import vapor.transactions.BinaryTransactionWriter;
+import vapor.transactions.SessionExecutor;
 import vapor.transactions.Transaction;
+import vapor.transactions.TransactionBatch;
 
 public class Vapor {
     private static final String MARKET_FILENAME = "market.ser";
     private static final String TRANSACTIONS_FILENAME = "daily.txt";
+    private static final String TRANSACTIONS_BINARY_FILENAME = "daily.bin";
+    private static final String JOURNAL_FILENAME = "market.journal";
+    private static final String USER_STORE_FILENAME = "market.users";
+    private static final String BALANCES_FILENAME = "market.balances";
+    private static final String INBOX_DIRECTORY = "inbox";
+    private static final String SOCKET_FILENAME = "vapor.sock";
+    private static final String TERMINALS_SOURCE = "terminals";
+
+    // Prefix marking a program argument as an option rather than a filename.
+    private static final String OPTION_PREFIX = "--";
+
+    /**
+     * The means by which the daily transaction file is parsed.
+     */
+    private enum ParserMode {
+        BUFFERED, // line by line through a {@code FileParser}.
+        MAPPED, // memory-mapped and in parallel through a {@code MappedFileParser}.
+        STREAMING, // on its own thread, executing records as they are parsed.
+        BATCH // into a columnar {@code TransactionBatch} run by a {@code BatchExecutor}.
+    }
+
+    /**
+     * The format of the daily transaction file to be read.
+     */
+    private enum TransactionFormat {
+        TEXT, // fixed-width records in daily.txt.
+        BINARY // a binary transaction log in daily.bin.
+    }
+
+    // The parser selected by the --parser option.
+    private static ParserMode parserMode = ParserMode.BUFFERED;
+    // The format selected by the --format option.
+    private static TransactionFormat transactionFormat = TransactionFormat.TEXT;
+    // Whether to convert daily.txt to daily.bin rather than run a day (--convert).
+    private static boolean convertOnly = false;
+    // The transactions committed to the journal together, 0 for none (--journal).
+    private static int journalGroupSize = MarketJournal.DEFAULT_GROUP_SIZE;
+    // The transactions between checkpoints, 0 for no limit (--checkpoint).
+    private static long checkpointInterval = MarketJournal.DEFAULT_CHECKPOINT_INTERVAL;
+    // The seconds between checkpoints, 0 for no limit (--checkpoint-seconds).
+    private static long checkpointSeconds = MarketJournal.DEFAULT_CHECKPOINT_SECONDS;
+    // The shards the market is saved in, 0 to keep those it was loaded in (--shards).
+    private static int shardCount = 0;
+    // The users cached in memory, 0 to keep every user in memory (--user-cache).
+    private static int userCacheSize = 0;
+    // The threads running sessions in parallel, 0 to execute in order (--parallel).
+    private static int parallelism = 0;
+    // The directory watched for daily files by a resident market, null to run
+    // one day and exit (--daemon).
+    private static String inboxDirectory = null;
+    // The port or socket file on which terminals submit records to a resident
+    // market, null to read daily files (--serve).
+    private static String serveAddress = null;
 
     public static void main(String[] args) {
-        if (args.length > 0)
-            DatabaseBuilder.buildDatabase(args[0], MARKET_FILENAME);
+        final ArrayList<String> arguments = applyOptions(args);
+
+        if (arguments.size() > 0) {
+            DatabaseBuilder.buildDatabase(arguments.get(0), MARKET_FILENAME);
+            MarketJournal.discard(new File(JOURNAL_FILENAME));
+        }
 
         File dailyTextFile = new File(TRANSACTIONS_FILENAME);
 
+        if (convertOnly) {
+            convertTransactions(dailyTextFile, new File(TRANSACTIONS_BINARY_FILENAME));
+            return;
+        }
+
         // Most important method call! Absolutely necessary.
         vape();
 
         final Market market = Market.getMarket(MARKET_FILENAME);
+        if (shardCount > 0)
+            market.setShards(shardCount);
+        final LogUserStore userStore = openUserStore(market);
+
+        if (serveAddress != null)
+            serveTerminals(TransactionServer.address(serveAddress), market);
+        else if (inboxDirectory != null)
+            serve(new File(inboxDirectory), market, userStore == null);
+        else
+            runDay(transactionFormat == TransactionFormat.BINARY ? new File(TRANSACTIONS_BINARY_FILENAME)
+                    : dailyTextFile, market, userStore == null, null);
 
-        // Execute each transaction within the ArrayList<Transaction> FileParser
-        // provides.
-        BufferedReader bufferReader;
-        ArrayList<Transaction> transactions = null;
+        if (userStore != null)
+            closeUserStore(userStore);
+    }
 
+    /**
+     * Run a day: execute a daily transaction file on a {@code Market} through
+     * the journal, end the day, then report, save and export the market.
+     *
+     * @param dailyFile     the daily transaction file, in the selected format.
+     * @param market        the {@code Market} to be updated.
+     * @param usersInMemory whether the {@code Market} keeps every user in memory.
+     * @param days          the inbox the file was taken from, into whose done
+     *                      directory it is moved as the day begins; null if none.
+     */
+    private static void runDay(final File dailyFile, final Market market, final boolean usersInMemory,
+            final DailyInbox days) {
+        final MarketJournal journal = openJournal(market, dailyFile.getName());
+
+        // Once the journal names the file it is moved aside, so that a day saved is never run again.
+        final File file;
         try {
-            bufferReader = new BufferedReader(new FileReader(dailyTextFile));
-            FileParser parser = new FileParser(bufferReader);
-            transactions = parser.parse();
-        } catch (final FileNotFoundException e) {
-            ErrorLogger.log(ErrorType.ERROR, "MAIN", "could not open daily.txt.");
+            file = days == null ? dailyFile : days.done(dailyFile);
+        } catch (final IOException e) {
+            ErrorLogger.log(ErrorType.ERROR, "MAIN [FILE: " + dailyFile.getPath() + "]",
+                    "could not be moved aside; day not run.");
+            journal.close();
+            return;
         }
 
-        if (transactions != null)
-            for (final Transaction transaction : transactions)
-                if (transaction != null)
-                    transaction.execute(market);
+        // Execute each transaction the parser provides, in file order.
+        if (transactionFormat == TransactionFormat.TEXT && parserMode == ParserMode.BATCH)
+            executeBatch(file, market, journal);
+        else {
+            final Iterator<Transaction> transactions = transactionFormat == TransactionFormat.BINARY
+                    ? readBinaryTransactions(file, market)
+                    : parseTransactions(file, market);
+
+            if (parallelism > 0 && !usersInMemory)
+                ErrorLogger.log(ErrorType.WARNING, "MAIN",
+                        "--parallel needs every user in memory; executing in order.");
+            try {
+                if (parallelism > 0 && usersInMemory)
+                    new SessionExecutor(parallelism).execute(transactions, market, journal);
+                else
+                    execute(transactions, market, journal);
+            } finally {
+                // A stream left unfinished by a failure still holds its parser and file.
+                if (transactions instanceof FileParser.TransactionStream)
+                    ((FileParser.TransactionStream) transactions).close();
+            }
+        }
+        finishDay(market, journal);
+    }
+
+    /**
+     * Open the journal of a {@code Market}'s day, recovering any transactions
+     * journalled by an interrupted run of the day from the same source.
+     *
+     * @param market the {@code Market} loaded.
+     * @param source the source of the day's transactions.
+     * @return the journal, with checkpoints scheduled.
+     */
+    private static MarketJournal openJournal(final Market market, final String source) {
+        final MarketJournal journal = MarketJournal.open(new File(JOURNAL_FILENAME), market, journalGroupSize,
+                source);
+        journal.scheduleCheckpoints(new File(MARKET_FILENAME), checkpointInterval, checkpointSeconds);
+
+        return journal;
+    }
+
+    /**
+     * Finish a {@code Market}'s day once its transactions are applied: commit
+     * them, end the day, then report, save and export the market.
+     *
+     * @param market  the {@code Market} updated.
+     * @param journal the journal of the {@code Market}'s day.
+     */
+    private static void finishDay(final Market market, final MarketJournal journal) {
+        journal.commit();
 
         // Process and reset any once-a-day limits and buffers.
         market.endDay();
 
+        // Create a text file summary of statistics, which resets the daily ones.
+        market.report();
+
+        // save the market with Serialization in the background while it is exported.
+        final CompletableFuture<Boolean> saved = market.saveInBackground(MARKET_FILENAME);
+
         // Export market summary as a JSON.
         market.export();
+        // Export the users' balances as flat columns for market-wide scans.
+        market.exportBalances(BALANCES_FILENAME);
 
-        // Create a text file summary of statistics.
-        market.report();
+        // Once the market is saved, the journal is obsolete.
+        if (saved.join())
+            journal.delete();
+        else
+            journal.close();
+    }
+
+    /**
+     * Keep a {@code Market} resident, running a day for each daily file which
+     * lands in an inbox directory, in name order, until the process is stopped.
+     * Each file is moved aside as its day begins, once the day's journal names
+     * it; a day interrupted after that is resumed first.
+     *
+     * @param inbox         the directory watched.
+     * @param market        the {@code Market} to be updated.
+     * @param usersInMemory whether the {@code Market} keeps every user in memory.
+     */
+    private static void serve(final File inbox, final Market market, final boolean usersInMemory) {
+        final String suffix = transactionFormat == TransactionFormat.BINARY ? ".bin" : ".txt";
+
+        final DailyInbox days;
+        try {
+            days = new DailyInbox(inbox, suffix);
+        } catch (final IOException e) {
+            ErrorLogger.log(ErrorType.ERROR, "MAIN [FILE: " + inbox.getPath() + "]",
+                    "could not watch the inbox.");
+            return;
+        }
+        // Stopping the process closes the inbox, releasing the wait for the next file.
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> closeInbox(days)));
+        System.out.println("Watching " + inbox.getPath() + " for daily files.");
+
+        try {
+            final String interrupted = MarketJournal.getSource(new File(JOURNAL_FILENAME), market);
+            final File resumed = interrupted == null ? null : days.getDone(interrupted);
+            if (resumed != null)
+                runDay(resumed, market, usersInMemory, days);
+
+            for (File day; (day = days.take()) != null;)
+                runDay(day, market, usersInMemory, days);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closeInbox(days);
+        }
+    }
+
+    /**
+     * Stop watching an inbox directory.
+     *
+     * @param days the inbox to be closed.
+     */
+    private static void closeInbox(final DailyInbox days) {
+        try {
+            days.close();
+        } catch (final IOException e) {
+            ErrorLogger.log(ErrorType.WARNING, "MAIN", "could not stop watching the inbox.");
+        }
+    }
+
+    /**
+     * Keep a {@code Market} resident for a day of records submitted by terminals
+     * through a {@code TransactionServer}, until the process is stopped, then
+     * finish the day.
+     *
+     * @param address the address on which terminals connect.
+     * @param market  the {@code Market} to be updated.
+     */
+    private static void serveTerminals(final SocketAddress address, final Market market) {
+        // A terminals day is never resumed by a daily file, nor one of those by it.
+        final MarketJournal journal = openJournal(market, TERMINALS_SOURCE);
+        final CountDownLatch finished = new CountDownLatch(1);
+
+        final TransactionServer server;
+        try {
+            server = new TransactionServer(address, market, journal);
+        } catch (final IOException e) {
+            ErrorLogger.log(ErrorType.ERROR, "MAIN", "could not serve transactions on " + address + ".");
+            journal.close();
+            return;
+        }
+        // Stopping the process closes the server, then waits for the day to be saved.
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            closeServer(server);
+            try {
+                finished.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        System.out.println("Serving transactions on " + server.getAddress() + ".");
+
+        try {
+            server.serve();
+        } catch (final IOException e) {
+            ErrorLogger.log(ErrorType.ERROR, "MAIN", "could not serve transactions on " + address + ".");
+            closeServer(server);
+            journal.close();
+            finished.countDown();
+            return;
+        }
+        closeServer(server);
+
+        finishDay(market, journal);
+        finished.countDown();
+    }
+
+    /**
+     * Stop serving terminals, applying the records already received.
+     *
+     * @param server the server to be closed.
+     */
+    private static void closeServer(final TransactionServer server) {
+        try {
+            server.close();
+        } catch (final IOException e) {
+            ErrorLogger.log(ErrorType.WARNING, "MAIN", "could not stop serving transactions.");
+        }
+    }
+
+    /**
+     * Keep only the most recently accessed users of a {@code Market} in memory,
+     * if {@code --user-cache} is given, spilling the rest to a log.
+     *
+     * @param market the {@code Market} whose users are stored.
+     * @return the store, null if every user is kept in memory.
+     */
+    private static LogUserStore openUserStore(final Market market) {
+        if (userCacheSize <= 0)
+            return null;
+
+        try {
+            final LogUserStore store = new LogUserStore(new File(USER_STORE_FILENAME), userCacheSize);
+            market.useStore(store);
+            return store;
+        } catch (final IOException e) {
+            ErrorLogger.log(ErrorType.WARNING, "USER STORE [FILE: " + USER_STORE_FILENAME + "]",
+                    "could not be created; keeping every user in memory.");
+            return null;
+        }
+    }
+
+    /**
+     * Close and delete the log of a {@code LogUserStore}.
+     *
+     * @param store the store to be closed.
+     */
+    private static void closeUserStore(final LogUserStore store) {
+        try {
+            store.close();
+        } catch (final IOException e) {
+            ErrorLogger.log(ErrorType.WARNING, "USER STORE [FILE: " + USER_STORE_FILENAME + "]",
+                    "could not be deleted.");
+        }
+    }
+
+    /**
+     * Apply any {@code --name=value} options among the program arguments.
+     *
+     * @param args the program arguments.
+     * @return the remaining arguments which are not options, in order.
+     */
+    private static ArrayList<String> applyOptions(final String[] args) {
+        final ArrayList<String> arguments = new ArrayList<>();
+
+        for (final String arg : args) {
+            if (!arg.startsWith(OPTION_PREFIX)) {
+                arguments.add(arg);
+                continue;
+            }
+
+            final int split = arg.indexOf('=');
+            final String name = arg.substring(OPTION_PREFIX.length(), split < 0 ? arg.length() : split);
+            final String value = split < 0 ? "" : arg.substring(split + 1);
+
+            try {
+                switch (name) {
+                case "parser":
+                    parserMode = ParserMode.valueOf(value.toUpperCase());
+                    break;
+                case "format":
+                    transactionFormat = TransactionFormat.valueOf(value.toUpperCase());
+                    break;
+                case "convert":
+                    convertOnly = true;
+                    break;
+                case "journal":
+                    journalGroupSize = Integer.parseInt(value);
+                    break;
+                case "checkpoint":
+                    checkpointInterval = Long.parseLong(value);
+                    break;
+                case "checkpoint-seconds":
+                    checkpointSeconds = Long.parseLong(value);
+                    break;
+                case "generations":
+                    MarketSnapshot.retainGenerations(Integer.parseInt(value));
+                    break;
+                case "shards":
+                    shardCount = Integer.parseInt(value);
+                    break;
+                case "user-cache":
+                    userCacheSize = Integer.parseInt(value);
+                    break;
+                case "daemon":
+                    inboxDirectory = value.isEmpty() ? INBOX_DIRECTORY : value;
+                    break;
+                case "serve":
+                    serveAddress = value.isEmpty() ? SOCKET_FILENAME : value;
+                    break;
+                case "parallel":
+                    parallelism = value.isEmpty() ? Runtime.getRuntime().availableProcessors()
+                            : Integer.parseInt(value);
+                    break;
+                default:
+                    ErrorLogger.log(ErrorType.WARNING, "MAIN", "unknown option " + arg + " ignored.");
+                }
+            } catch (final IllegalArgumentException e) {
+                ErrorLogger.log(ErrorType.WARNING, "MAIN", "invalid value for option " + arg + " ignored.");
+            }
+        }
+
+        return arguments;
+    }
+
+    /**
+     * Execute a sequence of {@code Transaction}s on a {@code Market}, in order,
+     * skipping those the journal has already applied and recording the rest.
+     *
+     * @param transactions the {@code Transaction}s to be executed.
+     * @param market       the {@code Market} to be updated.
+     * @param journal      the journal of the {@code Market}'s day.
+     */
+    private static void execute(final Iterator<Transaction> transactions, final Market market,
+            final MarketJournal journal) {
+        long recovered = journal.getApplied();
+
+        while (transactions.hasNext()) {
+            final Transaction transaction = transactions.next();
+            if (recovered > 0) {
+                recovered--;
+                continue;
+            }
+
+            if (transaction != null)
+                transaction.execute(market);
+            journal.applied();
+        }
+    }
+
+    /**
+     * Parse the daily transaction file into a {@code TransactionBatch} and execute
+     * it on a {@code Market}.
+     *
+     * @param dailyTextFile the daily transaction file.
+     * @param market        the {@code Market} to be updated.
+     * @param journal       the journal of the {@code Market}'s day.
+     */
+    private static void executeBatch(final File dailyTextFile, final Market market, final MarketJournal journal) {
+        final TransactionBatch batch;
+        try (BufferedReader bufferReader = new BufferedReader(new FileReader(dailyTextFile))) {
+            batch = TransactionBatch.parse(bufferReader);
+        } catch (final IOException e) {
+            ErrorLogger.log(ErrorType.ERROR, "MAIN", "could not open " + dailyTextFile.getName() + ".");
+            return;
+        }
 
-        // save the market with Serialization.
-        market.save(MARKET_FILENAME);
+        new BatchExecutor().execute(batch, market, journal);
+    }
+
+    /**
+     * Parse the daily transaction file with the selected {@code ParserMode}.
+     *
+     * @param dailyTextFile the daily transaction file.
+     * @param market        the {@code Market} whose {@code SymbolTable} the
+     *                      parser looks IDs up in.
+     * @return an {@code Iterator} over the {@code Transaction}s parsed, empty if
+     *         the file could not be opened.
+     */
+    private static Iterator<Transaction> parseTransactions(final File dailyTextFile, final Market market) {
+        if (!dailyTextFile.isFile()) {
+            ErrorLogger.log(ErrorType.ERROR, "MAIN", "could not open " + dailyTextFile.getName() + ".");
+            return Collections.emptyIterator();
+        }
+
+        if (parserMode == ParserMode.MAPPED) {
+            final ArrayList<Transaction> transactions = new MappedFileParser(dailyTextFile, market.getSymbols()).parse();
+            return transactions != null ? transactions.iterator() : Collections.emptyIterator();
+        }
+
+        final BufferedReader bufferReader;
+        try {
+            bufferReader = new BufferedReader(new FileReader(dailyTextFile));
+        } catch (final FileNotFoundException e) {
+            ErrorLogger.log(ErrorType.ERROR, "MAIN", "could not open " + dailyTextFile.getName() + ".");
+            return Collections.emptyIterator();
+        }
+
+        final FileParser parser = new FileParser(bufferReader, market.getSymbols());
+
+        if (parserMode == ParserMode.STREAMING)
+            return parser.stream(FileParser.DEFAULT_CAPACITY);
+
+        try {
+            return parser.parse().iterator();
+        } finally {
+            try {
+                bufferReader.close();
+            } catch (final IOException e) {
+                ErrorLogger.log(ErrorType.ERROR, "MAIN", "could not close " + dailyTextFile.getName() + ".");
+            }
+        }
+    }
+
+    /**
+     * Open a binary transaction log for replay.
+     *
+     * @param dailyBinaryFile the binary transaction log.
+     * @param market          the {@code Market} whose {@code SymbolTable} the
+     *                        reader looks IDs up in.
+     * @return an {@code Iterator} over the {@code Transaction}s in the log, empty
+     *         if the log could not be opened.
+     */
+    private static Iterator<Transaction> readBinaryTransactions(final File dailyBinaryFile, final Market market) {
+        try {
+            return BinaryTransactionReader.open(dailyBinaryFile, market.getSymbols());
+        } catch (final IOException e) {
+            ErrorLogger.log(ErrorType.ERROR, "MAIN", "could not open " + dailyBinaryFile.getName() + ".");
+            return Collections.emptyIterator();
+        }
+    }
+
+    /**
+     * Convert a daily transaction file into a binary transaction log.
+     *
+     * @param dailyTextFile   the daily transaction file to be converted.
+     * @param dailyBinaryFile the binary transaction log to be written.
+     */
+    private static void convertTransactions(final File dailyTextFile, final File dailyBinaryFile) {
+        try (BufferedReader bufferReader = new BufferedReader(new FileReader(dailyTextFile))) {
+            final int count = BinaryTransactionWriter.convert(bufferReader, dailyBinaryFile);
+            System.out.println("Converted " + count + " records to " + dailyBinaryFile.getName() + ".");
+        } catch (final IOException e) {
+            ErrorLogger.log(ErrorType.ERROR, "MAIN", "could not convert daily.txt.");
+        }
     }
 
     /**
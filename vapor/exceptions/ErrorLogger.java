@@ -2,10 +2,12 @@ package vapor.exceptions;
 
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
- * A stateless class to handle error management and reporting throughout our
- * codebase.
+ * A static class to handle error management and reporting throughout our
+ * codebase. A thread may hold its messages back, to be logged in another order.
  */
 public class ErrorLogger {
   /**
@@ -17,6 +19,8 @@ public class ErrorLogger {
 
   // The name of the log file where the error summary is stored.
   private static final String ERROR_FILENAME = "ErrorSummary.log";
+  // The messages held back by each thread holding them, in the order logged.
+  private static final ThreadLocal<ArrayList<String>> held = new ThreadLocal<>();
 
   /**
    * Log an error message to {@code ERROR_FILENAME.log}. If no such file exists,
@@ -34,7 +38,51 @@ public class ErrorLogger {
     if (!contextInfo.equals(""))
       contextInfo += " - ";
 
-    final String error = errorType.name() + ": " + contextInfo + errorMessage + "\n";
+    write(errorType.name() + ": " + contextInfo + errorMessage + "\n");
+  }
+
+  /**
+   * Hold back the messages logged on the calling thread, rather than writing
+   * them, until released.
+   */
+  public static void hold() {
+    held.set(new ArrayList<>());
+  }
+
+  /**
+   * Stop holding back the messages logged on the calling thread.
+   *
+   * @return the messages held back, in the order logged.
+   */
+  public static List<String> release() {
+    final ArrayList<String> messages = held.get();
+    held.remove();
+
+    return messages == null ? new ArrayList<>() : messages;
+  }
+
+  /**
+   * Log messages held back on another thread, in order, as if logged now.
+   *
+   * @param messages the messages released.
+   */
+  public static void logAll(final List<String> messages) {
+    for (final String message : messages)
+      write(message);
+  }
+
+  /**
+   * Append a message to {@code ERROR_FILENAME.log}, unless the calling thread
+   * holds its messages back.
+   *
+   * @param error the formatted message.
+   */
+  private static void write(final String error) {
+    final ArrayList<String> messages = held.get();
+    if (messages != null) {
+      messages.add(error);
+      return;
+    }
 
     try {
       FileWriter fileWriter = new FileWriter(ERROR_FILENAME, true);
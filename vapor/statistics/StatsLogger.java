@@ -3,17 +3,23 @@ package vapor.statistics;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
 
 import vapor.exceptions.ErrorLogger;
 import vapor.exceptions.ErrorLogger.ErrorType;
 
 /**
- * A class to keep track of profits, revenues, and refund amounts.
+ * A class to keep track of profits, revenues, and refund amounts. Its updates
+ * are synchronized, so that threads applying transactions at once lose none.
  */
 public class StatsLogger implements Serializable {
+    private static final long serialVersionUID = 8710015566175359003L;
 
     // The name of the file to be created.
     private static final String STATISTICS_FILENAME = "stats.txt";
+    // The updates held back by each thread holding them, in the order made.
+    private static final ThreadLocal<ArrayList<Runnable>> held = new ThreadLocal<>();
 
     private Float profit;
     private Float revenue;
@@ -39,7 +45,7 @@ public class StatsLogger implements Serializable {
     /**
      * Update this {@code statsLogger}'s {@code dailyProfit} and {@code profit}.
      */
-    public void updateProfit() {
+    public synchronized void updateProfit() {
         this.dailyProfit = (dailyRevenue - dailyRefunded);
         this.profit += (dailyRevenue - dailyRefunded);
     }
@@ -47,7 +53,10 @@ public class StatsLogger implements Serializable {
     /**
      * Update this {@code statsLogger}'s {@code dailyRevenue} and {@code revenue}.
      */
-    public void updateRevenue(Integer amount) {
+    public synchronized void updateRevenue(Integer amount) {
+        if (holdBack(() -> updateRevenue(amount)))
+            return;
+
         this.dailyRevenue += (float) amount/100;
         this.revenue += (float) amount/100;
     }
@@ -55,15 +64,92 @@ public class StatsLogger implements Serializable {
     /**
      * Update this {@code statsLogger}'s {@code dailyRefunded} and {@code refunded}.
      */
-    public void updateRefunded(Integer amount) {
+    public synchronized void updateRefunded(Integer amount) {
+        if (holdBack(() -> updateRefunded(amount)))
+            return;
+
         this.dailyRefunded += (float) amount/100;
         this.refunded += (float) amount/100;
     }
 
+    /**
+     * Hold back the updates made on the calling thread, to any
+     * {@code statsLogger}, until released.
+     */
+    public static void hold() {
+        held.set(new ArrayList<>());
+    }
+
+    /**
+     * Stop holding back the updates made on the calling thread.
+     *
+     * @return the updates held back, in the order made.
+     */
+    public static List<Runnable> release() {
+        final ArrayList<Runnable> updates = held.get();
+        held.remove();
+
+        return updates == null ? new ArrayList<>() : updates;
+    }
+
+    /**
+     * Make updates held back on another thread, in order, as if made now. The
+     * totals are floats, so they match those of updates made in that order.
+     *
+     * @param updates the updates released.
+     */
+    public static void applyAll(final List<Runnable> updates) {
+        for (final Runnable update : updates)
+            update.run();
+    }
+
+    /**
+     * Hold back an update if the calling thread holds its updates.
+     *
+     * @param update the update.
+     * @return true if held back, false if it is to be made now.
+     */
+    private static boolean holdBack(final Runnable update) {
+        final ArrayList<Runnable> updates = held.get();
+        if (updates == null)
+            return false;
+
+        updates.add(update);
+        return true;
+    }
+
+    /**
+     * Query the statistics held by this {@code statsLogger}, in the order
+     * {@code restore} takes them.
+     *
+     * @return profit, revenue, refunded, dailyProfit, dailyRevenue and
+     *         dailyRefunded.
+     */
+    public synchronized float[] getValues() {
+        return new float[] { profit, revenue, refunded, dailyProfit, dailyRevenue, dailyRefunded };
+    }
+
+    /**
+     * Restore the statistics of a {@code statsLogger} loaded from a market
+     * snapshot.
+     *
+     * @param values profit, revenue, refunded, dailyProfit, dailyRevenue and
+     *               dailyRefunded, as returned by {@code getValues}.
+     */
+    public synchronized void restore(final float[] values) {
+        this.profit = values[0];
+        this.revenue = values[1];
+        this.refunded = values[2];
+
+        this.dailyProfit = values[3];
+        this.dailyRevenue = values[4];
+        this.dailyRefunded = values[5];
+    }
+
     /**
      * Reset this {@code statsLogger}'s daily statistics.
      */
-    public void dailyReset() {
+    public synchronized void dailyReset() {
         this.dailyProfit = 0f;
         this.dailyRevenue = 0f;
         this.dailyRefunded = 0f;
@@ -1,6 +1,8 @@
 package vapor.transactions;
 
 import vapor.Market;
+import vapor.Session;
+import vapor.UserLocks;
 import vapor.exceptions.MaxDailyCreditException;
 import vapor.exceptions.NoLoginException;
 import vapor.exceptions.UserDNEException;
@@ -24,12 +26,14 @@ public class AddCreditTransaction extends Transaction {
   /**
    * Credit a {@code User} in a {@code Market}.
    * 
-   * @param market in which to find the {@code User} to be credited.
+   * @param market  in which to find the {@code User} to be credited.
+   * @param session the session in which it runs.
    */
-  public void execute(final Market market) {
+  public void execute(final Market market, final Session session) {
+    final UserLocks.Held held = lock(market, session, userID1);
     try {
       // Get the desired user for the credit..
-      final User targetUser = market.getActiveUserOrTarget(userID1);
+      final User targetUser = market.getActiveUserOrTarget(session, userID1);
 
       // Amount actually deposited or exception if > daily max.
       warnMaxBalance(targetUser.addCredit(credit));
@@ -39,6 +43,8 @@ public class AddCreditTransaction extends Transaction {
       warnUserTypeDesync(targetUser);
     } catch (final MaxDailyCreditException | NoLoginException | UserDNEException e) {
       fail(e.getError());
+    } finally {
+      held.close();
     }
   }
 }
@@ -1,6 +1,7 @@
 package vapor.transactions;
 
 import vapor.Market;
+import vapor.Session;
 import vapor.exceptions.UnauthorisedUserException;
 import vapor.users.User;
 
@@ -22,14 +23,15 @@ public class AuctionSaleTransaction extends Transaction {
   /**
    * Toggle an auction sale in a {@code Market}.
    * 
-   * @param market the {@code Market} on which the auction sale should be toggled.
+   * @param market  the {@code Market} on which the auction sale should be toggled.
+   * @param session the session in which it runs.
    */
   @Override
-  public void execute(final Market market) {
+  public void execute(final Market market, final Session session) {
     try {
-      market.toggleAuctionSale();
+      market.toggleAuctionSale(session);
 
-      final User user = market.getActiveUser();
+      final User user = session.getUser();
 
       // Issue a warning if transaction record has dirty data.
       warnUsernameDesync(user);
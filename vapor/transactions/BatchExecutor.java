@@ -0,0 +1,65 @@
+package vapor.transactions;
+
+import vapor.Market;
+import vapor.MarketJournal;
+import vapor.transactions.Transaction.TransactionType;
+
+/**
+ * Executes the records of a {@code TransactionBatch} in order, dispatching on
+ * each record's transaction code.
+ *
+ * Rather than allocating a {@code Transaction} per record, the executor keeps a
+ * single flyweight {@code Transaction} of each type and loads each record's
+ * columns into it before executing it.
+ */
+public class BatchExecutor {
+  // One reusable {@code Transaction} per transaction code.
+  private final Transaction[] flyweights;
+
+  /**
+   * Create a new BatchExecutor with a flyweight for every
+   * {@code TransactionType}.
+   */
+  public BatchExecutor() {
+    int maxCode = 0;
+    for (final TransactionType type : TransactionType.values())
+      maxCode = Math.max(maxCode, type.getCode());
+
+    flyweights = new Transaction[maxCode + 1];
+    for (final TransactionType type : TransactionType.values())
+      flyweights[type.getCode()] = new TransactionBuilder(type).process();
+  }
+
+  /**
+   * Execute every record of a batch on a {@code Market}, in order.
+   *
+   * @param batch  the records to be executed.
+   * @param market the {@code Market} to be updated.
+   */
+  public void execute(final TransactionBatch batch, final Market market) {
+    for (int row = 0; row < batch.size(); row++) {
+      final Transaction transaction = flyweights[batch.getCode(row)];
+
+      transaction.load(batch, row);
+      transaction.execute(market);
+    }
+  }
+
+  /**
+   * Execute the records of a batch on a {@code Market}, in order, from the first
+   * not yet applied according to a journal, recording each in the journal.
+   *
+   * @param batch   the records to be executed.
+   * @param market  the {@code Market} to be updated.
+   * @param journal the journal of the {@code Market}'s day.
+   */
+  public void execute(final TransactionBatch batch, final Market market, final MarketJournal journal) {
+    for (long row = journal.getApplied(); row < batch.size(); row++) {
+      final Transaction transaction = flyweights[batch.getCode((int) row)];
+
+      transaction.load(batch, (int) row);
+      transaction.execute(market);
+      journal.applied();
+    }
+  }
+}
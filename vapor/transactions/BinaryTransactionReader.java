@@ -0,0 +1,220 @@
+package vapor.transactions;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import vapor.SymbolTable;
+import vapor.exceptions.ErrorLogger;
+import vapor.exceptions.InvalidTransactionCodeException;
+import vapor.exceptions.ErrorLogger.ErrorType;
+import vapor.transactions.Transaction.TransactionType;
+
+/**
+ * An {@code Iterator} over the {@code Transaction}s of a binary transaction log
+ * written by {@code BinaryTransactionWriter}.
+ *
+ * The log is memory-mapped and each entry is decoded straight from the mapping
+ * into a {@code TransactionBuilder}, without any intermediate text. Only
+ * dictionary entries are materialised as Strings, once each, and those known
+ * to the {@code Market}'s {@code SymbolTable} are replaced with their canonical
+ * instances. Records which
+ * failed to parse when the log was written are logged as they are reached.
+ */
+public class BinaryTransactionReader implements Iterator<Transaction> {
+  // The mapped log, positioned at the next entry.
+  private final ByteBuffer log;
+  // Dictionary of the user and game IDs read so far.
+  private final ArrayList<String> dictionary = new ArrayList<>();
+  // The table in which dictionary entries are looked up, null if none.
+  private final SymbolTable symbols;
+  // The next {@code Transaction}, once decoded.
+  private Transaction next;
+
+  /**
+   * Create a new BinaryTransactionReader over a mapped log.
+   *
+   * @param log     the log, positioned after its header.
+   * @param symbols the table in which dictionary entries are looked up, null to
+   *                leave them as read.
+   */
+  private BinaryTransactionReader(final ByteBuffer log, final SymbolTable symbols) {
+    this.log = log;
+    this.symbols = symbols;
+  }
+
+  /**
+   * Map a binary transaction log for reading.
+   *
+   * @param file the log to be read.
+   * @return a {@code BinaryTransactionReader} over the log.
+   * @throws IOException the log could not be mapped or is not a binary
+   *                     transaction log.
+   */
+  public static BinaryTransactionReader open(final File file) throws IOException {
+    return open(file, null);
+  }
+
+  /**
+   * Map a binary transaction log for reading, looking its user and game IDs up
+   * in a {@code Market}'s {@code SymbolTable}.
+   *
+   * @param file    the log to be read.
+   * @param symbols the table of the {@code Market} on which the log is to be
+   *                executed, null to leave IDs as read.
+   * @return a {@code BinaryTransactionReader} over the log.
+   * @throws IOException the log could not be mapped or is not a binary
+   *                     transaction log.
+   */
+  public static BinaryTransactionReader open(final File file, final SymbolTable symbols) throws IOException {
+    final ByteBuffer log;
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      log = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+
+    if (log.remaining() < 5 || log.getInt() != BinaryTransactionWriter.MAGIC
+        || log.get() != BinaryTransactionWriter.VERSION)
+      throw new IOException("not a binary transaction log.");
+
+    return new BinaryTransactionReader(log, symbols);
+  }
+
+  /**
+   * Query whether another {@code Transaction} remains in the log.
+   *
+   * @return true if another {@code Transaction} remains, false otherwise.
+   */
+  @Override
+  public boolean hasNext() {
+    while (next == null && log.hasRemaining()) {
+      try {
+        next = readEntry();
+      } catch (final InvalidTransactionCodeException | RuntimeException e) {
+        ErrorLogger.log(ErrorType.ERROR, "BINARY TRANSACTION LOG", "Truncated or corrupt entry; stopping.");
+        log.position(log.limit());
+      }
+    }
+
+    return next != null;
+  }
+
+  /**
+   * Take the next {@code Transaction} in the log.
+   *
+   * @return the next {@code Transaction} in log order.
+   */
+  @Override
+  public Transaction next() {
+    if (!hasNext())
+      throw new NoSuchElementException();
+
+    final Transaction transaction = next;
+    next = null;
+
+    return transaction;
+  }
+
+  /**
+   * Decode the next entry of the log.
+   *
+   * @return the {@code Transaction} decoded, null if the entry held a record
+   *         which failed to parse.
+   * @throws InvalidTransactionCodeException the entry holds an unknown code.
+   */
+  private Transaction readEntry() throws InvalidTransactionCodeException {
+    final int tag = readVarInt();
+
+    if (tag == BinaryTransactionWriter.RAW_TAG) {
+      final String rawTransaction = readText();
+      ErrorLogger.log(ErrorType.ERROR, "[" + rawTransaction + "]", new InvalidTransactionCodeException().getError());
+      return null;
+    }
+
+    final TransactionType type = TransactionType.getType(tag - 1);
+    if (type == null)
+      throw new InvalidTransactionCodeException();
+
+    final TransactionBuilder builder = new TransactionBuilder(type);
+
+    switch (type.getFormat()) {
+    case XUTC:
+      builder.userID1 = readReference();
+      builder.userType = BinaryTransactionWriter.userTypeOf(log.get());
+      builder.credit = readVarInt();
+      break;
+    case XUSC:
+      builder.userID1 = readReference();
+      builder.userID2 = readReference();
+      builder.credit = readVarInt();
+      break;
+    case XISDP:
+      builder.gameID = readReference();
+      builder.userID1 = readReference();
+      builder.discount = readVarInt() / 100.f;
+      builder.price = readVarInt();
+      break;
+    case XISU:
+    case XIUS:
+      builder.gameID = readReference();
+      builder.userID1 = readReference();
+      builder.userID2 = readReference();
+      break;
+    }
+
+    return builder.process();
+  }
+
+  /**
+   * Read a dictionary reference, defining the entry if new.
+   *
+   * @return the user or game ID referenced.
+   */
+  private String readReference() {
+    final int reference = readVarInt();
+
+    if (reference != 0)
+      return dictionary.get(reference - 1);
+
+    final String id = symbols == null ? readText() : symbols.canonical(readText());
+    dictionary.add(id);
+
+    return id;
+  }
+
+  /**
+   * Read length-prefixed UTF-8 text.
+   *
+   * @return the text read.
+   */
+  private String readText() {
+    final byte[] bytes = new byte[readVarInt()];
+    log.get(bytes);
+
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Read an unsigned LEB128 varint.
+   *
+   * @return the value read.
+   */
+  private int readVarInt() {
+    int value = 0;
+    int shift = 0;
+
+    byte b;
+    do {
+      b = log.get();
+      value |= (b & 0x7F) << shift;
+      shift += 7;
+    } while (b < 0);
+
+    return value;
+  }
+}
@@ -0,0 +1,185 @@
+package vapor.transactions;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import vapor.SymbolTable;
+import vapor.exceptions.InvalidTransactionCodeException;
+import vapor.users.User;
+
+/**
+ * Converts a daily transaction file into the compact binary transaction log
+ * read by {@code BinaryTransactionReader}.
+ *
+ * The log is a header ({@code MAGIC}, {@code VERSION}) followed by one entry
+ * per record. Each entry starts with a varint tag: {@code RAW_TAG} for a record
+ * which failed to parse (followed by its text, so replay logs the same error),
+ * or the transaction code plus one. The fields then follow in the order of the
+ * code's {@code TransactionFieldSequence}: user and game IDs as dictionary
+ * references, the user type as its index in {@code UserType.values()}, and
+ * credit, price and discount as varint hundredths.
+ *
+ * A dictionary reference is a varint: 0 defines the next dictionary entry,
+ * followed by its length-prefixed UTF-8 text, and any other value n refers to
+ * entry n - 1.
+ */
+public class BinaryTransactionWriter {
+  // Identifies a binary transaction log.
+  static final int MAGIC = 0x56505254; // "VPRT"
+  // The version of the binary transaction log format.
+  static final int VERSION = 1;
+  // The tag of an entry holding a record which failed to parse.
+  static final int RAW_TAG = 0;
+
+  // The stream to which entries are written.
+  private final DataOutputStream output;
+  // Dictionary of the user and game IDs written so far, each indexed by its id.
+  private final SymbolTable dictionary = new SymbolTable();
+  // Cursor to decode each record.
+  private final TransactionCursor cursor = new TransactionCursor(dictionary);
+
+  /**
+   * Create a new BinaryTransactionWriter and write the log header.
+   *
+   * @param output the stream to which the log is written.
+   * @throws IOException the header could not be written.
+   */
+  public BinaryTransactionWriter(final DataOutputStream output) throws IOException {
+    this.output = output;
+
+    output.writeInt(MAGIC);
+    output.writeByte(VERSION);
+  }
+
+  /**
+   * Convert every record of a daily transaction file into a binary log.
+   *
+   * @param source      the daily transaction file to be converted.
+   * @param destination the file to which the binary log is written.
+   * @return the number of records converted.
+   * @throws IOException the source could not be read or the log written.
+   */
+  public static int convert(final BufferedReader source, final File destination) throws IOException {
+    int count = 0;
+
+    try (DataOutputStream output = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(destination), 1 << 16))) {
+      final BinaryTransactionWriter writer = new BinaryTransactionWriter(output);
+
+      String rawTransaction;
+      while ((rawTransaction = source.readLine()) != null) {
+        writer.write(rawTransaction);
+        count++;
+      }
+    }
+
+    return count;
+  }
+
+  /**
+   * Append a single record to the log.
+   *
+   * @param rawTransaction the record from the daily transaction file.
+   * @throws IOException the entry could not be written.
+   */
+  public void write(final String rawTransaction) throws IOException {
+    try {
+      cursor.read(rawTransaction);
+    } catch (final InvalidTransactionCodeException e) {
+      writeVarInt(RAW_TAG);
+      writeText(rawTransaction);
+      return;
+    }
+
+    writeVarInt(cursor.getType().getCode() + 1);
+
+    switch (cursor.getSequence()) {
+    case XUTC:
+      writeReference(cursor.getSymbol(cursor.getUserID1Group()));
+      output.writeByte(cursor.getUserType().ordinal());
+      writeVarInt(cursor.getCredit());
+      break;
+    case XUSC:
+      writeReference(cursor.getSymbol(cursor.getUserID1Group()));
+      writeReference(cursor.getSymbol(cursor.getUserID2Group()));
+      writeVarInt(cursor.getCredit());
+      break;
+    case XISDP:
+      writeReference(cursor.getSymbol(cursor.getGameIDGroup()));
+      writeReference(cursor.getSymbol(cursor.getUserID1Group()));
+      writeVarInt(cursor.getDiscountHundredths());
+      writeVarInt(cursor.getPrice());
+      break;
+    case XISU:
+    case XIUS:
+      writeReference(cursor.getSymbol(cursor.getGameIDGroup()));
+      writeReference(cursor.getSymbol(cursor.getUserID1Group()));
+      writeReference(cursor.getSymbol(cursor.getUserID2Group()));
+      break;
+    }
+  }
+
+  /**
+   * Write a reference to a dictionary entry, defining the entry if new.
+   *
+   * @param id the user or game ID to be referenced.
+   * @throws IOException the reference could not be written.
+   */
+  private void writeReference(final String id) throws IOException {
+    final int index = dictionary.find(id);
+
+    if (index >= 0) {
+      writeVarInt(index + 1);
+      return;
+    }
+
+    dictionary.id(id);
+    writeVarInt(0);
+    writeText(id);
+  }
+
+  /**
+   * Write length-prefixed UTF-8 text.
+   *
+   * @param text the text to be written.
+   * @throws IOException the text could not be written.
+   */
+  private void writeText(final String text) throws IOException {
+    final byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+
+    writeVarInt(bytes.length);
+    output.write(bytes);
+  }
+
+  /**
+   * Write a non-negative int as an unsigned LEB128 varint.
+   *
+   * @param value the value to be written.
+   * @throws IOException the value could not be written.
+   */
+  private void writeVarInt(int value) throws IOException {
+    while ((value & ~0x7F) != 0) {
+      output.writeByte((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+
+    output.writeByte(value);
+  }
+
+  /**
+   * Query the {@code UserType} with the given index in the log.
+   *
+   * @param index the index of the {@code UserType}.
+   * @return the {@code UserType}, null if the index is invalid.
+   */
+  static User.UserType userTypeOf(final int index) {
+    final User.UserType[] userTypes = User.UserType.values();
+
+    return index < userTypes.length ? userTypes[index] : null;
+  }
+}
@@ -1,8 +1,9 @@
 package vapor.transactions;
 
-import vapor.EndOfDay;
 import vapor.Listing;
 import vapor.Market;
+import vapor.Session;
+import vapor.UserLocks;
 import vapor.exceptions.GameDNEException;
 import vapor.exceptions.InsufficientFundsException;
 import vapor.exceptions.MultipleCopyException;
@@ -34,12 +35,14 @@ public class BuyTransaction extends Transaction {
    * Purchase a {@code Game} for a {@code Buyer} from a {@code Seller} in a
    * {@code Market}.
    * 
-   * @param market the {@code Market} on which to conduct the purchase.
+   * @param market  the {@code Market} on which to conduct the purchase.
+   * @param session the session in which it runs.
    */
   @Override
-  public void execute(final Market market) {
+  public void execute(final Market market, final Session session) {
+    final UserLocks.Held held = lock(market, session, userID1);
     try {
-      final User activeUser = market.getActiveUser();
+      final User activeUser = session.getUser();
       if (activeUser == null)
         throw new NoLoginException();
       if (!activeUser.getUserType().isBuyer())
@@ -60,8 +63,6 @@ public class BuyTransaction extends Transaction {
       buyer.buy(listing, isAuctionSale);
       warnMaxBalance(seller.sell(listing, isAuctionSale));
 
-      market.addPendingEndOfDay((EndOfDay) buyer.getInventory());
-
       market.getStats().updateRevenue(listing.getPrice());
 
       // Issue a warning if transaction record has dirty data.
@@ -69,6 +70,8 @@ public class BuyTransaction extends Transaction {
     } catch (final UserDNEException | NotBuyerException | NotSellerException | GameDNEException
         | InsufficientFundsException | MultipleCopyException | NoLoginException e) {
       fail(e.getError());
+    } finally {
+      held.close();
     }
   }
 }
@@ -1,6 +1,7 @@
 package vapor.transactions;
 
 import vapor.Market;
+import vapor.Session;
 import vapor.exceptions.UnauthorisedUserException;
 import vapor.exceptions.UserExistsException;
 import vapor.users.User;
@@ -24,12 +25,13 @@ public class CreateTransaction extends Transaction {
   /**
    * Create a new {@code User} in a {@code Market}.
    * 
-   * @param market the {@code Market} to which the {@code User}s should be added.
+   * @param market  the {@code Market} to which the {@code User}s should be added.
+   * @param session the session in which it runs.
    */
-  public void execute(final Market market) {
+  public void execute(final Market market, final Session session) {
     try {
       final User user = UserFactory.createTypedUser(userID1, credit, userType);
-      market.addUser(user);
+      market.addUser(session, user);
     } catch (final UserExistsException | UnauthorisedUserException e) {
       fail(e.getError());
     }
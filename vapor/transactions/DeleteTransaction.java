@@ -1,6 +1,7 @@
 package vapor.transactions;
 
 import vapor.Market;
+import vapor.Session;
 import vapor.exceptions.SelfDeletionException;
 import vapor.exceptions.UnauthorisedUserException;
 import vapor.exceptions.UserDNEException;
@@ -24,14 +25,15 @@ public class DeleteTransaction extends Transaction {
   /**
    * Delete a {@code User} from a {@code Market}.
    * 
-   * @param market the {@code Market} from which to delete a {@code User}.
+   * @param market  the {@code Market} from which to delete a {@code User}.
+   * @param session the session in which it runs.
    */
   @Override
-  public void execute(final Market market) {
+  public void execute(final Market market, final Session session) {
     try {
       final User user = market.getUser(userID1);
 
-      market.removeUser(user);
+      market.removeUser(session, user);
 
       // Issue a warning if transaction record has dirty data.
       warnUserTypeDesync(user);
@@ -3,6 +3,8 @@ package vapor.transactions;
 import vapor.Game;
 import vapor.Inventory;
 import vapor.Market;
+import vapor.Session;
+import vapor.UserLocks;
 import vapor.exceptions.GameDNEException;
 import vapor.exceptions.MultipleCopyException;
 import vapor.exceptions.NoLoginException;
@@ -31,12 +33,14 @@ public class GiftGameTransaction extends Transaction {
     /**
      * Attempt to gift a game from an owner to a receiver
      *
-     * @param market the {@code Market} to be updated by the transaction
+     * @param market  the {@code Market} to be updated by the transaction
+     * @param session the session in which it runs.
      */
     @Override
-    public void execute(final Market market) {
+    public void execute(final Market market, final Session session) {
+        final UserLocks.Held held = lock(market, session, userID1, userID2);
         try {
-            final User ownerUser = market.getActiveUserOrTarget(userID1);
+            final User ownerUser = market.getActiveUserOrTarget(session, userID1);
 
             try {
                 final Seller recipient = market.getSeller(userID2);
@@ -74,6 +78,8 @@ public class GiftGameTransaction extends Transaction {
         } catch (final NoLoginException | UserDNEException | NotBuyerException | GameDNEException
                 | MultipleCopyException e) {
             fail(e.getError());
+        } finally {
+            held.close();
         }
     }
 }
@@ -1,6 +1,7 @@
 package vapor.transactions;
 
 import vapor.Market;
+import vapor.Session;
 import vapor.exceptions.MultipleLoginException;
 import vapor.exceptions.UserDNEException;
 import vapor.users.User;
@@ -22,12 +23,15 @@ public class LoginTransaction extends Transaction {
 
   /**
    * Log a {@code User} into a {@code Market}.
+   * 
+   * @param market  the {@code Market} to be updated.
+   * @param session the session in which it runs.
    */
   @Override
-  public void execute(final Market market) {
+  public void execute(final Market market, final Session session) {
     try {
       final User user = market.getUser(userID1);
-      market.loginUser(user);
+      market.loginUser(session, user);
 
       // Issue a warning if transaction record has dirty data.
       warnUserTypeDesync(user);
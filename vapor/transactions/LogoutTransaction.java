@@ -1,6 +1,7 @@
 package vapor.transactions;
 
 import vapor.Market;
+import vapor.Session;
 import vapor.exceptions.NoLoginException;
 import vapor.users.User;
 
@@ -22,12 +23,13 @@ public class LogoutTransaction extends Transaction {
   /**
    * Log a {@code User} out of {@code Market}.
    * 
-   * @param market the {@code Market} out of which to log a {@code User}.
+   * @param market  the {@code Market} out of which to log a {@code User}.
+   * @param session the session in which it runs.
    */
   @Override
-  public void execute(final Market market) {
+  public void execute(final Market market, final Session session) {
     try {
-      final User user = market.logoutUser();
+      final User user = market.logoutUser(session);
 
       // Issue a warning if transaction record has dirty data.
       warnUsernameDesync(user);
@@ -1,6 +1,8 @@
 package vapor.transactions;
 
 import vapor.Market;
+import vapor.Session;
+import vapor.UserLocks;
 import vapor.exceptions.InsufficientFundsException;
 import vapor.exceptions.NotBuyerException;
 import vapor.exceptions.NotSellerException;
@@ -28,13 +30,15 @@ public class RefundTransaction extends Transaction {
   /**
    * Refund a buyer of a game a credit from the seller's account
    * 
-   * @param market the {@code Market} on which to refund a buyer
+   * @param market  the {@code Market} on which to refund a buyer
+   * @param session the session in which it runs.
    */
   @Override
-  public void execute(final Market market) {
+  public void execute(final Market market, final Session session) {
+    final UserLocks.Held held = market.lockUsers(userID1, userID2);
     try {
       // Verify current user is admin.
-      if (!market.isAuthorisedState())
+      if (!session.isAuthorised())
         throw new UnauthorisedUserException();
 
       final Buyer buyer = market.getBuyer(userID1);
@@ -50,6 +54,8 @@ public class RefundTransaction extends Transaction {
     } catch (final UnauthorisedUserException | UserDNEException | NotBuyerException | NotSellerException
         | InsufficientFundsException | SelfRefundException e) {
       fail(e.getError());
+    } finally {
+      held.close();
     }
   }
 }
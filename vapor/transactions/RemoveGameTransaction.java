@@ -7,6 +7,8 @@ import vapor.users.Buyer;
 import vapor.users.Seller;
 import vapor.users.User;
 import vapor.Market;
+import vapor.Session;
+import vapor.UserLocks;
 
 /**
  * A {@code Transaction} to remove a {@code User}'s {@code Game} from a
@@ -27,13 +29,15 @@ public class RemoveGameTransaction extends Transaction {
     /**
      * Attempt to remove a {@code User}'s {@code Game} from a {@code Market}.
      *
-     * @param market the {@code Market} from which the {@code Game} is to be
-     *               removed.
+     * @param market  the {@code Market} from which the {@code Game} is to be
+     *                removed.
+     * @param session the session in which it runs.
      */
     @Override
-    public void execute(final Market market) {
+    public void execute(final Market market, final Session session) {
+        final UserLocks.Held held = lock(market, session, userID2);
         try {
-            final User targetUser = market.getActiveUserOrTarget(userID2);
+            final User targetUser = market.getActiveUserOrTarget(session, userID2);
 
             final User.UserType targetType = targetUser.getUserType();
 
@@ -49,9 +53,11 @@ public class RemoveGameTransaction extends Transaction {
             else
                 ((Seller) targetUser).getStoreFront().remove(gameID);
 
-            warnUsernameDesync(market.getActiveUser());
+            warnUsernameDesync(session.getUser());
         } catch (final NoLoginException | GameDNEException | UserDNEException e) {
             fail(e.getError());
+        } finally {
+            held.close();
         }
     }
 }
@@ -1,9 +1,9 @@
 package vapor.transactions;
 
-import vapor.EndOfDay;
-import vapor.Game;
 import vapor.Listing;
 import vapor.Market;
+import vapor.Session;
+import vapor.UserLocks;
 import vapor.exceptions.MultipleCopyException;
 import vapor.exceptions.NoLoginException;
 import vapor.exceptions.NotSellerException;
@@ -30,12 +30,14 @@ public class SellTransaction extends Transaction {
   /**
    * List a {@code Game} for sale in a {@code Market} by a {@code User}.
    * 
-   * @param market the {@code Market} on which the {@code Game} should be listed.
+   * @param market  the {@code Market} on which the {@code Game} should be listed.
+   * @param session the session in which it runs.
    */
   @Override
-  public void execute(final Market market) {
+  public void execute(final Market market, final Session session) {
+    final UserLocks.Held held = lock(market, session);
     try {
-      final User activeUser = market.getActiveUser();
+      final User activeUser = session.getUser();
       if (activeUser == null)
         throw new NoLoginException();
       if (!activeUser.getUserType().isSeller())
@@ -47,14 +49,14 @@ public class SellTransaction extends Transaction {
           throw new MultipleCopyException(gameID);
 
       final Seller seller = (Seller) activeUser;
-      seller.list(new Listing(new Game(gameID), price, discount));
-
-      market.addPendingEndOfDay((EndOfDay) seller.getStoreFront());
+      seller.list(new Listing(market.getGames().getGame(gameID), price, discount));
 
       // Issue a warning if transaction record has dirty data.
       warnUsernameDesync(activeUser);
     } catch (final NotSellerException | MultipleCopyException | NoLoginException e) {
       fail(e.getError());
+    } finally {
+      held.close();
     }
   }
 }
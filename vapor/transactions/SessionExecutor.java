@@ -0,0 +1,348 @@
+package vapor.transactions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+
+import vapor.Market;
+import vapor.MarketJournal;
+import vapor.Session;
+import vapor.exceptions.ErrorLogger;
+import vapor.statistics.StatsLogger;
+import vapor.transactions.Transaction.TransactionType;
+import vapor.users.User;
+
+/**
+ * Executes a day's {@code Transaction}s session by session, running sessions
+ * which share no state in parallel on a fork-join pool.
+ *
+ * The day is split into sessions, each ending with a logout, after which no
+ * {@code User} is active whatever the outcome. A session uses the
+ * {@code User}s its transactions name and the one active as it begins; a
+ * session toggling the auction sale changes the sale which a session buying
+ * reads; and a session creating or deleting a {@code User} changes the set of
+ * {@code User}s, which every session reads. Each session waits for every
+ * earlier one whose changes it reads or whose reads or changes it changes, so
+ * each sees the {@code Market} as it would in file order.
+ *
+ * Each session runs in a {@code Session} of its own, the first in the
+ * {@code Market}'s, which then carries on from the last. Each holds back its
+ * errors and statistics, which are logged and updated in file order once every
+ * session is complete, so that both match those of executing the day in order.
+ * Every {@code User} named is loaded before the sessions begin; the
+ * {@code Market} must keep every {@code User} in memory. A day executed
+ * through the journal runs in groups of whole sessions, each recorded in the
+ * journal once complete, so that recovery resumes between two sessions.
+ */
+public class SessionExecutor {
+  // The auction sale, toggled by some sessions and read by those buying.
+  private static final Object AUCTION_SALE = new Object();
+  // The set of {@code User}s, changed by sessions creating or deleting a
+  // {@code User} and read by every session.
+  private static final Object USERS = new Object();
+
+  // The number of threads running sessions.
+  private final int parallelism;
+
+  /**
+   * Create a new SessionExecutor.
+   *
+   * @param parallelism the number of threads running sessions, at least one.
+   */
+  public SessionExecutor(final int parallelism) {
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * Execute a day's {@code Transaction}s on a {@code Market}, from the first not
+   * yet applied according to a journal. They run in groups of whole sessions,
+   * each holding at least the journal's group size; a group is recorded in the
+   * journal once every session in it is complete, so that the journal never
+   * holds the changes of a session without those of every session before it.
+   *
+   * @param transactions the {@code Transaction}s, null for a record which could
+   *                     not be parsed.
+   * @param market       the {@code Market} to be updated.
+   * @param journal      the journal of the {@code Market}'s day.
+   */
+  public void execute(final Iterator<Transaction> transactions, final Market market,
+      final MarketJournal journal) {
+    long recovered = journal.getApplied();
+    final int groupSize = journal.getGroupSize();
+    long count = 0;
+
+    final ForkJoinPool pool = new ForkJoinPool(parallelism);
+    try {
+      final ArrayList<Transaction> group = new ArrayList<>();
+      while (transactions.hasNext()) {
+        final Transaction transaction = transactions.next();
+        if (recovered > 0) {
+          recovered--;
+          continue;
+        }
+
+        if (transaction != null)
+          group.add(transaction);
+        count++;
+
+        if (groupSize > 0 && count >= groupSize && transaction != null
+            && transaction.getType() == TransactionType.LOGOUT) {
+          execute(group, market, pool);
+          journal.applied(count);
+          group.clear();
+          count = 0;
+        }
+      }
+
+      execute(group, market, pool);
+      journal.applied(count);
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Execute a day's {@code Transaction}s on a {@code Market}, leaving it, its
+   * statistics and the error log as executing them in order would.
+   *
+   * @param transactions the {@code Transaction}s, in file order.
+   * @param market       the {@code Market} to be updated.
+   */
+  public void execute(final List<Transaction> transactions, final Market market) {
+    final ForkJoinPool pool = new ForkJoinPool(parallelism);
+    try {
+      execute(transactions, market, pool);
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Execute a run of the day's {@code Transaction}s on a {@code Market}, leaving
+   * it, its statistics and the error log as executing them in order would.
+   *
+   * @param transactions the {@code Transaction}s, in file order.
+   * @param market       the {@code Market} to be updated.
+   * @param pool         the pool running the sessions.
+   */
+  private static void execute(final List<Transaction> transactions, final Market market, final ForkJoinPool pool) {
+    final ArrayList<Span> spans = plan(transactions, market.getActiveUser());
+    if (spans.isEmpty())
+      return;
+
+    for (final Span span : spans)
+      for (final Object key : span.writes)
+        if (key instanceof String)
+          market.preload((String) key);
+
+    // The first session carries on the market's own, which carries on the last.
+    spans.get(0).session = market.getSession();
+    for (int i = 1; i < spans.size(); i++)
+      spans.get(i).session = market.openSession();
+
+    try {
+      final CompletableFuture<?>[] done = new CompletableFuture<?>[spans.size()];
+      for (int i = 0; i < done.length; i++) {
+        final Span span = spans.get(i);
+
+        final CompletableFuture<?>[] after = new CompletableFuture<?>[span.dependencies.size()];
+        for (int j = 0; j < after.length; j++)
+          after[j] = span.dependencies.get(j).done;
+
+        span.done = CompletableFuture.allOf(after).thenRunAsync(() -> span.run(market), pool);
+        done[i] = span.done;
+      }
+
+      CompletableFuture.allOf(done).join();
+    } catch (final CompletionException e) {
+      if (e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+      if (e.getCause() instanceof Error)
+        throw (Error) e.getCause();
+      throw e;
+    } finally {
+      for (int i = 1; i < spans.size() - 1; i++)
+        market.closeSession(spans.get(i).session);
+      if (spans.size() > 1)
+        market.resumeSession(spans.get(spans.size() - 1).session);
+    }
+
+    for (final Span span : spans) {
+      ErrorLogger.logAll(span.errors);
+      StatsLogger.applyAll(span.updates);
+    }
+  }
+
+  /**
+   * Split a day's {@code Transaction}s into sessions and find the earlier
+   * sessions each must wait for.
+   *
+   * @param transactions the {@code Transaction}s, in file order.
+   * @param active       the {@code User} active as the day resumes, null if none.
+   * @return the sessions, in file order.
+   */
+  private static ArrayList<Span> plan(final List<Transaction> transactions, final User active) {
+    final ArrayList<Span> spans = new ArrayList<>();
+
+    Span span = new Span(active);
+    for (final Transaction transaction : transactions) {
+      span.add(transaction);
+
+      if (transaction.getType() == TransactionType.LOGOUT) {
+        spans.add(span);
+        span = new Span(null);
+      }
+    }
+    if (!span.transactions.isEmpty())
+      spans.add(span);
+
+    final HashMap<Object, Access> accesses = new HashMap<>();
+    for (final Span next : spans) {
+      for (final Object key : next.reads)
+        if (!next.writes.contains(key))
+          accesses.computeIfAbsent(key, k -> new Access()).read(next);
+      for (final Object key : next.writes)
+        accesses.computeIfAbsent(key, k -> new Access()).write(next);
+    }
+
+    return spans;
+  }
+
+  /**
+   * The earlier sessions using a username or market-wide state.
+   */
+  private static final class Access {
+    // The last session to change it, if any.
+    private Span writer;
+    // The sessions to read it since.
+    private final ArrayList<Span> readers = new ArrayList<>();
+
+    /**
+     * Record a session reading it, after the last session to change it.
+     *
+     * @param span the session.
+     */
+    void read(final Span span) {
+      if (writer != null)
+        span.waitFor(writer);
+      readers.add(span);
+    }
+
+    /**
+     * Record a session changing it, after the last session to change it and
+     * every session to read it since.
+     *
+     * @param span the session.
+     */
+    void write(final Span span) {
+      if (writer != null)
+        span.waitFor(writer);
+      for (final Span reader : readers)
+        span.waitFor(reader);
+
+      writer = span;
+      readers.clear();
+    }
+  }
+
+  /**
+   * The {@code Transaction}s of one session of the day, what they use, and what
+   * they held back as they ran.
+   */
+  private static final class Span {
+    // The {@code Transaction}s, in file order.
+    private final ArrayList<Transaction> transactions = new ArrayList<>();
+    // The usernames and market-wide state read.
+    private final HashSet<Object> reads = new HashSet<>();
+    // The usernames and market-wide state changed.
+    private final HashSet<Object> writes = new HashSet<>();
+    // The earlier sessions to complete before this one begins.
+    private final ArrayList<Span> dependencies = new ArrayList<>();
+    // The dependencies already recorded.
+    private final Set<Span> waited = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    // The session of the {@code Market} in which the {@code Transaction}s run.
+    private Session session;
+    // Completes once the session has run.
+    private CompletableFuture<Void> done;
+    // The errors logged as the session ran.
+    private List<String> errors;
+    // The statistics updated as the session ran.
+    private List<Runnable> updates;
+
+    /**
+     * Begin a session.
+     *
+     * @param active the {@code User} active as it begins, null if none.
+     */
+    Span(final User active) {
+      reads.add(USERS);
+      if (active != null)
+        writes.add(active.getUsername());
+    }
+
+    /**
+     * Add the next {@code Transaction} of the session and what it uses.
+     *
+     * @param transaction the {@code Transaction}.
+     */
+    void add(final Transaction transaction) {
+      transactions.add(transaction);
+
+      if (transaction.userID1 != null && !transaction.userID1.isEmpty())
+        writes.add(transaction.userID1);
+      if (transaction.userID2 != null && !transaction.userID2.isEmpty())
+        writes.add(transaction.userID2);
+
+      switch (transaction.getType()) {
+      case BUY:
+        reads.add(AUCTION_SALE);
+        break;
+      case AUCTION_SALE:
+        writes.add(AUCTION_SALE);
+        break;
+      case CREATE:
+      case DELETE:
+        writes.add(USERS);
+        break;
+      default:
+      }
+    }
+
+    /**
+     * Record an earlier session to complete before this one begins.
+     *
+     * @param span the earlier session.
+     */
+    void waitFor(final Span span) {
+      if (waited.add(span))
+        dependencies.add(span);
+    }
+
+    /**
+     * Execute the session's {@code Transaction}s in order on the calling thread,
+     * holding back its errors and statistics.
+     *
+     * @param market the {@code Market} to be updated.
+     */
+    void run(final Market market) {
+      ErrorLogger.hold();
+      StatsLogger.hold();
+      try {
+        for (final Transaction transaction : transactions)
+          transaction.execute(market, session);
+      } finally {
+        errors = ErrorLogger.release();
+        updates = StatsLogger.release();
+      }
+    }
+  }
+}
@@ -3,6 +3,8 @@ package vapor.transactions;
 import java.util.HashMap;
 
 import vapor.Market;
+import vapor.Session;
+import vapor.UserLocks;
 import vapor.exceptions.ErrorLogger;
 import vapor.transactions.TransactionBuilder.TransactionFieldSequence;
 import vapor.users.User;
@@ -65,6 +67,15 @@ public abstract class Transaction {
       return codeToType.get(code);
     }
 
+    /**
+     * Query the numerical code of this transaction type.
+     * 
+     * @return the numerical code for this transaction type.
+     */
+    public int getCode() {
+      return code;
+    }
+
     /**
      * Query the format of this transaction type's code.
      * 
@@ -77,7 +88,7 @@ public abstract class Transaction {
 
   // Transaction error information
   private final Transaction.TransactionType type; // A failing transaction's type
-  private final String code; // The transaction code for a failing transaction
+  private String code; // The transaction code for a failing transaction, rendered on demand if absent
 
   // Information pertaining to users
   protected int credit; // - a user's available credit
@@ -112,13 +123,86 @@ public abstract class Transaction {
     discount = source.discount;
   }
 
+  /**
+   * Replace this {@code Transaction}'s arguments with those of a record in a
+   * {@code TransactionBatch}, so that a single instance can execute every record
+   * of its type. The record is rendered on demand if an error is reported.
+   * 
+   * @param batch the batch holding the record.
+   * @param row   the index of the record in the batch.
+   */
+  void load(final TransactionBatch batch, final int row) {
+    code = null;
+
+    credit = batch.getCredit(row);
+    userID1 = batch.getUserID1(row);
+    userID2 = batch.getUserID2(row);
+    userType = batch.getUserType(row);
+
+    gameID = batch.getGameID(row);
+    price = batch.getPrice(row);
+    discount = batch.getDiscount(row);
+  }
+
+  /**
+   * Execute this {@code Transaction} in the {@code Market}'s own session.
+   * 
+   * @param market the {@code Market} to be updated by the {@code Transaction}.
+   */
+  public void execute(final Market market) {
+    execute(market, market.getSession());
+  }
+
   /**
    * To be overloaded to provide the specific functionality needed for each
    * {@code Transaction}.
    * 
-   * @param market the {@code Market} to be updated by the {@code Transaction}.
+   * @param market  the {@code Market} to be updated by the {@code Transaction}.
+   * @param session the session in which the {@code Transaction} runs, as or on
+   *                behalf of its {@code User}.
+   */
+  public abstract void execute(final Market market, final Session session);
+
+  /**
+   * Lock the {@code User} logged in to a session and those with some usernames,
+   * for a {@code Market} in concurrent mode.
+   * 
+   * @param market    the {@code Market} holding the {@code User}s.
+   * @param session   the session in which the {@code Transaction} runs.
+   * @param usernames the usernames named by the {@code Transaction}.
+   * @return the locks held, to be closed once the {@code User}s are updated.
+   */
+  protected static UserLocks.Held lock(final Market market, final Session session, final String... usernames) {
+    final String[] locked = new String[usernames.length + 1];
+    System.arraycopy(usernames, 0, locked, 0, usernames.length);
+    if (session.getUser() != null)
+      locked[usernames.length] = session.getUser().getUsername();
+
+    return market.lockUsers(locked);
+  }
+
+  /**
+   * Query this {@code Transaction}'s type.
+   * 
+   * @return the {@code TransactionType} of this {@code Transaction}.
    */
-  public abstract void execute(final Market market);
+  public TransactionType getType() {
+    return type;
+  }
+
+  /**
+   * Query the daily transaction file record describing this {@code Transaction}.
+   * Records which were not read from text (e.g. decoded from a binary log) are
+   * rendered in the fixed-width format on first request.
+   * 
+   * @return the record for this {@code Transaction}.
+   */
+  public String getRecord() {
+    if (code == null)
+      code = TransactionBuilder.format(type, userID1, userID2, gameID, userType, credit, price, discount);
+
+    return code;
+  }
 
   /**
    * Generate the contextInfo for an error given the {@code Transaction}'s code
@@ -127,7 +211,7 @@ public abstract class Transaction {
    * @return a String containing error contextInfo.
    */
   private String getContext() {
-    return type.name() + ": (" + code + ")";
+    return type.name() + ": (" + getRecord() + ")";
   }
 
   /**
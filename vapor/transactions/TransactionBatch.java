@@ -0,0 +1,237 @@
+package vapor.transactions;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.Arrays;
+
+import vapor.SymbolTable;
+import vapor.exceptions.ErrorLogger;
+import vapor.exceptions.InvalidTransactionCodeException;
+import vapor.exceptions.ErrorLogger.ErrorType;
+import vapor.users.User;
+
+/**
+ * A day's worth of parsed records held column by column in primitive arrays,
+ * rather than as one {@code Transaction} object graph per record.
+ *
+ * User and game IDs are interned into the batch's own {@code SymbolTable} and
+ * stored as their symbol ids. Records are executed by a
+ * {@code BatchExecutor}.
+ */
+public class TransactionBatch {
+  // Marks an absent ID or user type in a column.
+  static final int NONE = -1;
+  // The initial number of rows allocated.
+  private static final int INITIAL_CAPACITY = 1024;
+
+  // Columns, one element per record.
+  private byte[] codes; // transaction codes.
+  private byte[] userTypes; // {@code UserType} ordinals, or NONE.
+  private int[] userIDs1; // symbol ids of the 1st user argument, or NONE.
+  private int[] userIDs2; // symbol ids of the 2nd user argument, or NONE.
+  private int[] gameIDs; // symbol ids of the game argument, or NONE.
+  private int[] credits; // credit arguments in cents.
+  private int[] prices; // price arguments in cents.
+  private int[] discounts; // discount arguments in hundredths of a percent.
+  private int size; // the number of records held.
+
+  // The table in which user and game IDs are interned.
+  private final SymbolTable symbols = new SymbolTable();
+
+  // Cursor to decode each record.
+  private final TransactionCursor cursor = new TransactionCursor(symbols);
+
+  /**
+   * Create a new, empty TransactionBatch.
+   */
+  public TransactionBatch() {
+    codes = new byte[INITIAL_CAPACITY];
+    userTypes = new byte[INITIAL_CAPACITY];
+    userIDs1 = new int[INITIAL_CAPACITY];
+    userIDs2 = new int[INITIAL_CAPACITY];
+    gameIDs = new int[INITIAL_CAPACITY];
+    credits = new int[INITIAL_CAPACITY];
+    prices = new int[INITIAL_CAPACITY];
+    discounts = new int[INITIAL_CAPACITY];
+  }
+
+  /**
+   * Parse every record of a daily transaction file into a new batch. Records
+   * which fail to parse are logged, as {@code FileParser} would.
+   *
+   * @param reader the daily transaction file.
+   * @return the batch holding the file's records.
+   */
+  public static TransactionBatch parse(final BufferedReader reader) {
+    final TransactionBatch batch = new TransactionBatch();
+
+    String rawTransaction;
+    try {
+      while ((rawTransaction = reader.readLine()) != null) {
+        try {
+          batch.add(rawTransaction);
+        } catch (final InvalidTransactionCodeException e) {
+          ErrorLogger.log(ErrorType.ERROR, "[" + rawTransaction + "]", e.getError());
+        }
+      }
+    } catch (final IOException e) {
+      ErrorLogger.log(ErrorType.ERROR, "FILE PARSER", "Failed to process file.");
+    }
+
+    return batch;
+  }
+
+  /**
+   * Parse a record and append it to the batch.
+   *
+   * @param rawTransaction the record to be appended.
+   * @throws InvalidTransactionCodeException the record provided does not describe
+   *                                         a valid {@code Transaction}.
+   */
+  public void add(final CharSequence rawTransaction) throws InvalidTransactionCodeException {
+    cursor.read(rawTransaction);
+
+    if (size == codes.length)
+      grow();
+
+    final User.UserType userType = cursor.getUserType();
+
+    codes[size] = (byte) cursor.getType().getCode();
+    userTypes[size] = (byte) (userType == null ? NONE : userType.ordinal());
+    userIDs1[size] = intern(cursor.getUserID1Group());
+    userIDs2[size] = intern(cursor.getUserID2Group());
+    gameIDs[size] = intern(cursor.getGameIDGroup());
+    credits[size] = cursor.getCredit();
+    prices[size] = cursor.getPrice();
+    discounts[size] = cursor.getDiscountHundredths();
+
+    size++;
+  }
+
+  /**
+   * Intern an ID of the record last read into the batch's {@code SymbolTable}.
+   *
+   * @param group the group holding the ID, -1 if absent.
+   * @return the symbol id of the ID, or NONE.
+   */
+  private int intern(final int group) {
+    final String symbol = cursor.getSymbol(group);
+
+    return symbol == null ? NONE : symbols.id(symbol);
+  }
+
+  /**
+   * Double the capacity of every column.
+   */
+  private void grow() {
+    final int capacity = codes.length * 2;
+
+    codes = Arrays.copyOf(codes, capacity);
+    userTypes = Arrays.copyOf(userTypes, capacity);
+    userIDs1 = Arrays.copyOf(userIDs1, capacity);
+    userIDs2 = Arrays.copyOf(userIDs2, capacity);
+    gameIDs = Arrays.copyOf(gameIDs, capacity);
+    credits = Arrays.copyOf(credits, capacity);
+    prices = Arrays.copyOf(prices, capacity);
+    discounts = Arrays.copyOf(discounts, capacity);
+  }
+
+  /**
+   * Query the number of records in the batch.
+   *
+   * @return the number of records.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Query the transaction code of a record.
+   *
+   * @param row the index of the record.
+   * @return the transaction code.
+   */
+  public int getCode(final int row) {
+    return codes[row];
+  }
+
+  /**
+   * Access an interned ID by symbol id.
+   *
+   * @param id the symbol id, or NONE.
+   * @return the ID, null for NONE.
+   */
+  private String symbol(final int id) {
+    return id == NONE ? null : symbols.symbol(id);
+  }
+
+  /**
+   * Query the 1st user argument of a record.
+   *
+   * @param row the index of the record.
+   * @return the user ID, null if absent.
+   */
+  public String getUserID1(final int row) {
+    return symbol(userIDs1[row]);
+  }
+
+  /**
+   * Query the 2nd user argument of a record.
+   *
+   * @param row the index of the record.
+   * @return the user ID, null if absent.
+   */
+  public String getUserID2(final int row) {
+    return symbol(userIDs2[row]);
+  }
+
+  /**
+   * Query the game argument of a record.
+   *
+   * @param row the index of the record.
+   * @return the game ID, null if absent.
+   */
+  public String getGameID(final int row) {
+    return symbol(gameIDs[row]);
+  }
+
+  /**
+   * Query the user type argument of a record.
+   *
+   * @param row the index of the record.
+   * @return the {@code UserType}, null if absent.
+   */
+  public User.UserType getUserType(final int row) {
+    return userTypes[row] == NONE ? null : User.UserType.values()[userTypes[row]];
+  }
+
+  /**
+   * Query the credit argument of a record.
+   *
+   * @param row the index of the record.
+   * @return the credit in cents.
+   */
+  public int getCredit(final int row) {
+    return credits[row];
+  }
+
+  /**
+   * Query the price argument of a record.
+   *
+   * @param row the index of the record.
+   * @return the price in cents.
+   */
+  public int getPrice(final int row) {
+    return prices[row];
+  }
+
+  /**
+   * Query the discount argument of a record.
+   *
+   * @param row the index of the record.
+   * @return the discount percentage.
+   */
+  public float getDiscount(final int row) {
+    return discounts[row] / 100.f;
+  }
+}
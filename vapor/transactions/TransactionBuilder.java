@@ -6,6 +6,7 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
+import vapor.SymbolTable;
 import vapor.exceptions.InvalidTransactionCodeException;
 import vapor.transactions.Transaction.TransactionType;
 import vapor.users.User;
@@ -14,6 +15,14 @@ import vapor.users.User;
  * A class to process the fields of a daily transaction file record.
  */
 public class TransactionBuilder {
+  /**
+   * The means by which a record is broken into its fields.
+   */
+  public enum ParseMode {
+    CURSOR, // single pass fixed-width {@code TransactionCursor}, decoding in place.
+    REGEX // reference {@code TransactionFieldSequence} regex, for differential testing.
+  }
+
   /**
    * Length and format information for transaction record elements.
    */
@@ -139,7 +148,13 @@ public class TransactionBuilder {
   // The character which delimits all fields.
   private static final String DELIMITER = " ";
   // The number of decimal places that appear after each numeric value.
-  private static final int DECIMALS = 2;
+  static final int DECIMALS = 2;
+
+  // Field widths shared with {@code TransactionCursor}.
+  static final int USER_ID_LENGTH = 15; // UUUUUUUUUUUUUUU
+  static final int GAME_ID_LENGTH = 25; // IIIIIIIIIIIIIIIIIIIIIIIII
+  static final int CREDIT_DIGITS = 6; // whole digits of CCCCCCCCC
+  static final int PRICE_DIGITS = 3; // whole digits of PPPPPP
 
   // A transaction code specifying a type of {@code Transaction}
   protected Transaction.TransactionType code;
@@ -163,8 +178,14 @@ public class TransactionBuilder {
   private final TransactionFieldSequence sequence;
   // The raw code from the daily transaction file
   protected final String rawTransaction;
-  // The matched fields.
+  // The means by which rawTransaction is broken into its fields.
+  private final ParseMode mode;
+  // The matched fields (REGEX mode).
   private final Matcher parsedFields;
+  // The decoded fields (CURSOR mode).
+  private final TransactionCursor cursor;
+  // The table in which user and game IDs are looked up, null if none.
+  private final SymbolTable symbols;
 
   private int groupID;
 
@@ -244,10 +265,69 @@ public class TransactionBuilder {
    *                                         a valid {@code Transaction}.
    */
   public TransactionBuilder(final String rawTransaction) throws InvalidTransactionCodeException {
+    this(rawTransaction, ParseMode.CURSOR, null);
+  }
+
+  /**
+   * Constructor for a new TransactionParser for the record provided, whose user
+   * and game IDs are the canonical instances of a {@code Market}'s
+   * {@code SymbolTable} where known there.
+   * 
+   * @param rawTransaction the record to be operated on.
+   * @param symbols        the table of the {@code Market} on which the
+   *                       {@code Transaction} is to be executed.
+   * @throws InvalidTransactionCodeException the record provided does not describe
+   *                                         a valid {@code Transaction}.
+   */
+  public TransactionBuilder(final String rawTransaction, final SymbolTable symbols)
+      throws InvalidTransactionCodeException {
+    this(rawTransaction, ParseMode.CURSOR, symbols);
+  }
+
+  /**
+   * Constructor for a new TransactionParser for the record provided, broken into
+   * its fields by the {@code ParseMode} given.
+   * 
+   * @param rawTransaction the record to be operated on.
+   * @param mode           the means by which to break the record into fields.
+   * @throws InvalidTransactionCodeException the record provided does not describe
+   *                                         a valid {@code Transaction}.
+   */
+  public TransactionBuilder(final String rawTransaction, final ParseMode mode)
+      throws InvalidTransactionCodeException {
+    this(rawTransaction, mode, null);
+  }
+
+  /**
+   * Constructor for a new TransactionParser for the record provided, broken into
+   * its fields by the {@code ParseMode} given.
+   * 
+   * @param rawTransaction the record to be operated on.
+   * @param mode           the means by which to break the record into fields.
+   * @param symbols        the table in which user and game IDs are looked up,
+   *                       null to leave them as parsed.
+   * @throws InvalidTransactionCodeException the record provided does not describe
+   *                                         a valid {@code Transaction}.
+   */
+  public TransactionBuilder(final String rawTransaction, final ParseMode mode, final SymbolTable symbols)
+      throws InvalidTransactionCodeException {
     this.groupID = 0;
 
     this.rawTransaction = rawTransaction;
 
+    this.mode = mode;
+
+    this.symbols = symbols;
+
+    if (mode == ParseMode.CURSOR) {
+      this.cursor = new TransactionCursor(symbols).read(rawTransaction);
+      this.sequence = cursor.getSequence();
+      this.parsedFields = null;
+      return;
+    }
+
+    this.cursor = null;
+
     this.sequence = TransactionFieldSequence.getSequence(rawTransaction);
 
     this.parsedFields = sequence.getFieldParser().matcher(rawTransaction);
@@ -255,6 +335,122 @@ public class TransactionBuilder {
       throw new InvalidTransactionCodeException();
   }
 
+  /**
+   * Constructor for a new TransactionBuilder whose fields are decoded by the
+   * caller rather than parsed from a record (e.g. from a binary log). Such a
+   * builder has no rawTransaction; its {@code Transaction}s render their record
+   * on demand.
+   * 
+   * @param code the transaction code of the record.
+   */
+  TransactionBuilder(final Transaction.TransactionType code) {
+    this.code = code;
+    this.rawTransaction = null;
+    this.mode = null;
+    this.sequence = code.getFormat();
+    this.parsedFields = null;
+    this.cursor = null;
+    this.symbols = null;
+  }
+
+  /**
+   * Render the fields of a record in the fixed-width daily transaction file
+   * format.
+   * 
+   * @param code     the transaction code.
+   * @param userID1  the 1st user argument.
+   * @param userID2  the 2nd user argument.
+   * @param gameID   the game argument.
+   * @param userType the user type argument.
+   * @param credit   the credit argument in cents.
+   * @param price    the price argument in cents.
+   * @param discount the discount argument as a percentage.
+   * @return the record as it would appear in a daily transaction file.
+   */
+  static String format(final Transaction.TransactionType code, final String userID1, final String userID2,
+      final String gameID, final User.UserType userType, final int credit, final int price, final float discount) {
+    final StringBuilder record = new StringBuilder(64);
+
+    appendDigits(record, code.getCode(), 2);
+
+    switch (code.getFormat()) {
+    case XUTC:
+      // XX UUUUUUUUUUUUUUU TT CCCCCCCCC
+      appendPadded(record.append(DELIMITER), userID1, USER_ID_LENGTH);
+      record.append(DELIMITER).append(userType == null ? "  " : userType.getUserTypeCode());
+      appendAmount(record.append(DELIMITER), credit, CREDIT_DIGITS);
+      break;
+    case XUSC:
+      // XX UUUUUUUUUUUUUUU SSSSSSSSSSSSSSS CCCCCCCCC
+      appendPadded(record.append(DELIMITER), userID1, USER_ID_LENGTH);
+      appendPadded(record.append(DELIMITER), userID2, USER_ID_LENGTH);
+      appendAmount(record.append(DELIMITER), credit, CREDIT_DIGITS);
+      break;
+    case XISDP:
+      // XX IIIIIIIIIIIIIIIIIIIIIIIII SSSSSSSSSSSSSSS DDDDD PPPPPP
+      appendPadded(record.append(DELIMITER), gameID, GAME_ID_LENGTH);
+      appendPadded(record.append(DELIMITER), userID1, USER_ID_LENGTH);
+      appendAmount(record.append(DELIMITER), Math.round(discount * 100), 2);
+      appendAmount(record.append(DELIMITER), price, PRICE_DIGITS);
+      break;
+    case XISU:
+      // XX IIIIIIIIIIIIIIIIIIIIIIIII SSSSSSSSSSSSSSS UUUUUUUUUUUUUUU
+    case XIUS:
+      // XX IIIIIIIIIIIIIIIIIIIIIIIII UUUUUUUUUUUUUUU SSSSSSSSSSSSSSS
+      appendPadded(record.append(DELIMITER), gameID, GAME_ID_LENGTH);
+      appendPadded(record.append(DELIMITER), userID1, USER_ID_LENGTH);
+      appendPadded(record.append(DELIMITER), userID2, USER_ID_LENGTH);
+      break;
+    }
+
+    return record.toString();
+  }
+
+  /**
+   * Append a value left-aligned and padded with spaces to a given width.
+   * 
+   * @param record the record being rendered.
+   * @param value  the value to be appended, null for blank.
+   * @param width  the width of the field.
+   */
+  private static void appendPadded(final StringBuilder record, final String value, final int width) {
+    final int start = record.length();
+
+    if (value != null)
+      record.append(value);
+
+    for (int i = record.length() - start; i < width; i++)
+      record.append(' ');
+  }
+
+  /**
+   * Append a non-negative value zero-padded to a given number of digits.
+   * 
+   * @param record the record being rendered.
+   * @param value  the value to be appended.
+   * @param digits the minimum number of digits.
+   */
+  private static void appendDigits(final StringBuilder record, final int value, final int digits) {
+    final String text = Integer.toString(value);
+
+    for (int i = text.length(); i < digits; i++)
+      record.append('0');
+
+    record.append(text);
+  }
+
+  /**
+   * Append an amount in hundredths as a W.DD decimal.
+   * 
+   * @param record      the record being rendered.
+   * @param value       the amount in hundredths.
+   * @param wholeDigits the number of digits before the decimal point.
+   */
+  private static void appendAmount(final StringBuilder record, final int value, final int wholeDigits) {
+    appendDigits(record, value / 100, wholeDigits);
+    appendDigits(record.append('.'), value % 100, DECIMALS);
+  }
+
   /**
    * Access the i-th field of the rawTransaction.
    * 
@@ -262,16 +458,82 @@ public class TransactionBuilder {
    * @return String representation of the cleaned field.
    */
   public String getField(final int index) {
+    if (mode == ParseMode.CURSOR)
+      return cursor.getText(index);
+    if (mode == null)
+      return null;
+
     return parsedFields.group(index).trim();
   }
 
+  /**
+   * Query the number of fields in the rawTransaction, as numbered by
+   * {@code getField}.
+   * 
+   * @return the number of fields.
+   */
+  public int getFieldCount() {
+    if (mode == ParseMode.CURSOR)
+      return cursor.getGroupCount();
+    if (mode == null)
+      return 0;
+
+    return parsedFields.groupCount();
+  }
+
+  /**
+   * Query the user type decoded by {@code parse}.
+   * 
+   * @return the {@code UserType}, null if the record has none.
+   */
+  public User.UserType getUserType() {
+    return userType;
+  }
+
+  /**
+   * Query the credit decoded by {@code parse}.
+   * 
+   * @return the credit in cents, 0 if the record has none.
+   */
+  public int getCredit() {
+    return credit;
+  }
+
+  /**
+   * Query the price decoded by {@code parse}.
+   * 
+   * @return the price in cents, 0 if the record has none.
+   */
+  public int getPrice() {
+    return price;
+  }
+
+  /**
+   * Query the discount decoded by {@code parse}.
+   * 
+   * @return the discount percentage, 0 if the record has none.
+   */
+  public float getDiscount() {
+    return discount;
+  }
+
+  /**
+   * Look up a user or game ID in the {@code SymbolTable}, if any.
+   * 
+   * @param id the ID parsed.
+   * @return the canonical instance of the ID if known, the ID itself otherwise.
+   */
+  private String canonical(final String id) {
+    return symbols == null ? id : symbols.canonical(id);
+  }
+
   /**
    * Grab the parsed userID1 from parsedFields and update userID1.
    * 
    * @return this TransactionBuilder for chaining.
    */
   public TransactionBuilder parseUserID1() {
-    userID1 = getField(groupID);
+    userID1 = canonical(getField(groupID));
 
     groupID += TransactionField.USER_ID.getNumGroups();
 
@@ -284,7 +546,7 @@ public class TransactionBuilder {
    * @return this TransactionBuilder for chaining.
    */
   public TransactionBuilder parseUserID2() {
-    userID2 = getField(groupID);
+    userID2 = canonical(getField(groupID));
 
     groupID += TransactionField.USER_ID.getNumGroups();
 
@@ -323,7 +585,7 @@ public class TransactionBuilder {
    * @return this TransactionBuilder for chaining.
    */
   public TransactionBuilder parseGameID() {
-    gameID = getField(groupID);
+    gameID = canonical(getField(groupID));
 
     groupID += TransactionField.GAME_ID.getNumGroups();
 
@@ -361,7 +623,7 @@ public class TransactionBuilder {
    * 
    * @return the {@code Transaction} specified by the record.
    */
-  private Transaction process() {
+  Transaction process() {
     switch (code) {
     case LOGIN:
       return new LoginTransaction(this);
@@ -391,6 +653,38 @@ public class TransactionBuilder {
     }
   }
 
+  /**
+   * Copy the fields already decoded by the {@code TransactionCursor} and generate
+   * a {@code Transaction} as specified.
+   * 
+   * @return the {@code Transaction} generated by the decoded components.
+   */
+  private Transaction parseFromCursor() {
+    code = cursor.getType();
+
+    userID1 = cursor.getSymbol(cursor.getUserID1Group());
+    userID2 = cursor.getSymbol(cursor.getUserID2Group());
+    gameID = cursor.getSymbol(cursor.getGameIDGroup());
+
+    switch (sequence) {
+    case XUTC:
+      userType = cursor.getUserType();
+      credit = cursor.getCredit();
+      break;
+    case XUSC:
+      credit = cursor.getCredit();
+      break;
+    case XISDP:
+      discount = cursor.getDiscount();
+      price = cursor.getPrice();
+      break;
+    default:
+      break;
+    }
+
+    return process();
+  }
+
   /**
    * Process rawTransaction and generate a {@code Transaction} as specified.
    * 
@@ -399,6 +693,9 @@ public class TransactionBuilder {
    *                                         a valid {@code Transaction}.
    */
   public Transaction parse() throws InvalidTransactionCodeException {
+    if (mode == ParseMode.CURSOR)
+      return parseFromCursor();
+
     groupID = 1;
 
     code = getCode();
@@ -0,0 +1,497 @@
+package vapor.transactions;
+
+import vapor.SymbolTable;
+import vapor.exceptions.InvalidTransactionCodeException;
+import vapor.transactions.Transaction.TransactionType;
+import vapor.transactions.TransactionBuilder.TransactionFieldSequence;
+import vapor.users.User;
+
+/**
+ * A single-pass reader over a fixed-width daily transaction file record.
+ *
+ * The cursor walks the record once, validating each field against the same
+ * rules as the regex formats in {@code TransactionBuilder} and decoding the
+ * transaction code, user type, credit, price and discount in place. Textual
+ * fields (user and game IDs) are kept as spans into the record so that callers
+ * only allocate the Strings they need.
+ */
+final class TransactionCursor {
+  // The most groups any {@code TransactionFieldSequence} produces (XISDP).
+  private static final int MAX_GROUPS = 8;
+
+  // The record currently being read.
+  private CharSequence record;
+  // Index of the next unread character in record.
+  private int position;
+
+  // Regex-compatible group spans; group 0 is the whole record.
+  private final int[] groupStarts = new int[MAX_GROUPS];
+  private final int[] groupEnds = new int[MAX_GROUPS];
+  private int groupCount;
+
+  // Decoded values of the record last read.
+  private TransactionType type;
+  private TransactionFieldSequence sequence;
+  private User.UserType userType;
+  private int credit;
+  private int price;
+  private int discountHundredths;
+
+  // Groups holding the textual fields of the record last read, -1 if absent.
+  private int userID1Group;
+  private int userID2Group;
+  private int gameIDGroup;
+
+  // The table in which user and game IDs are looked up, null if none.
+  private final SymbolTable symbols;
+
+  /**
+   * Create a new TransactionCursor.
+   *
+   * @param symbols the table in which user and game IDs are looked up, null to
+   *                leave them as read.
+   */
+  TransactionCursor(final SymbolTable symbols) {
+    this.symbols = symbols;
+  }
+
+  /**
+   * Read and validate a record, replacing any state from a previous record.
+   *
+   * @param record the record to be read.
+   * @return this {@code TransactionCursor} for querying.
+   * @throws InvalidTransactionCodeException the record provided does not describe
+   *                                         a valid {@code Transaction}.
+   */
+  TransactionCursor read(final CharSequence record) throws InvalidTransactionCodeException {
+    this.record = record;
+    position = 0;
+    groupCount = 1;
+    userType = null;
+    credit = 0;
+    price = 0;
+    discountHundredths = 0;
+    userID1Group = -1;
+    userID2Group = -1;
+    gameIDGroup = -1;
+
+    final int codeGroup = beginGroup();
+    final int code = digits(2);
+    endGroup(codeGroup);
+
+    type = TransactionType.getType(code);
+    if (type == null)
+      throw new InvalidTransactionCodeException();
+
+    sequence = type.getFormat();
+
+    switch (sequence) {
+    case XUTC:
+      // XX UUUUUUUUUUUUUUU TT CCCCCCCCC
+      userID1Group = identifier(TransactionBuilder.USER_ID_LENGTH, true);
+      delimiter();
+      userType();
+      delimiter();
+      credit = amount(TransactionBuilder.CREDIT_DIGITS);
+      break;
+
+    case XUSC:
+      // XX UUUUUUUUUUUUUUU SSSSSSSSSSSSSSS CCCCCCCCC
+      userID1Group = identifier(TransactionBuilder.USER_ID_LENGTH, true);
+      userID2Group = identifier(TransactionBuilder.USER_ID_LENGTH, true);
+      delimiter();
+      credit = amount(TransactionBuilder.CREDIT_DIGITS);
+      break;
+
+    case XISDP:
+      // XX IIIIIIIIIIIIIIIIIIIIIIIII SSSSSSSSSSSSSSS DDDDD PPPPPP
+      gameIDGroup = identifier(TransactionBuilder.GAME_ID_LENGTH, true);
+      userID1Group = identifier(TransactionBuilder.USER_ID_LENGTH, true);
+      delimiter();
+      discount();
+      delimiter();
+      price = amount(TransactionBuilder.PRICE_DIGITS);
+      break;
+
+    case XISU:
+      // XX IIIIIIIIIIIIIIIIIIIIIIIII SSSSSSSSSSSSSSS UUUUUUUUUUUUUUU
+      gameIDGroup = identifier(TransactionBuilder.GAME_ID_LENGTH, true);
+      userID1Group = identifier(TransactionBuilder.USER_ID_LENGTH, true);
+      userID2Group = identifier(TransactionBuilder.USER_ID_LENGTH, true);
+      break;
+
+    case XIUS:
+      // XX IIIIIIIIIIIIIIIIIIIIIIIII UUUUUUUUUUUUUUU SSSSSSSSSSSSSSS
+      gameIDGroup = identifier(TransactionBuilder.GAME_ID_LENGTH, true);
+      userID1Group = identifier(TransactionBuilder.USER_ID_LENGTH, true);
+      userID2Group = identifier(TransactionBuilder.USER_ID_LENGTH, false);
+      break;
+
+    default:
+      throw new InvalidTransactionCodeException();
+    }
+
+    if (position != record.length())
+      throw new InvalidTransactionCodeException();
+
+    groupStarts[0] = 0;
+    groupEnds[0] = position;
+
+    return this;
+  }
+
+  /**
+   * Open a new regex-compatible group at the current position.
+   *
+   * @return the index of the new group.
+   */
+  private int beginGroup() {
+    groupStarts[groupCount] = position;
+    return groupCount++;
+  }
+
+  /**
+   * Close a group at the current position.
+   *
+   * @param group the index of the group to be closed.
+   */
+  private void endGroup(final int group) {
+    groupEnds[group] = position;
+  }
+
+  /**
+   * Consume a single field delimiter.
+   *
+   * @throws InvalidTransactionCodeException the next character is not a
+   *                                         delimiter.
+   */
+  private void delimiter() throws InvalidTransactionCodeException {
+    if (position >= record.length() || record.charAt(position) != ' ')
+      throw new InvalidTransactionCodeException();
+
+    position++;
+  }
+
+  /**
+   * Consume a fixed number of ASCII digits and return their value.
+   *
+   * @param count the number of digits to consume.
+   * @return the decimal value of the digits.
+   * @throws InvalidTransactionCodeException the record does not hold enough
+   *                                         digits.
+   */
+  private int digits(final int count) throws InvalidTransactionCodeException {
+    if (position + count > record.length())
+      throw new InvalidTransactionCodeException();
+
+    int value = 0;
+    for (int i = 0; i < count; i++) {
+      final char c = record.charAt(position++);
+      if (c < '0' || c > '9')
+        throw new InvalidTransactionCodeException();
+      value = value * 10 + (c - '0');
+    }
+
+    return value;
+  }
+
+  /**
+   * Consume a single character that is legal within a textual field.
+   *
+   * Characters are counted the way {@code java.util.regex} counts them, so a
+   * surrogate pair counts as one.
+   *
+   * @param leading whether the character must also be non-whitespace.
+   * @throws InvalidTransactionCodeException the character is not legal.
+   */
+  private void identifierChar(final boolean leading) throws InvalidTransactionCodeException {
+    if (position >= record.length())
+      throw new InvalidTransactionCodeException();
+
+    final char c = record.charAt(position++);
+    if (leading ? isRegexWhitespace(c) : isRegexLineTerminator(c))
+      throw new InvalidTransactionCodeException();
+
+    if (Character.isHighSurrogate(c) && position < record.length()
+        && Character.isLowSurrogate(record.charAt(position)))
+      position++;
+  }
+
+  /**
+   * Consume a delimiter followed by a fixed-width textual field.
+   *
+   * @param length   the width of the field in characters.
+   * @param required whether the field must start with a non-whitespace
+   *                 character.
+   * @return the group holding the field.
+   * @throws InvalidTransactionCodeException the field is malformed.
+   */
+  private int identifier(final int length, final boolean required) throws InvalidTransactionCodeException {
+    delimiter();
+
+    final int group = beginGroup();
+    identifierChar(required);
+    for (int i = 1; i < length; i++)
+      identifierChar(false);
+    endGroup(group);
+
+    return group;
+  }
+
+  /**
+   * Consume a two-letter {@code UserType} code.
+   *
+   * @throws InvalidTransactionCodeException the code is not a valid
+   *                                         {@code UserType}.
+   */
+  private void userType() throws InvalidTransactionCodeException {
+    if (position + 2 > record.length())
+      throw new InvalidTransactionCodeException();
+
+    final int group = beginGroup();
+    final char first = record.charAt(position++);
+    final char second = record.charAt(position++);
+    endGroup(group);
+
+    if (first == 'A' && second == 'A')
+      userType = User.UserType.ADMIN;
+    else if (first == 'B' && second == 'S')
+      userType = User.UserType.BUYER;
+    else if (first == 'S' && second == 'S')
+      userType = User.UserType.SELLER;
+    else if (first == 'F' && second == 'S')
+      userType = User.UserType.FULL;
+    else
+      throw new InvalidTransactionCodeException();
+  }
+
+  /**
+   * Consume a monetary amount of the form W.DD as an integer count of cents.
+   *
+   * @param wholeDigits the number of digits before the decimal point.
+   * @return the amount in cents.
+   * @throws InvalidTransactionCodeException the amount is malformed.
+   */
+  private int amount(final int wholeDigits) throws InvalidTransactionCodeException {
+    final int group = beginGroup();
+    final int wholeGroup = beginGroup();
+    final int whole = digits(wholeDigits);
+    endGroup(wholeGroup);
+
+    if (position >= record.length() || record.charAt(position) != '.')
+      throw new InvalidTransactionCodeException();
+    position++;
+
+    final int decimalGroup = beginGroup();
+    final int decimal = digits(TransactionBuilder.DECIMALS);
+    endGroup(decimalGroup);
+    endGroup(group);
+
+    return whole * 100 + decimal;
+  }
+
+  /**
+   * Consume a discount percentage of the form DD.DD.
+   *
+   * @throws InvalidTransactionCodeException the discount is malformed.
+   */
+  private void discount() throws InvalidTransactionCodeException {
+    final int group = beginGroup();
+    final int whole = digits(2);
+
+    if (position >= record.length() || record.charAt(position) != '.')
+      throw new InvalidTransactionCodeException();
+    position++;
+
+    discountHundredths = whole * 100 + digits(TransactionBuilder.DECIMALS);
+    endGroup(group);
+  }
+
+  /**
+   * Query whether a character is whitespace as far as the regex {@code \s} class
+   * is concerned.
+   *
+   * @param c the character to be checked.
+   * @return true if {@code \S} would reject the character.
+   */
+  private static boolean isRegexWhitespace(final char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+  }
+
+  /**
+   * Query whether a character is a line terminator that the regex {@code .} does
+   * not match.
+   *
+   * @param c the character to be checked.
+   * @return true if {@code .} would reject the character.
+   */
+  private static boolean isRegexLineTerminator(final char c) {
+    return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+  }
+
+  /**
+   * Query the number of regex-compatible groups in the record last read.
+   *
+   * @return the number of groups, excluding group 0.
+   */
+  int getGroupCount() {
+    return groupCount - 1;
+  }
+
+  /**
+   * Query the start of a group in the record last read.
+   *
+   * @param group the group to be queried.
+   * @return the index of the first character of the group.
+   */
+  int getGroupStart(final int group) {
+    return groupStarts[group];
+  }
+
+  /**
+   * Query the end of a group in the record last read.
+   *
+   * @param group the group to be queried.
+   * @return the index after the last character of the group.
+   */
+  int getGroupEnd(final int group) {
+    return groupEnds[group];
+  }
+
+  /**
+   * Access a group of the record last read, trimmed as {@code String.trim}
+   * would.
+   *
+   * @param group the group to be accessed, -1 for an absent field.
+   * @return the trimmed contents of the group, null if absent.
+   */
+  String getText(final int group) {
+    if (group < 0)
+      return null;
+
+    int start = groupStarts[group];
+    int end = groupEnds[group];
+
+    while (start < end && record.charAt(start) <= ' ')
+      start++;
+    while (end > start && record.charAt(end - 1) <= ' ')
+      end--;
+
+    return record.subSequence(start, end).toString();
+  }
+
+  /**
+   * Access a user or game ID of the record last read, trimmed as
+   * {@code getText} would, as its canonical instance in the cursor's
+   * {@code SymbolTable} if it is known there. No String is allocated for a
+   * known ID, and an unknown one is not added.
+   *
+   * @param group the group to be accessed, -1 for an absent field.
+   * @return the trimmed contents of the group, null if absent.
+   */
+  String getSymbol(final int group) {
+    if (group < 0)
+      return null;
+
+    int start = groupStarts[group];
+    int end = groupEnds[group];
+
+    while (start < end && record.charAt(start) <= ' ')
+      start++;
+    while (end > start && record.charAt(end - 1) <= ' ')
+      end--;
+
+    return symbols == null ? record.subSequence(start, end).toString() : symbols.canonical(record, start, end);
+  }
+
+  /**
+   * Query the {@code TransactionType} of the record last read.
+   *
+   * @return the {@code TransactionType}.
+   */
+  TransactionType getType() {
+    return type;
+  }
+
+  /**
+   * Query the {@code TransactionFieldSequence} of the record last read.
+   *
+   * @return the {@code TransactionFieldSequence}.
+   */
+  TransactionFieldSequence getSequence() {
+    return sequence;
+  }
+
+  /**
+   * Query the {@code UserType} of the record last read.
+   *
+   * @return the {@code UserType}, null if the record holds none.
+   */
+  User.UserType getUserType() {
+    return userType;
+  }
+
+  /**
+   * Query the credit of the record last read.
+   *
+   * @return the credit in cents.
+   */
+  int getCredit() {
+    return credit;
+  }
+
+  /**
+   * Query the price of the record last read.
+   *
+   * @return the price in cents.
+   */
+  int getPrice() {
+    return price;
+  }
+
+  /**
+   * Query the discount of the record last read.
+   *
+   * @return the discount percentage in hundredths of a percent.
+   */
+  int getDiscountHundredths() {
+    return discountHundredths;
+  }
+
+  /**
+   * Query the discount of the record last read.
+   *
+   * @return the discount percentage, exactly as {@code Float.parseFloat} would
+   *         read it.
+   */
+  float getDiscount() {
+    return discountHundredths / 100.f;
+  }
+
+  /**
+   * Query the group holding the 1st user argument of the record last read.
+   *
+   * @return the group index, -1 if absent.
+   */
+  int getUserID1Group() {
+    return userID1Group;
+  }
+
+  /**
+   * Query the group holding the 2nd user argument of the record last read.
+   *
+   * @return the group index, -1 if absent.
+   */
+  int getUserID2Group() {
+    return userID2Group;
+  }
+
+  /**
+   * Query the group holding the game argument of the record last read.
+   *
+   * @return the group index, -1 if absent.
+   */
+  int getGameIDGroup() {
+    return gameIDGroup;
+  }
+}
@@ -11,6 +11,8 @@ import vapor.exceptions.MultipleCopyException;
  * A subclass class of the abstract User class.
  */
 public class AdminUser extends User implements Buyer, Seller {
+  private static final long serialVersionUID = -4924655459672724312L;
+
   // Houses functionality related to purchase of games to prevent duplication
   private final BuyerComponent buyer;
   // Houses functionality related to sale of games to prevent duplication
@@ -12,6 +12,8 @@ import vapor.exceptions.MultipleCopyException;
  * duplication across {@code Buyer}s.
  */
 public class BuyerComponent implements Serializable {
+  private static final long serialVersionUID = -3277500853251116386L;
+
   private final User buyer; // The {@code Buyer} to charge for charge for purchases / credit for refunds.
   private final Inventory inventory; // The {@code Inventory} to query for {@code Game}s.
 
@@ -10,6 +10,8 @@ import vapor.exceptions.MultipleCopyException;
  */
 
 public class BuyerUser extends User implements Buyer {
+  private static final long serialVersionUID = 4133113969602106540L;
+
   // Houses functionality related to purchase of games to prevent duplication
   private final BuyerComponent buyer;
 
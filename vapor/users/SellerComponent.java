@@ -13,6 +13,8 @@ import vapor.exceptions.MultipleCopyException;
  * duplication across {@code Seller}s.
  */
 public class SellerComponent implements Serializable {
+  private static final long serialVersionUID = -3405069228970464931L;
+
   private final User seller; // The {@code Seller} to credit for sales / charge for refunds.
   private final StoreFront storeFront; // The {@code StoreFront} to query for {@code Listing}s.
 
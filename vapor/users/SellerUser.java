@@ -10,6 +10,8 @@ import vapor.exceptions.MultipleCopyException;
  * User that can sell games on Vapor. A subclass of the abstract User class.
  */
 public class SellerUser extends User implements Seller {
+  private static final long serialVersionUID = -7177793118037078407L;
+
   // Houses functionality related to sale of games to prevent duplication
   private final SellerComponent seller;
 
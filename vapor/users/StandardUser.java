@@ -13,6 +13,8 @@ import vapor.exceptions.MultipleCopyException;
  */
 
 public class StandardUser extends User implements Buyer, Seller {
+  private static final long serialVersionUID = 7841762339209064861L;
+
   // Houses functionality related to purchase of games to prevent duplication
   private final BuyerComponent buyer;
   // Houses functionality related to sale of games to prevent duplication
@@ -1,10 +1,13 @@
 package vapor.users;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 
+import vapor.BalanceTable;
 import vapor.EndOfDay;
 import vapor.exceptions.InsufficientFundsException;
 import vapor.exceptions.MaxDailyCreditException;
@@ -14,6 +17,8 @@ import vapor.exceptions.MaxDailyCreditException;
  * users and admin users. Parent class to standard and admin user subclasses.
  */
 public abstract class User implements Serializable, EndOfDay {
+  private static final long serialVersionUID = 5683167032421082017L;
+
   /**
    * A set of enumerated elements corresponding to different types of user
    * accounts, as well as their codes as per specification
@@ -80,10 +85,19 @@ public abstract class User implements Serializable, EndOfDay {
   private static final int MAX_CREDIT = 99999999;
   private static final int MAX_DAILY = 100000;
 
+  // Balances, held here only while not attached to a {@code BalanceTable}.
   private int credit;
   private int dailyCreditAvailability;
-  private final String username;
+  // The market day on which dailyCreditAvailability was last set.
+  private int creditDay;
+  private String username; // canonical instance once attached to a {@code BalanceTable}.
   private final UserType userType;
+  // Whether this {@code User} changed since it was last saved to a snapshot.
+  private transient boolean dirty = true;
+  // The table holding this {@code User}'s balances, null if held in its fields.
+  private transient BalanceTable balances;
+  // The row of this {@code User}'s balances in {@code balances}.
+  private transient int row;
 
   /**
    * Create a new {@code User} with the given information.
@@ -105,15 +119,16 @@ public abstract class User implements Serializable, EndOfDay {
    * @param credit amount to be credited to user balance.
    * @return amount added to the user's balance.
    */
-  public int forceAddCredit(int credit) {
-    final int space = MAX_CREDIT - this.credit;
-
-    if (credit > space)
-      credit = space;
-
-    this.credit += credit;
+  public int forceAddCredit(final int credit) {
+    int current;
+    int added;
+    do {
+      current = getCredit();
+      added = Math.min(credit, MAX_CREDIT - current);
+    } while (!compareAndSetCredit(current, current + added));
+    dirty = true;
 
-    return credit;
+    return added;
   }
 
   /**
@@ -125,12 +140,14 @@ public abstract class User implements Serializable, EndOfDay {
    *                                 permissible in a day
    */
   public int addCredit(final int credit) throws MaxDailyCreditException {
-    if (credit > dailyCreditAvailability)
-      throw new MaxDailyCreditException(credit, dailyCreditAvailability);
+    final int allowance = getDailyCreditAvailability();
+    if (credit > allowance)
+      throw new MaxDailyCreditException(credit, allowance);
 
     final int credited = forceAddCredit(credit);
 
-    dailyCreditAvailability -= credited;
+    setDailyCreditAvailability(allowance - credited);
+    dirty = true;
 
     return credited;
   }
@@ -141,7 +158,135 @@ public abstract class User implements Serializable, EndOfDay {
    * @return the amount of credit.
    */
   public int getCredit() {
-    return credit;
+    return balances == null ? credit : balances.getCredit(row);
+  }
+
+  /**
+   * Set this {@code User}'s credit atomically, wherever its balances are held,
+   * if it has an expected credit, so that concurrent charges and credits are
+   * not lost.
+   * 
+   * @param expected the amount of credit expected.
+   * @param credit   the new amount of credit.
+   * @return true if the credit was set, false if it had changed.
+   */
+  private boolean compareAndSetCredit(final int expected, final int credit) {
+    final BalanceTable balances = this.balances;
+    if (balances != null)
+      return balances.compareAndSetCredit(row, expected, credit);
+
+    synchronized (this) {
+      if (this.credit != expected)
+        return false;
+
+      this.credit = credit;
+      return true;
+    }
+  }
+
+  /**
+   * Query how much more credit this {@code User} may add today. An allowance
+   * last set on an earlier day of the {@code BalanceTable} holding it has been
+   * restored in full.
+   * 
+   * @return the remaining daily credit allowance.
+   */
+  public int getDailyCreditAvailability() {
+    if (balances == null)
+      return dailyCreditAvailability;
+
+    return balances.getCreditDay(row) == balances.getDay() ? balances.getAllowance(row) : MAX_DAILY;
+  }
+
+  /**
+   * Set how much more credit this {@code User} may add today, wherever its
+   * balances are held, stamping it with the day.
+   * 
+   * @param dailyCreditAvailability the remaining daily credit allowance.
+   */
+  private void setDailyCreditAvailability(final int dailyCreditAvailability) {
+    if (balances == null) {
+      this.dailyCreditAvailability = dailyCreditAvailability;
+    } else {
+      balances.setAllowance(row, dailyCreditAvailability);
+      balances.setCreditDay(row, balances.getDay());
+    }
+  }
+
+  /**
+   * Query the market day on which this {@code User}'s daily credit allowance was
+   * last set.
+   * 
+   * @return the day.
+   */
+  public int getCreditDay() {
+    return balances == null ? creditDay : balances.getCreditDay(row);
+  }
+
+  /**
+   * Restore the market day on which this {@code User}'s daily credit allowance
+   * was last set, as loaded from a market snapshot.
+   * 
+   * @param creditDay the day.
+   */
+  public void restoreCreditDay(final int creditDay) {
+    if (balances == null)
+      this.creditDay = creditDay;
+    else
+      balances.setCreditDay(row, creditDay);
+  }
+
+  /**
+   * Restore the remaining daily credit allowance of a {@code User} loaded from a
+   * market snapshot.
+   * 
+   * @param dailyCreditAvailability the remaining daily credit allowance.
+   */
+  public void restoreDailyCreditAvailability(final int dailyCreditAvailability) {
+    setDailyCreditAvailability(dailyCreditAvailability);
+  }
+
+  /**
+   * Move this {@code User}'s balances into a {@code BalanceTable}, which then
+   * holds them, taking them back from any other table first. The username is
+   * replaced with its canonical instance in the table's {@code SymbolTable}.
+   * 
+   * @param balances the table to hold the balances.
+   */
+  public void attachBalances(final BalanceTable balances) {
+    if (this.balances == balances)
+      return;
+
+    detachBalances();
+    username = balances.getSymbols().intern(username);
+    row = balances.attach(username, credit, dailyCreditAvailability, creditDay);
+    this.balances = balances;
+  }
+
+  /**
+   * Take this {@code User}'s balances back from the {@code BalanceTable} holding
+   * them, if any, clearing its row.
+   */
+  public void detachBalances() {
+    if (balances == null)
+      return;
+
+    credit = balances.getCredit(row);
+    dailyCreditAvailability = getDailyCreditAvailability();
+    creditDay = balances.getDay();
+    balances.detach(row);
+    balances = null;
+  }
+
+  /**
+   * Query whether this {@code User}'s balances are held by a
+   * {@code BalanceTable}.
+   * 
+   * @param balances the table to be queried.
+   * @return true if the table holds the balances, false otherwise.
+   */
+  public boolean isAttached(final BalanceTable balances) {
+    return this.balances == balances;
   }
 
   /**
@@ -153,10 +298,15 @@ public abstract class User implements Serializable, EndOfDay {
    *                                    credit.
    */
   public int charge(final int price) throws InsufficientFundsException {
-    if (price > credit)
-      throw new InsufficientFundsException(price, credit);
+    int current;
+    do {
+      current = getCredit();
+      if (price > current)
+        throw new InsufficientFundsException(price, current);
+    } while (!compareAndSetCredit(current, current - price));
+    dirty = true;
 
-    return credit -= price;
+    return current - price;
   }
 
   /**
@@ -182,6 +332,42 @@ public abstract class User implements Serializable, EndOfDay {
    * reset the daily addCredit limit.
    */
   public void endDay() {
-    dailyCreditAvailability = MAX_DAILY;
+    if (getDailyCreditAvailability() != MAX_DAILY)
+      dirty = true;
+
+    setDailyCreditAvailability(MAX_DAILY);
+  }
+
+  /**
+   * Query whether this {@code User}'s credit or allowance changed since it was
+   * created, loaded or last saved. Its {@code Catalogue}s track their own
+   * changes.
+   * 
+   * @return true if changed, false otherwise.
+   */
+  public boolean isDirty() {
+    return dirty;
+  }
+
+  /**
+   * Record that this {@code User} has been loaded from or saved to a snapshot.
+   */
+  public void markClean() {
+    dirty = false;
+  }
+
+  /**
+   * Serialize this {@code User}, first copying its balances into its fields if a
+   * {@code BalanceTable} holds them.
+   *
+   * @param output the stream to which this {@code User} is written.
+   * @throws IOException the stream could not be written.
+   */
+  private void writeObject(final ObjectOutputStream output) throws IOException {
+    credit = getCredit();
+    dailyCreditAvailability = getDailyCreditAvailability();
+    creditDay = getCreditDay();
+
+    output.defaultWriteObject();
   }
 }